@@ -186,7 +186,7 @@ public class EntrezGeneIdResolverFactory extends IdResolverFactory
                 File f = new File(resolverFileName);
                 if (f.exists()) {
                     createFromFile(f, taxonIds);
-                    resolver.writeToFile(new File(idResolverCachedFileName));
+                    resolver.writeToCacheFile(new File(idResolverCachedFileName));
                 } else {
                     LOG.warn("Resolver file does not exist: " + resolverFileName);
                 }
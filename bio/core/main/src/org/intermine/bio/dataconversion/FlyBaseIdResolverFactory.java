@@ -84,7 +84,7 @@ public class FlyBaseIdResolverFactory extends IdResolverFactory
                 LOG.info("Creating id resolver from database and caching id resolver to file: "
                         + idResolverCachedFileName);
                 createFromDb(clsCol, DatabaseFactory.getDatabase(propName));
-                resolver.writeToFile(new File(idResolverCachedFileName));
+                resolver.writeToCacheFile(new File(idResolverCachedFileName));
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -114,7 +114,7 @@ public class FlyBaseIdResolverFactory extends IdResolverFactory
                     LOG.info("Query from database for: " + existedClsSet
                             + " and caching id resolver to file.");
                     createFromDb(existedClsSet, DatabaseFactory.getDatabase(propName));
-                    resolver.writeToFile(f);
+                    resolver.writeToCacheFile(f);
                 }
                 return true;
             }
@@ -11,6 +11,7 @@ package org.intermine.bio.dataconversion;
  */
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,6 +27,7 @@ import java.util.Set;
 import org.apache.log4j.Logger;
 import org.intermine.bio.io.gff3.GFF3Parser;
 import org.intermine.bio.io.gff3.GFF3Record;
+import org.intermine.bio.io.gff3.ParallelGFF3Reader;
 import org.intermine.bio.util.BioConverterUtil;
 import org.intermine.dataconversion.DataConverter;
 import org.intermine.dataconversion.ItemWriter;
@@ -230,6 +232,27 @@ public class GFF3Converter extends DataConverter
      * @throws ObjectStoreException if an error occurs storing items
      */
     public void parse(BufferedReader bReader)  throws IOException, ObjectStoreException {
+        parse(GFF3Parser.parse(bReader));
+    }
+
+    /**
+     * Parse a GFF3 file in several threads and process its records.  The records are processed
+     * one at a time in the order they appear in the file, as parse(BufferedReader) does.
+     * @param file the GFF3 file, in UTF-8
+     * @param threads the number of threads to parse with
+     * @throws java.io.IOException if an error occurs reading GFF
+     * @throws ObjectStoreException if an error occurs storing items
+     */
+    public void parse(File file, int threads) throws IOException, ObjectStoreException {
+        ParallelGFF3Reader reader = GFF3Parser.parse(file, threads);
+        try {
+            parse(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void parse(Iterator<?> records) throws ObjectStoreException {
         GFF3Record record;
         long start, now, opCount;
 
@@ -238,8 +261,8 @@ public class GFF3Converter extends DataConverter
         boolean duplicates = false;
         Set<String> processedIds = new HashSet<String>();
         Set<String> duplicatedIds = new HashSet<String>();
-        for (Iterator<?> i = GFF3Parser.parse(bReader); i.hasNext();) {
-            record = (GFF3Record) i.next();
+        while (records.hasNext()) {
+            record = (GFF3Record) records.next();
 
             // we only care about dupes if we are NOT creating locations
             if (processedIds.contains(record.getId()) && dontCreateLocations) {
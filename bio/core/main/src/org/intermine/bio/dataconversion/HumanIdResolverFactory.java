@@ -78,7 +78,7 @@ public class HumanIdResolverFactory extends IdResolverFactory
                 File f = new File(resolverFileName);
                 if (f.exists()) {
                     createFromFile(f);
-                    resolver.writeToFile(new File(idResolverCachedFileName));
+                    resolver.writeToCacheFile(new File(idResolverCachedFileName));
                 } else {
                     LOG.warn("Resolver file does not exist: " + resolverFileName);
                 }
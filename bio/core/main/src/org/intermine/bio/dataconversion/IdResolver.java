@@ -122,13 +122,15 @@ public class IdResolver
         if (isPrimaryIdentifier(taxonId, className, id)) {
             return Collections.singleton(id);
         }
-        if (orgMainMaps.containsKey(new MultiKey(taxonId, className))
-            && orgMainMaps.get(new MultiKey(taxonId, className)).containsKey(id)) {
-            return orgMainMaps.get(new MultiKey(taxonId, className)).get(id);
+        MultiKey key = new MultiKey(taxonId, className);
+        Map<String, Set<String>> mainMap = orgMainMaps.get(key);
+        Set<String> resolved = (mainMap == null) ? null : mainMap.get(id);
+        if (resolved == null) {
+            Map<String, Set<String>> synMap = orgSynMaps.get(key);
+            resolved = (synMap == null) ? null : synMap.get(id);
         }
-        if (orgSynMaps.containsKey(new MultiKey(taxonId, className))
-            && orgSynMaps.get(new MultiKey(taxonId, className)).containsKey(id)) {
-            return orgSynMaps.get(new MultiKey(taxonId, className)).get(id);
+        if (resolved != null) {
+            return resolved;
         }
         return Collections.emptySet();
     }
@@ -447,41 +449,20 @@ public class IdResolver
     */
     protected void addEntry(String taxonId, String className, String primaryIdentifier,
             Collection<String> ids, Boolean mainId) {
-        Map<String, Set<String>> idMap = orgIdMaps.get(new MultiKey(taxonId, className));
-        if (idMap == null) {
-            idMap = new LinkedHashMap<String, Set<String>>();
-            orgIdMaps.put(new MultiKey(taxonId, className), idMap);
-        }
+        MultiKey key = new MultiKey(taxonId, className);
+        Map<String, Set<String>> idMap = getMutableMap(orgIdMaps, key);
 
         addToMapList(idMap, primaryIdentifier, ids);
 
         Map<String, Set<String>> lookupMap = null;
         Map<String, Set<String>> reverseMap = null;
         if (mainId.booleanValue()) {
-            lookupMap = orgMainMaps.get(new MultiKey(taxonId, className));
-            if (lookupMap == null) {
-                lookupMap = new HashMap<String, Set<String>>();
-                orgMainMaps.put(new MultiKey(taxonId, className), lookupMap);
-            }
-
-            reverseMap = orgIdMainMaps.get(new MultiKey(taxonId, className));
-            if (reverseMap == null) {
-                reverseMap = new LinkedHashMap<String, Set<String>>();
-                orgIdMainMaps.put(new MultiKey(taxonId, className), reverseMap);
-            }
+            lookupMap = getMutableMap(orgMainMaps, key);
+            reverseMap = getMutableMap(orgIdMainMaps, key);
         } else {
             // these ids are synonyms
-            lookupMap = orgSynMaps.get(new MultiKey(taxonId, className));
-            if (lookupMap == null) {
-                lookupMap = new LinkedHashMap<String, Set<String>>();
-                orgSynMaps.put(new MultiKey(taxonId, className), lookupMap);
-            }
-
-            reverseMap = orgIdSynMaps.get(new MultiKey(taxonId, className));
-            if (reverseMap == null) {
-                reverseMap = new LinkedHashMap<String, Set<String>>();
-                orgIdSynMaps.put(new MultiKey(taxonId, className), reverseMap);
-            }
+            lookupMap = getMutableMap(orgSynMaps, key);
+            reverseMap = getMutableMap(orgIdSynMaps, key);
         }
 
         // map from primaryId back to main/synonym ids
@@ -551,11 +532,27 @@ public class IdResolver
 
 
     /**
-     * Read contents of an IdResolver from file, allows for caching during a build.
+     * Write IdResolver contents to a binary cache file, which populateFromFile() maps into memory
+     * instead of parsing. The whole file is replaced.
+     * @param f the file to write to
+     * @throws IOException if fail to write
+     */
+    public void writeToCacheFile(File f) throws IOException {
+        LOG.info("Writing id resolver to cache file: " + f.getName());
+        IdResolverCache.write(this, f);
+    }
+
+    /**
+     * Read contents of an IdResolver from file, allows for caching during a build. The file may
+     * be a binary cache file or the text written by writeToFile().
      * @param f the file to read from
      * @throws IOException if problem reading from file
      */
     public void populateFromFile(File f) throws IOException {
+        if (IdResolverCache.isCacheFile(f)) {
+            populateFromCache(IdResolverCache.open(f));
+            return;
+        }
         BufferedReader reader = new BufferedReader(new FileReader(f));
         String line = null;
         LOG.info("populating from file: " + f.getAbsolutePath());
@@ -587,6 +584,61 @@ public class IdResolver
         reader.close();
     }
 
+    /**
+     * Add the contents of a binary cache file. Its maps are read in place, not copied, unless
+     * there are already entries for the same taxon and class that have not been read from a cache
+     * file, in which case the entries are added to those.
+     * @param cache the cache file
+     */
+    protected void populateFromCache(IdResolverCache cache) {
+        for (IdResolverCache.CompactIdMap map : cache.getMaps()) {
+            Map<MultiKey, Map<String, Set<String>>> maps = getMaps(map.getKind());
+            MultiKey key = map.getKey();
+            Map<String, Set<String>> existing = maps.get(key);
+            if (existing == null || existing instanceof IdResolverCache.CompactIdMap) {
+                maps.put(key, map);
+            } else {
+                for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+                    addToMapList(existing, entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    private Map<MultiKey, Map<String, Set<String>>> getMaps(int kind) {
+        switch (kind) {
+            case IdResolverCache.ID_MAP:
+                return orgIdMaps;
+            case IdResolverCache.MAIN_MAP:
+                return orgMainMaps;
+            case IdResolverCache.SYN_MAP:
+                return orgSynMaps;
+            case IdResolverCache.ID_MAIN_MAP:
+                return orgIdMainMaps;
+            case IdResolverCache.ID_SYN_MAP:
+                return orgIdSynMaps;
+            default:
+                throw new IllegalArgumentException("Unknown kind of map: " + kind);
+        }
+    }
+
+    // get the map for a taxon and class to add entries to, copying a map read from a cache file
+    private static Map<String, Set<String>> getMutableMap(
+            Map<MultiKey, Map<String, Set<String>>> maps, MultiKey key) {
+        Map<String, Set<String>> map = maps.get(key);
+        if (map == null || map instanceof IdResolverCache.CompactIdMap) {
+            Map<String, Set<String>> copy = new LinkedHashMap<String, Set<String>>();
+            if (map != null) {
+                for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+                    copy.put(entry.getKey(), new LinkedHashSet<String>(entry.getValue()));
+                }
+            }
+            maps.put(key, copy);
+            map = copy;
+        }
+        return map;
+    }
+
     // TODO populate part from file with given taxons and classes, what if there
     // are some data nonexists? Maybe not a good idea...
 
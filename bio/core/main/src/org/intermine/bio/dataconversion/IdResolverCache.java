@@ -0,0 +1,480 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.apache.log4j.Logger;
+
+/**
+ * The binary cache file of an IdResolver, and the read-only maps that read it in place.
+ *
+ * Every distinct string - taxon ids, class names, identifiers and synonyms - is stored once, in a
+ * table with a hash index. Each of the IdResolver maps for a taxon and class is stored as an array
+ * of key string numbers, in their original order, with a list of value string numbers for each
+ * key and an index of the keys sorted by number for lookups.
+ *
+ * The file is memory mapped rather than read, so opening it only reads the list of maps, and the
+ * pages are shared by every process that opens the same file. Strings are only decoded when they
+ * are returned.
+ *
+ * @author intermine
+ */
+public final class IdResolverCache
+{
+    private static final Logger LOG = Logger.getLogger(IdResolverCache.class);
+
+    private static final int MAGIC = 0x494d4944; // "IMID"
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The order in which the five maps of an IdResolver are stored for each taxon and class. **/
+    static final int ID_MAP = 0;
+    static final int MAIN_MAP = 1;
+    static final int SYN_MAP = 2;
+    static final int ID_MAIN_MAP = 3;
+    static final int ID_SYN_MAP = 4;
+
+    private final ByteBuffer stringData;
+    private final IntBuffer stringOffsets;
+    private final IntBuffer stringIndex;
+    private final int stringCount;
+    private final List<CompactIdMap> maps = new ArrayList<CompactIdMap>();
+
+    private IdResolverCache(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not an id resolver cache file");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Id resolver cache file version " + version
+                    + " is not supported, expected " + VERSION);
+        }
+        stringCount = buffer.getInt();
+        stringOffsets = intSlice(buffer, stringCount + 1);
+        int indexSize = buffer.getInt();
+        stringIndex = intSlice(buffer, indexSize);
+        int dataLength = stringOffsets.get(stringCount);
+        ByteBuffer data = buffer.slice();
+        data.limit(dataLength);
+        stringData = data.slice();
+        buffer.position(buffer.position() + ((dataLength + 3) & ~3));
+        int mapCount = buffer.getInt();
+        for (int i = 0; i < mapCount; i++) {
+            String taxonId = getString(buffer.getInt());
+            String className = getString(buffer.getInt());
+            int kind = buffer.getInt();
+            int keyCount = buffer.getInt();
+            IntBuffer keys = intSlice(buffer, keyCount);
+            IntBuffer postingOffsets = intSlice(buffer, keyCount + 1);
+            IntBuffer postings = intSlice(buffer, postingOffsets.get(keyCount));
+            IntBuffer sortedKeys = intSlice(buffer, keyCount);
+            maps.add(new CompactIdMap(taxonId, className, kind, keys, postingOffsets, postings,
+                    sortedKeys));
+        }
+    }
+
+    /**
+     * Returns true if a file is an id resolver cache file, rather than the text format written by
+     * IdResolver.writeToFile().
+     *
+     * @param f the file
+     * @return true if the file starts like a cache file
+     * @throws IOException if the file can't be read
+     */
+    public static boolean isCacheFile(File f) throws IOException {
+        if (f.length() < 8) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            return in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Maps a cache file into memory.
+     *
+     * @param f the file
+     * @return the cache
+     * @throws IOException if the file can't be read or is not a cache file
+     */
+    public static IdResolverCache open(File f) throws IOException {
+        long start = System.currentTimeMillis();
+        RandomAccessFile file = new RandomAccessFile(f, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Id resolver cache file " + f + " is larger than 2GB");
+            }
+            // the mapping stays valid after the file is closed
+            IdResolverCache cache = new IdResolverCache(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            LOG.info("Mapped id resolver cache " + f + " with " + cache.stringCount
+                    + " strings and " + cache.maps.size() + " maps in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return cache;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return the maps in this cache, in the order they were written
+     */
+    public List<CompactIdMap> getMaps() {
+        return Collections.unmodifiableList(maps);
+    }
+
+    private static IntBuffer intSlice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length * 4);
+        buffer.position(buffer.position() + length * 4);
+        return slice.asIntBuffer();
+    }
+
+    private String getString(int id) {
+        int start = stringOffsets.get(id);
+        byte[] bytes = new byte[stringOffsets.get(id + 1) - start];
+        ByteBuffer data = stringData.duplicate();
+        data.position(start);
+        data.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Returns the number of a string, or -1 if the string is not in the cache.
+     */
+    private int findString(Object o) {
+        if (!(o instanceof String)) {
+            return -1;
+        }
+        byte[] bytes = ((String) o).getBytes(UTF8);
+        int mask = stringIndex.limit() - 1;
+        for (int slot = hash(bytes) & mask;; slot = (slot + 1) & mask) {
+            int id = stringIndex.get(slot) - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (stringEquals(id, bytes)) {
+                return id;
+            }
+        }
+    }
+
+    private boolean stringEquals(int id, byte[] bytes) {
+        int start = stringOffsets.get(id);
+        if (stringOffsets.get(id + 1) - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (stringData.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes) {
+        // FNV-1a
+        int hash = 0x811c9dc5;
+        for (byte b : bytes) {
+            hash = (hash ^ (b & 0xff)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * A read-only map from identifier to identifiers, for one of the maps of an IdResolver, read
+     * from a mapped cache file. The keys iterate in the order of the map that was written, and the
+     * values are returned as new sets in their original order.
+     */
+    public final class CompactIdMap extends AbstractMap<String, Set<String>>
+    {
+        private final String taxonId;
+        private final String className;
+        private final int kind;
+        private final IntBuffer keys;
+        private final IntBuffer postingOffsets;
+        private final IntBuffer postings;
+        private final IntBuffer sortedKeys;
+
+        private CompactIdMap(String taxonId, String className, int kind, IntBuffer keys,
+                IntBuffer postingOffsets, IntBuffer postings, IntBuffer sortedKeys) {
+            this.taxonId = taxonId;
+            this.className = className;
+            this.kind = kind;
+            this.keys = keys;
+            this.postingOffsets = postingOffsets;
+            this.postings = postings;
+            this.sortedKeys = sortedKeys;
+        }
+
+        /**
+         * @return the key of this map in the IdResolver, the taxon id and class name
+         */
+        public MultiKey getKey() {
+            return new MultiKey(taxonId, className);
+        }
+
+        /**
+         * @return which of the IdResolver maps this is, for example ID_MAP
+         */
+        int getKind() {
+            return kind;
+        }
+
+        @Override
+        public int size() {
+            return keys.limit();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public Set<String> get(Object key) {
+            int index = indexOf(key);
+            return (index < 0) ? null : getValues(index);
+        }
+
+        private int indexOf(Object key) {
+            int id = findString(key);
+            if (id < 0) {
+                return -1;
+            }
+            int low = 0;
+            int high = sortedKeys.limit() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int index = sortedKeys.get(mid);
+                int midId = keys.get(index);
+                if (midId < id) {
+                    low = mid + 1;
+                } else if (midId > id) {
+                    high = mid - 1;
+                } else {
+                    return index;
+                }
+            }
+            return -1;
+        }
+
+        private Set<String> getValues(int index) {
+            int end = postingOffsets.get(index + 1);
+            Set<String> values = new LinkedHashSet<String>();
+            for (int i = postingOffsets.get(index); i < end; i++) {
+                values.add(getString(postings.get(i)));
+            }
+            return Collections.unmodifiableSet(values);
+        }
+
+        @Override
+        public Set<Map.Entry<String, Set<String>>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Set<String>>>() {
+                @Override
+                public int size() {
+                    return keys.limit();
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, Set<String>>> iterator() {
+                    return new Iterator<Map.Entry<String, Set<String>>>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < keys.limit();
+                        }
+
+                        @Override
+                        public Map.Entry<String, Set<String>> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int index = next++;
+                            return new SimpleImmutableEntry<String, Set<String>>(
+                                    getString(keys.get(index)), getValues(index));
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * Writes the contents of an IdResolver to a cache file. The file is written under another
+     * name and then renamed, so that any process that has the old file mapped keeps reading the
+     * old contents.
+     *
+     * @param resolver the resolver
+     * @param f the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void write(IdResolver resolver, File f) throws IOException {
+        List<Map<MultiKey, Map<String, Set<String>>>> kinds
+            = new ArrayList<Map<MultiKey, Map<String, Set<String>>>>();
+        kinds.add(resolver.orgIdMaps);
+        kinds.add(resolver.orgMainMaps);
+        kinds.add(resolver.orgSynMaps);
+        kinds.add(resolver.orgIdMainMaps);
+        kinds.add(resolver.orgIdSynMaps);
+
+        // number the strings in the order they are first seen
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        List<byte[]> strings = new ArrayList<byte[]>();
+        List<int[][]> tables = new ArrayList<int[][]>();
+        for (MultiKey key : resolver.orgIdMaps.keySet()) {
+            for (int kind = 0; kind < kinds.size(); kind++) {
+                Map<String, Set<String>> map = kinds.get(kind).get(key);
+                if (map == null) {
+                    continue;
+                }
+                int size = map.size();
+                int[] header = new int[] {number((String) key.getKey(0), ids, strings),
+                    number((String) key.getKey(1), ids, strings), kind};
+                int[] keys = new int[size];
+                int[] postingOffsets = new int[size + 1];
+                int[] postings = new int[Math.max(size, 16)];
+                int postingCount = 0;
+                int i = 0;
+                for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+                    keys[i] = number(entry.getKey(), ids, strings);
+                    for (String value : entry.getValue()) {
+                        if (postingCount == postings.length) {
+                            postings = Arrays.copyOf(postings, postingCount * 2);
+                        }
+                        postings[postingCount++] = number(value, ids, strings);
+                    }
+                    postingOffsets[++i] = postingCount;
+                }
+                tables.add(new int[][] {header, keys, postingOffsets,
+                    Arrays.copyOf(postings, postingCount), sortedIndexes(keys)});
+            }
+        }
+
+        int indexSize = Integer.highestOneBit(Math.max(strings.size(), 1) * 2) * 2;
+        int[] index = new int[indexSize];
+        for (int id = 0; id < strings.size(); id++) {
+            int slot = hash(strings.get(id)) & (indexSize - 1);
+            while (index[slot] != 0) {
+                slot = (slot + 1) & (indexSize - 1);
+            }
+            index[slot] = id + 1;
+        }
+
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            int offset = 0;
+            out.writeInt(offset);
+            for (byte[] string : strings) {
+                offset += string.length;
+                out.writeInt(offset);
+            }
+            out.writeInt(indexSize);
+            writeInts(out, index);
+            for (byte[] string : strings) {
+                out.write(string);
+            }
+            for (int pad = offset; (pad & 3) != 0; pad++) {
+                out.write(0);
+            }
+            out.writeInt(tables.size());
+            for (int[][] table : tables) {
+                writeInts(out, table[0]);
+                out.writeInt(table[1].length);
+                for (int i = 1; i < table.length; i++) {
+                    writeInts(out, table[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(f)) {
+            // some platforms won't rename over an existing file
+            if (!f.delete() || !tmp.renameTo(f)) {
+                throw new IOException("Failed to rename " + tmp + " to " + f);
+            }
+        }
+        LOG.info("Wrote id resolver cache " + f + " with " + strings.size() + " strings and "
+                + tables.size() + " maps");
+    }
+
+    private static int number(String s, Map<String, Integer> ids, List<byte[]> strings) {
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = Integer.valueOf(strings.size());
+            ids.put(s, id);
+            strings.add(s.getBytes(UTF8));
+        }
+        return id.intValue();
+    }
+
+    /**
+     * Returns the positions of the keys, in the order of their string numbers.
+     */
+    private static int[] sortedIndexes(int[] keys) {
+        long[] pairs = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            pairs[i] = (((long) keys[i]) << 32) | i;
+        }
+        Arrays.sort(pairs);
+        int[] sorted = new int[keys.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = (int) pairs[i];
+        }
+        return sorted;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+}
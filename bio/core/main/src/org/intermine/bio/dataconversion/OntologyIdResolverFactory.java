@@ -90,7 +90,7 @@ public class OntologyIdResolverFactory extends IdResolverFactory
                     && !resolver.hasTaxonAndClassName(MOCK_TAXON_ID, this.ontology))) {
                 LOG.info("Creating id resolver from database and caching it.");
                 createFromDb(DatabaseFactory.getDatabase(propName));
-                resolver.writeToFile(new File(idResolverCachedFileName));
+                resolver.writeToCacheFile(new File(idResolverCachedFileName));
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
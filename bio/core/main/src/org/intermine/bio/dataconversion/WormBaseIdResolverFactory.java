@@ -118,7 +118,7 @@ public class WormBaseIdResolverFactory extends IdResolverFactory
                     }
                     // END OF HACK
 
-                    resolver.writeToFile(new File(idResolverCachedFileName));
+                    resolver.writeToCacheFile(new File(idResolverCachedFileName));
                 } else {
                     LOG.warn("Resolver file does not exist: " + wormIdFileName);
                 }
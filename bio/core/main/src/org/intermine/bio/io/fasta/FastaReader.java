@@ -0,0 +1,225 @@
+package org.intermine.bio.io.fasta;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A streaming reader for FASTA files.  Each call to next() moves to the next record and reads its
+ * header line, then the residues of the record can be read a buffer at a time with read(), so
+ * that sequences of any size can be read in constant memory.
+ *
+ * Headers and residues are read the way BioJava reads FASTA: the name is the header up to the
+ * first white space, DNA residues are returned in lower case and protein residues in upper case,
+ * gaps are returned as '-', and a character that isn't in the alphabet is an error.
+ *
+ * @author intermine
+ */
+public class FastaReader
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] DNA = new char[128];
+    private static final char[] PROTEIN = new char[128];
+
+    static {
+        for (char c : "abcdghkmnrstvwy".toCharArray()) {
+            DNA[c] = c;
+            DNA[Character.toUpperCase(c)] = c;
+        }
+        DNA['x'] = 'n';
+        DNA['X'] = 'n';
+        DNA[' '] = '-';
+        for (char c = 'A'; c <= 'Z'; c++) {
+            PROTEIN[c] = c;
+            PROTEIN[Character.toLowerCase(c)] = c;
+        }
+        PROTEIN['*'] = '*';
+        for (char[] alphabet : new char[][] {DNA, PROTEIN}) {
+            alphabet['-'] = '-';
+            alphabet['.'] = '-';
+            alphabet['~'] = '~';
+        }
+    }
+
+    private final Reader reader;
+    private final char[] alphabet;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private boolean atLineStart = true;
+    private boolean inRecord = false;
+    private String header = null;
+    private String name = null;
+    private String description = null;
+
+    /**
+     * Create a FastaReader.
+     *
+     * @param reader the Reader to read the FASTA from
+     * @param sequenceType "dna" or "protein"
+     */
+    public FastaReader(Reader reader, String sequenceType) {
+        this.reader = reader;
+        if ("dna".equals(sequenceType)) {
+            alphabet = DNA;
+        } else if ("protein".equals(sequenceType)) {
+            alphabet = PROTEIN;
+        } else {
+            throw new IllegalArgumentException("Unknown sequence type: " + sequenceType
+                    + ", expected dna or protein");
+        }
+    }
+
+    /**
+     * Move to the next record, skipping any residues of the current record that haven't been
+     * read.
+     *
+     * @return false if there are no more records
+     * @throws IOException if the file can't be read or isn't FASTA
+     */
+    public boolean next() throws IOException {
+        if (inRecord) {
+            char[] skip = new char[BUFFER_SIZE];
+            while (read(skip, 0, skip.length) != -1) {
+                // skip the residues
+            }
+        }
+        header = null;
+        name = null;
+        description = null;
+        while (true) {
+            if (pos == limit && !fill()) {
+                return false;
+            }
+            char c = buffer[pos];
+            if (c == '>' && atLineStart) {
+                pos++;
+                break;
+            }
+            if (!Character.isWhitespace(c)) {
+                throw new IOException("FASTA record doesn't start with '>'");
+            }
+            atLineStart = c == '\n' || c == '\r';
+            pos++;
+        }
+        StringBuilder sb = new StringBuilder();
+        while (pos < limit || fill()) {
+            char c = buffer[pos++];
+            if (c == '\n' || c == '\r') {
+                break;
+            }
+            sb.append(c);
+        }
+        atLineStart = true;
+        inRecord = true;
+        header = sb.toString().trim();
+        int nameEnd = 0;
+        while (nameEnd < header.length() && !Character.isWhitespace(header.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        name = header.substring(0, nameEnd);
+        if (nameEnd < header.length()) {
+            description = header.substring(nameEnd);
+        }
+        return true;
+    }
+
+    /**
+     * Read residues of the current record.
+     *
+     * @param cbuf the buffer to read into
+     * @param off the offset in cbuf to start at
+     * @param len the maximum number of residues to read
+     * @return the number of residues read, which is less than len only at the end of the record,
+     * or -1 if there are no more residues in the record
+     * @throws IOException if the file can't be read, or a residue isn't in the alphabet
+     */
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (!inRecord) {
+            return -1;
+        }
+        int count = 0;
+        while (count < len) {
+            if (pos == limit && !fill()) {
+                inRecord = false;
+                break;
+            }
+            char c = buffer[pos];
+            if (c == '\n' || c == '\r') {
+                atLineStart = true;
+                pos++;
+                continue;
+            }
+            if (c == '>' && atLineStart) {
+                inRecord = false;
+                break;
+            }
+            atLineStart = false;
+            char residue = (c < alphabet.length) ? alphabet[c] : 0;
+            if (residue == 0) {
+                throw new IOException("Illegal character '" + c + "' in sequence " + name);
+            }
+            cbuf[off + count++] = residue;
+            pos++;
+        }
+        return (count == 0 && !inRecord) ? -1 : count;
+    }
+
+    private boolean fill() throws IOException {
+        int count;
+        do {
+            count = reader.read(buffer, 0, buffer.length);
+        } while (count == 0);
+        pos = 0;
+        limit = Math.max(count, 0);
+        return count > 0;
+    }
+
+    /**
+     * Return the header line of the current record, without the '&gt;'.  This is the
+     * "description_line" annotation property of a BioJava Sequence.
+     *
+     * @return the header
+     */
+    public String getHeader() {
+        return header;
+    }
+
+    /**
+     * Return the name of the current record: the header up to the first white space.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the rest of the header after the name, starting with the white space, or null if the
+     * header is just the name.  This is the "description" annotation property of a BioJava
+     * Sequence.
+     *
+     * @return the description
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Close the underlying Reader.
+     *
+     * @throws IOException if the Reader can't be closed
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -14,6 +14,7 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -86,4 +87,16 @@ public final class GFF3Parser
             }
         };
     }
+
+    /**
+     * Read the GFF3Records of a file, parsing them in several threads.  The records are returned
+     * in the order they appear in the file.  Close the reader if not reading to the end.
+     * @param file the GFF3 file, in UTF-8
+     * @param threads the number of threads to parse with
+     * @return a reader over the GFF3Record objects in the file
+     * @throws IOException if the file can't be opened
+     */
+    public static ParallelGFF3Reader parse(File file, int threads) throws IOException {
+        return new ParallelGFF3Reader(file, threads);
+    }
 }
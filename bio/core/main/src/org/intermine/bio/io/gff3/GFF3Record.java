@@ -56,7 +56,7 @@ public class GFF3Record
             throw new IOException("GFF line too short (" + st.countTokens() + " fields): " + line);
         }
 
-        sequenceID = XmlUtil.fixEntityNames(URLDecoder.decode(st.nextToken(), "UTF-8")).trim();
+        sequenceID = XmlUtil.fixEntityNames(urlDecode(st.nextToken())).trim();
         source = st.nextToken().trim();
         if ("".equals(source) || ".".equals(source)) {
             source = null;
@@ -147,9 +147,11 @@ public class GFF3Record
 
     private void parseAttribute(String argAttributeString, String line) throws IOException {
         String attributeString = argAttributeString;
-        attributeString = StringUtils.replaceEach(attributeString,
-                new String[] {"&amp;", "&quot;", "&lt;", "&gt;"},
-                new String[] {"&", "\"", "<", ">"});
+        if (attributeString.indexOf('&') != -1) {
+            attributeString = StringUtils.replaceEach(attributeString,
+                    new String[] {"&amp;", "&quot;", "&lt;", "&gt;"},
+                    new String[] {"&", "\"", "<", ">"});
+        }
         StringTokenizer sTok = new StringTokenizer(attributeString, ";", false);
 
         while (sTok.hasMoreTokens()) {
@@ -201,7 +203,7 @@ public class GFF3Record
             for (int i = 0; i < valList.size(); i++) {
                 String value = valList.get(i);
                 if (!"Target".equals(attName) && !"Gap".equals(attName)) {
-                    value = URLDecoder.decode(value, "UTF-8");
+                    value = urlDecode(value);
                 }
                 value = XmlUtil.fixEntityNames(value);
                 valList.set(i, value);
@@ -210,6 +212,17 @@ public class GFF3Record
         }
     }
 
+    /**
+     * URL decode a value, skipping the decoder for the common case of values with nothing to
+     * decode.
+     */
+    private static String urlDecode(String value) throws IOException {
+        if (value.indexOf('%') == -1 && value.indexOf('+') == -1) {
+            return value;
+        }
+        return URLDecoder.decode(value, "UTF-8");
+    }
+
     /**
      * Return the sequenceID field of this record.
      * @return the sequenceID field of this record
@@ -0,0 +1,276 @@
+package org.intermine.bio.io.gff3;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads the GFF3Records of a file, in the order they appear in the file, parsing them in several
+ * threads.
+ *
+ * The file is split at line ends into chunks, each of which is memory mapped and parsed into
+ * records by one of a pool of threads. A few chunks are parsed ahead of the one being read, so
+ * the records are returned in file order as fast as the threads can parse them, and only those
+ * chunks are held in memory. Lines are read the way GFF3Parser reads them: blank lines and
+ * comments are skipped and the records end at the first line that starts with "&gt;". The file
+ * is read as UTF-8.
+ *
+ * Call close() when abandoning the reader before the end, so that the threads stop.
+ *
+ * @author intermine
+ */
+public class ParallelGFF3Reader implements Iterator<GFF3Record>
+{
+    /** The default size of the chunks the file is split into. **/
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final FileChannel channel;
+    private final RandomAccessFile file;
+    private final int chunkSize;
+    private final int readAhead;
+    private final ExecutorService executor;
+    private final LinkedList<Future<Chunk>> pending = new LinkedList<Future<Chunk>>();
+    private long nextChunkStart = 0;
+    private List<GFF3Record> records = Collections.emptyList();
+    private int nextRecord = 0;
+    private Chunk current = null;
+    private boolean finished = false;
+
+    /**
+     * Constructor.
+     *
+     * @param f the GFF3 file
+     * @param threads the number of threads to parse with
+     * @param chunkSize the number of bytes to parse at a time. Chunks are longer where a line
+     * crosses the end of one
+     * @throws IOException if the file can't be opened
+     */
+    public ParallelGFF3Reader(File f, int threads, int chunkSize) throws IOException {
+        if (threads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("threads and chunkSize must be >= 1");
+        }
+        this.file = new RandomAccessFile(f, "r");
+        this.channel = file.getChannel();
+        this.chunkSize = chunkSize;
+        this.readAhead = threads * 2;
+        final String name = "GFF3 parser " + f.getName() + " ";
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            fillReadAhead();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Constructor, splitting the file into chunks of DEFAULT_CHUNK_SIZE bytes.
+     *
+     * @param f the GFF3 file
+     * @param threads the number of threads to parse with
+     * @throws IOException if the file can't be opened
+     */
+    public ParallelGFF3Reader(File f, int threads) throws IOException {
+        this(f, threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    private void fillReadAhead() throws IOException {
+        long size = channel.size();
+        while (pending.size() < readAhead && nextChunkStart < size) {
+            final MappedByteBuffer buffer = mapChunk(nextChunkStart, size);
+            nextChunkStart += buffer.limit();
+            pending.add(executor.submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() {
+                    return parseChunk(UTF8.decode(buffer).toString());
+                }
+            }));
+        }
+    }
+
+    /**
+     * Maps the chunk starting at a position, ending it after the last line end within chunkSize
+     * bytes, or after the first line end if there is none within it.
+     */
+    private MappedByteBuffer mapChunk(long start, long size) throws IOException {
+        long length = Math.min(chunkSize, size - start);
+        while (true) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            if (start + length == size) {
+                return buffer;
+            }
+            for (int i = (int) length - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    buffer.limit(i + 1);
+                    return buffer;
+                }
+            }
+            if (length >= Integer.MAX_VALUE / 2) {
+                throw new IOException("GFF3 line at byte " + start + " is longer than 1GB");
+            }
+            length = Math.min(length * 2, size - start);
+        }
+    }
+
+    /**
+     * Parses the lines of a chunk. A line that can't be parsed ends the chunk: its records are
+     * returned, then the error.
+     */
+    private static Chunk parseChunk(String text) {
+        Chunk chunk = new Chunk();
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+                end++;
+            }
+            String line = text.substring(start, end);
+            start = end + 1;
+            if (line.startsWith(">")) {
+                chunk.last = true;
+                break;
+            }
+            String trimmedLine = line.trim();
+            if (trimmedLine.length() == 0 || trimmedLine.startsWith("#")) {
+                continue;
+            }
+            try {
+                chunk.records.add(new GFF3Record(line));
+            } catch (IOException e) {
+                chunk.failure = e;
+                break;
+            }
+        }
+        return chunk;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextRecord >= records.size()) {
+            if (current != null) {
+                if (current.failure != null) {
+                    IOException failure = current.failure;
+                    close();
+                    throw new RuntimeException("IOException while getting next GFF record",
+                            failure);
+                }
+                if (current.last) {
+                    close();
+                }
+            }
+            if (finished || pending.isEmpty()) {
+                close();
+                return false;
+            }
+            current = takeChunk();
+            records = current.records;
+            nextRecord = 0;
+        }
+        return true;
+    }
+
+    private Chunk takeChunk() {
+        Future<Chunk> next = pending.removeFirst();
+        try {
+            Chunk chunk = next.get();
+            fillReadAhead();
+            return chunk;
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while parsing GFF3", e);
+        } catch (ExecutionException e) {
+            close();
+            throw new RuntimeException("Failed to parse GFF3", e.getCause());
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException("IOException while reading GFF3", e);
+        }
+    }
+
+    @Override
+    public GFF3Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        GFF3Record record = records.get(nextRecord);
+        // let the record be collected once it has been handed on
+        records.set(nextRecord++, null);
+        return record;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove not supported");
+    }
+
+    /**
+     * Stops parsing and closes the file. The reader returns no more records.
+     */
+    public void close() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        records = Collections.emptyList();
+        current = null;
+        for (Future<Chunk> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        executor.shutdownNow();
+        try {
+            file.close();
+        } catch (IOException e) {
+            // nothing more to read
+        }
+    }
+
+    /**
+     * The records parsed from a chunk of the file.
+     */
+    private static class Chunk
+    {
+        private final List<GFF3Record> records = new ArrayList<GFF3Record>();
+        private IOException failure = null;
+        // true if the records end in this chunk
+        private boolean last = false;
+    }
+}
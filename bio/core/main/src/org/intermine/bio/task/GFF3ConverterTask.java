@@ -54,6 +54,8 @@ public class GFF3ConverterTask extends Task
 
     private boolean dontCreateLocations = false;
 
+    private int parserThreads = 1;
+
      /**
      * Set the data fileset
      * @param fs the fileset
@@ -154,6 +156,16 @@ public class GFF3ConverterTask extends Task
         this.dontCreateLocations = dontCreateLocations;
     }
 
+    /**
+     * Set the number of threads to parse each GFF3 file with, the default is 1 - parse while
+     * processing.  With more threads the file is parsed ahead in chunks, but the records are
+     * still processed in the order they appear in the file.
+     * @param parserThreads the number of threads to parse with
+     */
+    public void setParserThreads(int parserThreads) {
+        this.parserThreads = parserThreads;
+    }
+
     /**
      * @see Task#execute()
      */
@@ -238,7 +250,11 @@ public class GFF3ConverterTask extends Task
             for (int i = 0; i < files.length; i++) {
                 File f = new File(ds.getBasedir(), files[i]);
                 System.err .println("Processing file: " + f.getName());
-                gff3converter.parse(new BufferedReader(new FileReader(f)));
+                if (parserThreads > 1) {
+                    gff3converter.parse(f, parserThreads);
+                } else {
+                    gff3converter.parse(new BufferedReader(new FileReader(f)));
+                }
             }
             gff3converter.storeAll();
             gff3converter.close();
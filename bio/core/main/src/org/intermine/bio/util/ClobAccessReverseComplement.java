@@ -13,6 +13,7 @@ package org.intermine.bio.util;
 import static org.intermine.objectstore.query.Clob.CLOB_PAGE_SIZE;
 
 import java.io.PrintStream;
+import java.util.List;
 
 import org.intermine.objectstore.query.ClobAccess;
 
@@ -31,17 +32,16 @@ public class ClobAccessReverseComplement extends ClobAccess
      * @param ca a ClobAccess object
      */
     public ClobAccessReverseComplement(ClobAccess ca) {
+        super(checkNotReversed(ca));
+        originalClobAccess = ca;
+    }
+
+    private static ClobAccess checkNotReversed(ClobAccess ca) {
         if (ca instanceof ClobAccessReverseComplement) {
             throw new IllegalArgumentException("Cannot reversecomplement a Clob that is already "
                     + "reversecomplemented");
         }
-        originalClobAccess = ca;
-        os = ca.getOs();
-        results = ca.getResultsWithoutInit();
-        clob = ca.getClob();
-        offset = ca.getOffset();
-        length = ca.getLengthWithoutInit();
-        subSequence = ca.getSubSequence();
+        return ca;
     }
 
     /**
@@ -132,20 +132,16 @@ public class ClobAccessReverseComplement extends ClobAccess
     @Override
     public String toString() {
         init();
-        StringBuilder retval = new StringBuilder();
-        int lowestPage = offset / CLOB_PAGE_SIZE;
-        int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
-        for (int page = highestPage; page >= lowestPage; page--) {
-            String pageText = (String) results.get(page);
-            if (page == highestPage) {
-                pageText = pageText.substring(0, offset + length - page * CLOB_PAGE_SIZE);
-            }
-            if (page == lowestPage) {
-                pageText = pageText.substring(offset - page * CLOB_PAGE_SIZE, pageText.length());
-            }
-            for (int cNo = pageText.length() - 1; cNo >= 0; cNo--) {
-                char origC = pageText.charAt(cNo);
-                retval.append(translate(origC));
+        StringBuilder retval = new StringBuilder(length);
+        if (length > 0) {
+            int lowestPage = offset / CLOB_PAGE_SIZE;
+            int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
+            for (int last = highestPage; last >= lowestPage; last -= READ_PAGES) {
+                int first = Math.max(lowestPage, last - READ_PAGES + 1);
+                List<String> pages = getPages(first, last);
+                for (int page = last; page >= first; page--) {
+                    appendReverseComplement(retval, trimPage(page, pages.get(page - first)));
+                }
             }
         }
         return retval.toString();
@@ -157,22 +153,24 @@ public class ClobAccessReverseComplement extends ClobAccess
     @Override
     public void drainToPrintStream(PrintStream out) {
         init();
-        int lowestPage = offset / CLOB_PAGE_SIZE;
-        int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
-        for (int page = highestPage; page >= lowestPage; page--) {
-            StringBuilder retval = new StringBuilder();
-            String pageText = (String) results.get(page);
-            if (page == highestPage) {
-                pageText = pageText.substring(0, offset + length - page * CLOB_PAGE_SIZE);
+        if (length > 0) {
+            int lowestPage = offset / CLOB_PAGE_SIZE;
+            int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
+            for (int last = highestPage; last >= lowestPage; last -= READ_PAGES) {
+                int first = Math.max(lowestPage, last - READ_PAGES + 1);
+                List<String> pages = getPages(first, last);
+                for (int page = last; page >= first; page--) {
+                    StringBuilder retval = new StringBuilder();
+                    appendReverseComplement(retval, trimPage(page, pages.get(page - first)));
+                    out.print(retval.toString());
+                }
             }
-            if (page == lowestPage) {
-                pageText = pageText.substring(offset - page * CLOB_PAGE_SIZE, pageText.length());
-            }
-            for (int cNo = pageText.length() - 1; cNo >= 0; cNo--) {
-                char origC = pageText.charAt(cNo);
-                retval.append(translate(origC));
-            }
-            out.print(retval.toString());
+        }
+    }
+
+    private void appendReverseComplement(StringBuilder retval, String pageText) {
+        for (int cNo = pageText.length() - 1; cNo >= 0; cNo--) {
+            retval.append(translate(pageText.charAt(cNo)));
         }
     }
 
@@ -0,0 +1,367 @@
+package org.intermine.bio.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Counts of features in fixed size bins along each chromosome, at a series of resolutions, for
+ * drawing feature density histograms without querying the database.
+ *
+ * There is a track of counts for each organism, chromosome and feature class.  The bins of level 0
+ * of a track are 2^minShift bases wide, and the bins of each level above are twice as wide as the
+ * ones below, up to a level with a single bin.  Each level holds, for each of its bins, the number
+ * of features that start in it and the number that end in it, so every feature is counted once per
+ * level however many bins it spans.  The number of features that start before a level 0 bin is
+ * summed from at most one bin of each level, and likewise for the features that end before it, so
+ * the number of features overlapping a run of level 0 bins, which is the number starting before
+ * its end less the number ending before its start, is exact.  A level 0 bin that is only partly in
+ * a range is estimated from the features starting or ending in it, in proportion to the part that
+ * is in the range, so ranges narrower than getMinBinWidth() are better counted in the database.
+ *
+ * Positions are interbase: a range [start, end) starts at start and ends before end, and a feature
+ * located at bases 1 to 10 is the range [0, 10).
+ *
+ * @author intermine
+ */
+public final class FeatureDensityPyramid
+{
+    /** The default width of level 0 bins, 2^12 = 4096 bases. */
+    public static final int DEFAULT_MIN_SHIFT = 12;
+
+    private static final int FORMAT_VERSION = 2;
+
+    private final int minShift;
+    // key is taxonId, chromosome primaryIdentifier and unqualified class name, tab separated
+    private final Map<String, Track> tracks;
+    private final Set<String> taxonIds = new HashSet<String>();
+
+    private FeatureDensityPyramid(int minShift, Map<String, Track> tracks) {
+        this.minShift = minShift;
+        this.tracks = tracks;
+        for (String key : tracks.keySet()) {
+            taxonIds.add(key.substring(0, key.indexOf('\t')));
+        }
+    }
+
+    private static String trackKey(String taxonId, String chromosome, String className) {
+        return taxonId + "\t" + chromosome + "\t" + className;
+    }
+
+    /**
+     * Return the width of the narrowest bins.
+     * @return the width in bases
+     */
+    public int getMinBinWidth() {
+        return 1 << minShift;
+    }
+
+    /**
+     * Return true if there are any counts for an organism.  If there are none the pyramid was
+     * built before the organism was loaded, or without it, and can't answer for it.
+     * @param taxonId the taxon id of the organism
+     * @return true if the organism has counts
+     */
+    public boolean hasOrganism(String taxonId) {
+        return taxonIds.contains(taxonId);
+    }
+
+    /**
+     * Return the number of features of a class, including subclasses, that overlap a range of a
+     * chromosome.  The count is exact when the range starts and ends on the edges of level 0 bins,
+     * otherwise it is an estimate.
+     * @param taxonId the taxon id of the organism
+     * @param chromosome the primaryIdentifier of the chromosome
+     * @param className the unqualified name of the feature class
+     * @param start the interbase start of the range
+     * @param end the interbase end of the range
+     * @return the number of features
+     */
+    public int count(String taxonId, String chromosome, String className, int start, int end) {
+        Track track = tracks.get(trackKey(taxonId, chromosome, className));
+        int from = Math.max(0, start);
+        if (track == null || end <= from) {
+            return 0;
+        }
+        int first = from >> minShift;
+        int last = (end - 1) >> minShift;
+        double binWidth = 1L << minShift;
+        // the features that overlap the bins from first to last
+        double count = before(track.starts, last + 1) - before(track.ends, first);
+        if (first == last) {
+            count *= (end - from) / binWidth;
+        } else {
+            // less the features that end or start in the parts of the end bins outside the range
+            double firstOutside = from - (((long) first) << minShift);
+            double lastOutside = (((long) last + 1) << minShift) - end;
+            int endInFirst = before(track.ends, first + 1) - before(track.ends, first);
+            int startInLast = before(track.starts, last + 1) - before(track.starts, last);
+            count -= endInFirst * (firstOutside / binWidth)
+                + startInLast * (lastOutside / binWidth);
+        }
+        return (int) Math.round(count);
+    }
+
+    // the number of features counted in the level 0 bins before bin, summing one bin of each level
+    private static int before(Level[] levels, int bin) {
+        if (bin <= 0) {
+            return 0;
+        }
+        int top = levels.length - 1;
+        if (bin >= 1 << top) {
+            return levels[top].get(0);
+        }
+        int sum = 0;
+        for (int level = 0; level < top; level++) {
+            if ((bin & (1 << level)) != 0) {
+                sum += levels[level].get((bin >> level) - 1);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Write this pyramid to a stream, compressed.  The stream is closed.
+     * @param out the stream
+     * @throws IOException if the stream can't be written
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new GZIPOutputStream(out));
+        try {
+            dos.writeInt(FORMAT_VERSION);
+            dos.writeInt(minShift);
+            dos.writeInt(tracks.size());
+            for (Map.Entry<String, Track> entry : tracks.entrySet()) {
+                dos.writeUTF(entry.getKey());
+                Track track = entry.getValue();
+                dos.writeInt(track.starts.length);
+                for (int l = 0; l < track.starts.length; l++) {
+                    track.starts[l].write(dos);
+                    track.ends[l].write(dos);
+                }
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Read a pyramid written by write().  The stream is closed.
+     * @param in the stream
+     * @return the pyramid
+     * @throws IOException if the stream can't be read, or doesn't hold a pyramid
+     */
+    public static FeatureDensityPyramid read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new GZIPInputStream(in));
+        try {
+            int version = dis.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unknown feature density format version: " + version);
+            }
+            int minShift = dis.readInt();
+            int trackCount = dis.readInt();
+            Map<String, Track> tracks = new HashMap<String, Track>();
+            for (int i = 0; i < trackCount; i++) {
+                String key = dis.readUTF();
+                int levelCount = dis.readInt();
+                Level[] starts = new Level[levelCount];
+                Level[] ends = new Level[levelCount];
+                for (int l = 0; l < levelCount; l++) {
+                    starts[l] = Level.read(dis);
+                    ends[l] = Level.read(dis);
+                }
+                tracks.put(key, new Track(starts, ends));
+            }
+            return new FeatureDensityPyramid(minShift, tracks);
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * The levels of counts of the features starting and ending in each bin of a track.
+     */
+    private static final class Track
+    {
+        private final Level[] starts;
+        private final Level[] ends;
+
+        private Track(Level[] starts, Level[] ends) {
+            this.starts = starts;
+            this.ends = ends;
+        }
+    }
+
+    /**
+     * The counts of one level of a track.  Levels with few non-empty bins hold just those bins.
+     */
+    private static final class Level
+    {
+        // the bins, or null if every bin is held in counts
+        private final int[] bins;
+        private final int[] counts;
+
+        private Level(int[] bins, int[] counts) {
+            this.bins = bins;
+            this.counts = counts;
+        }
+
+        static Level valueOf(int[] dense) {
+            int nonEmpty = 0;
+            for (int count : dense) {
+                if (count != 0) {
+                    nonEmpty++;
+                }
+            }
+            if (nonEmpty * 2 >= dense.length) {
+                return new Level(null, dense);
+            }
+            int[] bins = new int[nonEmpty];
+            int[] counts = new int[nonEmpty];
+            int n = 0;
+            for (int bin = 0; bin < dense.length; bin++) {
+                if (dense[bin] != 0) {
+                    bins[n] = bin;
+                    counts[n++] = dense[bin];
+                }
+            }
+            return new Level(bins, counts);
+        }
+
+        int get(int bin) {
+            if (bins == null) {
+                return (bin < counts.length) ? counts[bin] : 0;
+            }
+            int i = Arrays.binarySearch(bins, bin);
+            return (i >= 0) ? counts[i] : 0;
+        }
+
+        void write(DataOutputStream dos) throws IOException {
+            dos.writeBoolean(bins != null);
+            dos.writeInt(counts.length);
+            for (int i = 0; i < counts.length; i++) {
+                if (bins != null) {
+                    dos.writeInt(bins[i]);
+                }
+                dos.writeInt(counts[i]);
+            }
+        }
+
+        static Level read(DataInputStream dis) throws IOException {
+            boolean sparse = dis.readBoolean();
+            int length = dis.readInt();
+            int[] bins = sparse ? new int[length] : null;
+            int[] counts = new int[length];
+            for (int i = 0; i < length; i++) {
+                if (sparse) {
+                    bins[i] = dis.readInt();
+                }
+                counts[i] = dis.readInt();
+            }
+            return new Level(bins, counts);
+        }
+    }
+
+    /**
+     * Collects feature locations and builds a FeatureDensityPyramid from them.
+     */
+    public static final class Builder
+    {
+        private final int minShift;
+        // for each track, the first and last level 0 bin of each feature, in pairs
+        private final Map<String, int[]> spans = new HashMap<String, int[]>();
+        private final Map<String, Integer> spanCounts = new HashMap<String, Integer>();
+
+        /**
+         * Create a Builder.
+         * @param minShift the width of level 0 bins is 2^minShift
+         */
+        public Builder(int minShift) {
+            if (minShift < 0 || minShift > 30) {
+                throw new IllegalArgumentException("minShift must be from 0 to 30: " + minShift);
+            }
+            this.minShift = minShift;
+        }
+
+        /**
+         * Add a feature location.
+         * @param taxonId the taxon id of the organism
+         * @param chromosome the primaryIdentifier of the chromosome
+         * @param className the unqualified name of the feature class
+         * @param start the start of the location, in base coordinates starting at 1
+         * @param end the end of the location, in base coordinates
+         */
+        public void add(String taxonId, String chromosome, String className, int start,
+                int end) {
+            int from = Math.max(0, Math.min(start, end) - 1);
+            int to = Math.max(from, Math.max(start, end) - 1);
+            String key = trackKey(taxonId, chromosome, className);
+            int[] pairs = spans.get(key);
+            Integer count = spanCounts.get(key);
+            int n = (count == null) ? 0 : count.intValue();
+            if (pairs == null) {
+                pairs = new int[16];
+            } else if (n * 2 == pairs.length) {
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+            pairs[n * 2] = from >> minShift;
+            pairs[n * 2 + 1] = to >> minShift;
+            spans.put(key, pairs);
+            spanCounts.put(key, Integer.valueOf(n + 1));
+        }
+
+        /**
+         * Build the pyramid from the locations added.
+         * @return the pyramid
+         */
+        public FeatureDensityPyramid build() {
+            Map<String, Track> tracks = new HashMap<String, Track>();
+            for (Map.Entry<String, int[]> entry : spans.entrySet()) {
+                int[] pairs = entry.getValue();
+                int n = spanCounts.get(entry.getKey()).intValue();
+                int lastBin = 0;
+                for (int i = 0; i < n; i++) {
+                    lastBin = Math.max(lastBin, pairs[i * 2 + 1]);
+                }
+                // enough levels that the top one has a single bin
+                int levelCount = 33 - Integer.numberOfLeadingZeros(lastBin);
+                Level[] starts = new Level[levelCount];
+                Level[] ends = new Level[levelCount];
+                for (int level = 0; level < levelCount; level++) {
+                    int[] startCounts = new int[(lastBin >> level) + 1];
+                    int[] endCounts = new int[startCounts.length];
+                    for (int i = 0; i < n; i++) {
+                        startCounts[pairs[i * 2] >> level]++;
+                        endCounts[pairs[i * 2 + 1] >> level]++;
+                    }
+                    starts[level] = Level.valueOf(startCounts);
+                    ends[level] = Level.valueOf(endCounts);
+                }
+                tracks.put(entry.getKey(), new Track(starts, ends));
+            }
+            spans.clear();
+            spanCounts.clear();
+            return new FeatureDensityPyramid(minShift, Collections.unmodifiableMap(tracks));
+        }
+    }
+}
@@ -12,11 +12,15 @@ package org.intermine.bio.dataconversion;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Set;
 
+import org.apache.commons.io.IOUtils;
 import org.intermine.dataconversion.ItemsTestCase;
 import org.intermine.dataconversion.MockItemWriter;
 import org.intermine.metadata.Model;
@@ -77,6 +81,25 @@ public class GFF3ConverterTest extends ItemsTestCase {
     }
 
 
+    /**
+     * Test that parsing in several threads creates the same items.
+     */
+    public void testParseLocatedInParallel() throws Exception {
+        f = File.createTempFile("GFF3ConverterTest", ".gff");
+        InputStream is = getClass().getClassLoader().getResourceAsStream("test.gff");
+        OutputStream os = new FileOutputStream(f);
+        try {
+            IOUtils.copy(is, os);
+        } finally {
+            is.close();
+            os.close();
+        }
+        converter.parse(f, 3);
+        converter.storeAll();
+
+        assertEquals(readItemSet("GFF3ConverterTest.xml"), writer.getItems());
+    }
+
     /**
      * Test creating items with dontCreateLocations flag true.
      */
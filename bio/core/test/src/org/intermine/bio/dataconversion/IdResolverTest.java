@@ -224,4 +224,66 @@ public class IdResolverTest extends TestCase
         assertEquals(resolver.orgMainMaps, readFromFile.orgMainMaps);
         assertEquals(resolver.orgSynMaps, readFromFile.orgSynMaps);
     }
+
+    public void testCacheFileRoundTrip() throws Exception {
+        File f = getResolverCache();
+        resolver.writeToCacheFile(f);
+        assertTrue(IdResolverCache.isCacheFile(f));
+
+        IdResolver readFromCache = new IdResolver();
+        readFromCache.populateFromFile(f);
+        MultiKey key = new MultiKey(taxId1, clsName1);
+        assertTrue(readFromCache.orgIdMaps.get(key) instanceof IdResolverCache.CompactIdMap);
+        assertEquals(resolver.orgIdMaps, readFromCache.orgIdMaps);
+        assertEquals(resolver.orgMainMaps, readFromCache.orgMainMaps);
+        assertEquals(resolver.orgSynMaps, readFromCache.orgSynMaps);
+        assertEquals(resolver.orgIdMainMaps, readFromCache.orgIdMainMaps);
+        assertEquals(resolver.orgIdSynMaps, readFromCache.orgIdSynMaps);
+        assertEquals(resolver.getTaxonsAndClassNames(), readFromCache.getTaxonsAndClassNames());
+
+        assertEquals(Collections.singleton(primaryId1),
+                readFromCache.resolveId(taxId1, clsName1, mainId1));
+        assertEquals(new LinkedHashSet<String>(Arrays.asList(primaryId1, primaryId2)),
+                readFromCache.resolveId(taxId1, clsName1, synonym1));
+        assertEquals(Collections.EMPTY_SET, readFromCache.resolveId(taxId1, clsName1, "nothing"));
+        assertTrue(readFromCache.isPrimaryIdentifier(taxId2, clsName1, primaryId1));
+        assertFalse(readFromCache.isPrimaryIdentifier(taxId2, clsName1, primaryId2));
+        assertEquals(resolver.getSynonyms(taxId1, clsName2, primaryId3),
+                readFromCache.getSynonyms(taxId1, clsName2, primaryId3));
+
+        // the text written from either is the same
+        File text1 = getResolverCache();
+        File text2 = getResolverCache();
+        resolver.writeToFile(text1);
+        readFromCache.writeToFile(text2);
+        assertEquals(FileUtils.readFileToString(text1, "utf-8"),
+                FileUtils.readFileToString(text2, "utf-8"));
+    }
+
+    public void testAddToCachedResolver() throws Exception {
+        File f = getResolverCache();
+        resolver.writeToCacheFile(f);
+        IdResolver readFromCache = new IdResolver();
+        readFromCache.populateFromFile(f);
+
+        readFromCache.addSynonyms(taxId1, clsName1, primaryId1, Collections.singleton("syn5"));
+        resolver.addSynonyms(taxId1, clsName1, primaryId1, Collections.singleton("syn5"));
+        MultiKey key = new MultiKey(taxId1, clsName1);
+        assertFalse(readFromCache.orgIdMaps.get(key) instanceof IdResolverCache.CompactIdMap);
+        assertTrue(readFromCache.orgIdMaps.get(new MultiKey(taxId2, clsName1))
+                instanceof IdResolverCache.CompactIdMap);
+        assertEquals(resolver.orgIdMaps, readFromCache.orgIdMaps);
+        assertEquals(resolver.orgSynMaps, readFromCache.orgSynMaps);
+        assertEquals(Collections.singleton(primaryId1),
+                readFromCache.resolveId(taxId1, clsName1, "syn5"));
+
+        // replacing the file doesn't change the resolver that has it mapped
+        readFromCache.writeToCacheFile(f);
+        MultiKey mapped = new MultiKey(taxId2, clsName1);
+        assertEquals(resolver.orgIdMaps.get(mapped), readFromCache.orgIdMaps.get(mapped));
+        IdResolver reread = new IdResolver();
+        reread.populateFromFile(f);
+        assertEquals(resolver.orgIdMaps, reread.orgIdMaps);
+        assertEquals(resolver.orgSynMaps, reread.orgSynMaps);
+    }
 }
@@ -0,0 +1,142 @@
+package org.intermine.bio.io.fasta;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.SequenceIterator;
+import org.biojava.bio.seq.io.SeqIOTools;
+
+/**
+ * Tests for the FastaReader class.
+ *
+ * @author intermine
+ */
+public class FastaReaderTest extends TestCase
+{
+    private static final String FASTA = ">sp|Q9V8R9-2|41_DROME Isoform 2 of\tProtein 4.1\n"
+        + "ACGTNnRYX-.\r\n"
+        + "acgt\n"
+        + "\n"
+        + ">empty\n"
+        + ">  third  \n"
+        + "AC\n"
+        + "GT";
+
+    public FastaReaderTest(String arg) {
+        super(arg);
+    }
+
+    /**
+     * Read all the records, as name, header, description and residues, reading the residues
+     * bufferSize characters at a time.
+     */
+    private static List<String> read(String fasta, String type, int bufferSize)
+        throws IOException {
+        List<String> records = new ArrayList<String>();
+        FastaReader reader = new FastaReader(new StringReader(fasta), type);
+        char[] buffer = new char[bufferSize];
+        while (reader.next()) {
+            StringBuilder residues = new StringBuilder();
+            int count;
+            while ((count = reader.read(buffer, 0, buffer.length)) != -1) {
+                residues.append(buffer, 0, count);
+            }
+            records.add(reader.getName() + "|" + reader.getHeader() + "|"
+                    + reader.getDescription() + "|" + residues);
+        }
+        reader.close();
+        return records;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static List<String> readWithBioJava(String fasta, String type) throws Exception {
+        List<String> records = new ArrayList<String>();
+        SequenceIterator iter = (SequenceIterator) SeqIOTools.fileToBiojava("fasta", type,
+                new BufferedReader(new StringReader(fasta)));
+        while (iter.hasNext()) {
+            Sequence seq = iter.nextSequence();
+            records.add(seq.getName() + "|"
+                    + seq.getAnnotation().getProperty("description_line") + "|"
+                    + (seq.getAnnotation().containsProperty("description")
+                        ? seq.getAnnotation().getProperty("description") : null)
+                    + "|" + seq.seqString());
+        }
+        return records;
+    }
+
+    public void testSameAsBioJava() throws Exception {
+        for (String type : new String[] {"dna", "protein"}) {
+            List<String> expected = readWithBioJava(FASTA, type);
+            assertEquals(3, expected.size());
+            for (int bufferSize : new int[] {1, 3, 7000}) {
+                assertEquals(type + " " + bufferSize, expected, read(FASTA, type, bufferSize));
+            }
+        }
+    }
+
+    public void testValues() throws Exception {
+        List<String> records = read(FASTA, "dna", 5);
+        assertEquals("sp|Q9V8R9-2|41_DROME|sp|Q9V8R9-2|41_DROME Isoform 2 of\tProtein 4.1"
+                + "| Isoform 2 of\tProtein 4.1|acgtnnryn--acgt", records.get(0));
+        assertEquals("empty|empty|null|", records.get(1));
+        assertEquals("third|third|null|acgt", records.get(2));
+        String protein = read(FASTA, "protein", 5).get(0);
+        assertEquals("ACGTNNRYX--ACGT", protein.substring(protein.lastIndexOf('|') + 1));
+    }
+
+    public void testSkipUnreadResidues() throws Exception {
+        FastaReader reader = new FastaReader(new StringReader(FASTA), "dna");
+        assertTrue(reader.next());
+        char[] buffer = new char[2];
+        assertEquals(2, reader.read(buffer, 0, 2));
+        assertTrue(reader.next());
+        assertEquals("empty", reader.getName());
+        assertEquals(-1, reader.read(buffer, 0, 2));
+        assertTrue(reader.next());
+        assertEquals("third", reader.getName());
+        assertFalse(reader.next());
+        assertEquals(-1, reader.read(buffer, 0, 2));
+    }
+
+    public void testEmpty() throws Exception {
+        assertTrue(read("", "dna", 10).isEmpty());
+        assertTrue(read("\n\n", "dna", 10).isEmpty());
+    }
+
+    public void testErrors() throws Exception {
+        try {
+            read(">a\nACGTE\n", "dna", 10);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Illegal character 'E' in sequence a", e.getMessage());
+        }
+        try {
+            read("ACGT\n", "dna", 10);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            new FastaReader(new StringReader(""), "rna");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
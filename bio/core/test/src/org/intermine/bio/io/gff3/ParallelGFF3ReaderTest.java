@@ -0,0 +1,150 @@
+package org.intermine.bio.io.gff3;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Tests for the ParallelGFF3Reader class.
+ *
+ * @author intermine
+ */
+public class ParallelGFF3ReaderTest extends TestCase
+{
+    private File file;
+
+    public ParallelGFF3ReaderTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        file = File.createTempFile("ParallelGFF3ReaderTest", ".gff3");
+    }
+
+    @Override
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void writeFile(String contents) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static List<String> readSequentially(String contents) throws IOException {
+        List<String> records = new ArrayList<String>();
+        Iterator<?> iter = GFF3Parser.parse(new BufferedReader(new StringReader(contents)));
+        while (iter.hasNext()) {
+            records.add(iter.next().toString());
+        }
+        return records;
+    }
+
+    private List<String> readInParallel(int threads, int chunkSize) throws IOException {
+        List<String> records = new ArrayList<String>();
+        ParallelGFF3Reader reader = new ParallelGFF3Reader(file, threads, chunkSize);
+        while (reader.hasNext()) {
+            records.add(reader.next().toString());
+        }
+        assertFalse(reader.hasNext());
+        return records;
+    }
+
+    private static String testData() throws IOException {
+        InputStream is = ParallelGFF3ReaderTest.class.getClassLoader()
+            .getResourceAsStream("gff_test_data.gff3");
+        try {
+            return IOUtils.toString(is, "UTF-8");
+        } finally {
+            is.close();
+        }
+    }
+
+    public void testSameAsSequential() throws Exception {
+        String contents = testData();
+        writeFile(contents);
+        List<String> expected = readSequentially(contents);
+        assertEquals(22, expected.size());
+        // chunks smaller than a line, a few lines and the whole file
+        for (int chunkSize : new int[] {1, 7, 100, 1000, ParallelGFF3Reader.DEFAULT_CHUNK_SIZE}) {
+            for (int threads : new int[] {1, 3}) {
+                assertEquals(chunkSize + "/" + threads, expected,
+                        readInParallel(threads, chunkSize));
+            }
+        }
+    }
+
+    public void testLineEndsCommentsAndFasta() throws Exception {
+        String contents = "##gff-version 3\r\n"
+            + "ctg1\t.\tgene\t1\t90\t.\t+\t.\tID=g%3B1;Name=n+1,&quot;x&quot;\r\n"
+            + "\r\n"
+            + "   # indented comment\n"
+            + "ctg1\t.\tmRNA\t1\t90\t.\t+\t.\tID=m1;Parent=g%3B1\r"
+            + "ctg1\t.\tCDS\t1\t90\t.\t+\t0\tParent=m1;Target=a%20b 1 10\n"
+            + "##FASTA\n"
+            + ">ctg1\n"
+            + "ACGT\n"
+            + "ctg2\t.\tgene\t1\t90\t.\t+\t.\tID=after_fasta\n";
+        writeFile(contents);
+        List<String> expected = readSequentially(contents);
+        assertEquals(3, expected.size());
+        for (int chunkSize : new int[] {1, 20, 100000}) {
+            assertEquals(expected, readInParallel(2, chunkSize));
+        }
+    }
+
+    public void testBadLine() throws Exception {
+        writeFile("ctg1\t.\tgene\t1\t90\t.\t+\t.\tID=g1\n"
+                + "ctg1\t.\tgene\tone\t90\t.\t+\t.\tID=g2\n"
+                + "ctg1\t.\tgene\t1\t90\t.\t+\t.\tID=g3\n");
+        ParallelGFF3Reader reader = new ParallelGFF3Reader(file, 2, 1000);
+        assertEquals("g1", reader.next().getId());
+        try {
+            reader.hasNext();
+            fail("Expected RuntimeException");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertTrue(e.getCause().getMessage().startsWith("can not parse integer"));
+        }
+        assertFalse(reader.hasNext());
+    }
+
+    public void testEmptyAndClosed() throws Exception {
+        writeFile("");
+        assertTrue(readInParallel(2, 100).isEmpty());
+        writeFile(testData());
+        ParallelGFF3Reader reader = new ParallelGFF3Reader(file, 2, 50);
+        assertTrue(reader.hasNext());
+        reader.next();
+        reader.close();
+        assertFalse(reader.hasNext());
+    }
+}
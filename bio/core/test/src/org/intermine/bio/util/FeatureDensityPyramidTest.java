@@ -0,0 +1,127 @@
+package org.intermine.bio.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for FeatureDensityPyramid.
+ *
+ * @author intermine
+ */
+public class FeatureDensityPyramidTest extends TestCase
+{
+    private static final int LENGTH = 1000000;
+
+    private int[][] features;
+    private FeatureDensityPyramid pyramid;
+
+    public FeatureDensityPyramidTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() {
+        Random random = new Random(11);
+        features = new int[2000][];
+        FeatureDensityPyramid.Builder builder = new FeatureDensityPyramid.Builder(6);
+        for (int i = 0; i < features.length; i++) {
+            // base coordinates, mostly short, a few long and a few on the reverse strand
+            int start = 1 + random.nextInt(LENGTH - 1);
+            int length = (i % 100 == 0) ? random.nextInt(200000) : random.nextInt(3000);
+            int end = Math.min(LENGTH, start + length);
+            features[i] = new int[] {start, end};
+            if (i % 10 == 0) {
+                builder.add("7227", "2L", "Gene", end, start);
+            } else {
+                builder.add("7227", "2L", "Gene", start, end);
+            }
+        }
+        builder.add("7227", "3R", "Exon", 100, 200);
+        pyramid = builder.build();
+    }
+
+    // the number of features that overlap the interbase range [start, end)
+    private int overlapping(int start, int end) {
+        int count = 0;
+        for (int[] feature : features) {
+            if (feature[0] - 1 < end && feature[1] > start) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testAlignedRangesAreExact() {
+        assertEquals(64, pyramid.getMinBinWidth());
+        for (int width = 64; width <= 1 << 20; width *= 2) {
+            for (int start = 0; start < LENGTH; start += width * 7) {
+                assertEquals(width + " " + start, overlapping(start, start + width),
+                        pyramid.count("7227", "2L", "Gene", start, start + width));
+            }
+        }
+    }
+
+    public void testRangesOfSeveralBinsAreExact() {
+        Random random = new Random(5);
+        for (int i = 0; i < 200; i++) {
+            int start = 64 * random.nextInt(LENGTH / 64);
+            int end = start + 64 * (2 + random.nextInt(1000));
+            assertEquals(start + " " + end, overlapping(start, end),
+                    pyramid.count("7227", "2L", "Gene", start, end));
+        }
+    }
+
+    public void testUnalignedRanges() {
+        Random random = new Random(3);
+        for (int i = 0; i < 200; i++) {
+            int start = random.nextInt(LENGTH);
+            int end = start + 1 + random.nextInt(50000);
+            int expected = overlapping(start, end);
+            int count = pyramid.count("7227", "2L", "Gene", start, end);
+            // the estimate is no worse than the features crossing the partly covered bins
+            int width = 64;
+            while (width * 2 <= end - start) {
+                width *= 2;
+            }
+            int slack = overlapping(start - width, start + width)
+                + overlapping(end - width, end + width);
+            assertTrue(expected + " " + count, Math.abs(expected - count) <= slack);
+        }
+    }
+
+    public void testMissing() {
+        assertTrue(pyramid.hasOrganism("7227"));
+        assertFalse(pyramid.hasOrganism("9606"));
+        assertEquals(0, pyramid.count("7227", "X", "Gene", 0, 1000));
+        assertEquals(0, pyramid.count("7227", "3R", "Gene", 0, 1000));
+        assertEquals(1, pyramid.count("7227", "3R", "Exon", 0, 1000));
+        assertEquals(0, pyramid.count("7227", "3R", "Exon", 256, 1000));
+        assertEquals(0, pyramid.count("7227", "2L", "Gene", 10, 10));
+    }
+
+    public void testReadWrite() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pyramid.write(out);
+        FeatureDensityPyramid read =
+            FeatureDensityPyramid.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(pyramid.getMinBinWidth(), read.getMinBinWidth());
+        for (int start = 0; start < LENGTH; start += 12345) {
+            assertEquals(pyramid.count("7227", "2L", "Gene", start, start + 20000),
+                    read.count("7227", "2L", "Gene", start, start + 20000));
+        }
+        assertEquals(1, read.count("7227", "3R", "Exon", 0, 100));
+    }
+}
@@ -59,11 +59,12 @@ import org.intermine.util.DynamicUtil;
 public class CalculateLocations
 {
     private static final Logger LOG = Logger.getLogger(CalculateLocations.class);
+    private static final int STORE_BATCH_SIZE = 1000;
 
     protected ObjectStoreWriter osw;
     protected ObjectStore os;
     private Model model;
-
+    private int threads = 1;
 
 
     /**
@@ -76,6 +77,17 @@ public class CalculateLocations
         this.model = os.getModel();
     }
 
+    /**
+     * Set the number of ObjectStoreWriters to store updated features with when setting
+     * chromosome references.  Defaults to 1, which uses the ObjectStoreWriter passed to the
+     * constructor.
+     *
+     * @param threads the number of worker threads
+     */
+    public void setPostprocessThreads(String threads) {
+        this.threads = WriterPool.parseThreads(threads);
+    }
+
 
     /**
      * Create OverlapRelation objects for all overlapping SequenceFeatures by querying
@@ -367,46 +379,7 @@ public class CalculateLocations
     public void setChromosomeLocationsAndLengths() throws Exception {
         Results results = BioQueries.findLocationAndObjects(os, Chromosome.class,
                 SequenceFeature.class, true, false, false, 10000);
-        Iterator<?> resIter = results.iterator();
-
-        osw.beginTransaction();
-
-        // we need to check that there is only one location before setting chromosome[Location]
-        // references.  If there are duplicates do nothing - this has happened for some affy
-        // probes in FlyMine.
-        Integer lastChrId = null;
-        SequenceFeature lastFeature = null;
-        boolean storeLastFeature = true;  // will get set to false if duplicate locations seen
-        Location lastLoc = null;
-
-        while (resIter.hasNext()) {
-            ResultsRow<?> rr = (ResultsRow<?>) resIter.next();
-
-            Integer chrId = (Integer) rr.get(0);
-            SequenceFeature lsf = (SequenceFeature) rr.get(1);
-            Location locOnChr = (Location) rr.get(2);
-
-            if (lastFeature != null && !lsf.getId().equals(lastFeature.getId())) {
-                // not a duplicated so we can set references for last feature
-                if (storeLastFeature) {
-                    setChromosomeReferencesAndStore(lastFeature, lastLoc, lastChrId);
-                }
-                storeLastFeature = true;
-            } else if (lastFeature != null) {
-                storeLastFeature = false;
-            }
-
-            lastFeature = lsf;
-            lastChrId = chrId;
-            lastLoc = locOnChr;
-        }
-
-        // make sure final feature gets stored
-        if (storeLastFeature && lastFeature != null) {
-            setChromosomeReferencesAndStore(lastFeature, lastLoc, lastChrId);
-        }
-
-        osw.commitTransaction();
+        setChromosomeReferences(results);
     }
 
 
@@ -419,52 +392,121 @@ public class CalculateLocations
     public void setMissingChromosomeLocations() throws Exception {
         Results results = BioQueries.findLocationAndObjects(os, Chromosome.class,
                 SequenceFeature.class, false, false, true, 10000);
-        Iterator<?> resIter = results.iterator();
+        int count = setChromosomeReferences(results);
+        LOG.info("Set missing chromosomeLocation references for " + count + " features.");
+    }
 
-        osw.beginTransaction();
+    /**
+     * Set the chromosome references of the features in the results of a findLocationAndObjects
+     * query, which must be ordered by feature.  The features are read here in a single pass, and
+     * if more than one thread is configured they are stored in batches by a pool of writers.
+     * <p>
+     * With one thread all the features are stored in a single transaction.  With a pool each
+     * batch is committed in its own transaction, so if a batch fails the batches already
+     * committed stay in the database.  That is safe because the references are recalculated
+     * from the Locations every time: running the step again sets the same references on the
+     * features that were done, and completes the rest.
+     *
+     * @return the number of rows read
+     */
+    private int setChromosomeReferences(Results results) throws Exception {
+        Iterator<?> resIter = results.iterator();
 
-        // we need to check that there is only one location before setting chromosome[Location]
-        // references.  If there are duplicates do nothing - this has happened for some affy
-        // probes in FlyMine.
-        Integer lastChrId = null;
-        SequenceFeature lastFeature = null;
-        boolean storeLastFeature = true;  // will get set to false if duplicate locations seen
-        Location lastLoc = null;
-        int count = 0;
+        WriterPool pool = null;
+        if (threads > 1) {
+            LOG.info("Storing chromosome references using " + threads + " threads");
+            pool = new WriterPool(os, threads);
+        } else {
+            osw.beginTransaction();
+        }
+        List<Object[]> batch = new ArrayList<Object[]>();
 
-        while (resIter.hasNext()) {
-            ResultsRow<?> rr = (ResultsRow<?>) resIter.next();
+        try {
+            // we need to check that there is only one location before setting chromosome[Location]
+            // references.  If there are duplicates do nothing - this has happened for some affy
+            // probes in FlyMine.
+            Integer lastChrId = null;
+            SequenceFeature lastFeature = null;
+            boolean storeLastFeature = true;  // will get set to false if duplicate locations seen
+            Location lastLoc = null;
+            int count = 0;
+
+            while (resIter.hasNext()) {
+                ResultsRow<?> rr = (ResultsRow<?>) resIter.next();
+
+                Integer chrId = (Integer) rr.get(0);
+                SequenceFeature lsf = (SequenceFeature) rr.get(1);
+                Location locOnChr = (Location) rr.get(2);
+
+                if (lastFeature != null && !lsf.getId().equals(lastFeature.getId())) {
+                    // not a duplicated so we can set references for last feature
+                    if (storeLastFeature) {
+                        batch.add(new Object[] {lastFeature, lastLoc, lastChrId});
+                        if (batch.size() >= STORE_BATCH_SIZE) {
+                            storeBatch(pool, batch);
+                            batch = new ArrayList<Object[]>();
+                        }
+                    }
+                    storeLastFeature = true;
+                } else if (lastFeature != null) {
+                    storeLastFeature = false;
+                }
 
-            Integer chrId = (Integer) rr.get(0);
-            SequenceFeature lsf = (SequenceFeature) rr.get(1);
-            Location locOnChr = (Location) rr.get(2);
+                lastFeature = lsf;
+                lastChrId = chrId;
+                lastLoc = locOnChr;
+                count++;
+            }
 
-            if (lastFeature != null && !lsf.getId().equals(lastFeature.getId())) {
-                // not a duplicated so we can set references for last feature
-                if (storeLastFeature) {
-                    setChromosomeReferencesAndStore(lastFeature, lastLoc, lastChrId);
-                }
-                storeLastFeature = true;
-            } else if (lastFeature != null) {
-                storeLastFeature = false;
+            // make sure final feature gets stored
+            if (storeLastFeature && lastFeature != null) {
+                batch.add(new Object[] {lastFeature, lastLoc, lastChrId});
             }
+            storeBatch(pool, batch);
+            if (pool == null) {
+                osw.commitTransaction();
+            } else {
+                pool.finish();
+                pool = null;
+            }
+            return count;
+        } finally {
+            if (pool != null) {
+                // we are already failing, so don't let the pool hide the original exception
+                pool.abort();
+            } else if (osw.isInTransaction()) {
+                osw.abortTransaction();
+            }
+        }
+    }
 
-            lastFeature = lsf;
-            lastChrId = chrId;
-            lastLoc = locOnChr;
-            count++;
+    /**
+     * Store a batch of features with their chromosome references set, either on the pool or, if
+     * there is no pool, in the current transaction of the main writer.
+     */
+    private void storeBatch(WriterPool pool, final List<Object[]> batch) throws Exception {
+        if (pool == null) {
+            storeBatch(batch, osw);
+        } else if (!batch.isEmpty()) {
+            pool.submit(new WriterPool.Task() {
+                @Override
+                public void run(ObjectStoreWriter batchWriter) throws Exception {
+                    storeBatch(batch, batchWriter);
+                }
+            });
         }
+    }
 
-        // make sure final feature gets stored
-        if (storeLastFeature && lastFeature != null) {
-            setChromosomeReferencesAndStore(lastFeature, lastLoc, lastChrId);
+    private void storeBatch(List<Object[]> batch, ObjectStoreWriter batchWriter)
+        throws Exception {
+        for (Object[] row : batch) {
+            setChromosomeReferencesAndStore((SequenceFeature) row[0], (Location) row[1],
+                    (Integer) row[2], batchWriter);
         }
-        osw.commitTransaction();
-        LOG.info("Set missing chromosomeLocation references for " + count + " features.");
     }
 
     private void setChromosomeReferencesAndStore(SequenceFeature lsf, Location loc,
-                                                 Integer chrId) throws Exception {
+            Integer chrId, ObjectStoreWriter featureWriter) throws Exception {
         SequenceFeature lsfClone = PostProcessUtil.cloneInterMineObject(lsf);
 
         lsfClone.setChromosomeLocation(loc);
@@ -480,7 +522,7 @@ public class CalculateLocations
         }
         lsfClone.proxyChromosome(new ProxyReference(os, chrId, Chromosome.class));
 
-        osw.store(lsfClone);
+        featureWriter.store(lsfClone);
     }
 
     /**
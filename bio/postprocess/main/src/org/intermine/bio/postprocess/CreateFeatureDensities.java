@@ -0,0 +1,156 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.intermine.bio.util.FeatureDensityPyramid;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.Model;
+import org.intermine.modelproduction.MetadataManager;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * Count the SequenceFeatures of each class that overlap bins along each chromosome, at each
+ * resolution of a FeatureDensityPyramid, and store the pyramid in the metadata table for the
+ * JBrowse feature density endpoint.
+ *
+ * @author intermine
+ */
+public class CreateFeatureDensities
+{
+    private static final Logger LOG = Logger.getLogger(CreateFeatureDensities.class);
+
+    protected ObjectStoreWriter osw;
+    private Model model;
+    private int minShift = FeatureDensityPyramid.DEFAULT_MIN_SHIFT;
+
+    /**
+     * Construct with an ObjectStoreWriter to read the features from and store the counts in.
+     * @param osw an ObjectStoreWriter
+     */
+    public CreateFeatureDensities(ObjectStoreWriter osw) {
+        this.osw = osw;
+        this.model = osw.getModel();
+    }
+
+    /**
+     * Set the width of the narrowest bins, which is rounded down to a power of two.
+     * @param minBinWidth the width in bases
+     */
+    public void setMinBinWidth(String minBinWidth) {
+        int width = Integer.parseInt(minBinWidth.trim());
+        if (width < 1) {
+            throw new IllegalArgumentException("minBinWidth must be at least 1: " + width);
+        }
+        minShift = 31 - Integer.numberOfLeadingZeros(width);
+    }
+
+    /**
+     * Count the features of SequenceFeature and each of its subclasses, and store the counts.
+     * @throws Exception if anything goes wrong
+     */
+    public void create() throws Exception {
+        ObjectStore os = osw.getObjectStore();
+        if (!(os instanceof ObjectStoreInterMineImpl)) {
+            throw new RuntimeException("The ObjectStore is not an ObjectStoreInterMineImpl");
+        }
+        ClassDescriptor sequenceFeature = model.getClassDescriptorByName("SequenceFeature");
+        if (sequenceFeature == null) {
+            LOG.warn("No SequenceFeature in the model, not creating feature densities");
+            return;
+        }
+        List<ClassDescriptor> featureClasses = new ArrayList<ClassDescriptor>();
+        featureClasses.add(sequenceFeature);
+        featureClasses.addAll(model.getAllSubs(sequenceFeature));
+
+        long start = System.currentTimeMillis();
+        FeatureDensityPyramid.Builder builder = new FeatureDensityPyramid.Builder(minShift);
+        for (ClassDescriptor cld : featureClasses) {
+            Results res = os.execute(getLocationQuery(cld), 10000, true, false, true);
+            int count = 0;
+            Iterator<?> iter = res.iterator();
+            while (iter.hasNext()) {
+                ResultsRow<?> row = (ResultsRow<?>) iter.next();
+                Integer featureStart = (Integer) row.get(2);
+                Integer featureEnd = (Integer) row.get(3);
+                if (row.get(0) == null || row.get(1) == null || featureStart == null
+                        || featureEnd == null) {
+                    continue;
+                }
+                builder.add(row.get(0).toString(), (String) row.get(1), cld.getUnqualifiedName(),
+                        featureStart.intValue(), featureEnd.intValue());
+                count++;
+            }
+            if (count > 0) {
+                LOG.info("Counted " + count + " " + cld.getUnqualifiedName() + " locations");
+            }
+        }
+        FeatureDensityPyramid pyramid = builder.build();
+
+        OutputStream out = MetadataManager.storeLargeBinary(
+                ((ObjectStoreInterMineImpl) os).getDatabase(), MetadataManager.FEATURE_DENSITIES);
+        pyramid.write(out);
+        LOG.info("Created feature densities in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Return a query for the taxon id, chromosome primaryIdentifier, start and end of the
+     * chromosome locations of the features of a class and its subclasses.
+     */
+    private Query getLocationQuery(ClassDescriptor cld) {
+        Query q = new Query();
+        QueryClass qcFeature = new QueryClass(cld.getType());
+        QueryClass qcLocation =
+            new QueryClass(model.getClassDescriptorByName("Location").getType());
+        QueryClass qcChromosome =
+            new QueryClass(model.getClassDescriptorByName("Chromosome").getType());
+        QueryClass qcOrganism =
+            new QueryClass(model.getClassDescriptorByName("Organism").getType());
+        q.addFrom(qcFeature);
+        q.addFrom(qcLocation);
+        q.addFrom(qcChromosome);
+        q.addFrom(qcOrganism);
+        q.addToSelect(new QueryField(qcOrganism, "taxonId"));
+        q.addToSelect(new QueryField(qcChromosome, "primaryIdentifier"));
+        q.addToSelect(new QueryField(qcLocation, "start"));
+        q.addToSelect(new QueryField(qcLocation, "end"));
+        q.setDistinct(false);
+
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(new ContainsConstraint(
+                new QueryObjectReference(qcFeature, "chromosomeLocation"), ConstraintOp.CONTAINS,
+                qcLocation));
+        cs.addConstraint(new ContainsConstraint(
+                new QueryObjectReference(qcFeature, "chromosome"), ConstraintOp.CONTAINS,
+                qcChromosome));
+        cs.addConstraint(new ContainsConstraint(
+                new QueryObjectReference(qcFeature, "organism"), ConstraintOp.CONTAINS,
+                qcOrganism));
+        q.setConstraint(cs);
+        return q;
+    }
+}
@@ -100,10 +100,12 @@ public class PostProcessOperationsTask extends DynamicAttributeTask
         try {
             if ("create-chromosome-locations-and-lengths".equals(operation)) {
                 CalculateLocations cl = new CalculateLocations(getObjectStoreWriter());
+                configureDynamicAttributes(cl);
                 LOGGER.info("Starting CalculateLocations.setChromosomeLocationsAndLengths()");
                 cl.setChromosomeLocationsAndLengths();
             } else if ("set-missing-chromosome-locations".equals(operation)) {
                 CalculateLocations cl = new CalculateLocations(getObjectStoreWriter());
+                configureDynamicAttributes(cl);
                 LOGGER.info("Starting CalculateLocations.setMissingChromosomeLocations()");
                 cl.setMissingChromosomeLocations();
             } else if ("create-references".equals(operation)) {
@@ -116,10 +118,11 @@ public class PostProcessOperationsTask extends DynamicAttributeTask
                 cr.createUtrRefs();
             } else if ("transfer-sequences".equals(operation)) {
                 TransferSequences ts = new TransferSequences(getObjectStoreWriter());
-                ts = new TransferSequences(getObjectStoreWriter());
+                configureDynamicAttributes(ts);
                 LOGGER.info("Starting TransferSequences.transferToLocatedSequenceFeatures()");
                 ts.transferToLocatedSequenceFeatures();
                 ts = new TransferSequences(getObjectStoreWriter());
+                configureDynamicAttributes(ts);
                 LOGGER.info("Starting TransferSequences.transferToTranscripts()");
                 ts.transferToTranscripts();
             } else if ("make-spanning-locations".equals(operation)) {
@@ -218,6 +221,10 @@ public class PostProcessOperationsTask extends DynamicAttributeTask
                 CreateLocationOverlapIndex cloi =
                         new CreateLocationOverlapIndex(getObjectStoreWriter());
                 cloi.create();
+            } else if ("create-feature-densities".equals(operation)) {
+                CreateFeatureDensities cfd = new CreateFeatureDensities(getObjectStoreWriter());
+                configureDynamicAttributes(cfd);
+                cfd.create();
             }
 
         } catch (BuildException e) {
@@ -59,6 +59,8 @@ public class TransferSequences
 {
     protected ObjectStoreWriter osw;
     private Model model;
+    private int threads = 1;
+    private boolean packResidues = false;
     private static final Logger LOG = Logger.getLogger(TransferSequences.class);
 
     /**
@@ -70,6 +72,27 @@ public class TransferSequences
         this.model = osw.getModel();
     }
 
+    /**
+     * Set the number of chromosomes to transfer sequences for at once, each with its own
+     * ObjectStoreWriter.  Defaults to 1, which uses the ObjectStoreWriter passed to the
+     * constructor.
+     *
+     * @param threads the number of worker threads
+     */
+    public void setPostprocessThreads(String threads) {
+        this.threads = WriterPool.parseThreads(threads);
+    }
+
+    /**
+     * Set whether the transcript sequences created are stored packed three bases to a character.
+     * Defaults to false.
+     *
+     * @param packResidues "true" to pack the residues
+     */
+    public void setPackResidues(String packResidues) {
+        this.packResidues = Boolean.parseBoolean(packResidues);
+    }
+
     private void storeNewSequence(SequenceFeature feature, ClobAccess sequenceString)
         throws ObjectStoreException {
         Sequence sequence =
@@ -116,23 +139,56 @@ public class TransferSequences
         LOG.info("Found " + chromosomes.size() + " chromosomes with sequence, took "
                 + (System.currentTimeMillis() - startTime) + " ms.");
 
-        for (Chromosome chr : chromosomes) {
-            String organism = "";
-            if (chr.getOrganism() != null) {
-                organism = chr.getOrganism().getShortName();
+        if (threads <= 1) {
+            for (Chromosome chr : chromosomes) {
+                LOG.info("Starting transfer for " + describe(chr));
+                osw.beginTransaction();
+                transferForChromosome(chr, osw);
+                osw.commitTransaction();
+            }
+            return;
+        }
+
+        LOG.info("Transferring sequences using " + threads + " threads");
+        WriterPool pool = new WriterPool(os, threads);
+        boolean submitted = false;
+        try {
+            for (final Chromosome chr : chromosomes) {
+                pool.submit(new WriterPool.Task() {
+                    @Override
+                    public void run(ObjectStoreWriter chrWriter) throws Exception {
+                        LOG.info("Starting transfer for " + describe(chr));
+                        transferForChromosome(chr, chrWriter);
+                    }
+                });
+            }
+            submitted = true;
+        } finally {
+            if (!submitted) {
+                pool.abort();
             }
-            LOG.info("Starting transfer for " + organism + " chromosome "
-                    + chr.getPrimaryIdentifier());
-            transferForChromosome(chr);
         }
+        pool.finish();
     }
 
+    private static String describe(Chromosome chr) {
+        String organism = "";
+        if (chr.getOrganism() != null) {
+            organism = chr.getOrganism().getShortName();
+        }
+        return organism + " chromosome " + chr.getPrimaryIdentifier();
+    }
 
-    private void transferForChromosome(Chromosome chr) throws Exception {
+    /**
+     * Store sequences for the features located on one chromosome, inside a transaction that the
+     * caller has already started on the given writer.
+     */
+    private void transferForChromosome(Chromosome chr, ObjectStoreWriter chrWriter)
+        throws Exception {
 
         long startTime = System.currentTimeMillis();
 
-        ObjectStore os = osw.getObjectStore();
+        ObjectStore os = chrWriter.getObjectStore();
         Query q = new Query();
         q.setDistinct(false);
         QueryClass qcChr = new QueryClass(Chromosome.class);
@@ -167,8 +223,6 @@ public class TransferSequences
 
         q.setConstraint(cs);
 
-        osw.beginTransaction();
-
         Set<QueryNode> indexesToCreate = new HashSet<QueryNode>();
         indexesToCreate.add(qcLoc);
         indexesToCreate.add(qcSub);
@@ -178,6 +232,11 @@ public class TransferSequences
 
         @SuppressWarnings("unchecked") Iterator<ResultsRow> resIter = (Iterator) results.iterator();
 
+        // Fetch the chromosome's residues once: every feature's sequence is stored as a
+        // reference to a range of this clob, sharing its pages, rather than as a copy.
+        ClobAccess chrResidues = chr.getSequence().getResidues();
+        int chrLength = chrResidues.length();
+
         long start = System.currentTimeMillis();
         int i = 0;
         while (resIter.hasNext()) {
@@ -227,7 +286,7 @@ public class TransferSequences
                     }
                 }
 
-                ClobAccess featureSeq = getSubSequence(chr.getSequence(), locationOnChr);
+                ClobAccess featureSeq = getSubSequence(chrResidues, chrLength, locationOnChr);
 
                 if (featureSeq == null) {
                     // probably the locationOnChr is out of range
@@ -238,11 +297,11 @@ public class TransferSequences
                     (Sequence) DynamicUtil.createObject(Collections.singleton(Sequence.class));
                 sequence.setResidues(featureSeq);
                 sequence.setLength(featureSeq.length());
-                osw.store(sequence);
+                chrWriter.store(sequence);
                 SequenceFeature cloneLsf = PostProcessUtil.cloneInterMineObject(feature);
                 cloneLsf.setSequence(sequence);
                 cloneLsf.setLength(new Integer(featureSeq.length()));
-                osw.store(cloneLsf);
+                chrWriter.store(cloneLsf);
                 i++;
                 if (i % 1000 == 0) {
                     long now = System.currentTimeMillis();
@@ -257,23 +316,16 @@ public class TransferSequences
             }
         }
 
-        osw.commitTransaction();
-
-        String organism = "";
-        if (chr.getOrganism() != null) {
-            organism = chr.getOrganism().getShortName();
-        }
-        LOG.info("Finished setting " + i + " feature sequences for " + organism + " chromosome "
-                + chr.getPrimaryIdentifier() + " - took "
+        LOG.info("Finished setting " + i + " feature sequences for " + describe(chr) + " - took "
                 + (System.currentTimeMillis() - startTime) + " ms.");
     }
 
-    private static ClobAccess getSubSequence(Sequence chromosomeSequence, Location locationOnChr) {
+    private static ClobAccess getSubSequence(ClobAccess chromosomeSequenceString, int chrLength,
+            Location locationOnChr) {
         int charsToCopy =
             locationOnChr.getEnd().intValue() - locationOnChr.getStart().intValue() + 1;
-        ClobAccess chromosomeSequenceString = chromosomeSequence.getResidues();
 
-        if (charsToCopy > chromosomeSequenceString.length()) {
+        if (charsToCopy > chrLength) {
             LOG.warn("SequenceFeature too long, ignoring - Location: "
                       + locationOnChr.getId() + "  LSF id: " + locationOnChr.getFeature());
             return null;
@@ -288,7 +340,7 @@ public class TransferSequences
             return null;
         }
 
-        if (endPos > chromosomeSequenceString.length()) {
+        if (endPos > chrLength) {
             LOG.warn(" has end coordinate greater than chromsome length."
                       + "ignoring Location: "
                       + locationOnChr.getId() + "  LSF id: " + locationOnChr.getFeature());
@@ -412,7 +464,7 @@ public class TransferSequences
                 if (currentTranscript != null) {
                     // copy sequence to transcript
                     storeNewSequence(currentTranscript,
-                            new PendingClob(currentTranscriptBases.toString()));
+                            new PendingClob(currentTranscriptBases.toString(), packResidues));
                     i++;
                     if (i % 100 == 0) {
                         long now = System.currentTimeMillis();
@@ -437,7 +489,8 @@ public class TransferSequences
         if (currentTranscript == null) {
             LOG.error("in transferToTranscripts(): no Transcripts found");
         } else {
-            storeNewSequence(currentTranscript, new PendingClob(currentTranscriptBases.toString()));
+            storeNewSequence(currentTranscript,
+                    new PendingClob(currentTranscriptBases.toString(), packResidues));
         }
 
         LOG.info("Finished setting " + i + " Trascript sequences - took "
@@ -0,0 +1,223 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreWriter;
+
+/**
+ * A fixed pool of worker threads for postprocess steps, each of which owns its own
+ * ObjectStoreWriter. Each submitted task is run inside a transaction on the writer of the thread
+ * that runs it, so independent pieces of work (for example one chromosome each) can be stored
+ * concurrently.
+ * <p>
+ * Every task commits separately, so when a task fails the tasks that have already finished stay
+ * committed. Steps that use the pool must therefore be safe to run again after a failure.
+ * Callers should call finish() once all their tasks are submitted, which reports any failure,
+ * and abort() instead if they are giving up because of an exception of their own.
+ *
+ * @author intermine
+ */
+public class WriterPool
+{
+    private static final Logger LOG = Logger.getLogger(WriterPool.class);
+
+    private final ObjectStore os;
+    private final ExecutorService executor;
+    private final Semaphore queued;
+    private final List<ObjectStoreWriter> writers = new ArrayList<ObjectStoreWriter>();
+    private final ThreadLocal<ObjectStoreWriter> threadWriter =
+        new ThreadLocal<ObjectStoreWriter>();
+    private Exception failure = null;
+    private boolean aborted = false;
+
+    /**
+     * A unit of work to run on one of the pool's writers.
+     */
+    public interface Task
+    {
+        /**
+         * Performs the work. A transaction has already been started on the writer, and will be
+         * committed when this method returns normally or aborted if it throws.
+         *
+         * @param osw the writer owned by the thread running this task
+         * @throws Exception if anything goes wrong
+         */
+        void run(ObjectStoreWriter osw) throws Exception;
+    }
+
+    /**
+     * Creates a pool of the given number of threads, writing to the given ObjectStore.
+     *
+     * @param os the ObjectStore to create writers for
+     * @param threads the number of worker threads, and so of writers
+     */
+    public WriterPool(ObjectStore os, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, got " + threads);
+        }
+        this.os = os;
+        this.executor = Executors.newFixedThreadPool(threads);
+        // allow each worker one task waiting behind the one it is running, so that callers
+        // producing tasks from a query do not hold the whole result set in memory
+        this.queued = new Semaphore(threads * 2);
+    }
+
+    /**
+     * Parses a thread count setting, as configured for a postprocess step.
+     *
+     * @param threads the setting, which may be null or blank
+     * @return the number of threads, or 1 if the setting is not given
+     */
+    public static int parseThreads(String threads) {
+        if (threads == null || threads.trim().length() == 0) {
+            return 1;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(threads.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid thread count: " + threads, e);
+        }
+    }
+
+    /**
+     * Submits a task to run on the next free worker, blocking while the pool's queue is full.
+     *
+     * @param task the task to run
+     * @throws Exception if an earlier task failed, in which case no further tasks are run
+     */
+    public void submit(final Task task) throws Exception {
+        checkFailure();
+        queued.acquire();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (hasFailed()) {
+                        return;
+                    }
+                    ObjectStoreWriter osw = getWriter();
+                    osw.beginTransaction();
+                    try {
+                        task.run(osw);
+                        osw.commitTransaction();
+                    } finally {
+                        if (osw.isInTransaction()) {
+                            osw.abortTransaction();
+                        }
+                    }
+                } catch (Exception e) {
+                    fail(e);
+                } finally {
+                    queued.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for all submitted tasks to finish and closes the pool's writers.
+     *
+     * @throws Exception the first exception thrown by any task
+     */
+    public void finish() throws Exception {
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            LOG.info("Waiting for postprocess workers to finish");
+        }
+        closeWriters();
+        checkFailure();
+    }
+
+    /**
+     * Stops the pool without throwing, for use when the caller is already handling an exception.
+     * Tasks that have not started are skipped, tasks that are running are waited for, and the
+     * writers are closed. Any failure of a task is logged rather than thrown.
+     */
+    public void abort() {
+        synchronized (this) {
+            aborted = true;
+        }
+        executor.shutdown();
+        boolean interrupted = false;
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.info("Waiting for postprocess workers to stop");
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+            executor.shutdownNow();
+        }
+        closeWriters();
+        synchronized (this) {
+            if (failure != null) {
+                LOG.error("Postprocess worker failed", failure);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeWriters() {
+        synchronized (writers) {
+            for (ObjectStoreWriter osw : writers) {
+                try {
+                    osw.close();
+                } catch (ObjectStoreException e) {
+                    LOG.warn("Failed to close writer", e);
+                }
+            }
+            writers.clear();
+        }
+    }
+
+    private ObjectStoreWriter getWriter() throws ObjectStoreException {
+        ObjectStoreWriter osw = threadWriter.get();
+        if (osw == null) {
+            osw = os.getNewWriter();
+            threadWriter.set(osw);
+            synchronized (writers) {
+                writers.add(osw);
+            }
+        }
+        return osw;
+    }
+
+    private synchronized void fail(Exception e) {
+        if (failure == null) {
+            failure = e;
+        } else {
+            LOG.error("Further failure in postprocess worker", e);
+        }
+    }
+
+    private synchronized boolean hasFailed() {
+        return failure != null || aborted;
+    }
+
+    private synchronized void checkFailure() throws Exception {
+        if (failure != null) {
+            Exception e = new Exception("Postprocess worker failed");
+            e.initCause(failure);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.intermine.bio.postprocess;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.dummy.ObjectStoreWriterDummyImpl;
+
+/**
+ * Tests for the WriterPool class.
+ */
+public class WriterPoolTest extends TestCase
+{
+    private CountingObjectStore os;
+
+    public WriterPoolTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        os = new CountingObjectStore();
+    }
+
+    public void testRunsAllTasks() throws Exception {
+        WriterPool pool = new WriterPool(os, 3);
+        final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < 20; i++) {
+            final Integer taskNo = new Integer(i);
+            pool.submit(new WriterPool.Task() {
+                @Override
+                public void run(ObjectStoreWriter osw) throws Exception {
+                    assertTrue(osw.isInTransaction());
+                    done.add(taskNo);
+                }
+            });
+        }
+        pool.finish();
+        assertEquals(20, done.size());
+        assertEquals(20, os.commits.get());
+        assertEquals(0, os.aborts.get());
+        assertTrue(os.writers.get() <= 3);
+        assertEquals(os.writers.get(), os.closes.get());
+    }
+
+    public void testFailure() throws Exception {
+        WriterPool pool = new WriterPool(os, 2);
+        final Exception cause = new Exception("task failed");
+        pool.submit(new WriterPool.Task() {
+            @Override
+            public void run(ObjectStoreWriter osw) throws Exception {
+                throw cause;
+            }
+        });
+        try {
+            pool.finish();
+            fail("Expected an exception");
+        } catch (Exception e) {
+            assertSame(cause, e.getCause());
+        }
+        assertEquals(0, os.commits.get());
+        assertEquals(1, os.aborts.get());
+        assertEquals(os.writers.get(), os.closes.get());
+    }
+
+    public void testNoTasksAfterFailure() throws Exception {
+        WriterPool pool = new WriterPool(os, 1);
+        pool.submit(new WriterPool.Task() {
+            @Override
+            public void run(ObjectStoreWriter osw) throws Exception {
+                throw new Exception("task failed");
+            }
+        });
+        // The single worker runs tasks in order, so the second task is not run
+        final AtomicInteger run = new AtomicInteger();
+        try {
+            pool.submit(new WriterPool.Task() {
+                @Override
+                public void run(ObjectStoreWriter osw) throws Exception {
+                    run.incrementAndGet();
+                }
+            });
+        } catch (Exception e) {
+            // the failure may already have been seen
+        }
+        pool.abort();
+        assertEquals(0, run.get());
+        assertEquals(0, os.commits.get());
+    }
+
+    public void testAbort() throws Exception {
+        WriterPool pool = new WriterPool(os, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger run = new AtomicInteger();
+        pool.submit(new WriterPool.Task() {
+            @Override
+            public void run(ObjectStoreWriter osw) throws Exception {
+                started.countDown();
+                release.await();
+                run.incrementAndGet();
+            }
+        });
+        pool.submit(new WriterPool.Task() {
+            @Override
+            public void run(ObjectStoreWriter osw) throws Exception {
+                run.incrementAndGet();
+            }
+        });
+        started.await();
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                release.countDown();
+            }
+        };
+        releaser.start();
+        // Waits for the running task, skips the queued one, and doesn't throw
+        pool.abort();
+        assertEquals(1, run.get());
+        assertEquals(1, os.commits.get());
+        assertEquals(1, os.closes.get());
+    }
+
+    public void testParseThreads() throws Exception {
+        assertEquals(1, WriterPool.parseThreads(null));
+        assertEquals(1, WriterPool.parseThreads(" "));
+        assertEquals(1, WriterPool.parseThreads("0"));
+        assertEquals(4, WriterPool.parseThreads(" 4 "));
+        try {
+            WriterPool.parseThreads("four");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new WriterPool(os, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * An ObjectStore that hands out dummy writers, counting what is done with them.
+     */
+    private static class CountingObjectStore extends ObjectStoreDummyImpl
+    {
+        final AtomicInteger writers = new AtomicInteger();
+        final AtomicInteger commits = new AtomicInteger();
+        final AtomicInteger aborts = new AtomicInteger();
+        final AtomicInteger closes = new AtomicInteger();
+
+        @Override
+        public ObjectStoreWriter getNewWriter() {
+            writers.incrementAndGet();
+            return new ObjectStoreWriterDummyImpl(this) {
+                @Override
+                public void commitTransaction() throws ObjectStoreException {
+                    super.commitTransaction();
+                    commits.incrementAndGet();
+                }
+
+                @Override
+                public void abortTransaction() throws ObjectStoreException {
+                    super.abortTransaction();
+                    aborts.incrementAndGet();
+                }
+
+                @Override
+                public void close() throws ObjectStoreException {
+                    super.close();
+                    closes.incrementAndGet();
+                }
+            };
+        }
+    }
+}
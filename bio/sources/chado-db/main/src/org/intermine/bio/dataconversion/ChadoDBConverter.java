@@ -39,6 +39,8 @@ public class ChadoDBConverter extends BioDBConverter
 {
     protected static final Logger LOG = Logger.getLogger(ChadoDBConverter.class);
 
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+
     // a Map from chado organism_id to taxonId
     private final Map<Integer, OrganismData> chadoToOrgData = new HashMap<Integer, OrganismData>();
     private String processors = "";
@@ -51,6 +53,7 @@ public class ChadoDBConverter extends BioDBConverter
 
     private Connection connection;
 
+    private int fetchSize = DEFAULT_FETCH_SIZE;
 
     /**
      * Create a new ChadoDBConverter object.
@@ -105,6 +108,26 @@ public class ChadoDBConverter extends BioDBConverter
         this.processors = processors;
     }
 
+    /**
+     * Set the number of rows to fetch from chado at a time when reading the results of a query.
+     * @param fetchSize the number of rows
+     */
+    public void setFetchSize(String fetchSize) {
+        int rows = Integer.parseInt(fetchSize.trim());
+        if (rows < 1) {
+            throw new IllegalArgumentException("fetchSize must be at least 1: " + fetchSize);
+        }
+        this.fetchSize = rows;
+    }
+
+    /**
+     * Return the number of rows to fetch from chado at a time.
+     * @return the fetch size
+     */
+    int getFetchSize() {
+        return fetchSize;
+    }
+
     /**
      * Return a map from chado organism_id to OrganismData object for all the organisms that we
      * are processing
@@ -148,15 +171,33 @@ public class ChadoDBConverter extends BioDBConverter
             throw new RuntimeException("can't find any known organisms in the organism table");
         }
 
-        String[] bits = processors.trim().split("[ \\t]+");
-        for (int i = 0; i < bits.length; i++) {
-            String className = bits[i];
-            if (!StringUtils.isEmpty(className)) {
-                Class<?> cls = Class.forName(className);
-                Constructor<?> constructor = cls.getDeclaredConstructor(ChadoDBConverter.class);
-                ChadoProcessor currentProcessor = (ChadoProcessor) constructor.newInstance(this);
-                currentProcessor.process(getConnection());
-                getCompletedProcessors().add(currentProcessor);
+        // the postgres driver only reads results through a cursor, a fetch size at a time,
+        // inside a transaction
+        Connection conn = getConnection();
+        boolean autoCommit = conn != null && conn.getAutoCommit();
+        if (autoCommit) {
+            conn.setAutoCommit(false);
+        }
+        try {
+            String[] bits = processors.trim().split("[ \\t]+");
+            for (int i = 0; i < bits.length; i++) {
+                String className = bits[i];
+                if (!StringUtils.isEmpty(className)) {
+                    Class<?> cls = Class.forName(className);
+                    Constructor<?> constructor =
+                        cls.getDeclaredConstructor(ChadoDBConverter.class);
+                    ChadoProcessor currentProcessor =
+                        (ChadoProcessor) constructor.newInstance(this);
+                    currentProcessor.process(conn);
+                    getCompletedProcessors().add(currentProcessor);
+                    if (conn != null) {
+                        conn.commit();
+                    }
+                }
+            }
+        } finally {
+            if (autoCommit) {
+                conn.setAutoCommit(true);
             }
         }
     }
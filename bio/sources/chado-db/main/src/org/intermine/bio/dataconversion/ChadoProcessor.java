@@ -11,6 +11,9 @@ package org.intermine.bio.dataconversion;
  */
 
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
@@ -74,6 +77,22 @@ public abstract class ChadoProcessor
      */
     public abstract void process(Connection connection) throws Exception;
 
+    /**
+     * Run a query against chado.  The results are read through a server side cursor,
+     * ChadoDBConverter.getFetchSize() rows at a time, so that a query that returns a whole chado
+     * table doesn't need the whole table in memory.
+     * @param connection the database connection to chado
+     * @param query the SQL query
+     * @return the results
+     * @throws SQLException if there is a database problem
+     */
+    protected ResultSet executeQuery(Connection connection, String query) throws SQLException {
+        Statement stmt = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(chadoDBConverter.getFetchSize());
+        return stmt.executeQuery(query);
+    }
+
     /**
      * Set an attribute in an Item by creating an Attribute object and storing it.
      * @param intermineObjectId the intermine object ID of the item to create this attribute for.
@@ -10,6 +10,7 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -30,7 +31,8 @@ class FeatureData
     OrganismData organismData;
     private String uniqueName;
     private String chadoFeatureName;
-    private Set<String> existingSynonyms = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+    // created when the first synonym is added, most features never have one
+    private Set<String> existingSynonyms = null;
     private String itemIdentifier;
     private String interMineType;
     private Integer intermineObjectId;
@@ -253,9 +255,12 @@ class FeatureData
 
     /**
      * Return the set of identifiers for which Synonyms have been created.
-     * @return the existingSynonyms
+     * @return the existingSynonyms, which must not be changed - use addExistingSynonym()
      */
     public final Set<String> getExistingSynonyms() {
+        if (existingSynonyms == null) {
+            return Collections.emptySet();
+        }
         return existingSynonyms;
     }
 
@@ -267,6 +272,9 @@ class FeatureData
      * @param synonym identifier that has just been created as a synonym
      */
     public void addExistingSynonym(String synonym) {
+        if (existingSynonyms == null) {
+            existingSynonyms = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        }
         existingSynonyms.add(synonym);
     }
 
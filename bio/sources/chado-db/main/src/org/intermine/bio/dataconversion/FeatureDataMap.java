@@ -0,0 +1,224 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from chado feature_id to FeatureData that keeps the keys in an int array rather than as
+ * Integer objects in HashMap entries.  A chado database can have millions of features, and a
+ * HashMap costs about 50 bytes a feature before the FeatureData itself, where this map costs about
+ * 16.  The keys and values are held in open addressed arrays, found by linear probing.
+ *
+ * Entries can't be removed through the iterators of the entrySet(), keySet() or values().
+ *
+ * @author intermine
+ */
+class FeatureDataMap extends AbstractMap<Integer, FeatureData>
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] keys = new int[INITIAL_CAPACITY];
+    // 32 - log2(capacity), to take the top bits of the hash
+    private int shift = 32 - Integer.numberOfTrailingZeros(INITIAL_CAPACITY);
+    private FeatureData[] values = new FeatureData[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Create an empty FeatureDataMap.
+     */
+    FeatureDataMap() {
+        // empty
+    }
+
+    /**
+     * Return the slot of a key, or of the empty slot where it would go.
+     */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        // Fibonacci hashing - the high bits of the product depend on every bit of the key, but
+        // the low bits only on the low bits of the key, so the slot is taken from the top
+        int i = (key * 0x9E3779B9) >>> shift;
+        while (values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Return the FeatureData for a feature.
+     * @param featureId the chado feature_id
+     * @return the FeatureData, or null if there is none
+     */
+    public FeatureData get(int featureId) {
+        return values[slot(featureId)];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FeatureData get(Object key) {
+        if (key instanceof Integer) {
+            return get(((Integer) key).intValue());
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Set the FeatureData for a feature.
+     * @param featureId the chado feature_id
+     * @param featureData the FeatureData
+     * @return the previous FeatureData of the feature, or null if there was none
+     */
+    public FeatureData put(int featureId, FeatureData featureData) {
+        if (featureData == null) {
+            throw new NullPointerException("FeatureData for " + featureId + " is null");
+        }
+        int i = slot(featureId);
+        FeatureData old = values[i];
+        keys[i] = featureId;
+        values[i] = featureData;
+        if (old == null && ++size > keys.length / 4 * 3) {
+            resize();
+        }
+        return old;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FeatureData put(Integer key, FeatureData value) {
+        return put(key.intValue(), value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FeatureData remove(Object key) {
+        if (!(key instanceof Integer)) {
+            return null;
+        }
+        int i = slot(((Integer) key).intValue());
+        FeatureData old = values[i];
+        if (old == null) {
+            return null;
+        }
+        values[i] = null;
+        size--;
+        // move back any entries after the removed one that probed past it
+        int mask = keys.length - 1;
+        int j = (i + 1) & mask;
+        while (values[j] != null) {
+            int key2 = keys[j];
+            FeatureData value2 = values[j];
+            values[j] = null;
+            int k = slot(key2);
+            keys[k] = key2;
+            values[k] = value2;
+            j = (j + 1) & mask;
+        }
+        return old;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        FeatureData[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new FeatureData[oldValues.length * 2];
+        shift--;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Map.Entry<Integer, FeatureData>> entrySet() {
+        return new AbstractSet<Map.Entry<Integer, FeatureData>>() {
+            @Override
+            public Iterator<Map.Entry<Integer, FeatureData>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<Integer, FeatureData>>
+    {
+        private int next = 0;
+
+        public boolean hasNext() {
+            while (next < values.length && values[next] == null) {
+                next++;
+            }
+            return next < values.length;
+        }
+
+        public Map.Entry<Integer, FeatureData> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Integer, FeatureData> entry =
+                new SimpleImmutableEntry<Integer, FeatureData>(Integer.valueOf(keys[next]),
+                        values[next]);
+            next++;
+            return entry;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("remove() not supported");
+        }
+    }
+}
@@ -283,8 +283,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + WT_CLASS_CVTERM + "'";
 
         LOG.info("executing getChromosomeStructureVariationResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -502,8 +501,7 @@ public class FlyBaseProcessor extends SequenceProcessor
     protected ResultSet getLocatedGenesResultSet(Connection connection) throws SQLException {
         String query = getLocatedGenesSql();
         LOG.info("executing getLocatedGenesResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1275,8 +1273,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "            AND feature.feature_id IN (" + getAlleleFeaturesSql() + ")"
             + "            AND feature_cvterm.cvterm_id = cvterm.cvterm_id";
         LOG.info("executing getAlleleCVTermsResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1536,8 +1533,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "           AND feature.feature_id IN (" + getLocatedGenesSql() + ")"
             + "           AND other_feature.feature_id IN (" + getLocatedGenesSql() + ")";
         LOG.info("executing getInteractionResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1556,8 +1552,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "       AND feature_id IN (" + getAlleleFeaturesSql() + ")"
             + "   ORDER BY feature_id";
         LOG.info("executing getAllelePropResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1596,8 +1591,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             // ignore the progenitors so we only set element1 and element2 to be the "descendants"
             + "   AND ins.feature_id NOT IN (SELECT obj_id FROM " + INSERTION_TEMP_TABLE_NAME + ")";
         LOG.info("executing getIndelResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1615,8 +1609,7 @@ public class FlyBaseProcessor extends SequenceProcessor
     protected ResultSet getInsertionLocationsResultSet(Connection connection) throws SQLException  {
         String query = "SELECT * from " + INSERTION_TEMP_TABLE_NAME;
         LOG.info("executing getInsertionLocationsResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1647,8 +1640,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "     AND f.is_obsolete = false "
             + "     AND fl.srcfeature_id = c.feature_id ";
         LOG.info("executing getDeletionLocationResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
     /**
@@ -1672,8 +1664,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "        AND feature_id IN (" + getAlleleFeaturesSql() + ")"
             + "    ORDER BY featureprop_id";
         LOG.info("executing getAllelePropPubResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1695,8 +1686,7 @@ public class FlyBaseProcessor extends SequenceProcessor
             + "  AND fls.type_id=fls_type.cvterm_id ";
 
         LOG.info("executing getCDNALengthResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
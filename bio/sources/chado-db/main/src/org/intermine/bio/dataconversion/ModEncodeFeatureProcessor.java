@@ -280,8 +280,7 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
                 "SELECT name from cvterm where name like '%_match' ";
         LOG.info("executing: " + query);
         long bT = System.currentTimeMillis();
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         LOG.debug("QUERY TIME feature match types: " + (System.currentTimeMillis() - bT));
         return res;
     }
@@ -318,8 +317,7 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
                         + " (select feature_id from " + SUBFEATUREID_TEMP_TABLE_NAME + " ) ";
         LOG.info("executing: " + query);
         long bT = System.currentTimeMillis();
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         LOG.info("QUERY TIME feature " + featType + "_match: " + (System.currentTimeMillis() - bT));
         return res;
     }
@@ -644,8 +642,7 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
                         + "AND df.feature_id = sf.feature_id ";
         LOG.info("executing: " + query);
         long bT = System.currentTimeMillis();
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         LOG.info("QUERY TIME feature sources: " + (System.currentTimeMillis() - bT));
         return res;
     }
@@ -693,8 +690,7 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
                         + " (select feature_id from " + SUBFEATUREID_TEMP_TABLE_NAME + " ) ";
         LOG.info("executing: " + query);
         long bT = System.currentTimeMillis();
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         LOG.info("QUERY TIME feature scores: " + (System.currentTimeMillis() - bT));
         return res;
     }
@@ -796,8 +792,7 @@ public class ModEncodeFeatureProcessor extends SequenceProcessor
                 + " ORDER BY subject_id";
         LOG.info("executing: " + query);
         long bT = System.currentTimeMillis();
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         LOG.info("QUERY TIME expression levels: " + (System.currentTimeMillis() - bT));
         return res;
     }
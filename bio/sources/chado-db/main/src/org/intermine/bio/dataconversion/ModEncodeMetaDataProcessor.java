@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -523,6 +524,9 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                 + System.currentTimeMillis();
 
         long bT = System.currentTimeMillis();
+        // Without autocommit an error aborts the transaction, and the table can't be dropped
+        // until it is rolled back - rolling back to here removes the table too
+        Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
         String query =
                 " CREATE TEMPORARY TABLE " + tableName + " (data_id int)";
         Statement stmt = connection.createStatement();
@@ -558,10 +562,17 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
             LOG.info("DATA IDS TIME analyzing: " + (System.currentTimeMillis() - bT2) + "ms");
         } catch (SQLException e) {
             // the batch writer system doesn't like to have duplicate named tables
-            query = "DROP TABLE " + tableName;
-            stmt.execute(query);
+            if (savepoint != null) {
+                connection.rollback(savepoint);
+            } else {
+                query = "DROP TABLE " + tableName;
+                stmt.execute(query);
+            }
             throw e;
         }
+        if (savepoint != null) {
+            connection.releaseSavepoint(savepoint);
+        }
         return tableName;
     }
 
@@ -1844,8 +1855,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
                     "SELECT c.name "
                             + " from cvterm c"
                             + " where c.cvterm_id=" + cvtermId;
-            Statement stmt = connection.createStatement();
-            ResultSet res = stmt.executeQuery(query);
+            ResultSet res = executeQuery(connection, query);
             while (res.next()) {
                 cvTerm = res.getString("name");
             }
@@ -4077,8 +4087,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
      */
     private ResultSet doQuery(Connection connection, String query)
         throws SQLException {
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
     /**
@@ -4095,8 +4104,7 @@ public class ModEncodeMetaDataProcessor extends ChadoProcessor
         // new Throwable().fillInStackTrace().getStackTrace()[1].getMethodName()
         LOG.info("executing: " + query);
         long bT = System.currentTimeMillis();
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         LOG.info("QUERY TIME " + comment + ": " + (System.currentTimeMillis() - bT) + " ms");
         return res;
     }
@@ -61,7 +61,7 @@ public class SequenceProcessor extends ChadoProcessor
 
     // a map from chado feature id to FeatureData objects, populated by processFeatureTable()
     // and used to get object types, Item IDs etc. (see FeatureData)
-    protected Map<Integer, FeatureData> featureMap = new HashMap<Integer, FeatureData>();
+    protected Map<Integer, FeatureData> featureMap = new FeatureDataMap();
 
     // we don't configure anything by default, so the process methods do their default actions
     private static final MultiKeyMap DEFAULT_CONFIG = new MultiKeyMap();
@@ -1659,8 +1659,7 @@ public class SequenceProcessor extends ChadoProcessor
         throws SQLException {
         String query = "SELECT * FROM " + tempFeatureTableName;
         LOG.info("executing getFeatureTableResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1815,8 +1814,7 @@ public class SequenceProcessor extends ChadoProcessor
                 + extraQueryBits
                 + " ORDER BY feature1_id";
         LOG.info("executing getFeatureRelationshipResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1880,8 +1878,7 @@ public class SequenceProcessor extends ChadoProcessor
                         + " (" + getChromosomeFeatureIdQuery() + ")"
                         + " AND locgroup = 0";
         LOG.info("executing getFeatureLocResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1920,8 +1917,7 @@ public class SequenceProcessor extends ChadoProcessor
         //  + "    AND f1.feature_id IN (" + getFeatureIdQuery() + ")"
         //  + "    AND f2.feature_id IN (" + getChromosomeFeatureIdQuery() + ")";
         LOG.info("executing getMatchLocResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1942,8 +1938,7 @@ public class SequenceProcessor extends ChadoProcessor
                         + "        (" + getFeatureIdQuery() + ")"
                         + "    AND dbxref.db_id = db.db_id";
         LOG.info("executing getDbxrefResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1960,8 +1955,7 @@ public class SequenceProcessor extends ChadoProcessor
                         + "   WHERE featureprop.type_id = cvterm.cvterm_id"
                         + "       AND feature_id IN (" + getFeatureIdQuery() + ")";
         LOG.info("executing getFeaturePropResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -1988,8 +1982,7 @@ public class SequenceProcessor extends ChadoProcessor
                         + " AND lp.type_id=lp_type.cvterm_id "
                         + " AND f.feature_id IN (" + getFeatureIdQuery() + ")";
         LOG.info("executing getLibraryFeatureResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -2012,8 +2005,7 @@ public class SequenceProcessor extends ChadoProcessor
                         + " AND cvt.dbxref_id = d.dbxref_id "
                         + " AND f.feature_id IN (" + getFeatureIdQuery() + ")";
         LOG.info("executing getLibraryFeatureResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -2036,8 +2028,7 @@ public class SequenceProcessor extends ChadoProcessor
                         + " AND cvterm.cv_id = cv.cv_id "
                         + " ORDER BY feature_id";
         LOG.info("executing getFeatureCVTermResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -2058,8 +2049,7 @@ public class SequenceProcessor extends ChadoProcessor
                         + " AND feature_id IN (" + getFeatureIdQuery() + ")"
                         + " ORDER BY is_current DESC";
         LOG.info("executing getSynonymResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -2082,8 +2072,7 @@ public class SequenceProcessor extends ChadoProcessor
                         + " AND feature_id IN (" + getFeatureIdQuery() + ")"
                         + " ORDER BY feature_pub.feature_id";
         LOG.info("executing getPubResultSet(): " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
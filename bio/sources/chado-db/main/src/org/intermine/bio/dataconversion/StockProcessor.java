@@ -23,7 +23,6 @@ import org.intermine.xml.full.ReferenceList;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 
 import org.apache.log4j.Logger;
 import org.apache.commons.lang.StringUtils;
@@ -173,8 +172,7 @@ public class StockProcessor extends ChadoProcessor
             + "AND stock.organism_id = feature.organism_id "
             + "ORDER BY feature.feature_id";
         LOG.info("executing: " + query);
-        Statement stmt = connection.createStatement();
-        ResultSet res = stmt.executeQuery(query);
+        ResultSet res = executeQuery(connection, query);
         return res;
     }
 
@@ -10,6 +10,10 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
 import org.intermine.dataconversion.ItemsTestCase;
 
 public class SequenceProcessorTest extends ItemsTestCase
@@ -44,4 +48,39 @@ public class SequenceProcessorTest extends ItemsTestCase
         assertEquals(false, fdat.getFlag("secondaryIdentifier"));
         assertEquals(false, fdat.getFlag(FeatureData.EVIDENCE_CREATED));
     }
+
+    public void testFeatureDataSynonyms() {
+        FeatureData fdat = new FeatureData();
+
+        assertTrue(fdat.getExistingSynonyms().isEmpty());
+        fdat.addExistingSynonym("CG1234");
+        assertTrue(fdat.getExistingSynonyms().contains("cg1234"));
+        assertEquals(1, fdat.getExistingSynonyms().size());
+    }
+
+    public void testFeatureDataMap() {
+        FeatureDataMap featureMap = new FeatureDataMap();
+        Map<Integer, FeatureData> expected = new HashMap<Integer, FeatureData>();
+        Random random = new Random(7);
+
+        // consecutive ids, and random ones that collide
+        for (int i = 0; i < 5000; i++) {
+            Integer featureId = new Integer((i % 2 == 0) ? i : random.nextInt(20000) - 100);
+            FeatureData fdat = new FeatureData();
+            assertEquals(expected.put(featureId, fdat), featureMap.put(featureId, fdat));
+        }
+        for (int i = 0; i < 3000; i++) {
+            Integer featureId = new Integer(random.nextInt(20000) - 100);
+            assertEquals(expected.remove(featureId), featureMap.remove(featureId));
+        }
+        assertEquals(expected.size(), featureMap.size());
+        assertEquals(expected, featureMap);
+        for (int featureId = -200; featureId < 20000; featureId++) {
+            assertSame(expected.get(new Integer(featureId)), featureMap.get(featureId));
+        }
+        assertFalse(featureMap.containsKey("1"));
+        featureMap.clear();
+        assertTrue(featureMap.isEmpty());
+        assertNull(featureMap.get(new Integer(0)));
+    }
 }
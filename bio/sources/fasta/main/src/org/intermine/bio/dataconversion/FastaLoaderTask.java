@@ -10,31 +10,35 @@ package org.intermine.bio.dataconversion;
  *
  */
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.NoSuchElementException;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.tools.ant.BuildException;
-import org.biojava.bio.BioException;
+import org.biojava.bio.SmallAnnotation;
 import org.biojava.bio.seq.Sequence;
-import org.biojava.bio.seq.SequenceIterator;
-import org.biojava.bio.seq.io.SeqIOTools;
+import org.biojava.bio.seq.impl.SimpleSequence;
+import org.biojava.bio.symbol.SymbolList;
+import org.intermine.bio.io.fasta.FastaReader;
 import org.intermine.bio.util.OrganismData;
 import org.intermine.bio.util.OrganismRepository;
+import org.intermine.dataloader.IntegrationWriter;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.bio.BioEntity;
 import org.intermine.model.bio.DataSet;
 import org.intermine.model.bio.DataSource;
 import org.intermine.model.bio.Organism;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.objectstore.query.PendingClob;
+import org.intermine.objectstore.query.Clob;
+import org.intermine.objectstore.query.ClobAccess;
+import org.intermine.objectstore.query.PackedNucleotides;
 import org.intermine.task.FileDirectDataLoaderTask;
 import org.intermine.metadata.Util;
 
@@ -42,6 +46,12 @@ import org.intermine.metadata.Util;
  * A task that can read a set of FASTA files and create the corresponding Sequence objects in an
  * ObjectStore.
  *
+ * The residues of each record are streamed from the file to the database a clob page at a time,
+ * optionally packed three bases to a character for DNA, and the length and MD5 checksum are
+ * computed as they go, so whole chromosomes can be loaded without holding them in memory.  The
+ * BioJava Sequence passed to getOrganism(), getIdentifier() and extraProcessing() has the name
+ * and the "description_line" and "description" annotations of the record, but no residues.
+ *
  * @author Kim Rutherford
  * @author Peter Mclaren
  */
@@ -51,6 +61,7 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
     private static final Logger LOG = Logger.getLogger(FastaLoaderTask.class);
 
     private String sequenceType = "dna";
+    private boolean packResidues = false;
     private String classAttribute = "primaryIdentifier";
     private Organism org;
     private String className;
@@ -93,6 +104,17 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         }
     }
 
+    /**
+     * Set whether the residues of DNA sequences are stored packed three bases to a character.
+     * The default is false.  Other sequence types are never packed.
+     * @param packResidues "true" to store the residues packed
+     */
+    public void setPackResidues(String packResidues) {
+        if (!"${fasta.packResidues}".equals(packResidues)) {
+            this.packResidues = Boolean.parseBoolean(packResidues);
+        }
+    }
+
     /**
      * Set the suffix to add to identifiers from the FASTA file when creating
      * BioEnitys.
@@ -204,41 +226,53 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
      */
     @Override
     public void processFile(File file) {
+        FastaReader reader = null;
         try {
-            FileReader fileReader = new FileReader(file);
-            BufferedReader reader = new BufferedReader(fileReader);
+            reader = new FastaReader(new FileReader(file), sequenceType);
 
             System.err .println("reading " + sequenceType + " sequence from: " + file);
 
-            SequenceIterator iter =
-                    (SequenceIterator) SeqIOTools.fileToBiojava("fasta", sequenceType, reader);
-
-            if (!iter.hasNext()) {
+            if (!reader.next()) {
                 System.err .println("no fasta sequences found - exiting");
                 return;
             }
 
-            while (iter.hasNext()) {
-                Sequence bioJavaSequence = iter.nextSequence();
-                processSequence(getOrganism(bioJavaSequence), bioJavaSequence);
-            }
-
-            reader.close();
-            fileReader.close();
-        } catch (BioException e) {
-            throw new BuildException("sequence not in fasta format or wrong alphabet for: "
-                    + file, e);
-        } catch (NoSuchElementException e) {
-            throw new BuildException("no fasta sequences in: " + file, e);
+            do {
+                Sequence bioJavaSequence = createSequence(reader);
+                processSequence(getOrganism(bioJavaSequence), bioJavaSequence, reader);
+            } while (reader.next());
         } catch (FileNotFoundException e) {
             throw new BuildException("problem reading file - file not found: " + file, e);
         } catch (ObjectStoreException e) {
             throw new BuildException("ObjectStore problem while processing: " + file, e);
         } catch (IOException e) {
-            throw new BuildException("error while closing FileReader for: " + file, e);
+            throw new BuildException("sequence not in fasta format or wrong alphabet for: "
+                    + file, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    LOG.error("error while closing FileReader for: " + file, e);
+                }
+            }
         }
     }
 
+    /**
+     * Create a BioJava Sequence with the name and annotations of the current record, for the
+     * methods that subclasses override.
+     */
+    private static Sequence createSequence(FastaReader reader) {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("description_line", reader.getHeader());
+        if (reader.getDescription() != null) {
+            properties.put("description", reader.getDescription());
+        }
+        return new SimpleSequence(SymbolList.EMPTY_LIST, null, reader.getName(),
+                new SmallAnnotation(properties));
+    }
+
     /**
      * Get and store() the Organism object to reference when creating new objects.
      * @param bioJavaSequence the biojava sequence to be parsed
@@ -258,10 +292,12 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
      * Create a FlyMine Sequence and an object of type className for the given BioJava Sequence.
      * @param organism the Organism to reference from new objects
      * @param bioJavaSequence the Sequence object
+     * @param reader the FastaReader, to read the residues of the record from
      * @throws ObjectStoreException if store() fails
+     * @throws IOException if the residues can't be read
      */
-    private void processSequence(Organism organism, Sequence bioJavaSequence)
-        throws ObjectStoreException {
+    private void processSequence(Organism organism, Sequence bioJavaSequence, FastaReader reader)
+        throws ObjectStoreException, IOException {
         // some fasta files are not filtered - they contain sequences from organisms not
         // specified in project.xml
         if (organism == null) {
@@ -270,11 +306,8 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         org.intermine.model.bio.Sequence flymineSequence = getDirectDataLoader().createObject(
                 org.intermine.model.bio.Sequence.class);
 
-        String sequence = bioJavaSequence.seqString();
-        String md5checksum = Util.getMd5checksum(sequence);
-        flymineSequence.setResidues(new PendingClob(sequence));
-        flymineSequence.setLength(bioJavaSequence.length());
-        flymineSequence.setMd5checksum(md5checksum);
+        writeResidues(reader, flymineSequence);
+        String md5checksum = flymineSequence.getMd5checksum();
         Class<? extends InterMineObject> imClass;
         Class<?> c;
         try {
@@ -338,6 +371,42 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         }
     }
 
+    /**
+     * Write the residues of the current record to a new Clob a page at a time, and set the
+     * residues, length and md5checksum of the Sequence.
+     */
+    private void writeResidues(FastaReader reader, org.intermine.model.bio.Sequence
+            flymineSequence) throws ObjectStoreException, IOException {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 not available", e);
+        }
+        IntegrationWriter iw = getIntegrationWriter();
+        boolean packed = packResidues && "dna".equals(sequenceType);
+        Clob clob = iw.createClob();
+        char[] page = new char[Clob.CLOB_PAGE_SIZE];
+        byte[] bytes = new byte[Clob.CLOB_PAGE_SIZE];
+        int length = 0;
+        int pageNo = 0;
+        int count;
+        // read() only returns a partial page at the end of the record
+        while ((count = reader.read(page, 0, page.length)) != -1) {
+            // residues are ASCII
+            for (int i = 0; i < count; i++) {
+                bytes[i] = (byte) page[i];
+            }
+            md5.update(bytes, 0, count);
+            String text = new String(page, 0, count);
+            iw.writeClobPage(clob, pageNo++, packed ? PackedNucleotides.encode(text) : text);
+            length += count;
+        }
+        flymineSequence.setResidues(new ClobAccess(iw, clob, length, packed));
+        flymineSequence.setLength(length);
+        flymineSequence.setMd5checksum(Util.getMd5checksum(md5));
+    }
+
     /**
      * Return the DataSet to add to each object.
      * @return the DataSet
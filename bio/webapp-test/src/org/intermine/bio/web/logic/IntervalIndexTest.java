@@ -0,0 +1,69 @@
+package org.intermine.bio.web.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class IntervalIndexTest extends TestCase
+{
+    public IntervalIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void testEmpty() {
+        IntervalIndex index = new IntervalIndex(new int[0], new int[0]);
+        assertEquals(0, index.size());
+        assertEquals(0, index.overlapping(1, 100).length);
+    }
+
+    public void testSmall() {
+        IntervalIndex index = new IntervalIndex(new int[] {50, 10, 30, 10},
+                new int[] {60, 20, 100, 10});
+        assertEquals(4, index.size());
+        assertTrue(Arrays.equals(new int[] {1, 3}, index.overlapping(1, 10)));
+        assertTrue(Arrays.equals(new int[] {1, 2}, index.overlapping(20, 30)));
+        assertTrue(Arrays.equals(new int[] {2, 0}, index.overlapping(55, 55)));
+        assertTrue(Arrays.equals(new int[] {2}, index.overlapping(61, 100)));
+        assertEquals(0, index.overlapping(101, 200).length);
+        assertEquals(0, index.overlapping(21, 29).length);
+    }
+
+    public void testRandom() {
+        Random random = new Random(17);
+        for (int run = 0; run < 150; run++) {
+            // every small size, to cover incomplete trees of each shape
+            int n = (run < 100) ? run : random.nextInt(3000);
+            int[] starts = new int[n];
+            int[] ends = new int[n];
+            for (int i = 0; i < n; i++) {
+                starts[i] = 1 + random.nextInt(100000);
+                ends[i] = starts[i] + (random.nextInt(10) == 0 ? random.nextInt(20000)
+                        : random.nextInt(500));
+            }
+            IntervalIndex index = new IntervalIndex(starts, ends);
+            for (int q = 0; q < 100; q++) {
+                int start = 1 + random.nextInt(110000);
+                int end = start + random.nextInt(2000);
+                List<Integer> expected = new ArrayList<Integer>();
+                for (int i = 0; i < n; i++) {
+                    if (starts[i] <= end && ends[i] >= start) {
+                        expected.add(i);
+                    }
+                }
+                int[] found = index.overlapping(start, end);
+                assertEquals(expected.size(), found.length);
+                int[] sortedFound = found.clone();
+                Arrays.sort(sortedFound);
+                for (int i = 0; i < found.length; i++) {
+                    assertEquals(expected.get(i).intValue(), sortedFound[i]);
+                    if (i > 0) {
+                        assertTrue(starts[found[i - 1]] <= starts[found[i]]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package org.intermine.bio.web.logic;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.intermine.bio.web.model.GenomicRegion;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.model.bio.Chromosome;
+import org.intermine.model.bio.Location;
+import org.intermine.model.bio.Organism;
+import org.intermine.model.bio.SequenceFeature;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
+
+/**
+ * An in-memory index of the locations of sequence features on chromosomes, used by genomic
+ * region search to find the features overlapping many regions without running a query per
+ * region. The locations on a chromosome are read the first time a region on that chromosome is
+ * searched, and kept in an IntervalIndex until the webapp is restarted.
+ *
+ * Enabled by setting the web property genomicRegionSearch.intervalIndex to true.
+ *
+ * @author intermine
+ */
+public final class GenomicRegionIntervalIndex
+{
+    private static final Logger LOG = Logger.getLogger(GenomicRegionIntervalIndex.class);
+    private static final int LOAD_BATCH_SIZE = 50000;
+    private static final int HYDRATE_BATCH_SIZE = 1000;
+
+    private static GenomicRegionIntervalIndex instance = null;
+
+    private final ObjectStore os;
+    private final Map<String, ChromosomeLocations> chromosomes =
+        new HashMap<String, ChromosomeLocations>();
+
+    private GenomicRegionIntervalIndex(ObjectStore os) {
+        this.os = os;
+    }
+
+    /**
+     * Returns the index for the given production ObjectStore.
+     *
+     * @param os the ObjectStore to read locations from
+     * @return a GenomicRegionIntervalIndex
+     */
+    public static synchronized GenomicRegionIntervalIndex getInstance(ObjectStore os) {
+        if (instance == null || instance.os != os) {
+            instance = new GenomicRegionIntervalIndex(os);
+        }
+        return instance;
+    }
+
+    /**
+     * Finds the features overlapping each of the given regions. The rows are in the same form as
+     * the results of the queries made by GenomicRegionSearchUtil.createQueryList: feature id,
+     * primaryIdentifier, symbol, class, chromosome primaryIdentifier, location start, end and
+     * strand, ordered by start.
+     *
+     * @param organism the short name of the organism
+     * @param regions the regions to search
+     * @param featureTypes the classes of feature to return
+     * @param strandSpecific if true, only return features on the same strand as the region
+     * @param extended if true, search the extended region rather than the original region
+     * @return a map from region to matching rows, or to null if there are none
+     */
+    public Map<GenomicRegion, List<List<Object>>> findOverlaps(String organism,
+            Collection<GenomicRegion> regions, Set<Class<?>> featureTypes,
+            boolean strandSpecific, boolean extended) {
+        long time = System.currentTimeMillis();
+        // first find the matching locations for every region, then fetch the identifiers and
+        // symbols of all the features found in a few batches
+        Map<GenomicRegion, int[]> matches = new LinkedHashMap<GenomicRegion, int[]>();
+        Map<GenomicRegion, ChromosomeLocations> regionChromosomes =
+            new HashMap<GenomicRegion, ChromosomeLocations>();
+        Set<Integer> featureIds = new LinkedHashSet<Integer>();
+        for (GenomicRegion region : regions) {
+            ChromosomeLocations locations = getLocations(organism, region.getChr());
+            int start = extended ? region.getExtendedStart() : region.getStart();
+            int end = extended ? region.getExtendedEnd() : region.getEnd();
+            String strand = null;
+            if (strandSpecific) {
+                strand = (region.getMinusStrand() != null && region.getMinusStrand()) ? "-1"
+                    : "1";
+            }
+            int[] found = locations.index.overlapping(start, end);
+            int count = 0;
+            for (int i = 0; i < found.length; i++) {
+                int location = found[i];
+                if (featureTypes.contains(locations.classes[locations.classCodes[location]])
+                        && (strand == null
+                            || strand.equals(locations.strands[locations.strandCodes[location]]))) {
+                    found[count++] = location;
+                    featureIds.add(new Integer(locations.featureIds[location]));
+                }
+            }
+            matches.put(region, Arrays.copyOf(found, count));
+            regionChromosomes.put(region, locations);
+        }
+        Map<Integer, String[]> names = getNames(featureIds);
+
+        Map<GenomicRegion, List<List<Object>>> retval =
+            new LinkedHashMap<GenomicRegion, List<List<Object>>>();
+        Set<List<Object>> seen = new LinkedHashSet<List<Object>>();
+        for (Map.Entry<GenomicRegion, int[]> entry : matches.entrySet()) {
+            ChromosomeLocations locations = regionChromosomes.get(entry.getKey());
+            seen.clear();
+            for (int location : entry.getValue()) {
+                Integer featureId = new Integer(locations.featureIds[location]);
+                String[] featureNames = names.get(featureId);
+                List<Object> row = new ArrayList<Object>(8);
+                row.add(featureId);
+                row.add(featureNames == null ? null : featureNames[0]);
+                row.add(featureNames == null ? null : featureNames[1]);
+                row.add(locations.classes[locations.classCodes[location]]);
+                row.add(locations.chromosome);
+                row.add(new Integer(locations.starts[location]));
+                row.add(new Integer(locations.ends[location]));
+                row.add(locations.strands[locations.strandCodes[location]]);
+                // the queries were DISTINCT
+                seen.add(row);
+            }
+            retval.put(entry.getKey(), seen.isEmpty() ? null : new ArrayList<List<Object>>(seen));
+        }
+        LOG.info("Found features overlapping " + regions.size() + " regions in "
+                + (System.currentTimeMillis() - time) + " ms");
+        return retval;
+    }
+
+    private ChromosomeLocations getLocations(String organism, String chromosome) {
+        String key = organism + "\t" + chromosome;
+        ChromosomeLocations locations;
+        synchronized (chromosomes) {
+            locations = chromosomes.get(key);
+            if (locations == null) {
+                locations = new ChromosomeLocations(organism, chromosome);
+                chromosomes.put(key, locations);
+            }
+        }
+        locations.load(os);
+        return locations;
+    }
+
+    /**
+     * Fetches the primaryIdentifier and symbol of the given features.
+     */
+    private Map<Integer, String[]> getNames(Collection<Integer> featureIds) {
+        Map<Integer, String[]> retval = new HashMap<Integer, String[]>();
+        Iterator<Integer> idIter = featureIds.iterator();
+        while (idIter.hasNext()) {
+            List<Integer> batch = new ArrayList<Integer>(HYDRATE_BATCH_SIZE);
+            while (idIter.hasNext() && batch.size() < HYDRATE_BATCH_SIZE) {
+                batch.add(idIter.next());
+            }
+            Query q = new Query();
+            QueryClass qcFeature = new QueryClass(SequenceFeature.class);
+            q.addFrom(qcFeature);
+            QueryField qfId = new QueryField(qcFeature, "id");
+            q.addToSelect(qfId);
+            q.addToSelect(new QueryField(qcFeature, "primaryIdentifier"));
+            q.addToSelect(new QueryField(qcFeature, "symbol"));
+            q.setConstraint(new BagConstraint(qfId, ConstraintOp.IN, batch));
+            Results results = os.execute(q, HYDRATE_BATCH_SIZE, true, false, true);
+            for (Object o : results) {
+                ResultsRow<?> row = (ResultsRow<?>) o;
+                retval.put((Integer) row.get(0), new String[] {(String) row.get(1),
+                    (String) row.get(2)});
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * The locations of features on one chromosome, in primitive arrays indexed by the position
+     * of the location in the IntervalIndex.
+     */
+    private static class ChromosomeLocations
+    {
+        final String organism;
+        final String chromosome;
+        int[] featureIds;
+        int[] starts;
+        int[] ends;
+        // indexes into classes and strands
+        short[] classCodes;
+        byte[] strandCodes;
+        Class<?>[] classes;
+        String[] strands;
+        IntervalIndex index = null;
+
+        ChromosomeLocations(String organism, String chromosome) {
+            this.organism = organism;
+            this.chromosome = chromosome;
+        }
+
+        synchronized void load(ObjectStore os) {
+            if (index != null) {
+                return;
+            }
+            long time = System.currentTimeMillis();
+            Query q = new Query();
+            q.setDistinct(true);
+            QueryClass qcOrg = new QueryClass(Organism.class);
+            QueryClass qcChr = new QueryClass(Chromosome.class);
+            QueryClass qcFeature = new QueryClass(SequenceFeature.class);
+            QueryClass qcLoc = new QueryClass(Location.class);
+            q.addFrom(qcFeature);
+            q.addFrom(qcChr);
+            q.addFrom(qcOrg);
+            q.addFrom(qcLoc);
+            q.addToSelect(new QueryField(qcFeature, "id"));
+            q.addToSelect(new QueryField(qcFeature, "class"));
+            q.addToSelect(new QueryField(qcLoc, "start"));
+            q.addToSelect(new QueryField(qcLoc, "end"));
+            q.addToSelect(new QueryField(qcLoc, "strand"));
+
+            ConstraintSet constraints = new ConstraintSet(ConstraintOp.AND);
+            constraints.addConstraint(new ContainsConstraint(new QueryObjectReference(qcFeature,
+                            "organism"), ConstraintOp.CONTAINS, qcOrg));
+            constraints.addConstraint(new SimpleConstraint(new QueryField(qcOrg, "shortName"),
+                        ConstraintOp.EQUALS, new QueryValue(organism)));
+            constraints.addConstraint(new ContainsConstraint(new QueryObjectReference(qcLoc,
+                            "feature"), ConstraintOp.CONTAINS, qcFeature));
+            constraints.addConstraint(new ContainsConstraint(new QueryObjectReference(qcLoc,
+                            "locatedOn"), ConstraintOp.CONTAINS, qcChr));
+            constraints.addConstraint(new SimpleConstraint(new QueryField(qcChr,
+                            "primaryIdentifier"), ConstraintOp.EQUALS,
+                        new QueryValue(chromosome)));
+            q.setConstraint(constraints);
+
+            int size = 0;
+            int[] ids = new int[1024];
+            int[] locStarts = new int[1024];
+            int[] locEnds = new int[1024];
+            short[] classCodeList = new short[1024];
+            byte[] strandCodeList = new byte[1024];
+            Map<Class<?>, Short> classMap = new LinkedHashMap<Class<?>, Short>();
+            Map<String, Byte> strandMap = new LinkedHashMap<String, Byte>();
+            Results results = os.execute(q, LOAD_BATCH_SIZE, true, false, true);
+            for (Object o : results) {
+                ResultsRow<?> row = (ResultsRow<?>) o;
+                if (row.get(2) == null || row.get(3) == null) {
+                    continue;
+                }
+                if (size == ids.length) {
+                    int newLength = size * 2;
+                    ids = Arrays.copyOf(ids, newLength);
+                    locStarts = Arrays.copyOf(locStarts, newLength);
+                    locEnds = Arrays.copyOf(locEnds, newLength);
+                    classCodeList = Arrays.copyOf(classCodeList, newLength);
+                    strandCodeList = Arrays.copyOf(strandCodeList, newLength);
+                }
+                Class<?> featureClass = (Class<?>) row.get(1);
+                Short classCode = classMap.get(featureClass);
+                if (classCode == null) {
+                    classCode = new Short((short) classMap.size());
+                    classMap.put(featureClass, classCode);
+                }
+                String strand = (String) row.get(4);
+                Byte strandCode = strandMap.get(strand);
+                if (strandCode == null) {
+                    if (strandMap.size() > Byte.MAX_VALUE) {
+                        throw new IllegalStateException("Too many different strand values on "
+                                + chromosome);
+                    }
+                    strandCode = new Byte((byte) strandMap.size());
+                    strandMap.put(strand, strandCode);
+                }
+                ids[size] = ((Integer) row.get(0)).intValue();
+                locStarts[size] = ((Integer) row.get(2)).intValue();
+                locEnds[size] = ((Integer) row.get(3)).intValue();
+                classCodeList[size] = classCode.shortValue();
+                strandCodeList[size] = strandCode.byteValue();
+                size++;
+            }
+            featureIds = Arrays.copyOf(ids, size);
+            starts = Arrays.copyOf(locStarts, size);
+            ends = Arrays.copyOf(locEnds, size);
+            classCodes = Arrays.copyOf(classCodeList, size);
+            strandCodes = Arrays.copyOf(strandCodeList, size);
+            classes = classMap.keySet().toArray(new Class<?>[classMap.size()]);
+            strands = strandMap.keySet().toArray(new String[strandMap.size()]);
+            index = new IntervalIndex(starts, ends);
+            LOG.info("Indexed " + size + " locations on " + organism + " chromosome " + chromosome
+                    + " in " + (System.currentTimeMillis() - time) + " ms");
+        }
+    }
+}
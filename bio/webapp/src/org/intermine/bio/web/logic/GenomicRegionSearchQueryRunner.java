@@ -21,6 +21,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 
@@ -60,6 +61,7 @@ public class GenomicRegionSearchQueryRunner implements Runnable
     private String spanUUIDString = null;
     private GenomicRegionSearchConstraint grsc = null;
     private Map<GenomicRegion, Query> queryMap = null;
+    private Properties webProperties = null;
     private static Map<String, Map<String, ChromosomeInfo>> chrInfoMap = null;
 
     /**
@@ -77,6 +79,7 @@ public class GenomicRegionSearchQueryRunner implements Runnable
         this.spanUUIDString = spanUUIDString;
         this.grsc = grsc;
         this.queryMap = queryMap;
+        this.webProperties = SessionMethods.getWebProperties(request);
     }
 
     /**
@@ -162,8 +165,22 @@ public class GenomicRegionSearchQueryRunner implements Runnable
                 ObjectStore os = SessionMethods.getInterMineAPI(
                         request.getSession()).getObjectStore();
 
+                // answer all the regions from memory if the interval index is enabled
+                Map<GenomicRegion, List<List<Object>>> indexResults = null;
+                if ("true".equals(webProperties.getProperty(
+                                "genomicRegionSearch.intervalIndex"))) {
+                    indexResults = GenomicRegionIntervalIndex.getInstance(os).findOverlaps(
+                            grsc.getOrgName(), queryMap.keySet(), grsc.getFeatureTypes(),
+                            grsc.getStrandSpecific(), grsc.getExtendedRegionSize() > 0);
+                }
+
                 for (Entry<GenomicRegion, Query> e : queryMap.entrySet()) {
-                    Results results = os.execute(e.getValue());
+                    List<?> results;
+                    if (indexResults != null) {
+                        results = indexResults.get(e.getKey());
+                    } else {
+                        results = os.execute(e.getValue());
+                    }
 
                     List<List<String>> spanResults = new ArrayList<List<String>>();
 
@@ -176,7 +193,7 @@ public class GenomicRegionSearchQueryRunner implements Runnable
                     }
                     else {
                         for (Iterator<?> iter = results.iterator(); iter.hasNext();) {
-                            ResultsRow<?> row = (ResultsRow<?>) iter.next();
+                            List<?> row = (List<?>) iter.next();
 
                             List<String> resultRow = new ArrayList<String>();
 
@@ -0,0 +1,185 @@
+package org.intermine.bio.web.logic;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+
+/**
+ * An immutable index of closed integer intervals, answering overlap queries.
+ *
+ * The intervals are held in primitive arrays sorted by start, which are laid out as an implicit
+ * augmented binary search tree: the element at position i is a node at level (number of trailing
+ * one bits in i), and its children are at i - 2^(level-1) and i + 2^(level-1). Each node records
+ * the greatest end of any interval in its subtree, so whole subtrees that end before the query
+ * can be skipped.
+ *
+ * @author intermine
+ */
+public class IntervalIndex
+{
+    // below this level, subtrees are scanned rather than descended
+    private static final int SCAN_LEVEL = 3;
+
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] maxEnds;
+    private final int[] positions;
+    private final int maxLevel;
+
+    /**
+     * Builds an index of the given intervals. Interval i is [starts[i], ends[i]], and is
+     * identified in query results by i.
+     *
+     * @param starts the starts of the intervals
+     * @param ends the ends of the intervals, inclusive
+     */
+    public IntervalIndex(int[] starts, int[] ends) {
+        if (starts.length != ends.length) {
+            throw new IllegalArgumentException("Got " + starts.length + " starts but "
+                    + ends.length + " ends");
+        }
+        int n = starts.length;
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (((long) starts[i]) << 32) | (i & 0xFFFFFFFFL);
+        }
+        Arrays.sort(keys);
+        this.starts = new int[n];
+        this.ends = new int[n];
+        this.maxEnds = new int[n];
+        this.positions = new int[n];
+        for (int i = 0; i < n; i++) {
+            int position = (int) keys[i];
+            this.positions[i] = position;
+            this.starts[i] = starts[position];
+            this.ends[i] = ends[position];
+        }
+        this.maxLevel = buildMaxEnds();
+    }
+
+    /**
+     * Fills in maxEnds for every node of the implicit tree.
+     *
+     * @return the level of the root
+     */
+    private int buildMaxEnds() {
+        int n = starts.length;
+        if (n == 0) {
+            return -1;
+        }
+        int lastIndex = 0;
+        int last = 0;
+        for (int i = 0; i < n; i += 2) {
+            lastIndex = i;
+            last = ends[i];
+            maxEnds[i] = ends[i];
+        }
+        int k;
+        for (k = 1; (1L << k) <= n; k++) {
+            int x = 1 << (k - 1);
+            int i0 = (x << 1) - 1;
+            int step = x << 2;
+            for (int i = i0; i < n; i += step) {
+                int leftMax = maxEnds[i - x];
+                // a missing right subtree is represented by the last node seen at the level below
+                int rightMax = (i + x < n) ? maxEnds[i + x] : last;
+                maxEnds[i] = Math.max(ends[i], Math.max(leftMax, rightMax));
+            }
+            lastIndex = (((lastIndex >> k) & 1) != 0) ? lastIndex - x : lastIndex + x;
+            if (lastIndex < n && maxEnds[lastIndex] > last) {
+                last = maxEnds[lastIndex];
+            }
+        }
+        return k - 1;
+    }
+
+    /**
+     * Returns the number of intervals in this index.
+     *
+     * @return the number of intervals
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Finds the intervals that overlap the closed interval [start, end].
+     *
+     * @param start the start of the query interval
+     * @param end the end of the query interval, inclusive
+     * @return the identifiers of the overlapping intervals, in order of their start
+     */
+    public int[] overlapping(int start, int end) {
+        int n = starts.length;
+        if (n == 0 || start > end) {
+            return new int[0];
+        }
+        int[] found = new int[16];
+        int foundCount = 0;
+        // stack of (node, level, whether the left child has been done)
+        int[] stackNode = new int[64];
+        int[] stackLevel = new int[64];
+        boolean[] stackLeftDone = new boolean[64];
+        int top = 0;
+        stackNode[top] = (1 << maxLevel) - 1;
+        stackLevel[top] = maxLevel;
+        stackLeftDone[top] = false;
+        top++;
+        while (top > 0) {
+            top--;
+            int x = stackNode[top];
+            int level = stackLevel[top];
+            boolean leftDone = stackLeftDone[top];
+            if (level <= SCAN_LEVEL) {
+                int i0 = (x >> level) << level;
+                int i1 = Math.min(n, i0 + (1 << (level + 1)) - 1);
+                for (int i = i0; i < i1 && starts[i] <= end; i++) {
+                    if (ends[i] >= start) {
+                        if (foundCount == found.length) {
+                            found = Arrays.copyOf(found, foundCount * 2);
+                        }
+                        found[foundCount++] = i;
+                    }
+                }
+            } else if (!leftDone) {
+                int left = x - (1 << (level - 1));
+                stackNode[top] = x;
+                stackLevel[top] = level;
+                stackLeftDone[top] = true;
+                top++;
+                // nodes beyond the end of the array have no maxEnd, so must be descended
+                if (left >= n || maxEnds[left] >= start) {
+                    stackNode[top] = left;
+                    stackLevel[top] = level - 1;
+                    stackLeftDone[top] = false;
+                    top++;
+                }
+            } else if (x < n && starts[x] <= end) {
+                if (ends[x] >= start) {
+                    if (foundCount == found.length) {
+                        found = Arrays.copyOf(found, foundCount * 2);
+                    }
+                    found[foundCount++] = x;
+                }
+                stackNode[top] = x + (1 << (level - 1));
+                stackLevel[top] = level - 1;
+                stackLeftDone[top] = false;
+                top++;
+            }
+        }
+        Arrays.sort(found, 0, foundCount);
+        int[] retval = new int[foundCount];
+        for (int i = 0; i < foundCount; i++) {
+            retval[i] = positions[found[i]];
+        }
+        return retval;
+    }
+}
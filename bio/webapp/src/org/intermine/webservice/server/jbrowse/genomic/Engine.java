@@ -15,6 +15,7 @@ import static java.lang.String.format;
 import static org.intermine.pathquery.Constraints.eq;
 import static org.intermine.webservice.server.jbrowse.Queries.pathQueryToOSQ;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -33,12 +34,15 @@ import java.util.concurrent.Future;
 import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.log4j.Logger;
 import org.intermine.api.InterMineAPI;
+import org.intermine.bio.util.FeatureDensityPyramid;
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.ConstraintOp;
 import org.intermine.metadata.Model;
 import org.intermine.model.FastPathObject;
+import org.intermine.modelproduction.MetadataManager;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ContainsConstraint;
 import org.intermine.objectstore.query.Query;
@@ -192,30 +196,29 @@ public class Engine extends CommandRunner
 
     private static Map<MultiKey, Integer> maxima = new ConcurrentHashMap<MultiKey, Integer>();
 
+    // the most bins to count in the database at once
+    private static final int MAX_COUNT_THREADS = 8;
+
+    private static final Map<ObjectStore, FeatureDensityPyramid> FEATURE_DENSITIES =
+            new HashMap<ObjectStore, FeatureDensityPyramid>();
+
     /**
      * @param command command to run
      */
     @Override
     public void densities(Command command) {
         final int nSlices = getNumberOfSlices(command);
-        List<PathQuery> segmentQueries = getSliceQueries(command, nSlices);
-        List<Future<Integer>> pending = countInParallel(segmentQueries);
-        List<Integer> results = new ArrayList<Integer>();
+        List<Integer> results = countFromPyramid(command, nSlices);
+        if (results == null) {
+            results = countInDatabase(command, nSlices);
+        }
 
         int max = 0, sum = 0;
-        for (Future<Integer> future: pending) {
-            try {
-                Integer r = future.get();
-                if (r != null && r > max) {
-                    max = r;
-                }
-                sum += r;
-                results.add(r);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            } catch (ExecutionException e) {
-                throw new RuntimeException(e);
+        for (Integer r: results) {
+            if (r != null && r > max) {
+                max = r;
             }
+            sum += r;
         }
         double mean = Double.valueOf(sum) / results.size();
 
@@ -271,11 +274,79 @@ public class Engine extends CommandRunner
         return segmentQueries;
     }
 
+    /**
+     * Count the features in each slice from the precomputed feature densities, or return null if
+     * there are none for the organism, or the slices are narrower than their bins and would only
+     * be estimated.
+     */
+    private List<Integer> countFromPyramid(Command command, int nSlices) {
+        Segment segment = command.getSegment();
+        if (segment == Segment.NEGATIVE_SEGMENT || segment.getSection() == null
+                || segment.getWidth() == null) {
+            return null;
+        }
+        FeatureDensityPyramid pyramid = getFeatureDensities(getAPI().getObjectStore());
+        if (pyramid == null || !pyramid.hasOrganism(command.getDomain())
+                || segment.getWidth() / nSlices < pyramid.getMinBinWidth()) {
+            return null;
+        }
+        String type = command.getType("SequenceFeature");
+        List<Integer> results = new ArrayList<Integer>();
+        for (Segment slice: sliceUp(nSlices, segment)) {
+            results.add(pyramid.count(command.getDomain(), slice.getSection(), type,
+                    slice.getStart(), slice.getEnd()));
+        }
+        return results;
+    }
+
+    private List<Integer> countInDatabase(Command command, int nSlices) {
+        List<PathQuery> segmentQueries = getSliceQueries(command, nSlices);
+        List<Integer> results = new ArrayList<Integer>();
+        for (Future<Integer> future: countInParallel(segmentQueries)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Return the feature densities stored by the create-feature-densities postprocess, reading
+     * them the first time they are needed, or null if they weren't created.
+     */
+    private static FeatureDensityPyramid getFeatureDensities(ObjectStore os) {
+        synchronized (FEATURE_DENSITIES) {
+            if (!FEATURE_DENSITIES.containsKey(os)) {
+                FeatureDensityPyramid pyramid = null;
+                if (os instanceof ObjectStoreInterMineImpl) {
+                    try {
+                        InputStream is = MetadataManager.readLargeBinary(
+                                ((ObjectStoreInterMineImpl) os).getDatabase(),
+                                MetadataManager.FEATURE_DENSITIES);
+                        if (is != null) {
+                            pyramid = FeatureDensityPyramid.read(is);
+                        }
+                    } catch (Exception e) {
+                        LOG.warn("Could not read feature densities, counting in the database",
+                                e);
+                    }
+                }
+                FEATURE_DENSITIES.put(os, pyramid);
+            }
+            return FEATURE_DENSITIES.get(os);
+        }
+    }
+
     private List<Future<Integer>> countInParallel(List<PathQuery> segmentQueries) {
         if (segmentQueries.isEmpty()) {
             return Collections.emptyList();
         }
-        ExecutorService executor = Executors.newFixedThreadPool(segmentQueries.size());
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(segmentQueries.size(), MAX_COUNT_THREADS));
         List<Future<Integer>> pending = new ArrayList<Future<Integer>>();
         for (PathQuery pq: segmentQueries) {
             Callable<Integer> counter = new PathQueryCounter(pq, getAPI().getObjectStore());
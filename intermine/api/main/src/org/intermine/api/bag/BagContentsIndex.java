@@ -0,0 +1,355 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.util.BoundedCacheMap;
+import org.intermine.util.CacheMapFactory;
+import org.intermine.util.Weigher;
+
+/**
+ * An in-memory index of the contents of ObjectStoreBags, so that questions such as which of a
+ * user's lists contain an object can be answered without going to the database.
+ *
+ * The contents of a bag are read from the production database the first time they are needed,
+ * and held as an IdBitmap. InterMineBag keeps the index up to date as ids are added to and
+ * removed from its bag, and when the bag is upgraded. There is one index for each production
+ * ObjectStore.
+ *
+ * The index holds at most an estimated os.cache.bagContents.max-weight bytes of bitmaps (falling
+ * back to os.cache.max-bytes, and 64MB by default), and evicts the least recently used bags
+ * beyond that. An evicted bag is read again when it is next needed.
+ *
+ * @author intermine
+ */
+public final class BagContentsIndex
+{
+    private static final Logger LOG = Logger.getLogger(BagContentsIndex.class);
+
+    /** Default bound of the index - an estimated number of bytes */
+    public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+
+    private static final String CACHE_NAME = "bagContents";
+    private static final int STRIPES = 4;
+
+    private static final Weigher<Integer, IdBitmap> BITMAP_WEIGHER =
+        new Weigher<Integer, IdBitmap>() {
+            @Override
+            public int weigh(Integer key, IdBitmap value) {
+                return value.getMemoryUsage();
+            }
+        };
+
+    private static final Map<ObjectStore, BagContentsIndex> INDEXES =
+        new HashMap<ObjectStore, BagContentsIndex>();
+
+    private final ObjectStore os;
+    // bitmaps in this map are never changed, only replaced
+    private final BoundedCacheMap<Integer, IdBitmap> contents;
+    // the loads in progress of each bag, which note changes to the bag while they read it so
+    // that a load that overlaps a change isn't cached
+    private final Map<Integer, Load> loads = new HashMap<Integer, Load>();
+
+    /**
+     * Return the index for the given production ObjectStore.
+     *
+     * @param os the ObjectStore the bags are stored in
+     * @return the index
+     */
+    public static synchronized BagContentsIndex getInstance(ObjectStore os) {
+        BagContentsIndex index = INDEXES.get(os);
+        if (index == null) {
+            index = new BagContentsIndex(os, CacheMapFactory.<Integer, IdBitmap>createBounded(
+                        CACHE_NAME, "Bag contents index", DEFAULT_MAX_WEIGHT, STRIPES,
+                        BITMAP_WEIGHER));
+            INDEXES.put(os, index);
+        }
+        return index;
+    }
+
+    /**
+     * Create an index.
+     *
+     * @param os the ObjectStore the bags are stored in
+     * @param maxWeight the estimated number of bytes of bitmaps to hold
+     */
+    BagContentsIndex(ObjectStore os, long maxWeight) {
+        this(os, new BoundedCacheMap<Integer, IdBitmap>(CACHE_NAME, maxWeight, STRIPES,
+                    BITMAP_WEIGHER));
+    }
+
+    private BagContentsIndex(ObjectStore os, BoundedCacheMap<Integer, IdBitmap> contents) {
+        this.os = os;
+        this.contents = contents;
+    }
+
+    /**
+     * Return the contents of a bag, reading them from the database if they are not in the index.
+     * The bitmap returned must not be changed.
+     *
+     * @param osb the bag
+     * @return the ids in the bag
+     */
+    public IdBitmap getContents(ObjectStoreBag osb) {
+        Integer bagId = Integer.valueOf(osb.getBagId());
+        IdBitmap bitmap = contents.get(bagId);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        Load load;
+        int changeCount;
+        synchronized (this) {
+            load = loads.get(bagId);
+            if (load == null) {
+                load = new Load();
+                loads.put(bagId, load);
+            }
+            load.loaders++;
+            changeCount = load.changes;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            Query q = new Query();
+            q.addToSelect(osb);
+            q.setDistinct(false);
+            SingletonResults res = os.executeSingleton(q, 10000, false, false, false);
+            bitmap = new IdBitmap();
+            for (Object id : res) {
+                bitmap.add(((Integer) id).intValue());
+            }
+            synchronized (this) {
+                if (load.changes == changeCount && !contents.containsKey(bagId)) {
+                    contents.put(bagId, bitmap);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                load.loaders--;
+                if (load.loaders == 0) {
+                    loads.remove(bagId);
+                }
+            }
+        }
+        LOG.debug("Read " + bitmap.getCardinality() + " ids of bag " + bagId + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return bitmap;
+    }
+
+    /**
+     * Read the contents of bags that are not in the index yet, so that later questions about
+     * them are answered from memory. At most the bound of the index is read, so that loading many
+     * bags doesn't just evict the ones loaded first.
+     *
+     * @param bags the bags to load
+     * @return the number of bags read from the database
+     */
+    public int load(Collection<ObjectStoreBag> bags) {
+        long budget = contents.getMaxWeight();
+        int loaded = 0;
+        for (ObjectStoreBag osb : bags) {
+            if (budget <= 0) {
+                break;
+            }
+            if (!isLoaded(osb)) {
+                budget -= getContents(osb).getMemoryUsage();
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Return true if the contents of a bag are in the index.
+     *
+     * @param osb the bag
+     * @return true if the index holds the contents of the bag
+     */
+    public boolean isLoaded(ObjectStoreBag osb) {
+        return contents.containsKey(Integer.valueOf(osb.getBagId()));
+    }
+
+    /**
+     * Test whether a bag contains an id.
+     *
+     * @param osb the bag
+     * @param id the id
+     * @return true if the bag contains the id
+     */
+    public boolean contains(ObjectStoreBag osb, int id) {
+        return getContents(osb).contains(id);
+    }
+
+    /**
+     * Return the bags, of the ones given, that contain an id.
+     *
+     * @param bags the bags to look in
+     * @param id the id
+     * @return the bags that contain the id
+     */
+    public List<ObjectStoreBag> getBagsContaining(Collection<ObjectStoreBag> bags, int id) {
+        List<ObjectStoreBag> retval = new ArrayList<ObjectStoreBag>();
+        for (ObjectStoreBag osb : bags) {
+            if (contains(osb, id)) {
+                retval.add(osb);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Return the number of ids in a bag.
+     *
+     * @param osb the bag
+     * @return the size of the bag
+     */
+    public int getSize(ObjectStoreBag osb) {
+        return getContents(osb).getCardinality();
+    }
+
+    /**
+     * Return the ids that are in all of the given bags. The bitmap returned must not be changed.
+     *
+     * @param bags the bags, at least one
+     * @return the ids in every bag
+     */
+    public IdBitmap getIntersection(Collection<ObjectStoreBag> bags) {
+        if (bags.isEmpty()) {
+            throw new IllegalArgumentException("No bags to intersect");
+        }
+        IdBitmap result = null;
+        for (ObjectStoreBag osb : bags) {
+            IdBitmap bitmap = getContents(osb);
+            result = (result == null) ? bitmap : result.and(bitmap);
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of ids that are in all of the given bags.
+     *
+     * @param bags the bags, at least one
+     * @return the size of the intersection of the bags
+     */
+    public int getIntersectionSize(Collection<ObjectStoreBag> bags) {
+        if (bags.size() == 2) {
+            List<ObjectStoreBag> pair = new ArrayList<ObjectStoreBag>(bags);
+            return getContents(pair.get(0)).andCardinality(getContents(pair.get(1)));
+        }
+        return getIntersection(bags).getCardinality();
+    }
+
+    /**
+     * Record that ids have been added to a bag.
+     *
+     * @param osb the bag
+     * @param ids the ids added
+     */
+    public synchronized void addIds(ObjectStoreBag osb, Collection<Integer> ids) {
+        Integer bagId = Integer.valueOf(osb.getBagId());
+        IdBitmap bitmap = contents.get(bagId);
+        if (bitmap != null) {
+            bitmap = bitmap.copy();
+            bitmap.addAll(ids);
+            contents.put(bagId, bitmap);
+        }
+        changed(bagId);
+    }
+
+    /**
+     * Record that ids have been removed from a bag.
+     *
+     * @param osb the bag
+     * @param ids the ids removed
+     */
+    public synchronized void removeIds(ObjectStoreBag osb, Collection<Integer> ids) {
+        Integer bagId = Integer.valueOf(osb.getBagId());
+        IdBitmap bitmap = contents.get(bagId);
+        if (bitmap != null) {
+            bitmap = bitmap.copy();
+            bitmap.removeAll(ids);
+            contents.put(bagId, bitmap);
+        }
+        changed(bagId);
+    }
+
+    /**
+     * Record the whole contents of a bag, for example when it has just been created.
+     *
+     * @param osb the bag
+     * @param ids all the ids in the bag
+     */
+    public synchronized void setContents(ObjectStoreBag osb, Collection<Integer> ids) {
+        Integer bagId = Integer.valueOf(osb.getBagId());
+        contents.put(bagId, IdBitmap.valueOf(ids));
+        changed(bagId);
+    }
+
+    /**
+     * Drop a bag from the index, because it has been changed in a way the index can't follow, or
+     * deleted. Its contents will be read from the database if they are needed again.
+     *
+     * @param osb the bag
+     */
+    public synchronized void invalidate(ObjectStoreBag osb) {
+        Integer bagId = Integer.valueOf(osb.getBagId());
+        contents.remove(bagId);
+        changed(bagId);
+    }
+
+    /**
+     * Drop all bags from the index.
+     */
+    public synchronized void clear() {
+        for (Load load : loads.values()) {
+            load.changes++;
+        }
+        contents.clear();
+    }
+
+    /**
+     * Return the number of bags being read from the database.
+     *
+     * @return the number of bags with loads in progress
+     */
+    synchronized int getLoadCount() {
+        return loads.size();
+    }
+
+    private void changed(Integer bagId) {
+        Load load = loads.get(bagId);
+        if (load != null) {
+            load.changes++;
+        }
+    }
+
+    /**
+     * The loads of a bag in progress, and the number of times the bag has been changed since the
+     * first of them started.
+     */
+    private static class Load
+    {
+        int loaders = 0;
+        int changes = 0;
+    }
+}
@@ -62,6 +62,7 @@ public class BagManager
     private final SharedBagManager sharedBagManager;
     private final Model model;
     private final ObjectStore osProduction;
+    private final BagContentsIndex bagContentsIndex;
 
     /**
      * The BagManager references the super user profile to fetch global bags.
@@ -81,6 +82,7 @@ public class BagManager
         this.tagManager = new TagManagerFactory(pm).getTagManager();
         this.sharedBagManager = SharedBagManager.getInstance(pm);
         this.osProduction = pm.getProductionObjectStore();
+        this.bagContentsIndex = BagContentsIndex.getInstance(osProduction);
     }
 
     /**
@@ -551,7 +553,7 @@ public class BagManager
      * @return bags containing the given id
      */
     public Collection<InterMineBag> getGlobalBagsContainingId(Integer id) {
-        return getBagsContainingId(getGlobalBags(), id);
+        return getBagsContainingId(getGlobalBags().values(), id);
     }
 
     /**
@@ -561,7 +563,7 @@ public class BagManager
      * @return bags containing the given id
      */
     public Collection<InterMineBag> getUserBagsContainingId(Profile profile, Integer id) {
-        return getBagsContainingId(getUserBags(profile), id);
+        return getBagsContainingId(getUserBags(profile).values(), id);
     }
 
     /**
@@ -571,7 +573,7 @@ public class BagManager
      * @return bags containing the given id
      */
     public Collection<InterMineBag> getSharedBagsContainingId(Profile profile, Integer id) {
-        return getBagsContainingId(getSharedBags(profile), id);
+        return getBagsContainingId(getSharedBags(profile).values(), id);
     }
 
     /**
@@ -584,40 +586,48 @@ public class BagManager
      */
     public Collection<InterMineBag> getCurrentBagsContainingId(Profile profile,
                                                                            Integer id) {
-        HashSet<InterMineBag> bagsContainingId = new HashSet<InterMineBag>();
-        for (InterMineBag bag: getGlobalBagsContainingId(id)) {
-            if (bag.isCurrent()) {
-                bagsContainingId.add(bag);
-            }
-        }
-        for (InterMineBag bag: getUserBagsContainingId(profile, id)) {
-            if (bag.isCurrent()) {
-                bagsContainingId.add(bag);
-            }
-        }
-        for (InterMineBag bag: getSharedBagsContainingId(profile, id)) {
-            if (bag.isCurrent()) {
-                bagsContainingId.add(bag);
+        // all three kinds of bag are searched together, so that there is at most one query
+        Collection<InterMineBag> currentBags = new HashSet<InterMineBag>();
+        List<Map<String, InterMineBag>> scopes = new ArrayList<Map<String, InterMineBag>>();
+        scopes.add(getGlobalBags());
+        scopes.add(getUserBags(profile));
+        scopes.add(getSharedBags(profile));
+        for (Map<String, InterMineBag> scope : scopes) {
+            for (InterMineBag bag : scope.values()) {
+                if (bag.isCurrent()) {
+                    currentBags.add(bag);
+                }
             }
         }
-        return bagsContainingId;
+        return getBagsContainingId(currentBags, id);
     }
 
-    private Collection<InterMineBag> getBagsContainingId(Map<String, InterMineBag> imBags,
+    private Collection<InterMineBag> getBagsContainingId(Collection<InterMineBag> imBags,
             Integer id) {
-        Collection<ObjectStoreBag> objectStoreBags = getObjectStoreBags(imBags.values());
-        Map<Integer, InterMineBag> osBagIdToInterMineBag =
-            getOsBagIdToInterMineBag(imBags.values());
+        Collection<InterMineBag> bagsContainingId = new HashSet<InterMineBag>();
+        // bags already in the index are answered from memory, and the rest with one query,
+        // after which they are read into the index
+        Collection<InterMineBag> notLoaded = new ArrayList<InterMineBag>();
+        for (InterMineBag imBag : imBags) {
+            if (!bagContentsIndex.isLoaded(imBag.getOsb())) {
+                notLoaded.add(imBag);
+            } else if (bagContentsIndex.contains(imBag.getOsb(), id.intValue())) {
+                bagsContainingId.add(imBag);
+            }
+        }
+        if (notLoaded.isEmpty()) {
+            return bagsContainingId;
+        }
+        Map<Integer, InterMineBag> osBagIdToInterMineBag = getOsBagIdToInterMineBag(notLoaded);
 
         // this searches bags for an object
-        ObjectStoreBagsForObject osbo = new ObjectStoreBagsForObject(id, objectStoreBags);
+        ObjectStoreBagsForObject osbo = new ObjectStoreBagsForObject(id,
+                getObjectStoreBags(notLoaded));
 
         // run query
         Query q = new Query();
         q.addToSelect(osbo);
 
-        Collection<InterMineBag> bagsContainingId = new HashSet<InterMineBag>();
-
         // this should return all bags with that object
         Results res = osProduction.executeSingleton(q);
         Iterator<Object> resIter = res.iterator();
@@ -628,6 +638,9 @@ public class BagManager
             }
         }
 
+        // read the bags into the index, as far as it has room, so that next time they are
+        // answered from memory
+        bagContentsIndex.load(getObjectStoreBags(notLoaded));
         return bagsContainingId;
     }
 
@@ -641,6 +654,25 @@ public class BagManager
         return osBagIdToInterMineBag;
     }
 
+    /**
+     * Return the number of objects that are in all of the given bags, from the in-memory index of
+     * bag contents.
+     * @param bags the bags, at least one
+     * @return the number of objects in every bag
+     */
+    public int getIntersectionSize(Collection<InterMineBag> bags) {
+        return bagContentsIndex.getIntersectionSize(getObjectStoreBags(bags));
+    }
+
+    /**
+     * Return the index of the contents of the bags in the production database, which answers
+     * questions about what bags contain without going to the database.
+     * @return the BagContentsIndex
+     */
+    public BagContentsIndex getBagContentsIndex() {
+        return bagContentsIndex;
+    }
+
     private static Collection<ObjectStoreBag> getObjectStoreBags(Collection<InterMineBag> imBags) {
         Set<ObjectStoreBag> objectStoreBags = new HashSet<ObjectStoreBag>();
         for (InterMineBag imBag : imBags) {
@@ -294,6 +294,14 @@ public class BagQuery
         return this.matchesAreIssues;
     }
 
+    /**
+     * Return whether this is the default query, which searches the class key fields.
+     * @return true if this query was created for a type rather than configured
+     */
+    public boolean isDefaultQuery() {
+        return this.isDefaultQuery;
+    }
+
     /**
      * Return the message that was passed to the constructor.
      * @return the message
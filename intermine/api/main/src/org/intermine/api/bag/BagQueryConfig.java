@@ -28,6 +28,7 @@ public class BagQueryConfig
     private final Map<String, List<BagQuery>> preDefaultBagQueries;
     private Map<String, Set<AdditionalConverter>> additionalConverters;
     private boolean matchOnFirst = true;
+    private boolean useIdentifierIndex = false;
 
     /**
      * Create a new BagQueryConfig object.
@@ -152,4 +153,22 @@ public class BagQueryConfig
     public boolean getMatchOnFirst() {
         return matchOnFirst;
     }
+
+    /**
+     * If flag is true, bagqueryrunner resolves identifiers from an in-memory index of the
+     * identifiers found by each bag query, built the first time the query is needed, rather than
+     * running the query for every search.
+     * @param useIdentifierIndex the flag to set
+     */
+    public void setUseIdentifierIndex(boolean useIdentifierIndex) {
+        this.useIdentifierIndex = useIdentifierIndex;
+    }
+
+    /**
+     * Whether bagqueryrunner should resolve identifiers from in-memory indexes.
+     * @return the useIdentifierIndex flag
+     */
+    public boolean getUseIdentifierIndex() {
+        return useIdentifierIndex;
+    }
 }
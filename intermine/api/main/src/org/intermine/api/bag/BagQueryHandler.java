@@ -96,6 +96,10 @@ public class BagQueryHandler extends DefaultHandler
                 matchOnFirst = ("false".equalsIgnoreCase(matchOnFirstStr) ? false : true);
             }
             bagQueryConfig.setMatchOnFirst(matchOnFirst);
+            String identifierIndexStr = attrs.getValue("identifierIndex");
+            if (StringUtils.isNotEmpty(identifierIndexStr)) {
+                bagQueryConfig.setUseIdentifierIndex("true".equalsIgnoreCase(identifierIndexStr));
+            }
         }
         if ("query".equals(qName)) {
             message = attrs.getValue("message");
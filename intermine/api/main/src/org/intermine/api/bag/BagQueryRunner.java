@@ -12,15 +12,22 @@ package org.intermine.api.bag;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
 import org.intermine.InterMineException;
 import org.intermine.api.template.ApiTemplate;
 import org.intermine.api.template.TemplateManager;
@@ -44,11 +51,16 @@ import org.intermine.util.CollectionUtil;
  */
 public class BagQueryRunner
 {
+    private static final Logger LOG = Logger.getLogger(BagQueryRunner.class);
+
     private ObjectStore os;
     private Model model;
     private Map<String, List<FieldDescriptor>> classKeys;
     private BagQueryConfig bagQueryConfig;
     private TemplateManager templateManager;
+    // identifier indexes, keyed by type name for default queries and by BagQuery otherwise
+    private final ConcurrentMap<Object, FutureTask<IdentifierIndex>> identifierIndexes =
+        new ConcurrentHashMap<Object, FutureTask<IdentifierIndex>>();
 
     /**
      * Construct with configured bag queries and a map of type -&gt; key fields.
@@ -181,38 +193,56 @@ public class BagQueryRunner
         }
 
         for (BagQuery bq : queries) {
+            boolean runQuery = !unresolved.isEmpty() || !matchOnFirst;
+            // the index can't apply the extra constraint, so those searches go to the database
+            IdentifierIndex index = null;
+            if (bagQueryConfig.getUseIdentifierIndex() && StringUtils.isEmpty(extraFieldValue)
+                    && (runQuery || !wildcardInput.isEmpty())) {
+                index = getIdentifierIndex(typeCls.getName(), bq);
+            }
             // run the next query on identifiers not yet resolved
             // OR all identifiers if matchOnFirst = FALSE
-            if (!unresolved.isEmpty() || !matchOnFirst) {
+            if (runQuery) {
                 Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
-                try {
-                    Set<String> toProcess = (matchOnFirst) ? unresolved : unresolvedOriginal;
-                    Query q = bq.getQuery(toProcess, extraFieldValue);
-                    Results res = os.execute(q, 10000, true, true, false);
-                    for (Object rowObj : res) {
-                        ResultsRow<?> row = (ResultsRow<?>) rowObj;
-                        Integer id = (Integer) row.get(0);
-                        for (int i = 1; i < row.size(); i++) {
-                            final Object fieldObject = row.get(i);
-                            if (fieldObject != null) {
-                                String field = String.valueOf(fieldObject);
-                                String lowerField = field.toLowerCase();
-                                if (caseSensitive) {
-                                    if (cleanInput.contains(field)) {
-                                        processMatch(resMap, unresolved, id, field);
+                Set<String> toProcess = (matchOnFirst) ? unresolved : unresolvedOriginal;
+                if (index != null && !caseSensitive) {
+                    // Inputs that differ only in case were merged above, keeping the first
+                    // spelling, so as with the SQL path below every match is reported under the
+                    // first spelling and the later ones are dropped as duplicates
+                    for (String inputString : new ArrayList<String>(toProcess)) {
+                        for (int id : index.getIds(inputString.toLowerCase())) {
+                            processMatch(resMap, unresolved, id, inputString);
+                        }
+                    }
+                } else {
+                    try {
+                        Query q = bq.getQuery(toProcess, extraFieldValue);
+                        Results res = os.execute(q, 10000, true, true, false);
+                        for (Object rowObj : res) {
+                            ResultsRow<?> row = (ResultsRow<?>) rowObj;
+                            Integer id = (Integer) row.get(0);
+                            for (int i = 1; i < row.size(); i++) {
+                                final Object fieldObject = row.get(i);
+                                if (fieldObject != null) {
+                                    String field = String.valueOf(fieldObject);
+                                    String lowerField = field.toLowerCase();
+                                    if (caseSensitive) {
+                                        if (cleanInput.contains(field)) {
+                                            processMatch(resMap, unresolved, id, field);
+                                        }
+                                    } else if (lowerCaseInput.containsKey(lowerField)) {
+                                        // because we are converting to lower case we need to
+                                        // match to original input so that 'h' matches 'H' and
+                                        // 'h' becomes a duplicate.
+                                        String originalInput = lowerCaseInput.get(lowerField);
+                                        processMatch(resMap, unresolved, id, originalInput);
                                     }
-                                } else if (lowerCaseInput.containsKey(lowerField)) {
-                                    // because we are converting to lower case we need to match
-                                    // to original input so that 'h' matches 'H' and 'h' becomes
-                                    // a duplicate.
-                                    String originalInput = lowerCaseInput.get(lowerField);
-                                    processMatch(resMap, unresolved, id, originalInput);
                                 }
                             }
                         }
+                    } catch (IllegalArgumentException e) {
+                        // Query couldn't handle extra value
                     }
-                } catch (IllegalArgumentException e) {
-                    // Query couldn't handle extra value
                 }
                 addResults(resMap, unresolved, bqr, bq.getMessage(), typeCls, false,
                             matchOnFirst, bq.matchesAreIssues());
@@ -220,20 +250,38 @@ public class BagQueryRunner
             if (!wildcardInput.isEmpty()) {
                 Map<String, Set<Integer>> resMap = new HashMap<String, Set<Integer>>();
 
-                Query q = bq.getQueryForWildcards(wildcardInput, extraFieldValue);
-                Results res = os.execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true, true,
-                        false);
-                for (Object rowObj : res) {
-                    ResultsRow<?> row = (ResultsRow<?>) rowObj;
-                    Integer id = (Integer) row.get(0);
-                    for (int i = 1; i < row.size(); i++) {
-                        String field = "" + row.get(i);
-                        String lowerField = field.toLowerCase();
-                        for (String wildcard : wildcardInput) {
-                            Pattern pattern = patterns.get(wildcard);
-                            if (pattern.matcher(lowerField).matches()) {
+                // prefixes are looked up in the index, other wildcards go to the database
+                List<String> queryWildcards = wildcardInput;
+                if (index != null) {
+                    queryWildcards = new ArrayList<String>();
+                    for (String wildcard : wildcardInput) {
+                        if (IdentifierIndex.isPrefixWildcard(wildcard)) {
+                            String prefix = wildcard.substring(0, wildcard.length() - 1)
+                                .toLowerCase();
+                            for (int id : index.getIdsWithPrefix(prefix)) {
                                 processMatch(resMap, wildcardUnresolved, id, wildcard);
                             }
+                        } else {
+                            queryWildcards.add(wildcard);
+                        }
+                    }
+                }
+                if (!queryWildcards.isEmpty()) {
+                    Query q = bq.getQueryForWildcards(queryWildcards, extraFieldValue);
+                    Results res = os.execute(q, ResultsBatches.DEFAULT_BATCH_SIZE, true, true,
+                            false);
+                    for (Object rowObj : res) {
+                        ResultsRow<?> row = (ResultsRow<?>) rowObj;
+                        Integer id = (Integer) row.get(0);
+                        for (int i = 1; i < row.size(); i++) {
+                            String field = "" + row.get(i);
+                            String lowerField = field.toLowerCase();
+                            for (String wildcard : queryWildcards) {
+                                Pattern pattern = patterns.get(wildcard);
+                                if (pattern.matcher(lowerField).matches()) {
+                                    processMatch(resMap, wildcardUnresolved, id, wildcard);
+                                }
+                            }
                         }
                     }
                 }
@@ -260,6 +308,48 @@ public class BagQueryRunner
         return bqr;
     }
 
+    /**
+     * Return the identifier index for a bag query, building it the first time it is needed, or
+     * null if the query can't be indexed.
+     */
+    private IdentifierIndex getIdentifierIndex(String type, final BagQuery bq) {
+        Object key = bq.isDefaultQuery() ? type : bq;
+        FutureTask<IdentifierIndex> task = identifierIndexes.get(key);
+        if (task == null) {
+            FutureTask<IdentifierIndex> newTask = new FutureTask<IdentifierIndex>(
+                    new Callable<IdentifierIndex>() {
+                        @Override
+                        public IdentifierIndex call() throws Exception {
+                            Query q;
+                            try {
+                                // a single wildcard matching every value of the identifiers
+                                q = bq.getQueryForWildcards(Collections.singleton("*"), null);
+                            } catch (IllegalArgumentException e) {
+                                LOG.info("Not indexing bag query " + bq + ": " + e.getMessage());
+                                return null;
+                            }
+                            return IdentifierIndex.build(os, q);
+                        }
+                    });
+            task = identifierIndexes.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            // try again next time, and run the query in the database for now
+            identifierIndexes.remove(key, task);
+            LOG.warn("Failed to build identifier index for bag query " + bq, e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
     private static void processMatch(Map<String, Set<Integer>> resMap, Set<String> unresolved,
         Integer id, String field) {
         Set<Integer> ids = resMap.get(field);
@@ -0,0 +1,426 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A compressed set of object ids, laid out like a roaring bitmap: the ids are split into blocks
+ * of 65536 by their upper 16 bits, and each block holds its lower 16 bits either as a sorted
+ * array, when the block has few ids, or as a bitmap of 8KB, when it has many. A block of ids
+ * costs at most 8KB however many it holds, and at most 2 bytes an id when sparse.
+ *
+ * This class is not thread safe. The BagContentsIndex never changes a bitmap that it has handed
+ * out; it changes a copy instead.
+ *
+ * @author intermine
+ */
+public final class IdBitmap
+{
+    // a block with more ids than this is held as a bitmap
+    private static final int MAX_ARRAY_SIZE = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private char[] keys = new char[4];
+    private Object[] blocks = new Object[4];
+    // the number of ids in each block
+    private int[] counts = new int[4];
+    private int blockCount = 0;
+
+    /**
+     * Create an empty IdBitmap.
+     */
+    public IdBitmap() {
+        // empty
+    }
+
+    /**
+     * Create an IdBitmap holding the given ids.
+     *
+     * @param ids the ids
+     * @return a new IdBitmap
+     */
+    public static IdBitmap valueOf(Collection<Integer> ids) {
+        IdBitmap bitmap = new IdBitmap();
+        bitmap.addAll(ids);
+        return bitmap;
+    }
+
+    /**
+     * Return a copy of this bitmap, which can be changed without changing this one.
+     *
+     * @return a new IdBitmap
+     */
+    public IdBitmap copy() {
+        IdBitmap copy = new IdBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(blockCount, 1));
+        copy.counts = Arrays.copyOf(counts, Math.max(blockCount, 1));
+        copy.blocks = new Object[Math.max(blockCount, 1)];
+        for (int i = 0; i < blockCount; i++) {
+            copy.blocks[i] = (blocks[i] instanceof long[]) ? ((long[]) blocks[i]).clone()
+                : ((char[]) blocks[i]).clone();
+        }
+        copy.blockCount = blockCount;
+        return copy;
+    }
+
+    /**
+     * Add an id.
+     *
+     * @param id the id
+     * @return true if the id was not already present
+     */
+    public boolean add(int id) {
+        char key = (char) (id >>> 16);
+        char low = (char) id;
+        int b = findBlock(key);
+        if (b < 0) {
+            b = -b - 1;
+            insertBlock(b, key);
+        }
+        Object block = blocks[b];
+        if (block instanceof long[]) {
+            long[] words = (long[]) block;
+            long mask = 1L << low;
+            if ((words[low >>> 6] & mask) != 0) {
+                return false;
+            }
+            words[low >>> 6] |= mask;
+            counts[b]++;
+            return true;
+        }
+        char[] values = (char[]) block;
+        int count = counts[b];
+        int pos = Arrays.binarySearch(values, 0, count, low);
+        if (pos >= 0) {
+            return false;
+        }
+        pos = -pos - 1;
+        if (count == MAX_ARRAY_SIZE) {
+            long[] words = new long[BITMAP_WORDS];
+            for (int i = 0; i < count; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            words[low >>> 6] |= 1L << low;
+            blocks[b] = words;
+        } else {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, Math.min(MAX_ARRAY_SIZE, count * 2));
+                blocks[b] = values;
+            }
+            System.arraycopy(values, pos, values, pos + 1, count - pos);
+            values[pos] = low;
+        }
+        counts[b]++;
+        return true;
+    }
+
+    /**
+     * Add ids.
+     *
+     * @param ids the ids to add
+     */
+    public void addAll(Collection<Integer> ids) {
+        for (Integer id : ids) {
+            add(id.intValue());
+        }
+    }
+
+    /**
+     * Remove an id.
+     *
+     * @param id the id
+     * @return true if the id was present
+     */
+    public boolean remove(int id) {
+        int b = findBlock((char) (id >>> 16));
+        if (b < 0) {
+            return false;
+        }
+        char low = (char) id;
+        Object block = blocks[b];
+        if (block instanceof long[]) {
+            long[] words = (long[]) block;
+            long mask = 1L << low;
+            if ((words[low >>> 6] & mask) == 0) {
+                return false;
+            }
+            words[low >>> 6] &= ~mask;
+            if (--counts[b] == MAX_ARRAY_SIZE) {
+                blocks[b] = toArray(words, MAX_ARRAY_SIZE);
+            }
+        } else {
+            char[] values = (char[]) block;
+            int pos = Arrays.binarySearch(values, 0, counts[b], low);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(values, pos + 1, values, pos, counts[b] - pos - 1);
+            counts[b]--;
+        }
+        if (counts[b] == 0) {
+            removeBlock(b);
+        }
+        return true;
+    }
+
+    /**
+     * Remove ids.
+     *
+     * @param ids the ids to remove
+     */
+    public void removeAll(Collection<Integer> ids) {
+        for (Integer id : ids) {
+            remove(id.intValue());
+        }
+    }
+
+    /**
+     * Test whether an id is present.
+     *
+     * @param id the id
+     * @return true if the id is present
+     */
+    public boolean contains(int id) {
+        int b = findBlock((char) (id >>> 16));
+        if (b < 0) {
+            return false;
+        }
+        char low = (char) id;
+        Object block = blocks[b];
+        if (block instanceof long[]) {
+            return (((long[]) block)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) block, 0, counts[b], low) >= 0;
+    }
+
+    /**
+     * Return the number of ids present.
+     *
+     * @return the number of ids
+     */
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < blockCount; i++) {
+            cardinality += counts[i];
+        }
+        return cardinality;
+    }
+
+    /**
+     * Return an estimate of the number of bytes of memory held by this bitmap.
+     *
+     * @return a number of bytes
+     */
+    public int getMemoryUsage() {
+        // the object and its four arrays, then each block array
+        int bytes = 16 + 4 * 16 + keys.length * 2 + counts.length * 4 + blocks.length * 4;
+        for (int i = 0; i < blockCount; i++) {
+            bytes += 16 + ((blocks[i] instanceof long[]) ? ((long[]) blocks[i]).length * 8
+                : ((char[]) blocks[i]).length * 2);
+        }
+        return bytes;
+    }
+
+    /**
+     * Return true if there are no ids present.
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return blockCount == 0;
+    }
+
+    /**
+     * Return the ids present in both this bitmap and another.
+     *
+     * @param other the other bitmap
+     * @return a new IdBitmap
+     */
+    public IdBitmap and(IdBitmap other) {
+        IdBitmap result = new IdBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < blockCount && j < other.blockCount) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Object block = andBlocks(blocks[i], counts[i], other.blocks[j], other.counts[j]);
+                int count = (block instanceof long[]) ? bitCount((long[]) block)
+                    : ((char[]) block).length;
+                if (count > 0) {
+                    result.insertBlock(result.blockCount, keys[i]);
+                    if (block instanceof long[] && count <= MAX_ARRAY_SIZE) {
+                        block = toArray((long[]) block, count);
+                    }
+                    result.blocks[result.blockCount - 1] = block;
+                    result.counts[result.blockCount - 1] = count;
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of ids present in both this bitmap and another, without building the
+     * intersection.
+     *
+     * @param other the other bitmap
+     * @return the size of the intersection
+     */
+    public int andCardinality(IdBitmap other) {
+        int cardinality = 0;
+        int i = 0;
+        int j = 0;
+        while (i < blockCount && j < other.blockCount) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Object a = blocks[i];
+                Object b = other.blocks[j];
+                if (a instanceof long[] && b instanceof long[]) {
+                    long[] wa = (long[]) a;
+                    long[] wb = (long[]) b;
+                    for (int w = 0; w < BITMAP_WORDS; w++) {
+                        cardinality += Long.bitCount(wa[w] & wb[w]);
+                    }
+                } else {
+                    Object block = andBlocks(a, counts[i], b, other.counts[j]);
+                    cardinality += ((char[]) block).length;
+                }
+                i++;
+                j++;
+            }
+        }
+        return cardinality;
+    }
+
+    /**
+     * Return the ids present, in unsigned order.
+     *
+     * @return an array of ids
+     */
+    public int[] toArray() {
+        int[] ids = new int[getCardinality()];
+        int n = 0;
+        for (int i = 0; i < blockCount; i++) {
+            int high = keys[i] << 16;
+            char[] values = (blocks[i] instanceof long[])
+                ? toArray((long[]) blocks[i], counts[i]) : (char[]) blocks[i];
+            for (int k = 0; k < counts[i]; k++) {
+                ids[n++] = high | values[k];
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Intersect two blocks. The result is a bitmap only if both blocks are bitmaps, otherwise an
+     * exactly sized array.
+     */
+    private static Object andBlocks(Object a, int countA, Object b, int countB) {
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] wa = (long[]) a;
+            long[] wb = (long[]) b;
+            long[] words = new long[BITMAP_WORDS];
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                words[w] = wa[w] & wb[w];
+            }
+            return words;
+        }
+        if (a instanceof long[]) {
+            return andBlocks(b, countB, a, countA);
+        }
+        char[] values = (char[]) a;
+        char[] result = new char[countA];
+        int n = 0;
+        if (b instanceof long[]) {
+            long[] words = (long[]) b;
+            for (int k = 0; k < countA; k++) {
+                if ((words[values[k] >>> 6] & (1L << values[k])) != 0) {
+                    result[n++] = values[k];
+                }
+            }
+        } else {
+            char[] other = (char[]) b;
+            int i = 0;
+            int j = 0;
+            while (i < countA && j < countB) {
+                if (values[i] < other[j]) {
+                    i++;
+                } else if (values[i] > other[j]) {
+                    j++;
+                } else {
+                    result[n++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static int bitCount(long[] words) {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private static char[] toArray(long[] words, int count) {
+        char[] values = new char[count];
+        int n = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                values[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return values;
+    }
+
+    private int findBlock(char key) {
+        return Arrays.binarySearch(keys, 0, blockCount, key);
+    }
+
+    private void insertBlock(int b, char key) {
+        if (blockCount == keys.length) {
+            int length = keys.length * 2;
+            keys = Arrays.copyOf(keys, length);
+            blocks = Arrays.copyOf(blocks, length);
+            counts = Arrays.copyOf(counts, length);
+        }
+        System.arraycopy(keys, b, keys, b + 1, blockCount - b);
+        System.arraycopy(blocks, b, blocks, b + 1, blockCount - b);
+        System.arraycopy(counts, b, counts, b + 1, blockCount - b);
+        keys[b] = key;
+        blocks[b] = new char[4];
+        counts[b] = 0;
+        blockCount++;
+    }
+
+    private void removeBlock(int b) {
+        System.arraycopy(keys, b + 1, keys, b, blockCount - b - 1);
+        System.arraycopy(blocks, b + 1, blocks, b, blockCount - b - 1);
+        System.arraycopy(counts, b + 1, counts, b, blockCount - b - 1);
+        blockCount--;
+        blocks[blockCount] = null;
+    }
+}
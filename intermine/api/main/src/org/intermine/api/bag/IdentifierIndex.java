@@ -0,0 +1,280 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * An immutable in-memory table from case-folded identifiers to the ids of the objects they
+ * identify, used by the BagQueryRunner to resolve input without going to the database.
+ *
+ * The distinct identifiers are held sorted, end to end in a single char array, with the ids for
+ * each identifier in a single int array, so that a table of millions of identifiers costs little
+ * more than the characters themselves. Exact identifiers and prefixes are found by binary search.
+ *
+ * @author intermine
+ */
+public class IdentifierIndex
+{
+    private static final Logger LOG = Logger.getLogger(IdentifierIndex.class);
+
+    private static final int BATCH_SIZE = 10000;
+
+    // characters that give a wildcard a meaning other than a literal prefix
+    private static final String SPECIAL_CHARACTERS = "*()[]{}?+^$|\\";
+
+    private final char[] chars;
+    private final int[] keyOffsets;
+    private final int[] idOffsets;
+    private final int[] ids;
+
+    /**
+     * Builds an index of the given identifiers. Pair i maps identifier keys[i] to object ids[i].
+     * The identifiers must already be case-folded, and the same pair may appear more than once.
+     *
+     * @param keys the case-folded identifiers
+     * @param ids the ids of the objects the identifiers identify
+     */
+    public IdentifierIndex(final String[] keys, int[] ids) {
+        if (keys.length != ids.length) {
+            throw new IllegalArgumentException("Got " + keys.length + " identifiers but "
+                    + ids.length + " ids");
+        }
+        final int[] objectIds = ids;
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int retval = keys[a.intValue()].compareTo(keys[b.intValue()]);
+                if (retval == 0) {
+                    retval = objectIds[a.intValue()] < objectIds[b.intValue()] ? -1
+                        : (objectIds[a.intValue()] == objectIds[b.intValue()] ? 0 : 1);
+                }
+                return retval;
+            }
+        });
+        // count only the distinct identifiers, as each is stored once
+        int keyCount = 0;
+        int idCount = 0;
+        int charCount = 0;
+        String lastKey = null;
+        int lastId = 0;
+        for (Integer i : order) {
+            String key = keys[i.intValue()];
+            if (!key.equals(lastKey)) {
+                keyCount++;
+                idCount++;
+                charCount += key.length();
+            } else if (objectIds[i.intValue()] != lastId) {
+                idCount++;
+            }
+            lastKey = key;
+            lastId = objectIds[i.intValue()];
+        }
+        this.chars = new char[charCount];
+        this.keyOffsets = new int[keyCount + 1];
+        this.idOffsets = new int[keyCount + 1];
+        this.ids = new int[idCount];
+        int charPos = 0;
+        int keyPos = 0;
+        int idPos = 0;
+        lastKey = null;
+        for (Integer i : order) {
+            String key = keys[i.intValue()];
+            int id = objectIds[i.intValue()];
+            if (!key.equals(lastKey)) {
+                keyOffsets[keyPos] = charPos;
+                idOffsets[keyPos] = idPos;
+                keyPos++;
+                key.getChars(0, key.length(), chars, charPos);
+                charPos += key.length();
+                this.ids[idPos++] = id;
+            } else if (id != lastId) {
+                this.ids[idPos++] = id;
+            }
+            lastKey = key;
+            lastId = id;
+        }
+        keyOffsets[keyCount] = charPos;
+        idOffsets[keyCount] = idPos;
+    }
+
+    /**
+     * Builds an index from the results of a query. The first column of the query must be the id
+     * of an object, and every other non-null column is an identifier of that object.
+     *
+     * @param os the ObjectStore to run the query on
+     * @param q the query
+     * @return the index
+     */
+    public static IdentifierIndex build(ObjectStore os, Query q) {
+        long start = System.currentTimeMillis();
+        String[] keys = new String[1024];
+        int[] ids = new int[1024];
+        int size = 0;
+        Results res = os.execute(q, BATCH_SIZE, true, false, false);
+        for (Object rowObj : res) {
+            ResultsRow<?> row = (ResultsRow<?>) rowObj;
+            int id = ((Integer) row.get(0)).intValue();
+            for (int i = 1; i < row.size(); i++) {
+                Object field = row.get(i);
+                if (field != null) {
+                    if (size == keys.length) {
+                        keys = Arrays.copyOf(keys, size * 2);
+                        ids = Arrays.copyOf(ids, size * 2);
+                    }
+                    keys[size] = String.valueOf(field).toLowerCase();
+                    ids[size] = id;
+                    size++;
+                }
+            }
+        }
+        IdentifierIndex index = new IdentifierIndex(Arrays.copyOf(keys, size),
+                Arrays.copyOf(ids, size));
+        LOG.info("Built identifier index of " + index.size() + " identifiers ("
+                + index.getCharCount() + " characters) for " + index.ids.length + " ids in "
+                + (System.currentTimeMillis() - start)
+                + " ms from query " + q);
+        return index;
+    }
+
+    /**
+     * Returns whether a wildcard input string is a literal prefix followed by a single star, and
+     * so can be resolved by getIdsWithPrefix().
+     *
+     * @param wildcard the input string
+     * @return true if the wildcard only matches identifiers starting with a fixed string
+     */
+    public static boolean isPrefixWildcard(String wildcard) {
+        int length = wildcard.length();
+        if (length < 2 || wildcard.charAt(length - 1) != '*') {
+            return false;
+        }
+        for (int i = 0; i < length - 1; i++) {
+            if (SPECIAL_CHARACTERS.indexOf(wildcard.charAt(i)) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of distinct identifiers in this index.
+     *
+     * @return the number of identifiers
+     */
+    public int size() {
+        return keyOffsets.length - 1;
+    }
+
+    /**
+     * Returns the number of characters stored for the distinct identifiers in this index.
+     *
+     * @return the number of characters
+     */
+    int getCharCount() {
+        return chars.length;
+    }
+
+    /**
+     * Finds the objects with the given identifier.
+     *
+     * @param key the case-folded identifier
+     * @return the ids of the objects, in ascending order
+     */
+    public int[] getIds(String key) {
+        int pos = lowerBound(key);
+        if (pos < size() && compareKey(pos, key, false) == 0) {
+            return Arrays.copyOfRange(ids, idOffsets[pos], idOffsets[pos + 1]);
+        }
+        return new int[0];
+    }
+
+    /**
+     * Finds the objects with an identifier starting with the given prefix.
+     *
+     * @param prefix the case-folded prefix
+     * @return the ids of the objects, in the order of their identifiers, which may contain the
+     * same id more than once
+     */
+    public int[] getIdsWithPrefix(String prefix) {
+        int from = lowerBound(prefix);
+        int to = from;
+        while (to < size() && compareKey(to, prefix, true) == 0) {
+            to++;
+        }
+        return Arrays.copyOfRange(ids, idOffsets[from], idOffsets[to]);
+    }
+
+    /**
+     * Returns the position of the first identifier that is not less than the given string.
+     */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareKey(mid, key, false) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the identifier at the given position with a string, in the order of
+     * String.compareTo(). If prefix is true, only the first characters of the identifier are
+     * compared.
+     */
+    private int compareKey(int pos, String key, boolean prefix) {
+        int offset = keyOffsets[pos];
+        int length = keyOffsets[pos + 1] - offset;
+        if (prefix && length > key.length()) {
+            length = key.length();
+        }
+        int common = Math.min(length, key.length());
+        for (int i = 0; i < common; i++) {
+            char c = chars[offset + i];
+            char k = key.charAt(i);
+            if (c != k) {
+                return c - k;
+            }
+        }
+        return length - key.length();
+    }
+
+    /**
+     * Returns the identifiers in this index, in order. This is for tests.
+     *
+     * @return a list of the identifiers
+     */
+    List<String> getKeys() {
+        String[] retval = new String[size()];
+        for (int i = 0; i < retval.length; i++) {
+            retval[i] = new String(chars, keyOffsets[i], keyOffsets[i + 1] - keyOffsets[i]);
+        }
+        return Collections.unmodifiableList(Arrays.asList(retval));
+    }
+}
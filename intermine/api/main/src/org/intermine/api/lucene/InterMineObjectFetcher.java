@@ -45,8 +45,10 @@ import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.pathquery.PathException;
 import org.intermine.util.ObjectPipe;
 
@@ -80,6 +82,8 @@ public class InterMineObjectFetcher extends Thread
     Field categoryField = null;
 
     private volatile Exception error;
+    private Integer minId = null;
+    private Integer maxId = null;
 
     /**
      * initialize the documentfetcher thread
@@ -125,6 +129,18 @@ public class InterMineObjectFetcher extends Thread
         this.attributePrefixes = attributePrefixes;
     }
 
+    /**
+     * Restrict this fetcher to objects with ids in the given range, so that several fetchers can
+     * index separate partitions of the database in parallel.
+     *
+     * @param minId the lowest id to fetch, or null for no lower bound
+     * @param maxId the id to stop before, or null for no upper bound
+     */
+    public void setIdRange(Integer minId, Integer maxId) {
+        this.minId = minId;
+        this.maxId = maxId;
+    }
+
     /**
      * get list of fields contained in the fetched documents
      * @return fields
@@ -157,7 +173,10 @@ public class InterMineObjectFetcher extends Thread
                 q.addToSelect(qc);
 
                 QueryField qf = new QueryField(qc, "class");
-                q.setConstraint(new BagConstraint(qf, ConstraintOp.NOT_IN, ignoredClasses));
+                ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+                cs.addConstraint(new BagConstraint(qf, ConstraintOp.NOT_IN, ignoredClasses));
+                addIdRangeConstraints(cs, new QueryField(qc, "id"));
+                q.setConstraint(cs);
 
                 LOG.info("QUERY: " + q.toString());
 
@@ -600,6 +619,17 @@ public class InterMineObjectFetcher extends Thread
         return attributes;
     }
 
+    private void addIdRangeConstraints(ConstraintSet cs, QueryField id) {
+        if (minId != null) {
+            cs.addConstraint(new SimpleConstraint(id, ConstraintOp.GREATER_THAN_EQUALS,
+                        new QueryValue(minId)));
+        }
+        if (maxId != null) {
+            cs.addConstraint(new SimpleConstraint(id, ConstraintOp.LESS_THAN,
+                        new QueryValue(maxId)));
+        }
+    }
+
     private Query getPathQuery(String pathString) throws PathException {
         Query q = new Query();
         ConstraintSet constraints = new ConstraintSet(ConstraintOp.AND);
@@ -625,6 +655,7 @@ public class InterMineObjectFetcher extends Thread
                 QueryField topId = new QueryField(queryClass, "id");
                 q.addToSelect(topId);
                 q.addToOrderBy(topId); // important for optimization in run()
+                addIdRangeConstraints(constraints, topId);
             } else {
                 if (parentClassDescriptor == null) {
                     continue;
@@ -21,6 +21,7 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -56,6 +57,7 @@ import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.TermsFilter;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Version;
 import org.intermine.api.InterMineAPI;
@@ -68,6 +70,11 @@ import org.intermine.modelproduction.MetadataManager.LargeObjectOutputStream;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
+import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.sql.Database;
 import org.intermine.util.ObjectPipe;
 
@@ -115,11 +122,12 @@ public final class KeywordSearch
 
     private static IndexReader reader = null;
     private static BoboIndexReader boboIndexReader = null;
-    private static ObjectPipe<Document> indexingQueue = new ObjectPipe<Document>(100000);
     private static LuceneIndexContainer index = null;
 
     private static Properties properties = null;
     private static String tempDirectory = null;
+    private static String indexLocation = null;
+    private static int partitions = 1;
     private static Map<Class<? extends InterMineObject>, String[]> specialReferences;
     private static Set<Class<? extends InterMineObject>> ignoredClasses;
     private static Map<Class<? extends InterMineObject>, Set<String>> ignoredFields;
@@ -144,6 +152,8 @@ public final class KeywordSearch
         ignoredFields = new HashMap<Class<? extends InterMineObject>, Set<String>>();
         facets = new Vector<KeywordSearchFacetData>();
         debugOutput = true;
+        partitions = 1;
+        indexLocation = null;
 
         // load config file to figure out special classes
         String configFileName = "keyword_search.properties";
@@ -255,6 +265,19 @@ public final class KeywordSearch
 
                     tempDirectory = properties.getProperty("index.temp.directory", "");
                 }
+                String partitionsValue = properties.getProperty("index.partitions");
+                if (!StringUtils.isBlank(partitionsValue)) {
+                    try {
+                        partitions = Math.max(1, Integer.parseInt(partitionsValue.trim()));
+                    } catch (NumberFormatException e) {
+                        LOG.error("keyword_search.properties: invalid index.partitions '"
+                                + partitionsValue + "', using " + partitions, e);
+                    }
+                }
+                String locationValue = properties.getProperty("index.location");
+                if (!StringUtils.isBlank(locationValue)) {
+                    indexLocation = locationValue.trim();
+                }
             } catch (IOException e) {
                 LOG.error("keyword_search.properties: errow while loading file '" + configFileName
                         + "'", e);
@@ -291,6 +314,8 @@ public final class KeywordSearch
 
         LOG.info("Search - Debug mode: " + debugOutput);
         LOG.info("Indexing - Temp Dir: " + tempDirectory);
+        LOG.info("Indexing - Partitions: " + partitions);
+        LOG.info("Indexing - Location: " + (indexLocation == null ? "database" : indexLocation));
     }
 
     private static void addAttributePrefix(String classAndAttribute, String prefix) {
@@ -409,9 +434,11 @@ public final class KeywordSearch
                 createIndex(os, classKeys);
             }
 
+            Database db = ((ObjectStoreInterMineImpl) os).getDatabase();
+            File previousLocation = getSavedIndexLocation(db);
+
             LOG.debug("Deleting previous search index dirctory blob from db...");
             long startTime = System.currentTimeMillis();
-            Database db = ((ObjectStoreInterMineImpl) os).getDatabase();
             boolean blobExisted = MetadataManager.deleteLargeBinary(db,
                     MetadataManager.SEARCH_INDEX);
             if (blobExisted) {
@@ -498,6 +525,16 @@ public final class KeywordSearch
                 LOG.debug("Saving RAM directory to database...");
                 writeObjectToDB(os, MetadataManager.SEARCH_INDEX_DIRECTORY, index.getDirectory());
                 LOG.debug("Successfully saved RAM directory to database.");
+            } else if ("MMapDirectory".equals(index.getDirectoryType())) {
+                // only the location and file sizes are stored - remove any directory saved by a
+                // previous build, and the index directory that the previous build recorded
+                MetadataManager.deleteLargeBinary(db, MetadataManager.SEARCH_INDEX_DIRECTORY);
+                File current = new File(index.getDirectoryPath());
+                if (previousLocation != null && !previousLocation.equals(current)) {
+                    LOG.info("Deleting previous index directory: " + previousLocation);
+                    deleteDirectory(previousLocation);
+                }
+                LOG.info("Search index saved in " + current);
             }
         } catch (IOException e) {
             LOG.error(null, e);
@@ -800,7 +837,18 @@ public final class KeywordSearch
             try {
                 ret = restoreIndex(db);
 
-                if (ret != null) {
+                if (ret != null && "MMapDirectory".equals(ret.getDirectoryType())) {
+                    long time = System.currentTimeMillis();
+                    String problem = ret.verifyDirectory();
+                    if (problem != null) {
+                        LOG.error("Could not load search index: " + problem);
+                        return null;
+                    }
+                    ret.setDirectory(new MMapDirectory(new File(ret.getDirectoryPath())));
+                    LOG.info("Opened search index in " + ret.getDirectoryPath() + " in "
+                            + (System.currentTimeMillis() - time) + " ms");
+                    return ret;
+                } else if (ret != null) {
                     String indexDirectoryType = ret.getDirectoryType();
                     Directory dir = restoreSearchDirectory(indexDirectoryType, path, db);
                     if (dir == null) {
@@ -929,6 +977,27 @@ public final class KeywordSearch
         return null;
     }
 
+    /**
+     * Returns the directory of the memory-mapped index recorded in the database by a previous
+     * build, or null if there is none.
+     */
+    private static File getSavedIndexLocation(Database db) {
+        try {
+            LuceneIndexContainer saved = restoreIndex(db);
+            if (saved != null && "MMapDirectory".equals(saved.getDirectoryType())
+                    && saved.getDirectoryPath() != null) {
+                return new File(saved.getDirectoryPath());
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not read the previous search index information", e);
+        } catch (ClassNotFoundException e) {
+            LOG.warn("Could not read the previous search index information", e);
+        } catch (SQLException e) {
+            LOG.warn("Could not read the previous search index information", e);
+        }
+        return null;
+    }
+
     private static LuceneIndexContainer restoreIndex(Database db)
         throws IOException, ClassNotFoundException, SQLException {
 
@@ -973,79 +1042,117 @@ public final class KeywordSearch
 
         parseProperties(os);
 
-        LOG.info("Starting fetcher thread...");
-        InterMineObjectFetcher fetchThread =
-                new InterMineObjectFetcher(os, classKeys, indexingQueue, ignoredClasses,
-                        ignoredFields, specialReferences, classBoost, facets, attributePrefixes);
-        fetchThread.start();
-
-        // index the docs queued by the fetchers
         LOG.info("Preparing indexer...");
         index = new LuceneIndexContainer();
-        try {
-            tempFile = makeTempFile(tempDirectory);
-        } catch (IOException e) {
-            String tmpDir = System.getProperty("java.io.tmpdir");
-            LOG.warn("Failed to create temp directory " + tempDirectory + " trying " + tmpDir
-                    + " instead", e);
+        if (indexLocation != null) {
+            tempFile = makeTempFile(indexLocation);
+        } else {
             try {
-                tempFile = makeTempFile(tmpDir);
-            } catch (IOException ee) {
-                LOG.warn("Failed to create temp directory in " + tmpDir, ee);
-                throw ee;
+                tempFile = makeTempFile(tempDirectory);
+            } catch (IOException e) {
+                String tmpDir = System.getProperty("java.io.tmpdir");
+                LOG.warn("Failed to create temp directory " + tempDirectory + " trying " + tmpDir
+                        + " instead", e);
+                try {
+                    tempFile = makeTempFile(tmpDir);
+                } catch (IOException ee) {
+                    LOG.warn("Failed to create temp directory in " + tmpDir, ee);
+                    throw ee;
+                }
             }
         }
 
         LOG.info("Index directory: " + tempFile.getAbsolutePath());
 
-        IndexWriter writer;
-        writer = new IndexWriter(index.getDirectory(), new WhitespaceAnalyzer(), true,
-                 IndexWriter.MaxFieldLength.UNLIMITED); //autocommit = false?
-        writer.setMergeFactor(10); //10 default, higher values = more parts
-        writer.setRAMBufferSizeMB(64); //flush to disk when docs take up X MB
-
-        int indexed = 0;
-
-        // loop and index while we still have fetchers running
-        LOG.debug("Starting to index...");
-        while (indexingQueue.hasNext()) {
-            Document doc = indexingQueue.next();
-
-            // nothing in the queue?
-            if (doc != null) {
-                try {
-                    writer.addDocument(doc);
-                    indexed++;
-                } catch (IOException e) {
-                    LOG.error("Failed to submit #" + doc.getFieldable("id") + " to the index",
-                            e);
-                }
-
-                if (indexed % 10000 == 1) {
-                    LOG.info("docs indexed=" + indexed + "; thread state="
-                            + fetchThread.getState() + "; docs/ms=" + indexed * 1.0F
-                            / (System.currentTimeMillis() - time) + "; memory="
-                            + Runtime.getRuntime().freeMemory() / 1024 + "k/"
-                            + Runtime.getRuntime().maxMemory() / 1024 + "k" + "; time="
-                            + (System.currentTimeMillis() - time) + "ms");
-                }
+        // each partition of the database is fetched and indexed by its own pair of threads, into
+        // its own directory, and the partitions are merged at the end
+        List<Integer[]> ranges = getIdRanges(os, partitions);
+        List<PartitionIndexer> indexers = new ArrayList<PartitionIndexer>();
+        List<File> partitionFiles = new ArrayList<File>();
+        double ramBufferSize = Math.max(16.0, 64.0 / ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            Directory partitionDirectory;
+            if (ranges.size() == 1) {
+                partitionDirectory = index.getDirectory();
+            } else {
+                File partitionFile = new File(tempFile.getAbsolutePath() + ".partition" + i);
+                partitionFiles.add(partitionFile);
+                partitionDirectory = FSDirectory.open(partitionFile);
             }
+            ObjectPipe<Document> indexingQueue = new ObjectPipe<Document>(100000
+                    / ranges.size());
+            InterMineObjectFetcher fetchThread =
+                    new InterMineObjectFetcher(os, classKeys, indexingQueue, ignoredClasses,
+                            ignoredFields, specialReferences, classBoost, facets,
+                            attributePrefixes);
+            fetchThread.setIdRange(ranges.get(i)[0], ranges.get(i)[1]);
+            indexers.add(new PartitionIndexer(fetchThread, indexingQueue, partitionDirectory,
+                        ramBufferSize, time));
+        }
+        LOG.info("Starting " + indexers.size() + " fetcher threads...");
+        for (PartitionIndexer indexer : indexers) {
+            indexer.getFetcher().start();
+            indexer.start();
         }
-        if (fetchThread.getException() != null) {
+
+        int indexed = 0;
+        Exception failure = null;
+        for (PartitionIndexer indexer : indexers) {
             try {
-                writer.close();
-            } catch (Exception e) {
-                LOG.error("Error closing writer while handling exception.", e);
+                indexer.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted while indexing", e);
+            }
+            indexed += indexer.getIndexed();
+            if (indexer.getFetcher().getException() != null) {
+                failure = indexer.getFetcher().getException();
+            } else if (indexer.getException() != null) {
+                failure = indexer.getException();
             }
-            throw new RuntimeException("Indexing failed.", fetchThread.getException());
+            index.getFieldNames().addAll(indexer.getFetcher().getFieldNames());
         }
-        index.getFieldNames().addAll(fetchThread.getFieldNames());
+        if (failure != null) {
+            deleteIndexFiles(tempFile, partitionFiles);
+            throw new RuntimeException("Indexing failed.", failure);
+        }
+
         LOG.debug("Indexing done, optimizing index files...");
+        IndexWriter writer = null;
         try {
+            writer = new IndexWriter(index.getDirectory(), new WhitespaceAnalyzer(),
+                    !partitionFiles.isEmpty(), IndexWriter.MaxFieldLength.UNLIMITED);
+            if (!partitionFiles.isEmpty()) {
+                LOG.info("Merging " + partitionFiles.size() + " partitions...");
+                Directory[] partitionDirectories = new Directory[partitionFiles.size()];
+                for (int i = 0; i < partitionFiles.size(); i++) {
+                    partitionDirectories[i] = FSDirectory.open(partitionFiles.get(i));
+                }
+                writer.addIndexesNoOptimize(partitionDirectories);
+            }
             writer.optimize();
             writer.close();
+            writer = null;
         } catch (IOException e) {
             LOG.error("IOException while optimizing and closing IndexWriter", e);
+            if (writer != null) {
+                try {
+                    writer.rollback();
+                } catch (IOException e2) {
+                    LOG.warn("Could not roll back IndexWriter", e2);
+                }
+            }
+            // the merged index is incomplete, so nothing from this run is kept
+            deleteIndexFiles(tempFile, partitionFiles);
+            throw e;
+        }
+        for (File partitionFile : partitionFiles) {
+            deleteDirectory(partitionFile);
+        }
+
+        if (indexLocation != null) {
+            // the index stays where it is, and is opened from there by the webapp
+            index.setDirectoryType("MMapDirectory");
+            index.setDirectoryPath(tempFile);
         }
 
         time = System.currentTimeMillis() - time;
@@ -1056,6 +1163,170 @@ public final class KeywordSearch
         return tempFile;
     }
 
+    /**
+     * Divides the ids of all InterMineObjects into the given number of ranges of roughly equal
+     * size. The first range has no lower bound and the last has no upper bound.
+     */
+    private static List<Integer[]> getIdRanges(ObjectStore os, int count) {
+        List<Integer[]> ranges = new ArrayList<Integer[]>();
+        if (count > 1) {
+            Query q = new Query();
+            QueryClass qc = new QueryClass(InterMineObject.class);
+            q.addFrom(qc);
+            QueryField id = new QueryField(qc, "id");
+            q.addToSelect(new QueryFunction(id, QueryFunction.MIN));
+            q.addToSelect(new QueryFunction(id, QueryFunction.MAX));
+            try {
+                List<ResultsRow<Object>> rows = os.execute(q, 0, 1, false, false,
+                        ObjectStore.SEQUENCE_IGNORE);
+                if (!rows.isEmpty() && rows.get(0).get(0) != null) {
+                    long min = ((Number) rows.get(0).get(0)).longValue();
+                    long max = ((Number) rows.get(0).get(1)).longValue();
+                    long step = (max - min) / count + 1;
+                    Integer lower = null;
+                    for (int i = 1; i < count; i++) {
+                        long boundary = min + step * i;
+                        if (boundary > max) {
+                            break;
+                        }
+                        Integer upper = new Integer((int) boundary);
+                        ranges.add(new Integer[] {lower, upper});
+                        lower = upper;
+                    }
+                    ranges.add(new Integer[] {lower, null});
+                    return ranges;
+                }
+            } catch (ObjectStoreException e) {
+                LOG.warn("Could not find the range of ids to partition the index, using one"
+                        + " partition", e);
+            }
+        }
+        ranges.clear();
+        ranges.add(new Integer[] {null, null});
+        return ranges;
+    }
+
+    /**
+     * Thread that indexes the documents from one fetcher into a directory.
+     */
+    private static class PartitionIndexer extends Thread
+    {
+        private final InterMineObjectFetcher fetcher;
+        private final ObjectPipe<Document> queue;
+        private final Directory directory;
+        private final double ramBufferSize;
+        private final long startTime;
+        private volatile int indexed = 0;
+        private volatile Exception exception = null;
+
+        PartitionIndexer(InterMineObjectFetcher fetcher, ObjectPipe<Document> queue,
+                Directory directory, double ramBufferSize, long startTime) {
+            this.fetcher = fetcher;
+            this.queue = queue;
+            this.directory = directory;
+            this.ramBufferSize = ramBufferSize;
+            this.startTime = startTime;
+        }
+
+        InterMineObjectFetcher getFetcher() {
+            return fetcher;
+        }
+
+        int getIndexed() {
+            return indexed;
+        }
+
+        Exception getException() {
+            return exception;
+        }
+
+        @Override
+        public void run() {
+            IndexWriter writer = null;
+            try {
+                writer = new IndexWriter(directory, new WhitespaceAnalyzer(), true,
+                        IndexWriter.MaxFieldLength.UNLIMITED); //autocommit = false?
+                writer.setMergeFactor(10); //10 default, higher values = more parts
+                writer.setRAMBufferSizeMB(ramBufferSize); //flush to disk when docs take up X MB
+
+                // loop and index while the fetcher is running
+                LOG.debug("Starting to index...");
+                while (queue.hasNext()) {
+                    Document doc = queue.next();
+
+                    // nothing in the queue?
+                    if (doc != null) {
+                        try {
+                            writer.addDocument(doc);
+                            indexed++;
+                        } catch (IOException e) {
+                            LOG.error("Failed to submit #" + doc.getFieldable("id")
+                                    + " to the index", e);
+                        }
+
+                        if (indexed % 10000 == 1) {
+                            long now = System.currentTimeMillis();
+                            LOG.info(getName() + ": docs indexed=" + indexed + "; thread state="
+                                    + fetcher.getState() + "; docs/ms=" + indexed * 1.0F
+                                    / (now - startTime) + "; memory="
+                                    + Runtime.getRuntime().freeMemory() / 1024 + "k/"
+                                    + Runtime.getRuntime().maxMemory() / 1024 + "k" + "; time="
+                                    + (now - startTime) + "ms");
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOG.error("Error while indexing", e);
+                exception = e;
+                // let the fetcher finish rather than blocking on a full queue
+                while (queue.hasNext()) {
+                    queue.next();
+                }
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        LOG.error("Error closing writer", e);
+                        if (exception == null) {
+                            exception = e;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the directories written by a failed index build: the partitions and the index they
+     * were being merged into.
+     */
+    private static void deleteIndexFiles(File tempFile, List<File> partitionFiles) {
+        for (File partitionFile : partitionFiles) {
+            LOG.info("Deleting index partition: " + partitionFile);
+            deleteDirectory(partitionFile);
+        }
+        LOG.info("Deleting incomplete index directory: " + tempFile);
+        deleteDirectory(tempFile);
+        index = null;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else if (!file.delete()) {
+                    LOG.warn("Could not delete " + file);
+                }
+            }
+        }
+        if (directory.exists() && !directory.delete()) {
+            LOG.warn("Could not delete " + directory);
+        }
+    }
+
     private static File makeTempFile(String tempDir) throws IOException {
         LOG.debug("Creating search index tmp dir: " + tempDir);
         File tempFile = File.createTempFile("search_index", "", new File(tempDir));
@@ -1184,10 +1455,11 @@ public final class KeywordSearch
             }
         }
         boboIndexReader = null;
-        indexingQueue = null;
         index = null;
         properties = null;
         tempDirectory = null;
+        indexLocation = null;
+        partitions = 1;
         specialReferences = null;
         ignoredClasses = null;
         ignoredFields = null;
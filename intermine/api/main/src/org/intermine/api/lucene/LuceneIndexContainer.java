@@ -10,9 +10,12 @@ package org.intermine.api.lucene;
  *
  */
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 import org.apache.lucene.store.Directory;
 
@@ -29,6 +32,9 @@ class LuceneIndexContainer implements Serializable
     private String directoryType;
     private HashSet<String> fieldNames = new HashSet<String>();
     private HashMap<String, Float> fieldBoosts = new HashMap<String, Float>();
+    private String directoryPath;
+    private HashMap<String, Long> fileSizes;
+    private HashMap<String, Long> fileTimes;
 
     /**
      * get lucene directory for this index
@@ -49,7 +55,7 @@ class LuceneIndexContainer implements Serializable
 
     /**
      * get type of directory
-     * @return 'FSDirectory' or 'RAMDirectory'
+     * @return 'FSDirectory', 'RAMDirectory' or 'MMapDirectory'
      */
     public String getDirectoryType() {
         return directoryType;
@@ -98,6 +104,73 @@ class LuceneIndexContainer implements Serializable
         this.fieldBoosts = fieldBoosts;
     }
 
+    /**
+     * get the local path of the index, for indexes that are kept on disk rather than stored in
+     * the database
+     * @return absolute path of the index directory, or null
+     */
+    public String getDirectoryPath() {
+        return directoryPath;
+    }
+
+    /**
+     * set the local path of the index, and record the sizes and modification times of the files
+     * in it. Lucene never changes a file once it has been written, so these are enough to notice
+     * a changed index without reading the whole of it
+     * @param path
+     *            directory containing a complete index
+     * @throws IOException if the files cannot be read
+     */
+    public void setDirectoryPath(File path) throws IOException {
+        this.directoryPath = path.getAbsolutePath();
+        this.fileSizes = new HashMap<String, Long>();
+        this.fileTimes = new HashMap<String, Long>();
+        readFiles(path, fileSizes, fileTimes);
+    }
+
+    /**
+     * check that the directory at the local path holds the same files as when the index was
+     * saved
+     * @return null if the index is intact, otherwise a description of the problem
+     * @throws IOException if the files cannot be read
+     */
+    public String verifyDirectory() throws IOException {
+        if (directoryPath == null || fileSizes == null || fileTimes == null) {
+            return "no index directory recorded";
+        }
+        File path = new File(directoryPath);
+        if (!path.isDirectory()) {
+            return "index directory " + directoryPath + " does not exist";
+        }
+        Map<String, Long> sizes = new HashMap<String, Long>();
+        Map<String, Long> times = new HashMap<String, Long>();
+        readFiles(path, sizes, times);
+        for (Map.Entry<String, Long> entry : fileSizes.entrySet()) {
+            String name = entry.getKey();
+            if (!sizes.containsKey(name)) {
+                return "file " + name + " is missing from " + directoryPath;
+            } else if (!sizes.get(name).equals(entry.getValue())
+                    || !times.get(name).equals(fileTimes.get(name))) {
+                return "file " + name + " in " + directoryPath + " has changed";
+            }
+        }
+        return null;
+    }
+
+    private static void readFiles(File path, Map<String, Long> sizes, Map<String, Long> times)
+        throws IOException {
+        File[] files = path.listFiles();
+        if (files == null) {
+            throw new IOException("Could not list the files in " + path);
+        }
+        for (File file : files) {
+            if (file.isFile()) {
+                sizes.put(file.getName(), new Long(file.length()));
+                times.put(file.getName(), new Long(file.lastModified()));
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return "INDEX [[" + directory + "" + ", fields = " + fieldNames + "" + ", boosts = "
@@ -22,6 +22,7 @@ import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.intermine.api.bag.BagContentsIndex;
 import org.intermine.api.bag.ClassKeysNotFoundException;
 import org.intermine.api.bag.IncompatibleTypesException;
 import org.intermine.api.bag.UnknownBagTypeException;
@@ -232,6 +233,7 @@ public class InterMineBag extends StorableBag implements Cloneable
                     SavedBag.class);
             uosw.delete(savedBag);
             removeIdsFromBag(getContentsAsIds(), false);
+            getContentsIndex().invalidate(osb);
             deleteAllBagValues();
             this.profileId = null;
             this.savedBagId = null;
@@ -415,8 +417,13 @@ public class InterMineBag extends StorableBag implements Cloneable
         SavedBag savedBag = (SavedBag) uosw.getObjectById(savedBagId, SavedBag.class);
         try {
             oswProduction = os.getNewWriter();
+            ObjectStoreBag oldOsb = osb;
             osb = oswProduction.createObjectStoreBag();
             oswProduction.addAllToBag(osb, values);
+            if (oldOsb != null) {
+                getContentsIndex().invalidate(oldOsb);
+            }
+            getContentsIndex().setContents(osb, values);
             savedBag.setOsbId(osb.getBagId());
             savedBag.setState(BagState.CURRENT.toString());
             state = BagState.CURRENT;
@@ -434,6 +441,10 @@ public class InterMineBag extends StorableBag implements Cloneable
 
     @Override
     public int getSize() throws ObjectStoreException {
+        BagContentsIndex index = getContentsIndex();
+        if (index.isLoaded(osb)) {
+            return index.getSize(osb);
+        }
         Query q = new Query();
         q.addToSelect(osb);
         q.setDistinct(false);
@@ -456,6 +467,16 @@ public class InterMineBag extends StorableBag implements Cloneable
         return osb;
     }
 
+    /**
+     * Returns the index that holds the contents of the bags in this bag's production
+     * ObjectStore.
+     *
+     * @return the BagContentsIndex
+     */
+    protected BagContentsIndex getContentsIndex() {
+        return BagContentsIndex.getInstance(os);
+    }
+
     /**
      * Sets the ObjectStoreBag.
      *
@@ -745,6 +766,7 @@ public class InterMineBag extends StorableBag implements Cloneable
                 oswProduction.close();
             }
         }
+        getContentsIndex().addIds(osb, ids);
     }
 
     /**
@@ -789,6 +811,7 @@ public class InterMineBag extends StorableBag implements Cloneable
                 oswProduction.close();
             }
         }
+        getContentsIndex().invalidate(osb);
         if (profileId != null) {
             updateBagValues();
         }
@@ -820,6 +843,7 @@ public class InterMineBag extends StorableBag implements Cloneable
                 oswProduction.close();
             }
         }
+        getContentsIndex().removeIds(osb, ids);
         if (profileId != null && updateBagValues) {
             updateBagValues();
         }
@@ -0,0 +1,270 @@
+package org.intermine.api.profile;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.userprofile.Tag;
+import org.intermine.model.userprofile.UserProfile;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * An in-memory index of all the tags in the userprofile database, by tag name, by tagged object,
+ * by tag type and by user, used by the TagManager to answer getTags() without going to the
+ * database.
+ *
+ * The index is loaded once, and then kept up to date as the TagManager adds and deletes tags.
+ * All the maps are concurrent, so lookups never wait for each other or for a tag being added or
+ * deleted. A lookup scans the smallest of the sets named by its arguments, and checks each tag
+ * against the other arguments, so a tag that is half way through being added or deleted is
+ * either found or not, but the lookup is never wrong about its fields.
+ *
+ * @author intermine
+ */
+class TagIndex
+{
+    private static final Logger LOG = Logger.getLogger(TagIndex.class);
+
+    private static final int BATCH_SIZE = 10000;
+
+    private static final Comparator<Tag> TAG_NAME_ORDER = new Comparator<Tag>() {
+        @Override
+        public int compare(Tag a, Tag b) {
+            String aName = a.getTagName() == null ? "" : a.getTagName();
+            String bName = b.getTagName() == null ? "" : b.getTagName();
+            return aName.compareTo(bName);
+        }
+    };
+
+    private final ConcurrentMap<Integer, Entry> byId = new ConcurrentHashMap<Integer, Entry>();
+    private final ConcurrentMap<String, Set<Entry>> byName
+        = new ConcurrentHashMap<String, Set<Entry>>();
+    private final ConcurrentMap<String, Set<Entry>> byObject
+        = new ConcurrentHashMap<String, Set<Entry>>();
+    private final ConcurrentMap<String, Set<Entry>> byType
+        = new ConcurrentHashMap<String, Set<Entry>>();
+    private final ConcurrentMap<String, Set<Entry>> byUser
+        = new ConcurrentHashMap<String, Set<Entry>>();
+
+    /**
+     * Loads all the tags in a userprofile database into a new index.
+     *
+     * @param uos the userprofile ObjectStore
+     * @return the index
+     */
+    static TagIndex load(ObjectStore uos) {
+        long start = System.currentTimeMillis();
+        Map<Integer, String> userNames = new HashMap<Integer, String>();
+        Query q = new Query();
+        QueryClass qc = new QueryClass(UserProfile.class);
+        q.addFrom(qc);
+        q.addToSelect(new QueryField(qc, "id"));
+        q.addToSelect(new QueryField(qc, "username"));
+        Results res = uos.execute(q, BATCH_SIZE, true, false, false);
+        for (Object rowObj : res) {
+            ResultsRow<?> row = (ResultsRow<?>) rowObj;
+            userNames.put((Integer) row.get(0), (String) row.get(1));
+        }
+
+        TagIndex index = new TagIndex();
+        q = new Query();
+        qc = new QueryClass(Tag.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        res = uos.execute(q, BATCH_SIZE, true, false, false);
+        for (Object rowObj : res) {
+            Tag tag = (Tag) ((ResultsRow<?>) rowObj).get(0);
+            InterMineObject userProfile = tag.proxGetUserProfile();
+            String userName = null;
+            if ((userProfile != null) && (userProfile.getId() != null)) {
+                userName = userNames.get(userProfile.getId());
+            }
+            index.add(tag, userName);
+        }
+        LOG.info("Loaded " + index.size() + " tags of " + userNames.size() + " users in "
+                + (System.currentTimeMillis() - start) + "ms");
+        return index;
+    }
+
+    /**
+     * Adds a tag that has been stored to the index.
+     *
+     * @param tag the tag, which must have an id
+     * @param userName the name of the user the tag belongs to, or null
+     */
+    void add(Tag tag, String userName) {
+        if (tag.getId() == null) {
+            throw new IllegalArgumentException("Cannot index a tag that has not been stored: "
+                    + tag);
+        }
+        Entry entry = new Entry(tag, userName);
+        Entry old = byId.put(tag.getId(), entry);
+        if (old != null) {
+            removeFromSets(old);
+        }
+        addToSet(byName, tag.getTagName(), entry);
+        addToSet(byObject, tag.getObjectIdentifier(), entry);
+        addToSet(byType, tag.getType(), entry);
+        addToSet(byUser, userName, entry);
+    }
+
+    /**
+     * Removes a tag from the index.
+     *
+     * @param tag the tag
+     * @return true if the tag was in the index
+     */
+    boolean remove(Tag tag) {
+        if (tag.getId() == null) {
+            return false;
+        }
+        Entry entry = byId.remove(tag.getId());
+        if (entry == null) {
+            return false;
+        }
+        removeFromSets(entry);
+        return true;
+    }
+
+    /**
+     * Returns the tags that match all the arguments, ordered by tag name. Null arguments are
+     * treated as wildcards.
+     *
+     * @param tagName the tag name
+     * @param objectIdentifier the identifier of the tagged object
+     * @param type the tag type
+     * @param userName the name of the user the tags belong to
+     * @return a new List of the matching tags
+     */
+    List<Tag> find(String tagName, String objectIdentifier, String type, String userName) {
+        Collection<Entry> candidates = byId.values();
+        if (tagName != null) {
+            candidates = smaller(candidates, byName.get(tagName));
+        }
+        if (objectIdentifier != null) {
+            candidates = smaller(candidates, byObject.get(objectIdentifier));
+        }
+        if (type != null) {
+            candidates = smaller(candidates, byType.get(type));
+        }
+        if (userName != null) {
+            candidates = smaller(candidates, byUser.get(userName));
+        }
+        List<Tag> retval = new ArrayList<Tag>();
+        for (Entry entry : candidates) {
+            Tag tag = entry.tag;
+            if (matches(tagName, tag.getTagName()) && matches(objectIdentifier,
+                        tag.getObjectIdentifier()) && matches(type, tag.getType())
+                    && matches(userName, entry.userName) && (byId.get(tag.getId()) == entry)) {
+                retval.add(tag);
+            }
+        }
+        Collections.sort(retval, TAG_NAME_ORDER);
+        return retval;
+    }
+
+    /**
+     * Returns true if the index holds any tags of the given user.
+     *
+     * @param userName the name of the user
+     * @return a boolean
+     */
+    boolean hasUser(String userName) {
+        Set<Entry> entries = byUser.get(userName);
+        return (entries != null) && !entries.isEmpty();
+    }
+
+    /**
+     * Returns the number of tags in the index.
+     *
+     * @return an int
+     */
+    int size() {
+        return byId.size();
+    }
+
+    private static Collection<Entry> smaller(Collection<Entry> candidates, Set<Entry> entries) {
+        if (entries == null) {
+            return Collections.emptySet();
+        }
+        return entries.size() < candidates.size() ? entries : candidates;
+    }
+
+    private static boolean matches(String wanted, String value) {
+        return (wanted == null) || wanted.equals(value);
+    }
+
+    private static void addToSet(ConcurrentMap<String, Set<Entry>> map, String key,
+            Entry entry) {
+        if (key == null) {
+            return;
+        }
+        Set<Entry> entries = map.get(key);
+        if (entries == null) {
+            Set<Entry> newEntries = Collections.newSetFromMap(
+                    new ConcurrentHashMap<Entry, Boolean>());
+            entries = map.putIfAbsent(key, newEntries);
+            if (entries == null) {
+                entries = newEntries;
+            }
+        }
+        entries.add(entry);
+    }
+
+    private void removeFromSets(Entry entry) {
+        removeFromSet(byName, entry.tag.getTagName(), entry);
+        removeFromSet(byObject, entry.tag.getObjectIdentifier(), entry);
+        removeFromSet(byType, entry.tag.getType(), entry);
+        removeFromSet(byUser, entry.userName, entry);
+    }
+
+    // Empty sets are left in the map, as removing them would race with a concurrent add
+    private static void removeFromSet(ConcurrentMap<String, Set<Entry>> map, String key,
+            Entry entry) {
+        if (key != null) {
+            Set<Entry> entries = map.get(key);
+            if (entries != null) {
+                entries.remove(entry);
+            }
+        }
+    }
+
+    /**
+     * A tag in the index, with the name of its user, which is not read from the tag so that the
+     * user profile doesn't have to be loaded. Entries are compared by identity.
+     */
+    private static final class Entry
+    {
+        private final Tag tag;
+        private final String userName;
+
+        Entry(Tag tag, String userName) {
+            this.tag = tag;
+            this.userName = userName;
+        }
+    }
+}
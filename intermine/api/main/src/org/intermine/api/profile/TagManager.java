@@ -10,18 +10,15 @@ package org.intermine.api.profile;
  *
  */
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.log4j.Logger;
 import org.intermine.api.search.TaggingEvent;
 import org.intermine.api.search.TaggingEvent.TagChange;
@@ -30,28 +27,20 @@ import org.intermine.api.tag.TagNames;
 import org.intermine.api.tag.TagTypes;
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.CollectionDescriptor;
-import org.intermine.metadata.ConstraintOp;
 import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.model.userprofile.Tag;
 import org.intermine.model.userprofile.UserProfile;
-import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreWriter;
-import org.intermine.objectstore.query.ConstraintSet;
-import org.intermine.objectstore.query.ContainsConstraint;
-import org.intermine.objectstore.query.Query;
-import org.intermine.objectstore.query.QueryClass;
-import org.intermine.objectstore.query.QueryField;
-import org.intermine.objectstore.query.QueryObjectReference;
-import org.intermine.objectstore.query.QueryValue;
-import org.intermine.objectstore.query.SimpleConstraint;
-import org.intermine.objectstore.query.SingletonResults;
-import org.intermine.util.CacheMap;
 import org.intermine.util.DynamicUtil;
 
 /**
  * Manager class for tags. Implements retrieving, adding and deleting tags in user profile
  * database.
+ *
+ * All the tags are read into a TagIndex the first time they are needed, and tags are then found
+ * from the index. Adding or deleting a tag writes it to the database and then updates the index
+ * for that tag alone, so readers are never locked out while tags are edited.
  * @author Jakub Kulaviak <jakub@flymine.org>
  * @author Alex Kalderimis
  * @author Daniela Butano
@@ -60,7 +49,7 @@ public class TagManager
 {
     private static final Logger LOG = Logger.getLogger(TagManager.class);
     protected ObjectStoreWriter osWriter;
-    private CacheMap<MultiKey, List<Tag>> tagCache = null;
+    private volatile TagIndex tagIndex = null;
 
     /** What we tell users when they give us an invalid tag name **/
     public static final String INVALID_NAME_MSG = "Invalid name. "
@@ -79,10 +68,12 @@ public class TagManager
      * Delete a tag object from the database.
      * @param tag Tag object
      */
-    public synchronized void deleteTag(Tag tag) {
+    public void deleteTag(Tag tag) {
+        // Load the index before the delete, so that it can't miss it
+        TagIndex index = getTagIndex();
         try {
-            tagCache = null;
             osWriter.delete(tag);
+            index.remove(tag);
         } catch (ObjectStoreException e) {
             LOG.error("delete tag failed" + e);
             throw new RuntimeException("Delete tag failed", e);
@@ -339,7 +330,7 @@ public class TagManager
      * @param id intermine object id
      * @return Tag
      */
-    public synchronized Tag getTagById(int id) {
+    public Tag getTagById(int id) {
         try {
             return (Tag) osWriter.getObjectById(new Integer(id), Tag.class);
         } catch (ObjectStoreException e) {
@@ -347,22 +338,6 @@ public class TagManager
         }
     }
 
-    /**
-     * Helper method for getTags.
-     * @param cs The constraint set being built up.
-     * @param qc The class the constrain on.
-     * @param fieldName The field to constrain.
-     * @param value The value to constrain to.
-     */
-    private static void constrain(ConstraintSet cs, QueryClass qc, String fieldName, String value) {
-        if (value != null) {
-            QueryValue qv = new QueryValue(value);
-            QueryField qf = new QueryField(qc, fieldName);
-            SimpleConstraint c = new SimpleConstraint(qf, ConstraintOp.EQUALS, qv);
-            cs.addConstraint(c);
-        }
-    }
-
     /**
      * Return all the tags with the given tag name, optionally filtered by tag-type.
      * @param tagName The name of the tag. Must not be null.
@@ -399,79 +374,40 @@ public class TagManager
      * @param userName the use name this tag is associated with
      * @return the matching Tags
      */
-    public synchronized List<Tag> getTags(String tagName, String taggedObjectId, String type,
+    public List<Tag> getTags(String tagName, String taggedObjectId, String type,
                         String userName) {
         if (type != null) {
             checkTagType(type);
         }
 
-        Map<MultiKey, List<Tag>> cache = getTagCache();
-        MultiKey key = makeKey(tagName, taggedObjectId, type, userName);
+        TagIndex index = getTagIndex();
 
-        if (cache.containsKey(key)) {
-            return cache.get(key);
-        }
-
-        // if there isn't a cache for user, than check if user exists
+        // if the user has no tags, then check that the user exists
         // for performance reasons don't put this check at the method beginning
-        if (userName != null) {
+        if (userName != null && !index.hasUser(userName)) {
             checkUserExists(userName);
         }
 
-        Query q = new Query();
-        QueryClass qc = new QueryClass(Tag.class);
-
-        q.addFrom(qc);
-        q.addToSelect(qc);
-
-        QueryField orderByField = new QueryField(qc, "tagName");
-
-        q.addToOrderBy(orderByField);
-
-        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
-
-        constrain(cs, qc, "tagName", tagName);
-        constrain(cs, qc, "objectIdentifier", taggedObjectId);
-        constrain(cs, qc, "type", type);
-
-        if (userName != null) {
-            QueryClass userProfileQC = new QueryClass(UserProfile.class);
-            q.addFrom(userProfileQC);
-            QueryValue qv = new QueryValue(userName);
-            QueryField qf = new QueryField(userProfileQC, "username");
-            SimpleConstraint c = new SimpleConstraint(qf, ConstraintOp.EQUALS, qv);
-            cs.addConstraint(c);
-
-            QueryObjectReference qr = new QueryObjectReference(qc, "userProfile");
-
-            ContainsConstraint cc =
-                new ContainsConstraint(qr, ConstraintOp.CONTAINS, userProfileQC);
-            cs.addConstraint(cc);
-        }
-        q.setConstraint(cs);
-
-        ObjectStore userprofileOS = osWriter.getObjectStore();
-        SingletonResults results = userprofileOS.executeSingleton(q);
-        addToCache(cache, key, ((List) results));
-        return ((List) results);
-    }
-
-    private static MultiKey makeKey(String tagName, String objectIdentifier, String type,
-                             String userName) {
-        return new MultiKey(tagName, objectIdentifier, type, userName);
+        return index.find(tagName, taggedObjectId, type, userName);
     }
 
-    private static void addToCache(Map<MultiKey, List<Tag>> cache, MultiKey key,
-            List<Tag> results) {
-
-        cache.put(key, new ArrayList<Tag>(results));
-    }
-
-    private Map<MultiKey, List<Tag>> getTagCache() {
-        if (tagCache == null) {
-            tagCache  = new CacheMap<MultiKey, List<Tag>>();
+    /**
+     * Returns the index of all the tags, loading it from the database the first time.
+     *
+     * @return the TagIndex
+     */
+    private TagIndex getTagIndex() {
+        TagIndex index = tagIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = tagIndex;
+                if (index == null) {
+                    index = TagIndex.load(osWriter.getObjectStore());
+                    tagIndex = index;
+                }
+            }
         }
-        return tagCache;
+        return index;
     }
 
     /**
@@ -489,7 +425,7 @@ public class TagManager
      * @throws TagNamePermissionException If the user does not have the required
      *         permissions to add this tag.
      */
-    public synchronized Tag addTag(
+    public Tag addTag(
             String tagName,
             String objectIdentifier,
             String type,
@@ -539,7 +475,7 @@ public class TagManager
      * @throws TagNameException If the name is invalid (contains illegal characters)
      * @throws TagNamePermissionException If this tag name is restricted.
      */
-    public synchronized Tag addTag(String tagName, WebSearchable ws, Profile profile)
+    public Tag addTag(String tagName, WebSearchable ws, Profile profile)
         throws TagNameException, TagNamePermissionException {
         Tag ret = addTag(tagName, ws.getName(), ws.getTagType(), profile);
         ws.fireEvent(new TaggingEvent(ws, tagName, TagChange.ADDED));
@@ -555,7 +491,7 @@ public class TagManager
      * @throws TagNameException If the name is invalid (contains illegal characters)
      * @throws TagNamePermissionException If this tag name is restricted.
      */
-    public synchronized Tag addTag(String tagName, ClassDescriptor cld, Profile profile)
+    public Tag addTag(String tagName, ClassDescriptor cld, Profile profile)
         throws TagNameException, TagNamePermissionException {
         return addTag(tagName, cld.getName(), TagTypes.CLASS, profile);
     }
@@ -569,7 +505,7 @@ public class TagManager
      * @throws TagNameException If the name is invalid (contains illegal characters)
      * @throws TagNamePermissionException If this tag name is restricted.
      */
-    public synchronized Tag addTag(String tagName, ReferenceDescriptor ref, Profile profile)
+    public Tag addTag(String tagName, ReferenceDescriptor ref, Profile profile)
         throws TagNameException, TagNamePermissionException {
         String objIdentifier = ref.getClassDescriptor().getSimpleName() + "." + ref.getName();
         if (ref instanceof CollectionDescriptor) {
@@ -592,7 +528,7 @@ public class TagManager
      * @param username The username of the user to associate this tag with.
      * @return the new Tag
      */
-    synchronized Tag addTag(String tagName, String objectIdentifier,
+    Tag addTag(String tagName, String objectIdentifier,
             String type, String username) {
 
         checkUserExists(username);
@@ -615,15 +551,15 @@ public class TagManager
         tag.setType(type);
         tag.setUserProfile(userProfile);
 
-        CacheMap<MultiKey, List<Tag>> cacheWas = tagCache;
+        // Load the index before the store, so that it can't already contain the new tag
+        TagIndex index = getTagIndex();
         try {
-            tagCache = null;
             osWriter.store(tag);
-            return tag;
         } catch (ObjectStoreException e) {
-            tagCache = cacheWas;
             throw new RuntimeException("cannot set tag", e);
         }
+        index.add(tag, username);
+        return tag;
     }
 
     private static void checkTagType(String type) {
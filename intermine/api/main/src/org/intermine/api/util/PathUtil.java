@@ -61,7 +61,12 @@ public final class PathUtil
                 if (current == null) {
                     return null;
                 }
-                current = TypeUtil.getFieldValue(current, fieldName);
+                if (current instanceof FastPathObject) {
+                    // the generated accessor, rather than reflection
+                    current = ((FastPathObject) current).getFieldValue(fieldName);
+                } else {
+                    current = TypeUtil.getFieldValue(current, fieldName);
+                }
                 if (current instanceof Collection<?>) {
                     throw new RuntimeException("Attempt to to get value of "
                             + "field \"" + fieldName + "\" for collection: " + o
@@ -117,7 +122,12 @@ public final class PathUtil
                 if (current == null) {
                     return null;
                 }
-                current = TypeUtil.getFieldValue(current, fieldName);
+                if (current instanceof FastPathObject) {
+                    // the generated accessor, rather than reflection
+                    current = ((FastPathObject) current).getFieldValue(fieldName);
+                } else {
+                    current = TypeUtil.getFieldValue(current, fieldName);
+                }
 
                 // do we have a Collection?
                 if (current instanceof Collection<?>) {
@@ -0,0 +1,141 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SingletonResults;
+
+/**
+ * Tests for BagContentsIndex, reading bag contents from a dummy ObjectStore which returns the
+ * same ids for every bag.
+ *
+ * @author intermine
+ */
+public class BagContentsIndexTest extends TestCase
+{
+    private BagContentsIndex index;
+    private ObjectStoreDummyImpl os;
+    private ObjectStoreBag changeDuringLoad = null;
+    private int queries = 0;
+
+    public BagContentsIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        os = new ObjectStoreDummyImpl() {
+            @Override
+            public SingletonResults executeSingleton(Query q, int batchSize, boolean optimise,
+                    boolean explain, boolean prefetch) {
+                queries++;
+                if (changeDuringLoad != null) {
+                    index.addIds(changeDuringLoad, Arrays.asList(new Integer(99)));
+                }
+                return super.executeSingleton(q, batchSize, optimise, explain, prefetch);
+            }
+        };
+        os.setResultsSize(3);
+        for (int id : new int[] {1, 2, 3}) {
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            row.add(new Integer(id));
+            os.addRow(row);
+        }
+        index = new BagContentsIndex(os, BagContentsIndex.DEFAULT_MAX_WEIGHT);
+    }
+
+    public void testLoad() throws Exception {
+        ObjectStoreBag osb = new ObjectStoreBag(1);
+        assertFalse(index.isLoaded(osb));
+        assertTrue(index.contains(osb, 2));
+        assertFalse(index.contains(osb, 4));
+        assertTrue(index.isLoaded(osb));
+        assertEquals(3, index.getSize(osb));
+        index.addIds(osb, Arrays.asList(new Integer(4)));
+        assertTrue(index.contains(osb, 4));
+        index.invalidate(osb);
+        assertFalse(index.isLoaded(osb));
+        assertFalse(index.contains(osb, 4));
+        assertEquals(0, index.getLoadCount());
+    }
+
+    public void testChangeDuringLoad() throws Exception {
+        ObjectStoreBag osb = new ObjectStoreBag(1);
+        changeDuringLoad = osb;
+        assertEquals(3, index.getSize(osb));
+        // the load may have missed the change, so it is not kept
+        assertFalse(index.isLoaded(osb));
+        changeDuringLoad = null;
+        index.getSize(osb);
+        assertTrue(index.isLoaded(osb));
+        assertEquals(0, index.getLoadCount());
+    }
+
+    public void testBound() throws Exception {
+        int weight = IdBitmap.valueOf(Arrays.asList(1, 2, 3)).getMemoryUsage();
+        index = new BagContentsIndex(os, 20L * weight);
+        List<ObjectStoreBag> bags = new ArrayList<ObjectStoreBag>();
+        for (int i = 0; i < 200; i++) {
+            ObjectStoreBag osb = new ObjectStoreBag(i);
+            bags.add(osb);
+            index.setContents(osb, Arrays.asList(1, 2, 3));
+        }
+        int loaded = 0;
+        for (ObjectStoreBag osb : bags) {
+            if (index.isLoaded(osb)) {
+                loaded++;
+            }
+        }
+        assertTrue(loaded > 0);
+        assertTrue(loaded <= 20);
+        // an evicted bag is read again
+        ObjectStoreBag evicted = null;
+        for (ObjectStoreBag osb : bags) {
+            if (!index.isLoaded(osb)) {
+                evicted = osb;
+                break;
+            }
+        }
+        assertTrue(index.contains(evicted, 3));
+        assertEquals(0, index.getLoadCount());
+    }
+
+    public void testLoadWithinBound() throws Exception {
+        int weight = IdBitmap.valueOf(Arrays.asList(1, 2, 3)).getMemoryUsage();
+        index = new BagContentsIndex(os, 5L * weight);
+        List<ObjectStoreBag> bags = new ArrayList<ObjectStoreBag>();
+        for (int i = 0; i < 20; i++) {
+            bags.add(new ObjectStoreBag(i));
+        }
+        // only as many bags as fit in the index are read
+        assertEquals(5, index.load(bags));
+        assertEquals(5, queries);
+        assertEquals(0, index.getLoadCount());
+
+        // bags already loaded are not read again
+        index = new BagContentsIndex(os, BagContentsIndex.DEFAULT_MAX_WEIGHT);
+        queries = 0;
+        assertEquals(20, index.load(bags));
+        assertEquals(0, index.load(bags));
+        assertEquals(20, queries);
+        for (ObjectStoreBag osb : bags) {
+            assertTrue(index.isLoaded(osb));
+        }
+    }
+}
@@ -57,6 +57,11 @@ public class BagQueryRunnerTest extends StoreDataTestCase {
     }
 
     private TestingBagQueryRunner getRunner(boolean matchOnFirst) throws Exception {
+        return getRunner(matchOnFirst, false);
+    }
+
+    private TestingBagQueryRunner getRunner(boolean matchOnFirst, boolean useIdentifierIndex)
+        throws Exception {
         os = ObjectStoreFactory.getObjectStore("os.unittest");
         Properties props = new Properties();
         props.load(getClass().getClassLoader().getResourceAsStream("class_keys.properties"));
@@ -66,6 +71,7 @@ public class BagQueryRunnerTest extends StoreDataTestCase {
         InputStream is = getClass().getClassLoader().getResourceAsStream("bag-queries.xml");
         BagQueryConfig bagQueryConfig = BagQueryHelper.readBagQueryConfig(os.getModel(), is);
         bagQueryConfig.setMatchOnFirst(matchOnFirst);
+        bagQueryConfig.setUseIdentifierIndex(useIdentifierIndex);
         TemplateQueryBinding tqb = new TemplateQueryBinding();
         Map<String, TemplateQuery> tqs = tqb.unmarshalTemplates(new InputStreamReader(getClass().getClassLoader().getResourceAsStream("BagQueryRunnerTest_templates.xml")), PathQuery.USERPROFILE_VERSION);
 
@@ -115,6 +121,26 @@ public class BagQueryRunnerTest extends StoreDataTestCase {
 
 
 
+    // identifiers that differ only in case are one input, reported under the first spelling,
+    // whether they are resolved with SQL or from the identifier index
+    public void testSearchForBagCaseVariants() throws Exception {
+        List input = Arrays.asList(new Object[] {"EmployeeA1", "employeea1", "EMPLOYEEA2",
+            "EmployeeA2"});
+        BagQueryResult sqlRes = runner.searchForBag("Employee", input, null, true);
+        BagQueryResult indexRes = getRunner(true, true).searchForBag("Employee", input, null,
+                true);
+        for (BagQueryResult res : new BagQueryResult[] {sqlRes, indexRes}) {
+            Map expected = new HashMap();
+            expected.put(eIds.get("EmployeeA1").getId(),
+                    new ArrayList(Collections.singletonList("EmployeeA1")));
+            expected.put(eIds.get("EmployeeA2").getId(),
+                    new ArrayList(Collections.singletonList("EMPLOYEEA2")));
+            assertEquals(expected, res.getMatches());
+            assertTrue(res.getIssues().isEmpty());
+            assertTrue(res.getUnresolved().isEmpty());
+        }
+    }
+
     // test for the case when an identifier appears twice in the input - ignore duplicates
     public void testSearchForBagDuplicates1() throws Exception {
         List input = Arrays.asList(new Object[] {"EmployeeA1", "EmployeeA2", "EmployeeA1"});
@@ -295,6 +321,51 @@ public class BagQueryRunnerTest extends StoreDataTestCase {
         assertEquals(ids, new HashSet(res.getIssues().get(BagQueryResult.WILDCARD).get("searching key fields").get("EmployeeA*")));
     }
 
+    // prefix wildcards are resolved from the identifier index, and other wildcards by the
+    // database, with the same results as the database alone
+    public void testWildcardsIdentifierIndex() throws Exception {
+        List<String> input = Arrays.asList("EmployeeA*", "*mployeeB1", "EmployeeB3");
+        BagQueryResult sqlRes = runner.searchForBag("Employee", input, null, true);
+        BagQueryResult indexRes = getRunner(true, true).searchForBag("Employee", input, null,
+                true);
+        assertSameResults(sqlRes, indexRes);
+        Set<Integer> ids = new HashSet<Integer>(Arrays.asList(eIds.get("EmployeeA3").getId(),
+                    eIds.get("EmployeeA2").getId(), eIds.get("EmployeeA1").getId()));
+        assertEquals(ids, new HashSet(indexRes.getIssues().get(BagQueryResult.WILDCARD)
+                    .get("searching key fields").get("EmployeeA*")));
+    }
+
+    // identifiers that are not class keys, like synonyms, are resolved from the index of the
+    // later bag query that finds them
+    public void testSecondQueryIssueIdentifierIndex() throws Exception {
+        List input = Arrays.asList(new Object[] {"1", "EmployeeA2"});
+        BagQueryResult sqlRes = runner.searchForBag("Employee", input, null, true);
+        BagQueryResult indexRes = getRunner(true, true).searchForBag("Employee", input, null,
+                true);
+        assertSameResults(sqlRes, indexRes);
+        assertEquals(1, indexRes.getMatches().size());
+        assertEquals(Collections.singletonList(eIds.get("EmployeeA1")),
+                indexRes.getIssues().get(BagQueryResult.OTHER).get("employee end").get("1"));
+    }
+
+    // with matchOnFirst = false every bag query is run for every identifier, whether in the
+    // database or in the index
+    public void testSearchForBagMatchesMatchAllIdentifierIndex() throws Exception {
+        List input = Arrays.asList(new Object[] {"EmployeeA1", "EmployeeA2", "1", "EmployeeB*"});
+        BagQueryResult sqlRes = runnerMatchAll.searchForBag("Employee", input, null, true);
+        BagQueryResult indexRes = getRunner(false, true).searchForBag("Employee", input, null,
+                true);
+        assertSameResults(sqlRes, indexRes);
+        assertEquals(2, indexRes.getMatches().values().size());
+        assertFalse(indexRes.getIssues().isEmpty());
+    }
+
+    private static void assertSameResults(BagQueryResult expected, BagQueryResult actual) {
+        assertEquals(expected.getMatches(), actual.getMatches());
+        assertEquals(expected.getIssues(), actual.getIssues());
+        assertEquals(expected.getUnresolved(), actual.getUnresolved());
+    }
+
     // we need to test a query that matches a different type.  Probably
     // need to add another query to: testmodel/webapp/main/resources/webapp/WEB-INF/bag-queries.xml
 
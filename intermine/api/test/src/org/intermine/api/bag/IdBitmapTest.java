@@ -0,0 +1,123 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for IdBitmap.
+ *
+ * @author intermine
+ */
+public class IdBitmapTest extends TestCase
+{
+    public IdBitmapTest(String arg) {
+        super(arg);
+    }
+
+    private static void assertContents(Set<Integer> expected, IdBitmap bitmap) {
+        assertEquals(expected.size(), bitmap.getCardinality());
+        assertEquals(expected.isEmpty(), bitmap.isEmpty());
+        Set<Integer> actual = new HashSet<Integer>();
+        for (int id : bitmap.toArray()) {
+            actual.add(Integer.valueOf(id));
+        }
+        assertEquals(expected, actual);
+        for (Integer id : expected) {
+            assertTrue(bitmap.contains(id.intValue()));
+        }
+    }
+
+    public void testAddRemove() {
+        IdBitmap bitmap = new IdBitmap();
+        assertTrue(bitmap.isEmpty());
+        assertTrue(bitmap.add(5));
+        assertFalse(bitmap.add(5));
+        assertTrue(bitmap.add(-1));
+        assertTrue(bitmap.add(Integer.MIN_VALUE));
+        assertTrue(bitmap.add(70000));
+        assertTrue(bitmap.contains(-1));
+        assertFalse(bitmap.contains(6));
+        assertFalse(bitmap.contains(65541));
+        assertContents(new HashSet<Integer>(Arrays.asList(5, -1, Integer.MIN_VALUE, 70000)),
+                bitmap);
+        assertTrue(bitmap.remove(5));
+        assertFalse(bitmap.remove(5));
+        assertFalse(bitmap.remove(123456789));
+        assertContents(new HashSet<Integer>(Arrays.asList(-1, Integer.MIN_VALUE, 70000)), bitmap);
+    }
+
+    public void testDenseBlocks() {
+        // enough ids in one block for it to become a bitmap, then an array again
+        IdBitmap bitmap = new IdBitmap();
+        Set<Integer> expected = new TreeSet<Integer>();
+        for (int id = 1000000; id < 1020000; id += 3) {
+            bitmap.add(id);
+            expected.add(Integer.valueOf(id));
+        }
+        assertContents(expected, bitmap);
+        List<Integer> removed = new ArrayList<Integer>();
+        for (Integer id : expected) {
+            if (id.intValue() % 2 == 0) {
+                removed.add(id);
+            }
+        }
+        bitmap.removeAll(removed);
+        expected.removeAll(removed);
+        assertContents(expected, bitmap);
+        bitmap.removeAll(new ArrayList<Integer>(expected));
+        assertContents(new HashSet<Integer>(), bitmap);
+    }
+
+    public void testAnd() {
+        Random random = new Random(42);
+        Set<Integer> a = new HashSet<Integer>();
+        Set<Integer> b = new HashSet<Integer>();
+        // sparse blocks, dense blocks, and blocks in only one of the sets
+        for (int i = 0; i < 30000; i++) {
+            a.add(Integer.valueOf(random.nextInt(100000)));
+            b.add(Integer.valueOf(random.nextInt(100000)));
+            a.add(Integer.valueOf(random.nextInt(10000000)));
+            b.add(Integer.valueOf(random.nextInt(10000000)));
+        }
+        a.add(Integer.valueOf(-7));
+        IdBitmap bitmapA = IdBitmap.valueOf(a);
+        IdBitmap bitmapB = IdBitmap.valueOf(b);
+        Set<Integer> expected = new HashSet<Integer>(a);
+        expected.retainAll(b);
+        assertContents(expected, bitmapA.and(bitmapB));
+        assertContents(expected, bitmapB.and(bitmapA));
+        assertEquals(expected.size(), bitmapA.andCardinality(bitmapB));
+        assertEquals(expected.size(), bitmapB.andCardinality(bitmapA));
+        assertEquals(0, bitmapA.andCardinality(new IdBitmap()));
+        assertTrue(new IdBitmap().and(bitmapA).isEmpty());
+    }
+
+    public void testCopy() {
+        IdBitmap bitmap = IdBitmap.valueOf(Arrays.asList(1, 2, 3));
+        IdBitmap copy = bitmap.copy();
+        copy.add(4);
+        copy.remove(1);
+        assertContents(new HashSet<Integer>(Arrays.asList(1, 2, 3)), bitmap);
+        assertContents(new HashSet<Integer>(Arrays.asList(2, 3, 4)), copy);
+        IdBitmap empty = new IdBitmap().copy();
+        assertTrue(empty.add(10));
+        assertTrue(empty.add(1000000));
+    }
+}
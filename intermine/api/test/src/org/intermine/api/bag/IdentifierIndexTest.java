@@ -0,0 +1,135 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for IdentifierIndex.
+ *
+ * @author intermine
+ */
+public class IdentifierIndexTest extends TestCase
+{
+    private IdentifierIndex index;
+
+    public IdentifierIndexTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() {
+        index = new IdentifierIndex(
+                new String[] {"eve", "fbgn0000606", "ftz", "eve", "fbgn0001077", "fbgn0000606",
+                    "ftz", "eve"},
+                new int[] {1, 1, 2, 1, 2, 1, 3, 4});
+    }
+
+    public void testKeys() {
+        assertEquals(Arrays.asList("eve", "fbgn0000606", "fbgn0001077", "ftz"), index.getKeys());
+        assertEquals(4, index.size());
+        // repeated identifiers are stored once
+        assertEquals(28, index.getCharCount());
+    }
+
+    public void testGetIds() {
+        assertTrue(Arrays.equals(new int[] {1, 4}, index.getIds("eve")));
+        assertTrue(Arrays.equals(new int[] {2, 3}, index.getIds("ftz")));
+        assertTrue(Arrays.equals(new int[] {1}, index.getIds("fbgn0000606")));
+        assertEquals(0, index.getIds("ev").length);
+        assertEquals(0, index.getIds("evening").length);
+        assertEquals(0, index.getIds("zzz").length);
+        assertEquals(0, index.getIds("").length);
+    }
+
+    public void testGetIdsWithPrefix() {
+        assertTrue(Arrays.equals(new int[] {1, 2}, index.getIdsWithPrefix("fbgn")));
+        assertTrue(Arrays.equals(new int[] {1, 2, 2, 3}, index.getIdsWithPrefix("f")));
+        assertTrue(Arrays.equals(new int[] {1, 4}, index.getIdsWithPrefix("eve")));
+        assertEquals(0, index.getIdsWithPrefix("fbgn1").length);
+        assertEquals(0, index.getIdsWithPrefix("a").length);
+    }
+
+    public void testEmpty() {
+        IdentifierIndex empty = new IdentifierIndex(new String[0], new int[0]);
+        assertEquals(0, empty.size());
+        assertEquals(0, empty.getIds("eve").length);
+        assertEquals(0, empty.getIdsWithPrefix("e").length);
+    }
+
+    public void testIsPrefixWildcard() {
+        assertTrue(IdentifierIndex.isPrefixWildcard("FBgn*"));
+        assertTrue(IdentifierIndex.isPrefixWildcard("CG1234.1*"));
+        assertFalse(IdentifierIndex.isPrefixWildcard("*"));
+        assertFalse(IdentifierIndex.isPrefixWildcard("FBgn"));
+        assertFalse(IdentifierIndex.isPrefixWildcard("*gn"));
+        assertFalse(IdentifierIndex.isPrefixWildcard("F*gn*"));
+        assertFalse(IdentifierIndex.isPrefixWildcard("eve(1)*"));
+        assertFalse(IdentifierIndex.isPrefixWildcard("ev+*"));
+    }
+
+    public void testManyIdentifiers() {
+        int count = 200000;
+        String[] keys = new String[count * 2];
+        int[] ids = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            keys[2 * i] = "fbgn" + i;
+            ids[2 * i] = i;
+            keys[2 * i + 1] = "cg" + (count - i);
+            ids[2 * i + 1] = i;
+        }
+        IdentifierIndex big = new IdentifierIndex(keys, ids);
+        assertEquals(count * 2, big.size());
+        for (int i = 0; i < count; i += 2) {
+            assertTrue(Arrays.equals(new int[] {i}, big.getIds("fbgn" + i)));
+            assertTrue(Arrays.equals(new int[] {i}, big.getIds("cg" + (count - i))));
+        }
+        assertEquals(111, big.getIdsWithPrefix("fbgn1999").length);
+    }
+
+    public void testResolvePerformance() {
+        // a primary identifier and a synonym for each of a million objects
+        int count = 1000000;
+        String[] keys = new String[count * 2];
+        int[] ids = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            keys[2 * i] = "fbgn" + (1000000 + i);
+            ids[2 * i] = i;
+            keys[2 * i + 1] = "cg" + i;
+            ids[2 * i + 1] = i;
+        }
+        long time = System.currentTimeMillis();
+        IdentifierIndex big = new IdentifierIndex(keys, ids);
+        System.out.println("Building index of " + big.size() + " identifiers took "
+                + (System.currentTimeMillis() - time) + " ms");
+        keys = null;
+        ids = null;
+        for (int inputSize : new int[] {10000, 100000}) {
+            String[] input = new String[inputSize];
+            for (int i = 0; i < inputSize; i++) {
+                // every tenth identifier is unknown
+                int object = (int) ((i * 7919L) % count);
+                input[i] = (i % 10 == 0) ? "unknown" + i
+                    : (i % 2 == 0 ? "FBgn" + (1000000 + object) : "CG" + object);
+            }
+            time = System.currentTimeMillis();
+            int found = 0;
+            for (String identifier : input) {
+                found += big.getIds(identifier.toLowerCase()).length;
+            }
+            System.out.println("Resolving " + inputSize + " identifiers took "
+                    + (System.currentTimeMillis() - time) + " ms");
+            assertEquals(inputSize - inputSize / 10, found);
+        }
+    }
+}
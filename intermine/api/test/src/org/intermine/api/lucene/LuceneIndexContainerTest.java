@@ -0,0 +1,70 @@
+package org.intermine.api.lucene;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class LuceneIndexContainerTest extends TestCase
+{
+    private File dir;
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("search_index", "");
+        dir.delete();
+        dir.mkdir();
+        write("_0.cfs", "segment data");
+        write("segments_1", "segments");
+    }
+
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private void write(String name, String contents) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(dir, name));
+        try {
+            out.write(contents.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    public void testVerifyIntact() throws Exception {
+        LuceneIndexContainer index = new LuceneIndexContainer();
+        assertNotNull(index.verifyDirectory());
+        index.setDirectoryPath(dir);
+        assertEquals(dir.getAbsolutePath(), index.getDirectoryPath());
+        assertNull(index.verifyDirectory());
+    }
+
+    public void testVerifyChanged() throws Exception {
+        LuceneIndexContainer index = new LuceneIndexContainer();
+        index.setDirectoryPath(dir);
+        write("_0.cfs", "changed segment data");
+        assertNotNull(index.verifyDirectory());
+    }
+
+    public void testVerifyTouched() throws Exception {
+        LuceneIndexContainer index = new LuceneIndexContainer();
+        index.setDirectoryPath(dir);
+        File file = new File(dir, "_0.cfs");
+        write("_0.cfs", "segment dat4");
+        file.setLastModified(file.lastModified() + 10000);
+        assertNotNull(index.verifyDirectory());
+    }
+
+    public void testVerifyMissing() throws Exception {
+        LuceneIndexContainer index = new LuceneIndexContainer();
+        index.setDirectoryPath(dir);
+        new File(dir, "segments_1").delete();
+        assertNotNull(index.verifyDirectory());
+        tearDown();
+        assertNotNull(index.verifyDirectory());
+        dir.mkdir();
+    }
+}
@@ -0,0 +1,108 @@
+package org.intermine.api.profile;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.userprofile.Tag;
+import org.intermine.util.DynamicUtil;
+
+public class TagIndexTest extends TestCase
+{
+    private TagIndex index;
+    private int nextId = 1;
+
+    public TagIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() {
+        index = new TagIndex();
+        add("im:public", "template1", "template", "superuser");
+        add("im:aspect:Genomics", "template1", "template", "superuser");
+        add("im:public", "list1", "bag", "superuser");
+        add("favourite", "template1", "template", "bob");
+        add("favourite", "list2", "bag", "bob");
+    }
+
+    private Tag add(String tagName, String objectIdentifier, String type, String userName) {
+        Tag tag = (Tag) DynamicUtil.createObject(Collections.singleton(Tag.class));
+        tag.setId(new Integer(nextId++));
+        tag.setTagName(tagName);
+        tag.setObjectIdentifier(objectIdentifier);
+        tag.setType(type);
+        index.add(tag, userName);
+        return tag;
+    }
+
+    private static List<String> names(List<Tag> tags) {
+        List<String> retval = new ArrayList<String>();
+        for (Tag tag : tags) {
+            retval.add(tag.getTagName() + " " + tag.getObjectIdentifier());
+        }
+        return retval;
+    }
+
+    public void testFind() throws Exception {
+        assertEquals(5, index.find(null, null, null, null).size());
+        assertEquals(2, index.find("im:public", null, null, null).size());
+        assertEquals(1, index.find("im:public", null, "bag", "superuser").size());
+        assertEquals(3, index.find(null, "template1", null, null).size());
+        assertEquals(2, index.find(null, null, null, "bob").size());
+        assertEquals(0, index.find("im:public", null, null, "bob").size());
+        assertEquals(0, index.find("unknown", null, null, null).size());
+        assertEquals(0, index.find(null, null, null, "alice").size());
+    }
+
+    public void testOrderedByName() throws Exception {
+        assertEquals(Arrays.asList("favourite template1", "im:aspect:Genomics template1",
+                    "im:public template1"), names(index.find(null, "template1", null, null)));
+    }
+
+    public void testAddAndRemove() throws Exception {
+        Tag tag = add("favourite", "list1", "bag", "alice");
+        assertTrue(index.hasUser("alice"));
+        assertEquals(2, index.find(null, "list1", "bag", null).size());
+        assertEquals(3, index.find("favourite", null, null, null).size());
+
+        // A different object for the same stored tag is removed by id
+        Tag copy = (Tag) DynamicUtil.createObject(Collections.singleton(Tag.class));
+        copy.setId(tag.getId());
+        assertTrue(index.remove(copy));
+        assertFalse(index.remove(copy));
+        assertFalse(index.hasUser("alice"));
+        assertEquals(1, index.find(null, "list1", "bag", null).size());
+        assertEquals(5, index.size());
+    }
+
+    public void testResultIsCopy() throws Exception {
+        List<Tag> tags = index.find(null, null, null, "bob");
+        tags.clear();
+        assertEquals(2, index.find(null, null, null, "bob").size());
+    }
+
+    public void testUnstoredTag() throws Exception {
+        Tag tag = (Tag) DynamicUtil.createObject(Collections.singleton(Tag.class));
+        tag.setTagName("favourite");
+        try {
+            index.add(tag, "bob");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFalse(index.remove(tag));
+    }
+}
@@ -122,7 +122,7 @@ public class BaseEquivalentObjectFetcher implements EquivalentObjectFetcher
      * @param source the Source used
      * @return a StringBuffer
      */
-    protected StringBuffer getSummary(Source source) {
+    protected synchronized StringBuffer getSummary(Source source) {
         StringBuffer retval = new StringBuffer();
         TreeMap<String, Class<? extends InterMineObject>> summaryNames =
             new TreeMap<String, Class<? extends InterMineObject>>();
@@ -180,17 +180,7 @@ public class BaseEquivalentObjectFetcher implements EquivalentObjectFetcher
     public Set<InterMineObject> queryEquivalentObjects(InterMineObject obj,
             Source source) throws ObjectStoreException {
         Class<? extends InterMineObject> summaryName = obj.getClass();
-        Long soFar = summaryTimes.get(summaryName);
-        Integer soFarCount = summaryCounts.get(summaryName);
-        Integer soFarCallCount = summaryCallCounts.get(summaryName);
-        if (soFar == null) {
-            soFar = new Long(0L);
-            soFarCount = new Integer(0);
-            soFarCallCount = new Integer(0);
-            summaryTimes.put(summaryName, soFar);
-            summaryCounts.put(summaryName, soFarCount);
-            summaryCallCounts.put(summaryName, soFarCallCount);
-        }
+        addToSummary(summaryName, 0L, 0, 0);
         Query q = null;
         try {
             q = createPKQuery(obj, source, false);
@@ -205,18 +195,39 @@ public class BaseEquivalentObjectFetcher implements EquivalentObjectFetcher
             } catch (Exception e) {
                 // Ignore - operation will be repeated later
             }
-            long time = System.currentTimeMillis() - before;
-            summaryTimes.put(summaryName, new Long(time + soFar.longValue()));
-            summaryCounts.put(summaryName, new Integer(soFarCount.intValue() + 1));
-            summaryCallCounts.put(summaryName, new Integer(soFarCallCount.intValue() + 1));
+            addToSummary(summaryName, System.currentTimeMillis() - before, 1, 1);
             @SuppressWarnings("unchecked") Set<InterMineObject> retval = (Set) result;
             return retval;
         } else {
-            summaryCallCounts.put(summaryName, new Integer(soFarCallCount.intValue() + 1));
+            addToSummary(summaryName, 0L, 0, 1);
             return Collections.emptySet();
         }
     }
 
+    /**
+     * Adds to the summary data for a class. This is synchronised, as the fetcher may be used by
+     * several threads at once.
+     *
+     * @param summaryName the class of the objects
+     * @param time the time spent querying, in milliseconds
+     * @param queries the number of queries performed
+     * @param calls the number of objects looked up
+     */
+    protected synchronized void addToSummary(Class<? extends InterMineObject> summaryName,
+            long time, int queries, int calls) {
+        Long soFar = summaryTimes.get(summaryName);
+        Integer soFarCount = summaryCounts.get(summaryName);
+        Integer soFarCallCount = summaryCallCounts.get(summaryName);
+        if (soFar == null) {
+            soFar = new Long(0L);
+            soFarCount = new Integer(0);
+            soFarCallCount = new Integer(0);
+        }
+        summaryTimes.put(summaryName, new Long(soFar.longValue() + time));
+        summaryCounts.put(summaryName, new Integer(soFarCount.intValue() + queries));
+        summaryCallCounts.put(summaryName, new Integer(soFarCallCount.intValue() + calls));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -21,6 +21,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.ClassDescriptor;
@@ -64,11 +66,12 @@ public class BatchingFetcher extends HintingFetcher
         .synchronizedMap(new WeakHashMap<InterMineObject, Set<InterMineObject>>());
     protected DataTracker dataTracker;
     protected Source source;
-    protected int batchQueried = 0;
-    protected int cacheMisses = 0;
-    protected long timeSpentExecute = 0;
-    protected long timeSpentPrefetchEquiv = 0;
-    protected long timeSpentPrefetchTracker = 0;
+    // The fetcher is used by several dataloader resolver threads at once
+    protected AtomicInteger batchQueried = new AtomicInteger();
+    protected AtomicInteger cacheMisses = new AtomicInteger();
+    protected AtomicLong timeSpentExecute = new AtomicLong();
+    protected AtomicLong timeSpentPrefetchEquiv = new AtomicLong();
+    protected AtomicLong timeSpentPrefetchTracker = new AtomicLong();
 
     /**
      * Constructor
@@ -121,7 +124,7 @@ public class BatchingFetcher extends HintingFetcher
                 //}
                 return retval;
             } else {
-                cacheMisses++;
+                cacheMisses.incrementAndGet();
                 retval = super.queryEquivalentObjects(obj, source);
                 //equivalents.put(obj, retval);
                 return retval;
@@ -162,11 +165,8 @@ public class BatchingFetcher extends HintingFetcher
         long time = System.currentTimeMillis();
         long time1 = time;
         boolean databaseEmpty = hints.databaseEmpty();
-        if (savedDatabaseEmptyFetch == -1) {
-            savedDatabaseEmptyFetch = System.currentTimeMillis() - time;
-        }
+        recordDatabaseEmpty(databaseEmpty, System.currentTimeMillis() - time);
         if (databaseEmpty) {
-            savedDatabaseEmpty++;
             return;
         }
         // TODO: add all the objects that are referenced by these objects, and follow primary keys
@@ -202,7 +202,9 @@ public class BatchingFetcher extends HintingFetcher
             }
         }
 
-        objects.removeAll(equivalents.keySet());
+        synchronized (equivalents) {
+            objects.removeAll(equivalents.keySet());
+        }
         // Now objects contains all the objects we need to fetch data for.
         Map<InterMineObject, Set<InterMineObject>> results = new HashMap<InterMineObject,
             Set<InterMineObject>>();
@@ -232,10 +234,8 @@ public class BatchingFetcher extends HintingFetcher
                     if (!keysForClass.isEmpty()) {
                         time = System.currentTimeMillis();
                         boolean classNotExists = hints.classNotExists(cld.getType());
-                        String className = Util.getFriendlyName(cld.getType());
-                        if (!savedTimes.containsKey(className)) {
-                            savedTimes.put(className, new Long(System.currentTimeMillis() - time));
-                        }
+                        recordHintTime(Util.getFriendlyName(cld.getType()),
+                                System.currentTimeMillis() - time, false);
                         if (!classNotExists) {
                             //LOG.error("Inspecting class " + className);
                             List<InterMineObject> objectsForCld = new ArrayList<InterMineObject>();
@@ -259,7 +259,7 @@ public class BatchingFetcher extends HintingFetcher
             }
         }
         doPks(pksToDo, results, cldToObjectsForCld, time1);
-        batchQueried += results.size();
+        batchQueried.addAndGet(results.size());
         equivalents.putAll(results);
     }
 
@@ -300,10 +300,10 @@ public class BatchingFetcher extends HintingFetcher
             }
         }
         long time2 = System.currentTimeMillis();
-        timeSpentPrefetchEquiv += time2 - time1;
+        timeSpentPrefetchEquiv.addAndGet(time2 - time1);
         dataTracker.prefetchIds(fetchedObjectIds);
         time1 = System.currentTimeMillis();
-        timeSpentPrefetchTracker += time1 - time2;
+        timeSpentPrefetchTracker.addAndGet(time1 - time2);
     }
 
     /**
@@ -420,11 +420,8 @@ public class BatchingFetcher extends HintingFetcher
                                             .getType(), fieldName, fieldValue);
                                     String summaryName = Util.getFriendlyName(cld
                                             .getType()) + "." + fieldName;
-                                    if (!savedTimes.containsKey(summaryName)) {
-                                        savedTimes.put(summaryName, new Long(System
-                                                    .currentTimeMillis() - time));
-                                        savedCounts.put(summaryName, new Integer(0));
-                                    }
+                                    recordHintTime(summaryName, System.currentTimeMillis()
+                                            - time, true);
                                     if (pkQueryFruitless) {
                                         skipObject = true;
                                     }
@@ -579,7 +576,7 @@ public class BatchingFetcher extends HintingFetcher
             long time = System.currentTimeMillis();
             List<ResultsRow<Object>> retval = os.execute(q, start, limit, optimise, explain,
                     sequence);
-            timeSpentExecute += System.currentTimeMillis() - time;
+            timeSpentExecute.addAndGet(System.currentTimeMillis() - time);
             getEquivalentsFor(retval);
             return retval;
         }
@@ -0,0 +1,329 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.intermine.model.FastPathObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.util.ObjectPipe;
+
+/**
+ * The reader and resolver stages of the ObjectStoreDataLoader, which deliver batches of objects
+ * to the writer in order.
+ * <p>
+ * Reader threads read batches of objects from the source results, resolver threads fetch the
+ * equivalent objects for each batch with the BatchingFetcher, which must be safe to use from
+ * several threads at once, and the calling thread takes the batches from nextBatch() in order.
+ * At most batchesInFlight batches are read and not yet stored at any time. If reading or
+ * resolving a batch fails, nextBatch() throws the failure. close() must always be called, and
+ * returns once all the threads have stopped.
+ *
+ * @author intermine
+ */
+class DataLoaderPipeline
+{
+    private final SingletonResults res;
+    private final BatchingFetcher fetcher;
+    private final int batchSize;
+    private final Semaphore inFlight;
+    private final ObjectPipe<LoadBatch> toResolve;
+    private final ObjectPipe<LoadBatch> toWrite;
+    private final Map<Integer, LoadBatch> arrived = new HashMap<Integer, LoadBatch>();
+    private final AtomicInteger nextToRead = new AtomicInteger(0);
+    private final AtomicInteger readersLeft;
+    private final AtomicInteger resolversLeft;
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private volatile int lastBatch = Integer.MAX_VALUE;
+    private volatile boolean closed = false;
+    private int nextToWrite = 0;
+    final Stage read;
+    final Stage resolve;
+    final Stage write = new Stage("write", 1);
+
+    /**
+     * Creates a pipeline and starts its threads.
+     *
+     * @param res the objects to load
+     * @param fetcher the fetcher to resolve equivalent objects with, or null to skip resolving
+     * @param batchSize the number of objects in each batch
+     * @param readThreads the number of reader threads
+     * @param resolveThreads the number of resolver threads
+     * @param batchesInFlight the maximum number of batches read and not yet stored
+     */
+    DataLoaderPipeline(SingletonResults res, BatchingFetcher fetcher, int batchSize,
+            int readThreads, int resolveThreads, int batchesInFlight) {
+        if ((batchSize < 1) || (readThreads < 1) || (resolveThreads < 1)
+                || (batchesInFlight < 1)) {
+            throw new IllegalArgumentException("Batch size and thread counts must be at least 1,"
+                    + " but were batchSize = " + batchSize + ", readThreads = " + readThreads
+                    + ", resolveThreads = " + resolveThreads + ", batchesInFlight = "
+                    + batchesInFlight);
+        }
+        this.res = res;
+        this.fetcher = fetcher;
+        this.batchSize = batchSize;
+        inFlight = new Semaphore(batchesInFlight);
+        toResolve = new ObjectPipe<LoadBatch>(batchesInFlight);
+        toWrite = new ObjectPipe<LoadBatch>(batchesInFlight);
+        read = new Stage("read", readThreads);
+        resolve = new Stage("resolve", resolveThreads);
+        readersLeft = new AtomicInteger(readThreads);
+        resolversLeft = new AtomicInteger(resolveThreads);
+        for (int i = 0; i < readThreads; i++) {
+            threads.add(new Thread(new Reader(), "ObjectStoreDataLoader reader " + (i + 1)));
+        }
+        for (int i = 0; i < resolveThreads; i++) {
+            threads.add(new Thread(new Resolver(), "ObjectStoreDataLoader resolver " + (i + 1)));
+        }
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Returns the next batch of objects to store, or null if there are no more.
+     *
+     * @return a List of objects
+     * @throws ObjectStoreException if reading or resolving the batch failed
+     */
+    List<FastPathObject> nextBatch() throws ObjectStoreException {
+        if (nextToWrite > lastBatch) {
+            return null;
+        }
+        LoadBatch batch = arrived.remove(Integer.valueOf(nextToWrite));
+        while (batch == null) {
+            LoadBatch received;
+            try {
+                received = toWrite.next();
+            } catch (NoSuchElementException e) {
+                throw new ObjectStoreException("Dataloading pipeline finished early");
+            }
+            if (received.failure != null) {
+                throw new ObjectStoreException("Error in dataloading pipeline", received.failure);
+            }
+            if (received.batchNo == nextToWrite) {
+                batch = received;
+            } else {
+                arrived.put(Integer.valueOf(received.batchNo), received);
+            }
+        }
+        nextToWrite++;
+        return batch.objects;
+    }
+
+    /**
+     * Marks the batch last returned by nextBatch() as stored, allowing another to be read.
+     */
+    void batchDone() {
+        inFlight.release();
+    }
+
+    /**
+     * Stops the reader and resolver threads, and waits for them to finish.
+     */
+    void close() {
+        closed = true;
+        // Wake any readers waiting for space in the pipeline
+        inFlight.release(readersLeft.get() + 1);
+        while (toWrite.hasNext()) {
+            toWrite.next();
+            inFlight.release();
+        }
+        boolean interrupted = false;
+        for (Thread t : threads) {
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns true if any of the threads of this pipeline are still running.
+     *
+     * @return a boolean
+     */
+    boolean isRunning() {
+        for (Thread t : threads) {
+            if (t.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String getStageSummary() {
+        return read + ", " + resolve + ", " + write;
+    }
+
+    private synchronized void setLastBatch(int batchNo) {
+        if (batchNo < lastBatch) {
+            lastBatch = batchNo;
+        }
+    }
+
+    private class Reader implements Runnable
+    {
+        public void run() {
+            try {
+                while (!closed) {
+                    inFlight.acquireUninterruptibly();
+                    int batchNo = nextToRead.getAndIncrement();
+                    if (closed || (batchNo > lastBatch)) {
+                        inFlight.release();
+                        break;
+                    }
+                    long start = System.currentTimeMillis();
+                    List<FastPathObject> objects;
+                    Exception failure = null;
+                    try {
+                        objects = readBatch(batchNo);
+                    } catch (Exception e) {
+                        objects = Collections.emptyList();
+                        failure = e;
+                    }
+                    read.add(objects.size(), System.currentTimeMillis() - start);
+                    if ((failure == null) && (objects.size() < batchSize)) {
+                        setLastBatch(batchNo);
+                    }
+                    if ((failure == null) && (batchNo > lastBatch)) {
+                        inFlight.release();
+                        break;
+                    }
+                    toResolve.put(new LoadBatch(batchNo, objects, failure));
+                    if (failure != null) {
+                        closed = true;
+                    }
+                }
+            } finally {
+                if (readersLeft.decrementAndGet() == 0) {
+                    toResolve.finish();
+                }
+            }
+        }
+
+        private List<FastPathObject> readBatch(int batchNo) throws ObjectStoreException {
+            int start = batchNo * batchSize;
+            int end = start + batchSize - 1;
+            List<Object> rows;
+            try {
+                rows = res.range(start, end);
+            } catch (IndexOutOfBoundsException e) {
+                // We have gone past the end of the results, which range() only knows about
+                // once it has seen the last partial batch
+                try {
+                    rows = res.range(start, Math.max(start, res.size()) - 1);
+                } catch (IndexOutOfBoundsException e2) {
+                    rows = Collections.emptyList();
+                }
+            }
+            List<FastPathObject> retval = new ArrayList<FastPathObject>(rows.size());
+            for (Object row : rows) {
+                retval.add((FastPathObject) row);
+            }
+            return retval;
+        }
+    }
+
+    private class Resolver implements Runnable
+    {
+        public void run() {
+            try {
+                while (true) {
+                    LoadBatch batch = toResolve.next();
+                    if ((batch.failure == null) && closed) {
+                        // Never hand on a batch that has not been resolved
+                        continue;
+                    }
+                    // A reader that got past the end of the results may hand on an empty batch
+                    if ((batch.failure == null) && (fetcher != null)
+                            && !batch.objects.isEmpty()) {
+                        long start = System.currentTimeMillis();
+                        try {
+                            fetcher.getEquivalentsForObjects(batch.objects);
+                        } catch (Exception e) {
+                            batch = new LoadBatch(batch.batchNo, batch.objects, e);
+                        }
+                        resolve.add(batch.objects.size(), System.currentTimeMillis() - start);
+                    }
+                    toWrite.put(batch);
+                }
+            } catch (NoSuchElementException e) {
+                // No more batches to resolve
+            } finally {
+                if (resolversLeft.decrementAndGet() == 0) {
+                    toWrite.finish();
+                }
+            }
+        }
+    }
+
+    /**
+     * A batch of objects passing through the pipeline.
+     */
+    private static class LoadBatch
+    {
+        final int batchNo;
+        final List<FastPathObject> objects;
+        final Exception failure;
+
+        LoadBatch(int batchNo, List<FastPathObject> objects, Exception failure) {
+            this.batchNo = batchNo;
+            this.objects = objects;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Throughput statistics for one stage of the pipeline.
+     */
+    static class Stage
+    {
+        final String name;
+        final int threads;
+        final AtomicLong objects = new AtomicLong();
+        final AtomicLong busyTime = new AtomicLong();
+
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        void add(int objectCount, long time) {
+            objects.addAndGet(objectCount);
+            busyTime.addAndGet(time);
+        }
+
+        @Override
+        public String toString() {
+            long busy = busyTime.get();
+            return name + " " + (busy == 0 ? 0 : (60000L * objects.get()) / busy)
+                + " objects per thread-minute (" + threads + " threads, " + busy + " ms)";
+        }
+    }
+}
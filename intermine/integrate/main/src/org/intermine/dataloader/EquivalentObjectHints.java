@@ -37,7 +37,8 @@ import org.intermine.util.AlwaysSet;
 import org.intermine.util.PseudoSet;
 
 /**
- * Object for holding hint data for the getEquivalentObjects method in IntegrationWriters.
+ * Object for holding hint data for the getEquivalentObjects method in IntegrationWriters. The
+ * hints are shared by the threads of the dataloading pipeline, so access is synchronised.
  *
  * @author Matthew Wakeling
  */
@@ -71,7 +72,7 @@ public class EquivalentObjectHints
      *
      * @return a boolean
      */
-    public boolean databaseEmpty() {
+    public synchronized boolean databaseEmpty() {
         if (databaseEmptyChecked) {
             return databaseEmpty;
         }
@@ -104,7 +105,7 @@ public class EquivalentObjectHints
      * @param clazz the class, must be in the model
      * @return a boolean
      */
-    public boolean classNotExists(Class<? extends FastPathObject> clazz) {
+    public synchronized boolean classNotExists(Class<? extends FastPathObject> clazz) {
         if (databaseEmpty) {
             return true;
         }
@@ -142,8 +143,8 @@ public class EquivalentObjectHints
      * @param value the value
      * @return a boolean
      */
-    public boolean pkQueryFruitless(Class<? extends FastPathObject> clazz, String fieldName,
-            Object value) {
+    public synchronized boolean pkQueryFruitless(Class<? extends FastPathObject> clazz,
+            String fieldName, Object value) {
         if (classNotExists(clazz)) {
             return true;
         }
@@ -231,7 +232,7 @@ public class EquivalentObjectHints
      * @param summaryName a String
      * @return a Set of values, or an AlwaysSet if too many values were tested
      */
-    public Set<Object> getQueried(String summaryName) {
+    public synchronized Set<Object> getQueried(String summaryName) {
         return classAndFieldNameQueried.get(summaryToCafn.get(summaryName));
     }
 
@@ -241,7 +242,7 @@ public class EquivalentObjectHints
      * @param summaryName a String
      * @return a Set of values, or an AlwaysSet if too many values were tested
      */
-    public Set<Object> getValues(String summaryName) {
+    public synchronized Set<Object> getValues(String summaryName) {
         return classAndFieldNameValues.get(summaryToCafn.get(summaryName));
     }
 
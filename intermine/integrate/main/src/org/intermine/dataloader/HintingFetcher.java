@@ -11,11 +11,11 @@ package org.intermine.dataloader;
  */
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.AttributeDescriptor;
@@ -48,7 +48,8 @@ public class HintingFetcher extends BaseEquivalentObjectFetcher
             new TreeMap<String, Long>());
     protected Map<String, Integer> savedCounts = Collections.synchronizedMap(
             new TreeMap<String, Integer>());
-    protected Map<Class<?>, Boolean> allPkClassesEmptyForClass = new HashMap<Class<?>, Boolean>();
+    protected Map<Class<?>, Boolean> allPkClassesEmptyForClass
+        = new ConcurrentHashMap<Class<?>, Boolean>();
 
     /**
      * Constructor
@@ -76,7 +77,7 @@ public class HintingFetcher extends BaseEquivalentObjectFetcher
      * {@inheritDoc}
      */
     @Override
-    protected StringBuffer getSummary(Source source) {
+    protected synchronized StringBuffer getSummary(Source source) {
         StringBuffer retval = super.getSummary(source);
         if (savedDatabaseEmpty > 0) {
             retval.append("\nSaved " + savedDatabaseEmpty
@@ -118,25 +119,14 @@ public class HintingFetcher extends BaseEquivalentObjectFetcher
     public Set<InterMineObject> queryEquivalentObjects(InterMineObject obj, Source source)
         throws ObjectStoreException {
         Class<? extends InterMineObject> summaryName = obj.getClass();
-        Integer soFarCallCount = summaryCallCounts.get(summaryName);
-        if (soFarCallCount == null) {
-            soFarCallCount = new Integer(0);
-            summaryTimes.put(summaryName, new Long(0));
-            summaryCounts.put(summaryName, new Integer(0));
-            summaryCallCounts.put(summaryName, soFarCallCount);
-        }
+        addToSummary(summaryName, 0L, 0, 0);
         long time = System.currentTimeMillis();
-        if (hints.databaseEmpty()) {
-            savedDatabaseEmpty++;
-            summaryCallCounts.put(summaryName, new Integer(soFarCallCount.intValue() + 1));
-            if (savedDatabaseEmptyFetch == -1) {
-                savedDatabaseEmptyFetch = System.currentTimeMillis() - time;
-            }
+        boolean databaseEmpty = hints.databaseEmpty();
+        recordDatabaseEmpty(databaseEmpty, System.currentTimeMillis() - time);
+        if (databaseEmpty) {
+            addToSummary(summaryName, 0L, 0, 1);
             return Collections.emptySet();
         }
-        if (savedDatabaseEmptyFetch == -1) {
-            savedDatabaseEmptyFetch = System.currentTimeMillis() - time;
-        }
         Boolean allPkClassesEmpty = allPkClassesEmptyForClass.get(obj.getClass());
         if (allPkClassesEmpty == null) {
             allPkClassesEmpty = Boolean.TRUE;
@@ -150,10 +140,8 @@ public class HintingFetcher extends BaseEquivalentObjectFetcher
                 if (!primaryKeys.isEmpty()) {
                     time = System.currentTimeMillis();
                     boolean classNotExists = hints.classNotExists(cld.getType());
-                    String className = Util.getFriendlyName(cld.getType());
-                    if (!savedTimes.containsKey(className)) {
-                        savedTimes.put(className, new Long(System.currentTimeMillis() - time));
-                    }
+                    recordHintTime(Util.getFriendlyName(cld.getType()),
+                            System.currentTimeMillis() - time, false);
                     if (!classNotExists) {
                         allPkClassesEmpty = Boolean.FALSE;
                     }
@@ -162,12 +150,55 @@ public class HintingFetcher extends BaseEquivalentObjectFetcher
             allPkClassesEmptyForClass.put(obj.getClass(), allPkClassesEmpty);
         }
         if (allPkClassesEmpty.booleanValue()) {
-            summaryCallCounts.put(summaryName, new Integer(soFarCallCount.intValue() + 1));
+            addToSummary(summaryName, 0L, 0, 1);
             return Collections.emptySet();
         }
         return super.queryEquivalentObjects(obj, source);
     }
 
+    /**
+     * Records whether the database empty hint saved a query, and the time it took to fetch the
+     * first time.
+     *
+     * @param databaseEmpty true if the database is empty, so a query was saved
+     * @param time the time taken to read the hint, in milliseconds
+     */
+    protected synchronized void recordDatabaseEmpty(boolean databaseEmpty, long time) {
+        if (databaseEmpty) {
+            savedDatabaseEmpty++;
+        }
+        if (savedDatabaseEmptyFetch == -1) {
+            savedDatabaseEmptyFetch = time;
+        }
+    }
+
+    /**
+     * Records the time taken to fetch a hint, if it has not been recorded already.
+     *
+     * @param summaryName the class, or class and field, that the hint is for
+     * @param time the time taken to fetch the hint, in milliseconds
+     * @param countSaved true if queries saved by the hint are counted
+     */
+    protected synchronized void recordHintTime(String summaryName, long time,
+            boolean countSaved) {
+        if (!savedTimes.containsKey(summaryName)) {
+            savedTimes.put(summaryName, new Long(time));
+            if (countSaved) {
+                savedCounts.put(summaryName, new Integer(0));
+            }
+        }
+    }
+
+    /**
+     * Counts a query saved by a hint.
+     *
+     * @param summaryName the class and field that the hint is for
+     */
+    protected synchronized void addSavedQuery(String summaryName) {
+        Integer count = savedCounts.get(summaryName);
+        savedCounts.put(summaryName, new Integer(count == null ? 1 : count.intValue() + 1));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -200,13 +231,9 @@ public class HintingFetcher extends BaseEquivalentObjectFetcher
                 boolean pkQueryFruitless = hints.pkQueryFruitless(cld.getType(), fieldName, value);
                 String summaryName = Util.getFriendlyName(cld.getType()) + "."
                     + fieldName;
-                if (!savedTimes.containsKey(summaryName)) {
-                    savedTimes.put(summaryName, new Long(System.currentTimeMillis() - time));
-                    savedCounts.put(summaryName, new Integer(0));
-                }
+                recordHintTime(summaryName, System.currentTimeMillis() - time, true);
                 if (pkQueryFruitless) {
-                    savedCounts.put(summaryName, new Integer(savedCounts.get(summaryName).intValue()
-                                + 1));
+                    addSavedQuery(summaryName);
                     return;
                 }
             } else if (fd instanceof CollectionDescriptor) {
@@ -230,14 +257,9 @@ public class HintingFetcher extends BaseEquivalentObjectFetcher
                                 destId);
                         String summaryName = Util.getFriendlyName(cld.getType()) + "."
                             + fieldName;
-                        if (!savedTimes.containsKey(summaryName)) {
-                            savedTimes.put(summaryName, new Long(System.currentTimeMillis()
-                                        - time));
-                            savedCounts.put(summaryName, new Integer(0));
-                        }
+                        recordHintTime(summaryName, System.currentTimeMillis() - time, true);
                         if (pkQueryFruitless) {
-                            savedCounts.put(summaryName, new Integer(savedCounts.get(summaryName)
-                                        .intValue() + 1));
+                            addSavedQuery(summaryName);
                             return;
                         }
                     }
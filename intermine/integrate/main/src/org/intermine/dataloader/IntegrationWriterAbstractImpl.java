@@ -565,6 +565,13 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
         osw.replaceClob(clob, text);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void writeClobPage(Clob clob, int page, String text) throws ObjectStoreException {
+        osw.writeClobPage(clob, page, text);
+    }
+
     /**
      * Gets an ID number which is unique in the database.
      *
@@ -10,7 +10,7 @@ package org.intermine.dataloader;
  *
  */
 
-import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.log4j.Logger;
@@ -29,6 +29,14 @@ import org.intermine.util.PropertiesUtil;
 
 /**
  * Loads information from an ObjectStore into the InterMine database.
+ * <p>
+ * Loading is done by a DataLoaderPipeline of three stages, connected by bounded queues of batches
+ * of objects. Reader threads read (and translate) batches of objects from the source ObjectStore,
+ * resolver threads fetch the equivalent objects for each batch from the destination, and the
+ * calling thread stores the objects in order. The number of threads of the first two stages and
+ * the number of batches in the pipeline at once are set by the properties dataLoader.readThreads,
+ * dataLoader.resolveThreads and dataLoader.batchesInFlight. There is only ever one writer, as the
+ * IntegrationWriter is not thread-safe.
  *
  * @author Matthew Wakeling
  */
@@ -36,6 +44,9 @@ public class ObjectStoreDataLoader extends DataLoader
 {
     private static final Logger LOG = Logger.getLogger(ObjectStoreDataLoader.class);
     private static final int ITEM_READ_BATCH_SIZE = 5000;
+    private static final int DEFAULT_READ_THREADS = 1;
+    private static final int DEFAULT_RESOLVE_THREADS = 1;
+    private static final int DEFAULT_BATCHES_IN_FLIGHT = 4;
 
     /**
      * Construct an ObjectStoreDataLoader
@@ -76,6 +87,7 @@ public class ObjectStoreDataLoader extends DataLoader
             Class<? extends FastPathObject> queryClass) throws ObjectStoreException {
         int errorCount = 0;
         ObjectStore origOs = os;
+        BatchingFetcher fetcher = null;
         try {
             if (os instanceof ObjectStoreFastCollectionsForTranslatorImpl) {
                 ((ObjectStoreFastCollectionsForTranslatorImpl) os).setSource(source);
@@ -87,29 +99,30 @@ public class ObjectStoreDataLoader extends DataLoader
                     LOG.info("Using ParallelBatchingFetcher - set the property "
                             + "\"equivalentObjectFetcher.useParallel\" to false to use the standard"
                             + " BatchingFetcher");
-                    ParallelBatchingFetcher eof =
-                        new ParallelBatchingFetcher(((IntegrationWriterAbstractImpl)
+                    fetcher = new ParallelBatchingFetcher(((IntegrationWriterAbstractImpl)
                                 getIntegrationWriter()).getBaseEof(),
                             ((IntegrationWriterDataTrackingImpl) getIntegrationWriter())
                             .getDataTracker(), source);
-                    ((IntegrationWriterAbstractImpl) getIntegrationWriter()).setEof(eof);
-                    os = eof.getNoseyObjectStore(os);
                 } else {
                     LOG.info("Using BatchingFetcher - set the property "
                             + "\"equivalentObjectFetcher.useParallel\" to true to use the "
                             + "ParallelBatchingFetcher");
-                    BatchingFetcher eof =
-                        new BatchingFetcher(((IntegrationWriterAbstractImpl)
+                    fetcher = new BatchingFetcher(((IntegrationWriterAbstractImpl)
                                 getIntegrationWriter()).getBaseEof(),
                             ((IntegrationWriterDataTrackingImpl) getIntegrationWriter())
                             .getDataTracker(), source);
-                    ((IntegrationWriterAbstractImpl) getIntegrationWriter()).setEof(eof);
-                    os = eof.getNoseyObjectStore(os);
                 }
+                ((IntegrationWriterAbstractImpl) getIntegrationWriter()).setEof(fetcher);
             }
             Properties props = PropertiesUtil.getPropertiesStartingWith("dataLoader");
             boolean allowMultipleErrors = "true".equals(props.getProperty(
                             "dataLoader.allowMultipleErrors"));
+            int readThreads = getPositiveIntProperty(props, "dataLoader.readThreads",
+                    DEFAULT_READ_THREADS);
+            int resolveThreads = getPositiveIntProperty(props, "dataLoader.resolveThreads",
+                    DEFAULT_RESOLVE_THREADS);
+            int batchesInFlight = getPositiveIntProperty(props, "dataLoader.batchesInFlight",
+                    DEFAULT_BATCHES_IN_FLIGHT);
             long[] times = new long[20];
             for (int i = 0; i < 20; i++) {
                 times[i] = -1;
@@ -122,91 +135,89 @@ public class ObjectStoreDataLoader extends DataLoader
             long opCount = 0;
             long time = System.currentTimeMillis();
             long startTime = time;
-            long timeSpentRead = 0;
-            long timeSpentWrite = 0;
-            long timeSpentCommit = 0;
-            long timeSpentLoop = 0;
             getIntegrationWriter().beginTransaction();
             SingletonResults res = os.executeSingleton(q, ITEM_READ_BATCH_SIZE, false, false, true);
-            long time4 = System.currentTimeMillis();
-            long time1, time2, time3;
-            @SuppressWarnings({ "unchecked", "rawtypes" })
-            Collection<FastPathObject> tmpRes = (Collection) res;
-            for (FastPathObject obj : tmpRes) {
-                time1 = System.currentTimeMillis();
-                timeSpentLoop += time1 - time4;
-                time2 = System.currentTimeMillis();
-                timeSpentRead += time2 - time1;
-                //if ("org.intermine.model.chado.feature".equals(obj.getClass().getName())) {
-                //    String objText = obj.toString();
-                //    int objTextLen = objText.length();
-                //    System//.out.println("Storing " + objText.substring(0, (objTextLen > 60 ? 60
-                //                    : objTextLen)));
-                //}
-                try {
-                    getIntegrationWriter().store(obj, source, skelSource);
-                } catch (RuntimeException e) {
-                    String identifier = null;
-                    if ((origOs instanceof ObjectStoreFastCollectionsForTranslatorImpl)
-                           && (obj instanceof InterMineObject)) {
-                        ItemToObjectTranslator trans = (ItemToObjectTranslator)
-                            ((ObjectStoreFastCollectionsForTranslatorImpl) origOs).getTranslator();
-                        identifier = trans.idToIdentifier(((InterMineObject) obj).getId());
-                    }
-                    LOG.error("Exception while dataloading" + (identifier == null ? ""
-                                : " item with identifier " + identifier), e);
-                    errorCount++;
-                    if (errorCount >= 100) {
-                        throw new RuntimeException("Too many data loading exceptions - to stop on"
-                                + " the first error, set the property"
-                                + " \"dataLoader.allowMultipleErrors\" to false", e);
-                    }
-                    if (!allowMultipleErrors) {
-                        throw new RuntimeException("Exception while dataloading - to allow multiple"
-                                + " errors, set the property \"dataLoader.allowMultipleErrors\" to"
-                                + " true\n" + (identifier == null ? ""
-                                    : "Problem while loading item identifier " + identifier
-                                    + " because\n") + e.getMessage(), e);
+            DataLoaderPipeline pipeline = new DataLoaderPipeline(res, fetcher,
+                    ITEM_READ_BATCH_SIZE, readThreads, resolveThreads, batchesInFlight);
+            LOG.info("Dataloading with " + readThreads + " reader threads, " + resolveThreads
+                    + " resolver threads and " + batchesInFlight + " batches of "
+                    + ITEM_READ_BATCH_SIZE + " objects in flight - set the properties "
+                    + "\"dataLoader.readThreads\", \"dataLoader.resolveThreads\" and "
+                    + "\"dataLoader.batchesInFlight\" to change this");
+            try {
+                List<FastPathObject> batch;
+                while ((batch = pipeline.nextBatch()) != null) {
+                    long writeStart = System.currentTimeMillis();
+                    for (FastPathObject obj : batch) {
+                        try {
+                            getIntegrationWriter().store(obj, source, skelSource);
+                        } catch (RuntimeException e) {
+                            String identifier = null;
+                            if ((origOs instanceof ObjectStoreFastCollectionsForTranslatorImpl)
+                                    && (obj instanceof InterMineObject)) {
+                                ItemToObjectTranslator trans = (ItemToObjectTranslator)
+                                    ((ObjectStoreFastCollectionsForTranslatorImpl) origOs)
+                                    .getTranslator();
+                                identifier = trans.idToIdentifier(((InterMineObject) obj)
+                                        .getId());
+                            }
+                            LOG.error("Exception while dataloading" + (identifier == null ? ""
+                                        : " item with identifier " + identifier), e);
+                            errorCount++;
+                            if (errorCount >= 100) {
+                                throw new RuntimeException("Too many data loading exceptions - to"
+                                        + " stop on the first error, set the property"
+                                        + " \"dataLoader.allowMultipleErrors\" to false", e);
+                            }
+                            if (!allowMultipleErrors) {
+                                throw new RuntimeException("Exception while dataloading - to allow"
+                                        + " multiple errors, set the property"
+                                        + " \"dataLoader.allowMultipleErrors\" to true\n"
+                                        + (identifier == null ? ""
+                                            : "Problem while loading item identifier "
+                                            + identifier + " because\n") + e.getMessage(), e);
+                            }
+                        }
+                        opCount++;
+                        if (opCount % 10000 == 0) {
+                            long now = System.currentTimeMillis();
+                            pipeline.write.add(0, now - writeStart);
+                            writeStart = now;
+                            String avg;
+                            if (times[(int) ((opCount / 10000) % 20)] == -1) {
+                                avg = "avg " + ((60000L * opCount) / (now - startTime));
+                            } else {
+                                avg = "200000 avg " + (12000000000L
+                                        / (now - times[(int) ((opCount / 10000) % 20)]))
+                                    + ") (avg = " + ((60000L * opCount) / (now - startTime));
+                            }
+                            LOG.info("Dataloaded " + opCount + " objects - running at "
+                                    + (600000000L / (now - time)) + " (" + avg
+                                    + ") objects per minute -- now on "
+                                    + Util.getFriendlyName(obj.getClass()) + " -- "
+                                    + pipeline.getStageSummary());
+                            time = now;
+                            times[(int) ((opCount / 10000) % 20)] = now;
+                            if (opCount % 500000 == 0) {
+                                getIntegrationWriter().batchCommitTransaction();
+                            }
+                        }
                     }
+                    pipeline.write.add(batch.size(), System.currentTimeMillis() - writeStart);
+                    pipeline.batchDone();
                 }
-                time3 = System.currentTimeMillis();
-                timeSpentWrite += time3 - time2;
-                opCount++;
-                if (opCount % 10000 == 0) {
-                    long now = System.currentTimeMillis();
-                    if (times[(int) ((opCount / 10000) % 20)] == -1) {
-                        LOG.info("Dataloaded " + opCount + " objects - running at "
-                                + (600000000L / (now - time)) + " (avg "
-                                + ((60000L * opCount) / (now - startTime))
-                                + ") objects per minute -- now on "
-                                + Util.getFriendlyName(obj.getClass()));
-                    } else {
-                        LOG.info("Dataloaded " + opCount + " objects - running at "
-                                + (600000000L / (now - time)) + " (200000 avg "
-                                + (12000000000L / (now - times[(int) ((opCount / 10000) % 20)]))
-                                + ") (avg = " + ((60000L * opCount) / (now - startTime))
-                                + ") objects per minute -- now on "
-                                + Util.getFriendlyName(obj.getClass()));
-                    }
-                    time = now;
-                    times[(int) ((opCount / 10000) % 20)] = now;
-                    if (opCount % 500000 == 0) {
-                        getIntegrationWriter().batchCommitTransaction();
-                    }
-                }
-                time4 = System.currentTimeMillis();
-                timeSpentCommit += time4 - time3;
+            } finally {
+                pipeline.close();
             }
-            time3 = System.currentTimeMillis();
+            long time3 = System.currentTimeMillis();
             getIntegrationWriter().commitTransaction();
             getIntegrationWriter().close();
             long now = System.currentTimeMillis();
-            timeSpentCommit += now - time3;
             LOG.info("Finished dataloading " + opCount + " objects at " + ((60000L * opCount)
                         / (now - startTime)) + " objects per minute (" + (now - startTime)
                     + " ms total) for source " + source.getName());
-            LOG.info("Time spent: Reading: " + (timeSpentRead + timeSpentLoop) + ", Writing: "
-                    + timeSpentWrite + ", Committing: " + timeSpentCommit);
+            LOG.info("Time spent: " + pipeline.getStageSummary() + ", committing: "
+                    + (now - time3) + " ms");
         } catch (RuntimeException e) {
             if (origOs instanceof ObjectStoreFastCollectionsForTranslatorImpl) {
                 IntPresentSet doneAlready = ((ObjectStoreFastCollectionsForTranslatorImpl) origOs)
@@ -229,4 +240,31 @@ public class ObjectStoreDataLoader extends DataLoader
                     + ".allowMultipleErrors\" to false");
         }
     }
+
+    /**
+     * Reads a count of threads or batches from a property. Values that are not positive whole
+     * numbers are logged and replaced by the default, as a bad value must not stop a build.
+     *
+     * @param props the properties
+     * @param name the name of the property
+     * @param defaultValue the value to use if the property is not set or is invalid
+     * @return a number that is at least 1
+     */
+    static int getPositiveIntProperty(Properties props, String name, int defaultValue) {
+        String value = props.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int retval = Integer.parseInt(value.trim());
+            if (retval >= 1) {
+                return retval;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        LOG.warn("Invalid value \"" + value + "\" for property " + name + " - it must be a whole"
+                + " number of at least 1. Using " + defaultValue + " instead");
+        return defaultValue;
+    }
 }
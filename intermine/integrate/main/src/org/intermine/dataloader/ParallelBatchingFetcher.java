@@ -18,6 +18,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Properties;
 import java.util.Set;
 
 import org.intermine.metadata.ClassDescriptor;
@@ -25,18 +26,21 @@ import org.intermine.metadata.PrimaryKey;
 import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.util.ObjectPipe;
+import org.intermine.util.PropertiesUtil;
 
 import org.apache.log4j.Logger;
 
 /**
  * Class providing EquivalentObjectFetcher functionality that fetches batches of equivalent objects
- * in parallel to improve performance.
+ * in parallel to improve performance. The number of worker threads is set by the property
+ * equivalentObjectFetcher.threads, which defaults to 10.
  *
  * @author Matthew Wakeling
  */
 public class ParallelBatchingFetcher extends BatchingFetcher
 {
     private static final Logger LOG = Logger.getLogger(ParallelBatchingFetcher.class);
+    private static final int DEFAULT_THREADS = 10;
     private ObjectPipe<WorkUnit> jobs = new ObjectPipe<WorkUnit>();
 
     /**
@@ -49,7 +53,11 @@ public class ParallelBatchingFetcher extends BatchingFetcher
     public ParallelBatchingFetcher(BaseEquivalentObjectFetcher fetcher, DataTracker dataTracker,
             Source source) {
         super(fetcher, dataTracker, source);
-        for (int i = 0; i < 10; i++) {
+        Properties props = PropertiesUtil.getPropertiesStartingWith("equivalentObjectFetcher");
+        // With no worker threads, doPks() would wait forever
+        int threads = ObjectStoreDataLoader.getPositiveIntProperty(props,
+                "equivalentObjectFetcher.threads", DEFAULT_THREADS);
+        for (int i = 0; i < threads; i++) {
             Thread t = new Thread(new Worker(), "ParallelBatchingFetcher Worker " + (i + 1));
             t.start();
         }
@@ -112,7 +120,7 @@ public class ParallelBatchingFetcher extends BatchingFetcher
             }
         }
         long time2 = System.currentTimeMillis();
-        timeSpentPrefetchEquiv += time2 - time1;
+        timeSpentPrefetchEquiv.addAndGet(time2 - time1);
     }
 
     private class WorkUnit
@@ -0,0 +1,181 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SingletonResults;
+
+public class DataLoaderPipelineTest extends TestCase
+{
+    private static final int OBJECTS = 95;
+
+    private ObjectStoreDummyImpl os;
+    private SingletonResults res;
+    private DataLoaderPipeline pipeline;
+
+    public DataLoaderPipelineTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        os = new ObjectStoreDummyImpl();
+        os.setResultsSize(OBJECTS);
+        for (int i = 0; i < OBJECTS; i++) {
+            Employee e = new Employee();
+            e.setId(new Integer(i));
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            row.add(e);
+            os.addRow(row);
+        }
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        res = os.executeSingleton(q, 10, false, false, false);
+    }
+
+    public void tearDown() throws Exception {
+        if (pipeline != null) {
+            pipeline.close();
+            assertFalse(pipeline.isRunning());
+        }
+    }
+
+    public void testOrder() throws Exception {
+        pipeline = new DataLoaderPipeline(res, new TestFetcher(-1), 10, 3, 4, 3);
+        List<Integer> ids = new ArrayList<Integer>();
+        List<FastPathObject> batch;
+        while ((batch = pipeline.nextBatch()) != null) {
+            for (FastPathObject o : batch) {
+                ids.add(((InterMineObject) o).getId());
+            }
+            pipeline.batchDone();
+        }
+        assertEquals(OBJECTS, ids.size());
+        for (int i = 0; i < OBJECTS; i++) {
+            assertEquals(new Integer(i), ids.get(i));
+        }
+        pipeline.close();
+        assertFalse(pipeline.isRunning());
+    }
+
+    public void testResolveFailure() throws Exception {
+        pipeline = new DataLoaderPipeline(res, new TestFetcher(42), 10, 2, 2, 2);
+        int batches = 0;
+        try {
+            while (pipeline.nextBatch() != null) {
+                batches++;
+                pipeline.batchDone();
+            }
+            fail("Expected ObjectStoreException");
+        } catch (ObjectStoreException e) {
+            assertEquals("Could not resolve 42", e.getCause().getMessage());
+        }
+        // Only the batches before the failure can be delivered
+        assertTrue(batches <= 4);
+    }
+
+    public void testReadFailure() throws Exception {
+        os.setPoisonRowNo(55);
+        pipeline = new DataLoaderPipeline(res, null, 10, 2, 1, 2);
+        int batches = 0;
+        try {
+            while (pipeline.nextBatch() != null) {
+                batches++;
+                pipeline.batchDone();
+            }
+            fail("Expected ObjectStoreException");
+        } catch (ObjectStoreException e) {
+            // expected
+        }
+        assertTrue(batches <= 5);
+    }
+
+    public void testCloseEarly() throws Exception {
+        pipeline = new DataLoaderPipeline(res, new TestFetcher(-1), 10, 2, 2, 2);
+        assertEquals(10, pipeline.nextBatch().size());
+        // The readers are waiting for space in the pipeline
+        pipeline.close();
+        assertFalse(pipeline.isRunning());
+    }
+
+    public void testInvalidThreadCounts() throws Exception {
+        try {
+            new DataLoaderPipeline(res, null, 10, 0, 1, 1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new DataLoaderPipeline(res, null, 10, 1, 1, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testThreadCountProperties() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("a", "4");
+        props.setProperty("b", " 2 ");
+        props.setProperty("c", "0");
+        props.setProperty("d", "-3");
+        props.setProperty("e", "lots");
+        assertEquals(4, ObjectStoreDataLoader.getPositiveIntProperty(props, "a", 1));
+        assertEquals(2, ObjectStoreDataLoader.getPositiveIntProperty(props, "b", 1));
+        assertEquals(1, ObjectStoreDataLoader.getPositiveIntProperty(props, "c", 1));
+        assertEquals(1, ObjectStoreDataLoader.getPositiveIntProperty(props, "d", 1));
+        assertEquals(1, ObjectStoreDataLoader.getPositiveIntProperty(props, "e", 1));
+        assertEquals(7, ObjectStoreDataLoader.getPositiveIntProperty(props, "f", 7));
+    }
+
+    /**
+     * A fetcher that takes a varying time over each batch, so that batches finish out of order,
+     * and fails on the batch containing a given id.
+     */
+    private class TestFetcher extends BatchingFetcher
+    {
+        private final int failId;
+
+        TestFetcher(int failId) {
+            super(new BaseEquivalentObjectFetcher(null, null, os), null, null);
+            this.failId = failId;
+        }
+
+        @Override
+        protected void getEquivalentsForObjects(List<FastPathObject> fpos)
+            throws ObjectStoreException {
+            for (FastPathObject o : fpos) {
+                if (((InterMineObject) o).getId().intValue() == failId) {
+                    throw new ObjectStoreException("Could not resolve " + failId);
+                }
+            }
+            try {
+                Thread.sleep((((InterMineObject) fpos.get(0)).getId().intValue() % 30) / 3);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+    }
+}
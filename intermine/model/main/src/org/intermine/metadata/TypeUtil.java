@@ -32,6 +32,8 @@ import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import org.intermine.model.FastPathObject;
@@ -50,8 +52,9 @@ public final class TypeUtil
         // empty
     }
 
-    private static Map<Class<?>, Map<String, FieldInfo>> classToFieldnameToFieldInfo
-        = new HashMap<Class<?>, Map<String, FieldInfo>>();
+    // Read for every field of every object exported, indexed or stored, so lookups take no lock
+    private static final ConcurrentMap<Class<?>, ClassFields> CLASS_TO_FIELDS
+        = new ConcurrentHashMap<Class<?>, ClassFields>();
 
     /**
      * Returns the package name from a fully qualified class name
@@ -92,7 +95,7 @@ public final class TypeUtil
     public static Object getFieldValue(Object o, String fieldName)
         throws IllegalAccessException {
         try {
-            return getGetter(o.getClass(), fieldName).invoke(o, new Object[] {});
+            return getFieldInfo(o.getClass(), fieldName).getGetter().invoke(o);
         } catch (Exception e) {
             String type = "";
             try {
@@ -120,11 +123,12 @@ public final class TypeUtil
      */
     public static Object getFieldProxy(Object o, String fieldName) throws IllegalAccessException {
         try {
-            Method proxyGetter = getProxyGetter(o.getClass(), fieldName);
+            FieldInfo info = getFieldInfo(o.getClass(), fieldName);
+            Method proxyGetter = info.getProxyGetter();
             if (proxyGetter == null) {
-                proxyGetter = getGetter(o.getClass(), fieldName);
+                proxyGetter = info.getGetter();
             }
-            return proxyGetter.invoke(o, new Object[] {});
+            return proxyGetter.invoke(o);
         } catch (Exception e) {
             String type = null;
             try {
@@ -294,54 +298,61 @@ public final class TypeUtil
      * @return a Map from field name to FieldInfo object
      */
     public static Map<String, FieldInfo> getFieldInfos(Class<?> c) {
-        Map<String, FieldInfo> infos = null;
-        synchronized (classToFieldnameToFieldInfo) {
-            infos = classToFieldnameToFieldInfo.get(c);
-
-            if (infos == null) {
-                infos = new TreeMap<String, FieldInfo>();
-
-                Map<String, Method> methods = new HashMap<String, Method>();
-                Method[] methodArray = c.getMethods();
+        return getClassFields(c).sorted;
+    }
 
-                for (int i = 0; i < methodArray.length; i++) {
-                    String methodName = methodArray[i].getName();
-                    methods.put(methodName, methodArray[i]);
-                }
+    private static ClassFields getClassFields(Class<?> c) {
+        ClassFields fields = CLASS_TO_FIELDS.get(c);
+        if (fields == null) {
+            fields = new ClassFields(buildFieldInfos(c));
+            // another thread may have got there first, and they must all see the same FieldInfos
+            ClassFields existing = CLASS_TO_FIELDS.putIfAbsent(c, fields);
+            if (existing != null) {
+                fields = existing;
+            }
+        }
+        return fields;
+    }
 
-                for (String getterName : methods.keySet()) {
-                    if (getterName.startsWith("get")) {
-                        String setterName = "set" + getterName.substring(3);
-                        String proxySetterName = "proxy" + getterName.substring(3);
-                        String proxyGetterName = "proxGet" + getterName.substring(3);
-                        String adderName = "add" + getterName.substring(3);
-                        if (methods.containsKey(setterName)) {
-                            Method getter = methods.get(getterName);
-                            Method setter = methods.get(setterName);
-                            Method proxySetter = methods.get(proxySetterName);
-                            Method proxyGetter = methods.get(proxyGetterName);
-                            Method adder = methods.get(adderName);
-                            String fieldName = getterName.substring(3);
-                            fieldName = StringUtil.reverseCapitalisation(fieldName).intern();
-
-                            // cglib Factory interface has getCallBack() and getCallBacks() methods
-                            if ((!"getClass".equals(getter.getName()))
-                                    && (!"getCallback".equals(getter.getName()))
-                                    && (!"getCallbacks".equals(getter.getName()))
-                                    && (!"getoBJECT".equals(getter.getName()))
-                                    && (!"getFieldValue".equals(getter.getName()))
-                                    && (!"getFieldProxy".equals(getter.getName()))
-                                    && (!"getFieldType".equals(getter.getName()))
-                                    && (!"getElementType".equals(getter.getName()))) {
-                                FieldInfo info = new FieldInfo(fieldName, getter, setter,
-                                        proxySetter, proxyGetter, adder);
-                                infos.put(fieldName, info);
-                            }
-                        }
+    private static Map<String, FieldInfo> buildFieldInfos(Class<?> c) {
+        Map<String, FieldInfo> infos = new TreeMap<String, FieldInfo>();
+        Map<String, Method> methods = new HashMap<String, Method>();
+        Method[] methodArray = c.getMethods();
+
+        for (int i = 0; i < methodArray.length; i++) {
+            String methodName = methodArray[i].getName();
+            methods.put(methodName, methodArray[i]);
+        }
+
+        for (String getterName : methods.keySet()) {
+            if (getterName.startsWith("get")) {
+                String setterName = "set" + getterName.substring(3);
+                String proxySetterName = "proxy" + getterName.substring(3);
+                String proxyGetterName = "proxGet" + getterName.substring(3);
+                String adderName = "add" + getterName.substring(3);
+                if (methods.containsKey(setterName)) {
+                    Method getter = methods.get(getterName);
+                    Method setter = methods.get(setterName);
+                    Method proxySetter = methods.get(proxySetterName);
+                    Method proxyGetter = methods.get(proxyGetterName);
+                    Method adder = methods.get(adderName);
+                    String fieldName = getterName.substring(3);
+                    fieldName = StringUtil.reverseCapitalisation(fieldName).intern();
+
+                    // cglib Factory interface has getCallBack() and getCallBacks() methods
+                    if ((!"getClass".equals(getter.getName()))
+                            && (!"getCallback".equals(getter.getName()))
+                            && (!"getCallbacks".equals(getter.getName()))
+                            && (!"getoBJECT".equals(getter.getName()))
+                            && (!"getFieldValue".equals(getter.getName()))
+                            && (!"getFieldProxy".equals(getter.getName()))
+                            && (!"getFieldType".equals(getter.getName()))
+                            && (!"getElementType".equals(getter.getName()))) {
+                        FieldInfo info = new FieldInfo(fieldName, getter, setter,
+                                proxySetter, proxyGetter, adder);
+                        infos.put(fieldName, info);
                     }
                 }
-
-                classToFieldnameToFieldInfo.put(c, infos);
             }
         }
         return infos;
@@ -355,7 +366,7 @@ public final class TypeUtil
      * @return a FieldInfo object, or null if the fieldname is not found
      */
     public static FieldInfo getFieldInfo(Class<?> c, String fieldname) {
-        return getFieldInfos(c).get(fieldname);
+        return getClassFields(c).byName.get(fieldname);
     }
 
     /**
@@ -551,6 +562,20 @@ public final class TypeUtil
         return false;
     }
 
+    /**
+     * The fields of a class, sorted by name and hashed by name.
+     */
+    private static final class ClassFields
+    {
+        private final Map<String, FieldInfo> sorted;
+        private final Map<String, FieldInfo> byName;
+
+        ClassFields(Map<String, FieldInfo> sorted) {
+            this.sorted = sorted;
+            this.byName = new HashMap<String, FieldInfo>(sorted);
+        }
+    }
+
     /**
      * Inner class to hold info on a field.
      *
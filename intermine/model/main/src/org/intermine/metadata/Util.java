@@ -266,6 +266,17 @@ public final class Util
         }
         byte[] buffer = sequence.getBytes();
         md5.update(buffer);
+        return getMd5checksum(md5);
+    }
+
+    /**
+     * Finish an MD5 digest and format it as getMd5checksum(String) does, for sequences that are
+     * passed to the digest a piece at a time.
+     *
+     * @param md5 an MD5 MessageDigest that has been given the whole sequence
+     * @return encoded sequence, set to lowercase
+     */
+    public static String getMd5checksum(MessageDigest md5) {
         byte[] bits = md5.digest();
         StringBuilder checksum = new StringBuilder();
         for (int i = 0; i < bits.length; i++) {
@@ -610,14 +621,16 @@ public final class Util
     public static synchronized Set<Class<?>> decomposeClass(Class<?> clazz) {
         Set<Class<?>> retval = decomposeMap.get(clazz);
         if (retval == null) {
-            if (net.sf.cglib.proxy.Factory.class.isAssignableFrom(clazz)) {
+            if (net.sf.cglib.proxy.Factory.class.isAssignableFrom(clazz)
+                    || org.intermine.model.CompositeClass.class.isAssignableFrom(clazz)) {
                 // Decompose
                 retval = new TreeSet<Class<?>>(new ClassNameComparator());
                 retval.add(clazz.getSuperclass());
                 Class<?>[] interfs = clazz.getInterfaces();
                 for (int i = 0; i < interfs.length; i++) {
                     Class<?> inter = interfs[i];
-                    if (net.sf.cglib.proxy.Factory.class != inter) {
+                    if ((net.sf.cglib.proxy.Factory.class != inter)
+                            && (org.intermine.model.CompositeClass.class != inter)) {
                         boolean notIn = true;
                         Iterator<Class<?>> inIter = retval.iterator();
                         while (inIter.hasNext() && notIn) {
@@ -0,0 +1,23 @@
+package org.intermine.model;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * A root interface for classes generated at runtime to implement a combination of model classes,
+ * in place of a DynamicBean proxy. Such a class is described by its superclass and the other
+ * interfaces that it implements, in the same way as a proxy.
+ *
+ * @author intermine
+ */
+public interface CompositeClass
+{
+    // just a marker
+}
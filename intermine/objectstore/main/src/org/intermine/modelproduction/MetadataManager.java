@@ -124,6 +124,11 @@ public final class MetadataManager
      */
     public static final String RANGE_DEFINITIONS = "rangeDefinitions";
 
+    /**
+     * The name of the key used to store the feature density counts used by JBrowse
+     */
+    public static final String FEATURE_DENSITIES = "featureDensities";
+
     /**
      * Store a (key, value) pair in the metadata table of the database
      * @param database the database
@@ -34,8 +34,10 @@ import org.intermine.objectstore.query.QueryCreator;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
-import org.intermine.util.CacheMap;
+import org.intermine.util.CacheMapFactory;
+import org.intermine.util.MemoryEstimator;
 import org.intermine.util.PropertiesUtil;
+import org.intermine.util.Weigher;
 
 /**
  * Abstract implementation of the ObjectStore interface. Used to provide uniformity
@@ -50,13 +52,28 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
 
     protected static Random rand = new Random();
 
+    /** Default bound of a bounded getObjectById cache - an estimated number of bytes */
+    public static final long DEFAULT_OBJECT_CACHE_WEIGHT = 64L * 1024 * 1024;
+
+    /**
+     * Estimates the number of bytes held by an entry in the getObjectById cache, from the values
+     * of the fields of the object.
+     */
+    protected static final Weigher<Integer, InterMineObject> OBJECT_WEIGHER
+        = new Weigher<Integer, InterMineObject>() {
+            @Override
+            public int weigh(Integer key, InterMineObject value) {
+                return MemoryEstimator.weigh(value);
+            }
+        };
+
     protected Model model;
     protected int maxOffset = Integer.MAX_VALUE;
     protected int maxLimit = Integer.MAX_VALUE;
     protected long maxTime = Long.MAX_VALUE;
     // Optimiser will use a default query parse time if none is provided from properties
     protected Long maxQueryParseTime = null;
-    protected CacheMap<Integer, InterMineObject> cache;
+    protected Map<Integer, InterMineObject> cache;
 
     protected int getObjectOps = 0;
     protected int getObjectHits = 0;
@@ -99,8 +116,9 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
 
         LOG.info("Creating new " + getClass().getName() + " with sequence = " + sequenceNumber
                 + ", model = \"" + model.getName() + "\"");
-        cache = new CacheMap<Integer, InterMineObject>(getClass().getName() + " with sequence = "
-                + sequenceNumber + ", model = \"" + model.getName() + "\" getObjectById cache");
+        cache = CacheMapFactory.create("getObjectById", getClass().getName() + " with sequence = "
+                + sequenceNumber + ", model = \"" + model.getName() + "\" getObjectById cache",
+                DEFAULT_OBJECT_CACHE_WEIGHT, OBJECT_WEIGHER);
     }
 
     /**
@@ -192,29 +210,22 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
             LOG.info("getObjectById called " + getObjectOps + " times. Cache hits: "
                     + getObjectHits + ". Prefetches: " + getObjectPrefetches);
         }
-        boolean contains = true;
-        InterMineObject cached = null;
-        synchronized (cache) {
-            cached = cache.get(id);
-            if (cached == null) {
-                contains = cache.containsKey(id);
-            }
-        }
-        if (contains) {
+        // The cache is thread-safe, and may contain null for objects known not to exist. Only
+        // get() is counted in the cache statistics, so a miss is looked up with it only once.
+        InterMineObject cached = cache.get(id);
+        if ((cached != null) || cache.containsKey(id)) {
             getObjectHits++;
             return cached;
         }
         InterMineObject fromDb = internalGetObjectById(id, clazz);
-        synchronized (cache) {
+        // Another thread may have cached the object meanwhile, in which case use that one
+        if (cache.containsKey(id)) {
             cached = cache.get(id);
-            if (cached == null) {
-                contains = cache.containsKey(id);
-            }
-            if (contains) {
+            if (cached != null) {
                 fromDb = cached;
-            } else {
-                cacheObjectById(id, fromDb);
             }
+        } else {
+            cacheObjectById(id, fromDb);
         }
         return fromDb;
     }
@@ -297,18 +308,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void invalidateObjectById(Integer id) {
-        synchronized (cache) {
-            cache.remove(id);
-        }
+        cache.remove(id);
     }
 
     /**
      * {@inheritDoc}
      */
     public Object cacheObjectById(Integer id, InterMineObject obj) {
-        synchronized (cache) {
-            cache.put(id, obj);
-        }
+        cache.put(id, obj);
         return obj;
     }
 
@@ -316,18 +323,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void flushObjectById() {
-        synchronized (cache) {
-            cache.clear();
-        }
+        cache.clear();
     }
 
     /**
      * {@inheritDoc}
      */
     public InterMineObject pilferObjectById(Integer id) {
-        synchronized (cache) {
-            return cache.get(id);
-        }
+        return cache.get(id);
     }
 
     /**
@@ -154,6 +154,18 @@ public interface ObjectStoreWriter extends ObjectStore
      */
     void replaceClob(Clob clob, String text) throws ObjectStoreException;
 
+    /**
+     * Writes one page of a new Clob, so that large text can be written without holding all of it
+     * in memory. The pages must be written in order, starting from zero, and every page except the
+     * last must be Clob.CLOB_PAGE_SIZE characters long.
+     *
+     * @param clob the Clob to write to, which must not have any contents yet
+     * @param page the number of the page
+     * @param text the text of the page
+     * @throws ObjectStoreException if something goes wrong
+     */
+    void writeClobPage(Clob clob, int page, String text) throws ObjectStoreException;
+
     /**
      * Check whether the ObjectStoreWriter is performing a transaction
      *
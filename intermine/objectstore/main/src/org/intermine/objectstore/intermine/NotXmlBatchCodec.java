@@ -0,0 +1,208 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.BatchCodec;
+import org.intermine.objectstore.query.ClobAccess;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.util.SensibleByteArrayOutputStream;
+
+/**
+ * A BatchCodec for batches fetched from an ObjectStoreInterMineImpl. InterMineObjects are
+ * encoded as their id and NotXml, and primitive values directly. When a batch is decoded, objects
+ * already in the getObjectById cache are reused, so that the same object is not instantiated
+ * twice. Batches containing any other kind of value are not encoded.
+ *
+ * @author intermine
+ */
+public class NotXmlBatchCodec implements BatchCodec
+{
+    private static final byte NULL = 0;
+    private static final byte OBJECT = 1;
+    private static final byte STRING = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte SHORT = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte DATE = 9;
+    private static final byte BIG_DECIMAL = 10;
+    private static final byte CLOB = 11;
+
+    private ObjectStoreInterMineImpl os;
+
+    /**
+     * Constructor.
+     *
+     * @param os the ObjectStore that the batches are fetched from
+     */
+    public NotXmlBatchCodec(ObjectStoreInterMineImpl os) {
+        this.os = os;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] encode(List<Object> batch) {
+        try {
+            SensibleByteArrayOutputStream baos = new SensibleByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeInt(batch.size());
+            for (Object row : batch) {
+                if (!(row instanceof ResultsRow<?>)) {
+                    return null;
+                }
+                ResultsRow<?> resultsRow = (ResultsRow<?>) row;
+                out.writeInt(resultsRow.size());
+                for (Object value : resultsRow) {
+                    if (!writeValue(out, value)) {
+                        return null;
+                    }
+                }
+            }
+            out.flush();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            // Can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof InterMineObject) {
+            out.writeByte(OBJECT);
+            out.writeInt(((InterMineObject) value).getId().intValue());
+            writeString(out, NotXmlRenderer.render(value).toString());
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt(((Integer) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong(((Long) value).longValue());
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort(((Short) value).shortValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean(((Boolean) value).booleanValue());
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat(((Float) value).floatValue());
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Double) value).doubleValue());
+        } else if (value.getClass().equals(Date.class)) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, value.toString());
+        } else if (value.getClass().equals(ClobAccess.class)) {
+            out.writeByte(CLOB);
+            writeString(out, ((ClobAccess) value).getDbDescription());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Object> decode(byte[] data) throws ObjectStoreException {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            int rowCount = in.readInt();
+            List<Object> retval = new ArrayList<Object>(rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                int columns = in.readInt();
+                ResultsRow<Object> row = new ResultsRow<Object>();
+                for (int j = 0; j < columns; j++) {
+                    row.add(readValue(in));
+                }
+                retval.add(row);
+            }
+            return retval;
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not decode spilled batch", e);
+        } catch (ClassNotFoundException e) {
+            throw new ObjectStoreException("Could not decode spilled batch", e);
+        }
+    }
+
+    private Object readValue(DataInputStream in) throws IOException, ClassNotFoundException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case OBJECT:
+                Integer id = new Integer(in.readInt());
+                String notXml = readString(in);
+                InterMineObject obj = os.pilferObjectById(id);
+                if (obj == null) {
+                    obj = os.getNotXmlDecoder().parse(notXml);
+                    os.cacheObjectById(id, obj);
+                }
+                return obj;
+            case STRING:
+                return readString(in);
+            case INTEGER:
+                return new Integer(in.readInt());
+            case LONG:
+                return new Long(in.readLong());
+            case SHORT:
+                return new Short(in.readShort());
+            case BOOLEAN:
+                return Boolean.valueOf(in.readBoolean());
+            case FLOAT:
+                return new Float(in.readFloat());
+            case DOUBLE:
+                return new Double(in.readDouble());
+            case DATE:
+                return new Date(in.readLong());
+            case BIG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case CLOB:
+                return ClobAccess.decodeDbDescription(os, readString(in));
+            default:
+                throw new IOException("Unknown value type " + type + " in spilled batch");
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,422 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.intermine.objectstore.intermine.NotXmlParser.DELIM;
+import static org.intermine.objectstore.intermine.NotXmlParser.ENCODED_DELIM;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.cglib.proxy.Factory;
+
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.proxy.ProxyCollection;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.objectstore.query.ClobAccess;
+import org.intermine.util.DynamicBean;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Decodes NotXml into objects in a single pass over the characters, without splitting it into
+ * an array of Strings first. For each combination of classes, a ClassDecoder is built once that
+ * holds a decoder for every field, so field names are matched against the NotXml in place and
+ * numeric values are parsed directly from the characters. Only String values (and values of the
+ * rarer types such as Double and BigDecimal) are copied out of the NotXml.
+ * <p>
+ * The resulting objects are identical to those produced by NotXmlParser. There is one instance of
+ * this class for each ObjectStore, as references and collections are created as proxies into it.
+ *
+ * @author intermine
+ */
+public class NotXmlDecoder
+{
+    private static final int DELIM_LENGTH = DELIM.length();
+    private static final char ENCODED_DELIM_CHAR = ENCODED_DELIM.charAt(0);
+
+    // Type codes of attribute fields
+    private static final int STRING = 0;
+    private static final int INT = 1;
+    private static final int LONG = 2;
+    private static final int SHORT = 3;
+    private static final int BOOLEAN = 4;
+    private static final int DATE = 5;
+    private static final int CLOB = 6;
+    private static final int OTHER = 7;
+    private static final int REFERENCE = 8;
+
+    private final ObjectStoreInterMineImpl os;
+    private final boolean fetchFromInterMineObject;
+    private final Map<String, ClassDecoder> classDecoders
+        = new ConcurrentHashMap<String, ClassDecoder>();
+    // The most recently used ClassDecoder - results are usually runs of the same class
+    private volatile ClassDecoder lastDecoder = null;
+
+    /**
+     * Constructor.
+     *
+     * @param os the ObjectStore that the objects are read from
+     */
+    public NotXmlDecoder(ObjectStoreInterMineImpl os) {
+        this.os = os;
+        this.fetchFromInterMineObject = os.getSchema().isFetchFromInterMineObject();
+    }
+
+    /**
+     * Decodes the given NotXml into an object.
+     *
+     * @param notXml the NotXml
+     * @return an InterMineObject
+     * @throws ClassNotFoundException if a class named in the NotXml cannot be found
+     */
+    public InterMineObject parse(CharSequence notXml) throws ClassNotFoundException {
+        int length = notXml.length();
+        int classesStart = DELIM_LENGTH;
+        int classesEnd = indexOfDelim(notXml, classesStart);
+        if (classesEnd == -1) {
+            classesEnd = length;
+        }
+        ClassDecoder decoder = lastDecoder;
+        if ((decoder == null) || !decoder.matches(notXml, classesStart, classesEnd)) {
+            String classes = notXml.subSequence(classesStart, classesEnd).toString();
+            decoder = classDecoders.get(classes);
+            if (decoder == null) {
+                decoder = new ClassDecoder(classes);
+                classDecoders.put(classes, decoder);
+            }
+            lastDecoder = decoder;
+        }
+
+        InterMineObject retval = (InterMineObject) DynamicUtil.createObject(decoder.clazz);
+        Map<String, Object> valueMap = null;
+        if (retval instanceof Factory) {
+            valueMap = ((DynamicBean) ((Factory) retval).getCallback(0)).getMap();
+        }
+
+        int pos = classesEnd;
+        while (pos < length) {
+            int nameStart = pos + DELIM_LENGTH;
+            int nameEnd = indexOfDelim(notXml, nameStart);
+            if (nameEnd == -1) {
+                throw new IllegalArgumentException("Field name without value in NotXml: "
+                        + notXml);
+            }
+            FieldDecoder field = decoder.getField(notXml, nameStart, nameEnd);
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown field "
+                        + notXml.subSequence(nameStart, nameEnd) + " in NotXml for "
+                        + decoder.clazz);
+            }
+            int valueStart = nameEnd + DELIM_LENGTH;
+            int valueEnd = indexOfDelim(notXml, valueStart);
+            if (valueEnd == -1) {
+                valueEnd = length;
+            }
+            Object value;
+            if ((field.type == STRING) && (valueEnd < length - DELIM_LENGTH)
+                    && (notXml.charAt(valueEnd + DELIM_LENGTH) == ENCODED_DELIM_CHAR)) {
+                // The String contains the delimiter, which is followed by the encoding character
+                StringBuilder string = new StringBuilder();
+                string.append(notXml, valueStart, valueEnd);
+                while ((valueEnd < length - DELIM_LENGTH)
+                        && (notXml.charAt(valueEnd + DELIM_LENGTH) == ENCODED_DELIM_CHAR)) {
+                    string.append(DELIM);
+                    valueStart = valueEnd + DELIM_LENGTH + 1;
+                    valueEnd = indexOfDelim(notXml, valueStart);
+                    if (valueEnd == -1) {
+                        valueEnd = length;
+                    }
+                    string.append(notXml, valueStart, valueEnd);
+                }
+                value = string.toString();
+            } else {
+                value = field.decode(notXml, valueStart, valueEnd);
+            }
+            if (valueMap == null) {
+                retval.setFieldValue(field.name, value);
+            } else {
+                valueMap.put(field.name, value);
+            }
+            pos = valueEnd;
+        }
+
+        for (int i = 0; i < decoder.collectionNames.length; i++) {
+            ProxyCollection<Object> lazyColl = new ProxyCollection<Object>(os, retval,
+                    decoder.collectionNames[i], decoder.collectionTypes[i]);
+            if (valueMap == null) {
+                retval.setFieldValue(decoder.collectionNames[i], lazyColl);
+            } else {
+                valueMap.put(decoder.collectionNames[i], lazyColl);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the position of the next delimiter at or after the given position.
+     *
+     * @param s the CharSequence to search
+     * @param from the position to start from
+     * @return the position of the delimiter, or -1 if there is none
+     */
+    private static int indexOfDelim(CharSequence s, int from) {
+        if (s instanceof String) {
+            return ((String) s).indexOf(DELIM, from);
+        }
+        char first = DELIM.charAt(0);
+        int last = s.length() - DELIM_LENGTH;
+        for (int i = from; i <= last; i++) {
+            if (s.charAt(i) == first) {
+                int j = 1;
+                while ((j < DELIM_LENGTH) && (s.charAt(i + j) == DELIM.charAt(j))) {
+                    j++;
+                }
+                if (j == DELIM_LENGTH) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(CharSequence s, int start, int end, String other) {
+        int length = end - start;
+        if (length != other.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(start + i) != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int regionHash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    private static long parseLong(CharSequence s, int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("Empty number in NotXml");
+        }
+        boolean negative = false;
+        int i = start;
+        char c = s.charAt(i);
+        if ((c == '-') || (c == '+')) {
+            negative = (c == '-');
+            i++;
+            if (i == end) {
+                throw new NumberFormatException("Invalid number " + s.subSequence(start, end));
+            }
+        }
+        // Accumulated negatively, as Long.MIN_VALUE has no positive counterpart
+        long retval = 0;
+        for (; i < end; i++) {
+            int digit = s.charAt(i) - '0';
+            if ((digit < 0) || (digit > 9)) {
+                throw new NumberFormatException("Invalid number " + s.subSequence(start, end));
+            }
+            if ((retval < Long.MIN_VALUE / 10) || (retval * 10 < Long.MIN_VALUE + digit)) {
+                throw new NumberFormatException("Number out of range "
+                        + s.subSequence(start, end));
+            }
+            retval = retval * 10 - digit;
+        }
+        if (!negative && (retval == Long.MIN_VALUE)) {
+            throw new NumberFormatException("Number out of range " + s.subSequence(start, end));
+        }
+        return negative ? retval : -retval;
+    }
+
+    private static int parseInt(CharSequence s, int start, int end) {
+        long retval = parseLong(s, start, end);
+        if ((retval < Integer.MIN_VALUE) || (retval > Integer.MAX_VALUE)) {
+            throw new NumberFormatException("Number out of range for an int "
+                    + s.subSequence(start, end));
+        }
+        return (int) retval;
+    }
+
+    private static short parseShort(CharSequence s, int start, int end) {
+        long retval = parseLong(s, start, end);
+        if ((retval < Short.MIN_VALUE) || (retval > Short.MAX_VALUE)) {
+            throw new NumberFormatException("Number out of range for a short "
+                    + s.subSequence(start, end));
+        }
+        return (short) retval;
+    }
+
+    /**
+     * The precompiled decoding information for one combination of classes.
+     */
+    private class ClassDecoder
+    {
+        final String classes;
+        final Class<? extends FastPathObject> clazz;
+        // Open-addressed hash table of the fields, keyed by the name as written in the NotXml
+        final FieldDecoder[] fields;
+        final String[] collectionNames;
+        final Class<?>[] collectionTypes;
+
+        ClassDecoder(String classes) throws ClassNotFoundException {
+            this.classes = classes;
+            Set<Class<?>> classSet = new HashSet<Class<?>>();
+            if (!"".equals(classes)) {
+                for (String className : classes.split(" ")) {
+                    classSet.add(Class.forName(className));
+                }
+            }
+            clazz = os.composeClass(classSet);
+
+            Map<String, FieldDescriptor> descriptors = os.getModel()
+                .getFieldDescriptorsForClass(clazz);
+            Map<String, TypeUtil.FieldInfo> fieldInfos = TypeUtil.getFieldInfos(clazz);
+            List<FieldDecoder> decoders = new ArrayList<FieldDecoder>();
+            for (Map.Entry<String, TypeUtil.FieldInfo> entry : fieldInfos.entrySet()) {
+                String fieldName = entry.getKey().intern();
+                FieldDescriptor descriptor = descriptors.get(fieldName);
+                if ((descriptor != null) && descriptor.isCollection()) {
+                    continue;
+                }
+                if ((descriptor != null) && descriptor.isReference()) {
+                    Class<? extends InterMineObject> refType = InterMineObject.class;
+                    if (!fetchFromInterMineObject) {
+                        @SuppressWarnings("unchecked")
+                        Class<? extends InterMineObject> tmpType =
+                            (Class<? extends InterMineObject>) ((ReferenceDescriptor) descriptor)
+                            .getReferencedClassDescriptor().getType();
+                        refType = tmpType;
+                    }
+                    decoders.add(new FieldDecoder("r" + fieldName, fieldName, REFERENCE,
+                                refType));
+                } else {
+                    Class<?> type = entry.getValue().getType();
+                    decoders.add(new FieldDecoder("a" + fieldName, fieldName, typeCode(type),
+                                type));
+                }
+            }
+            int size = Integer.highestOneBit(Math.max(1, decoders.size()) * 4);
+            fields = new FieldDecoder[size];
+            for (FieldDecoder decoder : decoders) {
+                int slot = decoder.key.hashCode() & (size - 1);
+                while (fields[slot] != null) {
+                    slot = (slot + 1) & (size - 1);
+                }
+                fields[slot] = decoder;
+            }
+
+            Map<String, Class<?>> collections = os.getModel().getCollectionsForClass(clazz);
+            collectionNames = new String[collections.size()];
+            collectionTypes = new Class<?>[collections.size()];
+            int i = 0;
+            for (Map.Entry<String, Class<?>> entry : collections.entrySet()) {
+                collectionNames[i] = entry.getKey().intern();
+                collectionTypes[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        boolean matches(CharSequence s, int start, int end) {
+            return regionEquals(s, start, end, classes);
+        }
+
+        FieldDecoder getField(CharSequence s, int start, int end) {
+            int slot = regionHash(s, start, end) & (fields.length - 1);
+            FieldDecoder candidate;
+            while ((candidate = fields[slot]) != null) {
+                if (regionEquals(s, start, end, candidate.key)) {
+                    return candidate;
+                }
+                slot = (slot + 1) & (fields.length - 1);
+            }
+            return null;
+        }
+    }
+
+    private static int typeCode(Class<?> type) {
+        if (String.class.equals(type)) {
+            return STRING;
+        } else if (Integer.class.equals(type) || Integer.TYPE.equals(type)) {
+            return INT;
+        } else if (Long.class.equals(type) || Long.TYPE.equals(type)) {
+            return LONG;
+        } else if (Short.class.equals(type) || Short.TYPE.equals(type)) {
+            return SHORT;
+        } else if (Boolean.class.equals(type) || Boolean.TYPE.equals(type)) {
+            return BOOLEAN;
+        } else if (Date.class.equals(type)) {
+            return DATE;
+        } else if (ClobAccess.class.equals(type)) {
+            return CLOB;
+        }
+        return OTHER;
+    }
+
+    /**
+     * The precompiled decoding information for one field of a class.
+     */
+    private class FieldDecoder
+    {
+        // The name as written in the NotXml, with the "a" or "r" prefix
+        final String key;
+        final String name;
+        final int type;
+        final Class<?> fieldClass;
+
+        FieldDecoder(String key, String name, int type, Class<?> fieldClass) {
+            this.key = key;
+            this.name = name;
+            this.type = type;
+            this.fieldClass = fieldClass;
+        }
+
+        @SuppressWarnings("unchecked")
+        Object decode(CharSequence s, int start, int end) {
+            switch (type) {
+                case STRING:
+                    return s.subSequence(start, end).toString();
+                case INT:
+                    return Integer.valueOf(parseInt(s, start, end));
+                case LONG:
+                    return Long.valueOf(parseLong(s, start, end));
+                case SHORT:
+                    return Short.valueOf(parseShort(s, start, end));
+                case BOOLEAN:
+                    return Boolean.valueOf(regionEquals(s, start, end, "true"));
+                case DATE:
+                    return new Date(parseLong(s, start, end));
+                case CLOB:
+                    return ClobAccess.decodeDbDescription(os, s.subSequence(start, end)
+                            .toString());
+                case REFERENCE:
+                    return new ProxyReference(os, Integer.valueOf(parseInt(s, start, end)),
+                            (Class<? extends InterMineObject>) fieldClass);
+                default:
+                    return TypeUtil.stringToObject(fieldClass, s.subSequence(start, end)
+                            .toString());
+            }
+        }
+    }
+}
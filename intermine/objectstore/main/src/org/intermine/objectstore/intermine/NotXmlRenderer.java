@@ -20,6 +20,7 @@ import java.util.Map;
 import org.intermine.metadata.TypeUtil;
 import org.intermine.metadata.TypeUtil.FieldInfo;
 import org.intermine.metadata.Util;
+import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.StringConstructor;
 import org.intermine.objectstore.query.ClobAccess;
@@ -59,7 +60,12 @@ public final class NotXmlRenderer
                 // If field, value is field value
                 // If collection, no element output
                 // Element is not output if the value is null
-                Object value = TypeUtil.getFieldProxy(obj, fieldName);
+                Object value;
+                if (obj instanceof FastPathObject) {
+                    value = ((FastPathObject) obj).getFieldProxy(fieldName);
+                } else {
+                    value = TypeUtil.getFieldProxy(obj, fieldName);
+                }
 
                 if ((value != null) && (!Collection.class.isAssignableFrom(value.getClass()))) {
                     // It is not null or a collection.
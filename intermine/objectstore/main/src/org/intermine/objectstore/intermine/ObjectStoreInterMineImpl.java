@@ -35,6 +35,9 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.ClassDescriptor;
@@ -43,6 +46,7 @@ import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.MetaDataException;
 import org.intermine.metadata.Model;
 import org.intermine.metadata.TypeUtil;
+import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
 import org.intermine.modelproduction.MetadataManager;
 import org.intermine.objectstore.DataChangedException;
@@ -51,6 +55,7 @@ import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreQueryDurationException;
 import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.BatchSpillStore;
 import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.Constraint;
 import org.intermine.objectstore.query.ConstraintHelper;
@@ -90,7 +95,11 @@ import org.intermine.sql.query.ExplainResult;
 import org.intermine.sql.query.PostgresExplainResult;
 import org.intermine.sql.writebatch.Batch;
 import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
+import org.intermine.util.BoundedCacheMap;
 import org.intermine.util.CacheMap;
+import org.intermine.util.CacheMapFactory;
+import org.intermine.util.CompositeClassGenerator;
+import org.intermine.util.DynamicUtil;
 import org.intermine.util.ShutdownHook;
 import org.intermine.util.Shutdownable;
 
@@ -131,8 +140,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected int sequenceBase = 0;
     protected int sequenceOffset = SEQUENCE_MULTIPLE;
     protected static final int SEQUENCE_MULTIPLE = 1000000;
+    protected static final int DEFAULT_RESULTS_CACHE_SIZE = 10000;
     protected boolean logExplains = false;
     protected boolean disableResultsCache = false;
+    protected boolean compositeClasses = false;
 
     // don't use a table to represent bags if the bag is smaller than this value
     protected int minBagTableSize = -1;
@@ -147,11 +158,23 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected Map<Query, Integer> goFasterCountMap = new IdentityHashMap<Query, Integer>();
     protected ReferenceQueue<String> bagTablesToRemove = new ReferenceQueue<String>();
     protected String description;
-    protected Map<String, Results> resultsCache = new CacheMap<String, Results>();
-    protected Map<String, SingletonResults> singletonResultsCache
-        = new CacheMap<String, SingletonResults>();
-    protected Map<String, Map<Integer, ResultsBatches>> batchesCache
-        = new CacheMap<String, Map<Integer, ResultsBatches>>();
+    // Bounded versions of these caches are limited by number of entries - the memory is held by
+    // the batches of each ResultsBatches, which are bounded separately.
+    protected Map<String, Results> resultsCache = CacheMapFactory.create("results",
+            "Results cache", DEFAULT_RESULTS_CACHE_SIZE, BoundedCacheMap.unitWeigher());
+    protected Map<String, SingletonResults> singletonResultsCache = CacheMapFactory.create(
+            "singletonResults", "SingletonResults cache", DEFAULT_RESULTS_CACHE_SIZE,
+            BoundedCacheMap.unitWeigher());
+    protected Map<String, Map<Integer, ResultsBatches>> batchesCache = CacheMapFactory.create(
+            "batches", "ResultsBatches cache", DEFAULT_RESULTS_CACHE_SIZE,
+            BoundedCacheMap.unitWeigher());
+
+    protected boolean spillEnabled = BatchSpillStore.isEnabled();
+    protected NotXmlBatchCodec spillCodec = new NotXmlBatchCodec(this);
+    private volatile NotXmlDecoder notXmlDecoder = null;
+    // Generates the composite classes of the database in the background - null if not started
+    private ExecutorService compositeClassPreloader = null;
+    private volatile Statement preloadStatement = null;
 
     private static final String[] LOG_TABLE_COLUMNS = new String[] {"timestamp", "optimise",
         "estimated", "execute", "permitted", "convert", "iql", "sql"};
@@ -226,6 +249,21 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return schema;
     }
 
+    /**
+     * Returns the NotXmlDecoder used to create objects read from this ObjectStore.
+     *
+     * @return a NotXmlDecoder
+     */
+    public NotXmlDecoder getNotXmlDecoder() {
+        NotXmlDecoder decoder = notXmlDecoder;
+        if (decoder == null) {
+            // Harmless if two threads do this at once - they are equivalent
+            decoder = new NotXmlDecoder(this);
+            notXmlDecoder = decoder;
+        }
+        return decoder;
+    }
+
     /**
      * Returns the Database used by this ObjectStore
      *
@@ -347,6 +385,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         String logExplainsString = props.getProperty("logExplains");
         String logBeforeExecuteString = props.getProperty("logBeforeExecute");
         String disableResultsCacheString = props.getProperty("disableResultsCache");
+        String compositeClassesString = props.getProperty("compositeClasses");
 
         synchronized (instances) {
             ObjectStoreInterMineImpl os = instances.get(osAlias);
@@ -520,6 +559,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 if ("true".equals(disableResultsCacheString)) {
                     os.setDisableResultsCache(true);
                 }
+                if ("true".equals(compositeClassesString)) {
+                    os.setCompositeClasses(true);
+                    os.preloadCompositeClasses();
+                }
                 instances.put(osAlias, os);
             }
             return os;
@@ -668,6 +711,131 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return disableResultsCache;
     }
 
+    /**
+     * Sets the compositeClasses configuration option. If true, objects made of more than one class
+     * are created as instances of classes generated by CompositeClassGenerator rather than as
+     * DynamicBeans.
+     *
+     * @param compositeClasses a boolean
+     */
+    public void setCompositeClasses(boolean compositeClasses) {
+        this.compositeClasses = compositeClasses;
+    }
+
+    /**
+     * Gets the compositeClasses configuration option.
+     *
+     * @return a boolean
+     */
+    public boolean getCompositeClasses() {
+        return compositeClasses;
+    }
+
+    /**
+     * Returns the class to instantiate for objects made of the given classes, according to the
+     * compositeClasses configuration option.
+     *
+     * @param classes a Set of classes
+     * @return a Class
+     */
+    public Class<? extends FastPathObject> composeClass(Set<Class<?>> classes) {
+        if (compositeClasses) {
+            return CompositeClassGenerator.composeClass(classes);
+        }
+        return DynamicUtil.composeClass(classes);
+    }
+
+    /**
+     * Generates classes for all the combinations of classes of objects in the database, so that
+     * the first objects read do not pay for the generation. This runs in a background daemon
+     * thread, as it has to read the class column of the whole InterMineObject table, and is
+     * stopped if the ObjectStore is closed first.
+     */
+    public synchronized void preloadCompositeClasses() {
+        final ClassDescriptor cld = getModel().getClassDescriptorByName(InterMineObject.class
+                .getName());
+        if ((cld == null) || schema.isFlatMode(InterMineObject.class)
+                || (compositeClassPreloader != null)) {
+            return;
+        }
+        compositeClassPreloader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "CompositeClassPreloader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        compositeClassPreloader.execute(new Runnable() {
+            @Override
+            public void run() {
+                String sql = "SELECT DISTINCT class FROM " + DatabaseUtil.getTableName(cld);
+                Connection c = null;
+                Statement s = null;
+                ResultSet r = null;
+                try {
+                    c = getConnection();
+                    s = c.createStatement();
+                    preloadStatement = s;
+                    r = s.executeQuery(sql);
+                    int count = 0;
+                    while (r.next() && !Thread.currentThread().isInterrupted()) {
+                        String classNames = r.getString(1);
+                        if ((classNames != null) && (classNames.indexOf(' ') != -1)) {
+                            Set<Class<?>> classes = new HashSet<Class<?>>();
+                            for (String className : classNames.split(" ")) {
+                                classes.add(Class.forName(className));
+                            }
+                            CompositeClassGenerator.composeClass(classes);
+                            count++;
+                        }
+                    }
+                    LOG.info("Preloaded " + count + " composite classes for " + description);
+                } catch (SQLException e) {
+                    LOG.warn("Could not read classes to preload for " + description, e);
+                } catch (ClassNotFoundException e) {
+                    LOG.warn("Could not preload composite classes for " + description, e);
+                } finally {
+                    preloadStatement = null;
+                    if (r != null) {
+                        try {
+                            r.close();
+                        } catch (SQLException e) {
+                            // ignore
+                        }
+                    }
+                    if (s != null) {
+                        try {
+                            s.close();
+                        } catch (SQLException e) {
+                            // ignore
+                        }
+                    }
+                    releaseConnection(c);
+                }
+            }
+        });
+        // No more tasks - the thread exits when the preload is finished
+        compositeClassPreloader.shutdown();
+    }
+
+    /**
+     * Stops the preloading of composite classes, if it is still running.
+     */
+    private synchronized void stopPreloadingCompositeClasses() {
+        if (compositeClassPreloader != null) {
+            compositeClassPreloader.shutdownNow();
+            Statement s = preloadStatement;
+            if (s != null) {
+                try {
+                    s.cancel();
+                } catch (SQLException e) {
+                    LOG.debug("Could not cancel composite class preload for " + description, e);
+                }
+            }
+        }
+    }
+
     /**
      * Allows the log table to be flushed, guaranteeing that all log entries are committed to the
      * database.
@@ -770,6 +938,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                         retval = new Results(batch, optimise, explain, prefetch);
                     } else {
                         retval = super.execute(q, batchSize, optimise, explain, prefetch);
+                        enableSpill(retval.getResultsBatches());
                         batches.put(new Integer(batchSize), retval.getResultsBatches());
                     }
                     resultsCache.put(cacheKey, retval);
@@ -820,6 +989,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                         retval = new SingletonResults(batch, optimise, explain, prefetch);
                     } else {
                         retval = super.executeSingleton(q, batchSize, optimise, explain, prefetch);
+                        enableSpill(retval.getResultsBatches());
                         batches.put(new Integer(batchSize), retval.getResultsBatches());
                     }
                     singletonResultsCache.put(cacheKey, retval);
@@ -869,12 +1039,25 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             }
             if (batch != null) {
                 batch = batch.makeWithDifferentBatchSize(batchSize);
+                enableSpill(batch);
                 batches.put(new Integer(batchSize), batch);
             }
         }
         return batch;
     }
 
+    /**
+     * Makes a ResultsBatches object write batches evicted from memory to a spill store of its
+     * own, if spilling is configured.
+     *
+     * @param batch the ResultsBatches
+     */
+    private void enableSpill(ResultsBatches batch) {
+        if (spillEnabled) {
+            batch.enableSpill(spillCodec);
+        }
+    }
+
     /*
      * Now, we need some query cancellation mechanism. So, here is how it will work:
      * 1. A thread calls registerRequest(Object requestId), which creates an entry in a lookup
@@ -1064,6 +1247,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 + statsEstTime + ", Execute: " + statsExeTime + ", Results Convert: "
                 + statsConTime);
 
+        stopPreloadingCompositeClasses();
         if (logTableBatch != null) {
             try {
                 logTableBatch.close(logTableConnection);
@@ -1828,7 +2012,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     throw new ObjectStoreException("More than one object in the database has this"
                             + " primary key");
                 }
-                InterMineObject retval = NotXmlParser.parse(currentColumn, this);
+                InterMineObject retval = getNotXmlDecoder().parse(currentColumn);
                 //if (currentColumn.length() < CACHE_LARGEST_OBJECT) {
                 cacheObjectById(retval.getId(), retval);
                 //} else {
@@ -2231,7 +2415,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     }
                     synchronized (goFasterMap) {
                         goFasterMap.put(q, pts);
-                        goFasterCacheMap.put(q, new OptimiserCache());
+                        goFasterCacheMap.put(q, new OptimiserCache("goFasterOptimiserCache"));
                         goFasterCountMap.put(q, new Integer(1));
                     }
                 } catch (SQLException e) {
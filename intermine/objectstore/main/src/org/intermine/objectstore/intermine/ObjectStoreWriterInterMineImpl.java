@@ -38,6 +38,7 @@ import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.metadata.TypeUtil;
 import org.intermine.metadata.Util;
+import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.StringConstructor;
 import org.intermine.objectstore.DataChangedException;
@@ -49,6 +50,7 @@ import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.ClobAccess;
 import org.intermine.objectstore.query.Constraint;
 import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.PackedNucleotides;
 import org.intermine.objectstore.query.PendingClob;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
@@ -1005,8 +1007,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                 : TypeUtil.getFieldInfos(o.getClass()).entrySet()) {
             TypeUtil.FieldInfo fieldInfo = fieldEntry.getValue();
             if (InterMineObject.class.isAssignableFrom(fieldInfo.getType())) {
-                InterMineObject obj = (InterMineObject) TypeUtil.getFieldProxy(o,
-                        fieldInfo.getName());
+                InterMineObject obj = (InterMineObject) o.getFieldProxy(fieldInfo.getName());
                 if ((obj != null) && (obj.getId() == null)) {
                     obj.setId(getSerialWithConnection(c));
                 }
@@ -1046,14 +1047,21 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                 : TypeUtil.getFieldInfos(o.getClass()).entrySet()) {
             TypeUtil.FieldInfo fieldInfo = fieldEntry.getValue();
             if (ClobAccess.class.isAssignableFrom(fieldInfo.getType())) {
-                ClobAccess ca = (ClobAccess) TypeUtil.getFieldValue(o, fieldInfo.getName());
+                ClobAccess ca;
+                if (o instanceof FastPathObject) {
+                    ca = (ClobAccess) ((FastPathObject) o).getFieldValue(fieldInfo.getName());
+                } else {
+                    ca = (ClobAccess) TypeUtil.getFieldValue(o, fieldInfo.getName());
+                }
                 if (ca instanceof PendingClob) {
                     // We can't call createClob here - we already have a connection, and
                     // we must use that one.
                     Clob clob = new Clob(getSerialWithConnection(c));
-                    replaceClobWithConnection(c, clob, ((PendingClob) ca)
-                            .toString());
-                    DynamicUtil.setFieldValue(o, fieldInfo.getName(), new ClobAccess(this, clob));
+                    PendingClob pending = (PendingClob) ca;
+                    String text = pending.toString();
+                    replaceClobWithConnection(c, clob, text, pending.isPacked());
+                    DynamicUtil.setFieldValue(o, fieldInfo.getName(), new ClobAccess(this, clob,
+                                text.length(), pending.isPacked()));
                 }
             }
         }
@@ -1319,6 +1327,21 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
      * @throws ObjectStoreException if something goes wrong
      */
     public void replaceClobWithConnection(Connection c, Clob clob, String text)
+        throws ObjectStoreException {
+        replaceClobWithConnection(c, clob, text, false);
+    }
+
+    /**
+     * Replaces the contents of the given Clob with the given String, optionally storing each page
+     * as PackedNucleotides. A ClobAccess for a packed Clob must be constructed with packed set.
+     *
+     * @param c a Connection
+     * @param clob the Clob to write to
+     * @param text the text to write to the Clob
+     * @param packed true to pack the pages
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public void replaceClobWithConnection(Connection c, Clob clob, String text, boolean packed)
         throws ObjectStoreException {
         boolean wasInTransaction = isInTransactionWithConnection(c);
         if (!wasInTransaction) {
@@ -1330,9 +1353,12 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             batch.deleteRow(c, CLOB_TABLE_NAME, CLOBID_COLUMN, clobId);
             int length = text.length();
             for (int i = 0; i < length; i += CLOB_PAGE_SIZE) {
+                String page = text.substring(i, Math.min(i + CLOB_PAGE_SIZE, length));
+                if (packed) {
+                    page = PackedNucleotides.encode(page);
+                }
                 batch.addRow(c, CLOB_TABLE_NAME, clobId, CLOB_COLUMNS, new Object[] {clobId,
-                    new Integer(i / CLOB_PAGE_SIZE), text.substring(i, Math.min(i + CLOB_PAGE_SIZE,
-                            length))});
+                    new Integer(i / CLOB_PAGE_SIZE), page});
             }
             tablesAltered.add(clob);
             tablesAltered.add(CLOB_TABLE_NAME);
@@ -1350,6 +1376,66 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeClobPage(Clob clob, int page, String text) throws ObjectStoreException {
+        try {
+            Connection c = null;
+            try {
+                c = getConnection();
+                writeClobPageWithConnection(c, clob, page, text);
+            } finally {
+                releaseConnection(c);
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not get connection to database", e);
+        }
+    }
+
+    /**
+     * Writes one page of a new Clob. The page is added to the batch, so the text is sent to the
+     * database along with the rest of the batch.
+     *
+     * @param c a Connection
+     * @param clob the Clob to write to
+     * @param page the number of the page
+     * @param text the text of the page, which must be CLOB_PAGE_SIZE characters long unless this
+     * is the last page
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public void writeClobPageWithConnection(Connection c, Clob clob, int page, String text)
+        throws ObjectStoreException {
+        if (text.length() > CLOB_PAGE_SIZE) {
+            throw new IllegalArgumentException("Clob page is longer than " + CLOB_PAGE_SIZE
+                    + " characters");
+        }
+        boolean wasInTransaction = isInTransactionWithConnection(c);
+        if (!wasInTransaction) {
+            beginTransactionWithConnection(c);
+        }
+
+        try {
+            Integer clobId = new Integer(clob.getClobId());
+            batch.addRow(c, CLOB_TABLE_NAME, clobId, CLOB_COLUMNS, new Object[] {clobId,
+                new Integer(page), text});
+            tablesAltered.add(clob);
+            tablesAltered.add(CLOB_TABLE_NAME);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Error writing clob page", e);
+        } finally {
+            if (!wasInTransaction) {
+                try {
+                    commitTransactionWithConnection(c);
+                } catch (ObjectStoreException e) {
+                    abortTransactionWithConnection(c);
+                    throw e;
+                }
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -132,7 +132,7 @@ public final class ResultsConverter
                                         objectField = sqlResults.getString(alias);
                                         if (objectField != null) {
                                             currentColumn = objectField;
-                                            obj = NotXmlParser.parse(objectField, os);
+                                            obj = os.getNotXmlDecoder().parse(objectField);
                                             //if (objectField.length() < ObjectStoreInterMineImpl
                                             //        .CACHE_LARGEST_OBJECT) {
                                             os.cacheObjectById(((InterMineObject) obj).getId(),
@@ -299,7 +299,7 @@ public final class ResultsConverter
                 }
             }
         }
-        FastPathObject retval = DynamicUtil.createObject(classes);
+        FastPathObject retval = DynamicUtil.createObject(os.composeClass(classes));
         Map<String, FieldDescriptor> fields = os.getModel().getFieldDescriptorsForClass(retval
                 .getClass());
         for (Map.Entry<String, FieldDescriptor> entry : fields.entrySet()) {
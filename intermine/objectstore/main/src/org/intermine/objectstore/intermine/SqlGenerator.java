@@ -35,7 +35,9 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.apache.torque.engine.database.model.Domain;
@@ -96,8 +98,10 @@ import org.intermine.objectstore.query.iql.IqlQuery;
 import org.intermine.sql.Database;
 import org.intermine.sql.DatabaseUtil;
 import org.intermine.util.AlwaysMap;
+import org.intermine.util.CacheStatistics;
 import org.intermine.util.CombinedIterator;
 import org.intermine.util.DynamicUtil;
+import org.intermine.util.WeakKeyBoundedCacheMap;
 
 /**
  * Code to generate an sql statement from a Query object.
@@ -131,10 +135,28 @@ public final class SqlGenerator
     /** subquery only for counting. SELECT COUNT(*) AS ... FROM (subquery) **/
     public static final int QUERY_FOR_COUNTING = 7;
 
-    protected static Map<DatabaseSchema, Map<Query, CacheEntry>> sqlCache
-        = new WeakHashMap<DatabaseSchema, Map<Query, CacheEntry>>();
-    protected static Map<DatabaseSchema, Map<Query, Set<Object>>> tablenamesCache
-        = new WeakHashMap<DatabaseSchema, Map<Query, Set<Object>>>();
+    /** The maximum number of queries for which SQL is cached, per DatabaseSchema */
+    public static final int SQL_CACHE_SIZE = 1000;
+    /** The maximum number of queries for which table names are cached, per DatabaseSchema */
+    public static final int TABLENAMES_CACHE_SIZE = 1000;
+    /** The name of the statistics of the SQL caches */
+    public static final String SQL_CACHE_NAME = "sqlGenerator.sql";
+    /** The name of the statistics of the table names caches */
+    public static final String TABLENAMES_CACHE_NAME = "sqlGenerator.tablenames";
+
+    private static final CacheStatistics SQL_CACHE_STATS =
+        CacheStatistics.getInstance(SQL_CACHE_NAME);
+    private static final CacheStatistics TABLENAMES_CACHE_STATS =
+        CacheStatistics.getInstance(TABLENAMES_CACHE_NAME);
+    private static final AtomicLong TABLENAMES_FIND_TIME = new AtomicLong();
+    private static final AtomicLong TABLENAMES_FIND_COUNT = new AtomicLong();
+
+    // The Query keys are held weakly, so that a cached query never keeps the contents of its
+    // BagConstraints alive after everything else has finished with it
+    protected static ConcurrentMap<DatabaseSchema, Map<Query, CacheEntry>> sqlCache
+        = new ConcurrentHashMap<DatabaseSchema, Map<Query, CacheEntry>>();
+    protected static ConcurrentMap<DatabaseSchema, Map<Query, Set<Object>>> tablenamesCache
+        = new ConcurrentHashMap<DatabaseSchema, Map<Query, Set<Object>>>();
 
     /**
      * Generates a query to retrieve a single object from the database, by id.
@@ -247,8 +269,9 @@ public final class SqlGenerator
                         // Now we need to work out if this field is a primitive type or a object
                         // type (that can accept null values).
                         Constraint c = getOffsetConstraint(q, firstOrderBy, value, schema);
+                        long generateStart = System.currentTimeMillis();
                         String sql = generate(q, schema, db, c, QUERY_NORMAL, bagTableNames);
-                        cacheEntry.setLast(start, sql);
+                        cacheEntry.setLast(start, sql, System.currentTimeMillis() - generateStart);
                     }
                     SortedMap<Integer, String> headMap = cacheEntry.getCached()
                         .headMap(new Integer(start + 1));
@@ -268,9 +291,11 @@ public final class SqlGenerator
                 // Now we need to work out if this field is a primitive type or a object
                 // type (that can accept null values).
                 Constraint offsetConstraint = getOffsetConstraint(q, firstOrderByO, value, schema);
+                long generateStart = System.currentTimeMillis();
                 String sql = generate(q, schema, db, offsetConstraint, QUERY_NORMAL, bagTableNames);
                 if (cacheEntry == null) {
-                    cacheEntry = new CacheEntry(start, sql);
+                    cacheEntry = new CacheEntry(start, sql,
+                            System.currentTimeMillis() - generateStart);
                     schemaCache.put(q, cacheEntry);
                 }
                 cacheEntry.getCached().put(new Integer(start), sql);
@@ -391,6 +416,7 @@ public final class SqlGenerator
                 }
                 if (lastKey != null) {
                     int offset = lastKey.intValue();
+                    SQL_CACHE_STATS.recordTimeSaved(cacheEntry.getGenerateTime());
                     if ((offset > cacheEntry.getLastOffset())
                             || (cacheEntry.getLastOffset() > start)) {
                         return cacheEntry.getCached().get(lastKey)
@@ -423,14 +449,16 @@ public final class SqlGenerator
      * @return a Map
      */
     private static Map<Query, CacheEntry> getCacheForSchema(DatabaseSchema schema) {
-        synchronized (sqlCache) {
-            Map<Query, CacheEntry> retval = sqlCache.get(schema);
+        Map<Query, CacheEntry> retval = sqlCache.get(schema);
+        if (retval == null) {
+            Map<Query, CacheEntry> newCache = new WeakKeyBoundedCacheMap<Query, CacheEntry>(
+                    SQL_CACHE_NAME, SQL_CACHE_SIZE);
+            retval = sqlCache.putIfAbsent(schema, newCache);
             if (retval == null) {
-                retval = Collections.synchronizedMap(new WeakHashMap<Query, CacheEntry>());
-                sqlCache.put(schema, retval);
+                retval = newCache;
             }
-            return retval;
         }
+        return retval;
     }
 
     /**
@@ -645,9 +673,18 @@ public final class SqlGenerator
         synchronized (q) {
             Set<Object> tablenames = schemaCache.get(q);
             if (tablenames == null) {
+                long findStart = System.currentTimeMillis();
                 tablenames = new HashSet<Object>();
                 findTableNames(tablenames, q, schema, true, individualOsbs);
                 schemaCache.put(q, tablenames);
+                TABLENAMES_FIND_TIME.addAndGet(System.currentTimeMillis() - findStart);
+                TABLENAMES_FIND_COUNT.incrementAndGet();
+            } else {
+                // the sets are too small to time individually, so credit each hit with the mean
+                long count = TABLENAMES_FIND_COUNT.get();
+                if (count > 0) {
+                    TABLENAMES_CACHE_STATS.recordTimeSaved(TABLENAMES_FIND_TIME.get() / count);
+                }
             }
             return tablenames;
         }
@@ -660,14 +697,16 @@ public final class SqlGenerator
      * @return a Map
      */
     private static Map<Query, Set<Object>> getTablenamesCacheForSchema(DatabaseSchema schema) {
-        synchronized (tablenamesCache) {
-            Map<Query, Set<Object>> retval = tablenamesCache.get(schema);
+        Map<Query, Set<Object>> retval = tablenamesCache.get(schema);
+        if (retval == null) {
+            Map<Query, Set<Object>> newCache = new WeakKeyBoundedCacheMap<Query, Set<Object>>(
+                    TABLENAMES_CACHE_NAME, TABLENAMES_CACHE_SIZE);
+            retval = tablenamesCache.putIfAbsent(schema, newCache);
             if (retval == null) {
-                retval = Collections.synchronizedMap(new WeakHashMap<Query, Set<Object>>());
-                tablenamesCache.put(schema, retval);
+                retval = newCache;
             }
-            return retval;
         }
+        return retval;
     }
 
     /**
@@ -2860,19 +2899,22 @@ public final class SqlGenerator
         private TreeMap<Integer, String> cached = new TreeMap<Integer, String>();
         private int lastOffset;
         private String lastSQL;
+        private long generateTime;
 
-        public CacheEntry(int lastOffset, String lastSQL) {
+        public CacheEntry(int lastOffset, String lastSQL, long generateTime) {
             this.lastOffset = lastOffset;
             this.lastSQL = lastSQL;
+            this.generateTime = generateTime;
         }
 
         public TreeMap<Integer, String> getCached() {
             return cached;
         }
 
-        public void setLast(int lastOffset, String lastSQL) {
+        public void setLast(int lastOffset, String lastSQL, long generateTime) {
             this.lastOffset = lastOffset;
             this.lastSQL = lastSQL;
+            this.generateTime = generateTime;
         }
 
         public int getLastOffset() {
@@ -2882,6 +2924,10 @@ public final class SqlGenerator
         public String getLastSQL() {
             return lastSQL;
         }
+
+        public long getGenerateTime() {
+            return generateTime;
+        }
     }
 
     private static class ClassDescriptorAndAlias
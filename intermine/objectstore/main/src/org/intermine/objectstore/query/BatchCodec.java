@@ -0,0 +1,43 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.List;
+
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * Converts a batch of results rows to and from bytes, so that it can be held in a
+ * BatchSpillStore. Implementations are specific to an ObjectStore, as the rows may contain
+ * objects that must be re-attached to the ObjectStore when they are read back.
+ *
+ * @author intermine
+ */
+public interface BatchCodec
+{
+    /**
+     * Encodes a batch of rows.
+     *
+     * @param batch a List of ResultsRow objects, as fetched from the ObjectStore
+     * @return the encoded batch, or null if the batch contains values that this codec cannot
+     * encode
+     */
+    byte[] encode(List<Object> batch);
+
+    /**
+     * Decodes a batch of rows previously encoded by this codec.
+     *
+     * @param data the encoded batch
+     * @return a List of ResultsRow objects
+     * @throws ObjectStoreException if the data cannot be decoded
+     */
+    List<Object> decode(byte[] data) throws ObjectStoreException;
+}
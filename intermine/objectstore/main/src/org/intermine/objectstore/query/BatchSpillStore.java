@@ -0,0 +1,468 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.log4j.Logger;
+import org.intermine.util.PropertiesUtil;
+
+/**
+ * A second cache tier for ResultsBatches, holding encoded batches that have been evicted from the
+ * in-memory batch cache in a memory-mapped temporary file. Reading a batch back from here is much
+ * cheaper than re-running the query with a large OFFSET.
+ * <p>
+ * Each ResultsBatches object that spills has its own store, which is created when the first
+ * batch is spilled and closed, deleting its file, when the ResultsBatches is closed or released
+ * after being garbage collected. The file is split into equal segments, which are filled in
+ * turn. When the last segment is full, writing starts again at the first one, and the batches
+ * that were in it are forgotten, so the file never grows beyond its size. Spilling is configured
+ * with the properties os.spill.size (the total size of all the spill files in bytes - spilling
+ * is disabled if this is not set), os.spill.file-size, os.spill.segment-size and os.spill.dir.
+ * The totals over all the stores are published to JMX as org.intermine:type=BatchSpillStore.
+ *
+ * @author intermine
+ */
+public class BatchSpillStore implements BatchSpillStoreMBean
+{
+    private static final Logger LOG = Logger.getLogger(BatchSpillStore.class);
+
+    /** Default size of each segment of a spill file */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    /** Default number of segments in each spill file */
+    public static final int DEFAULT_SEGMENTS_PER_FILE = 4;
+
+    private static boolean configured = false;
+    private static long totalSize = 0;
+    private static long fileSize = 0;
+    private static int configuredSegmentSize = DEFAULT_SEGMENT_SIZE;
+    private static File configuredDir = null;
+
+    // The stores that have not been closed, and the sum of their capacities
+    private static final Set<BatchSpillStore> OPEN_STORES = Collections.newSetFromMap(
+            new ConcurrentHashMap<BatchSpillStore, Boolean>());
+    private static final AtomicLong ALLOCATED = new AtomicLong();
+    private static final Totals TOTALS = new Totals();
+
+    private final File file;
+    private final MappedByteBuffer[] segments;
+    private final List<List<String>> segmentKeys = new ArrayList<List<String>>();
+    private final Map<String, Location> index = new HashMap<String, Location>();
+    private final int segmentSize;
+    private final long capacity;
+    private int currentSegment = 0;
+    private int writePosition = 0;
+    private boolean closed = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong overwritten = new AtomicLong();
+    // A store holds the batches of only one ResultsBatches, so its hits and misses are those of
+    // the query last looked up
+    private volatile String lastQueryKey = null;
+
+    /**
+     * Returns true if spilling is enabled in the global properties.
+     *
+     * @return a boolean
+     */
+    public static synchronized boolean isEnabled() {
+        if (!configured) {
+            configured = true;
+            Properties props = PropertiesUtil.stripStart("os.spill",
+                    PropertiesUtil.getPropertiesStartingWith("os.spill"));
+            String sizeString = props.getProperty("size");
+            if (sizeString != null) {
+                try {
+                    long size = Long.parseLong(sizeString.trim());
+                    int segmentSize = DEFAULT_SEGMENT_SIZE;
+                    if (props.getProperty("segment-size") != null) {
+                        segmentSize = Integer.parseInt(props.getProperty("segment-size").trim());
+                    }
+                    long perFile = Math.min(size, ((long) segmentSize) * DEFAULT_SEGMENTS_PER_FILE);
+                    if (props.getProperty("file-size") != null) {
+                        perFile = Long.parseLong(props.getProperty("file-size").trim());
+                    }
+                    if ((size <= 0) || (segmentSize <= 0) || (perFile < segmentSize)) {
+                        throw new NumberFormatException("os.spill.size must be positive, and"
+                                + " os.spill.file-size at least os.spill.segment-size");
+                    }
+                    configuredDir = new File(props.getProperty("dir",
+                                System.getProperty("java.io.tmpdir")));
+                    configuredSegmentSize = segmentSize;
+                    fileSize = perFile;
+                    totalSize = size;
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(
+                            new StandardMBean(TOTALS, BatchSpillStoreMBean.class),
+                            new ObjectName("org.intermine:type=BatchSpillStore"));
+                } catch (NumberFormatException e) {
+                    LOG.error("Invalid os.spill configuration - results will not be spilled", e);
+                } catch (JMException e) {
+                    LOG.warn("Could not register BatchSpillStore with JMX", e);
+                }
+            }
+        }
+        return totalSize > 0;
+    }
+
+    /**
+     * Creates a new spill store as configured in the global properties, if spilling is enabled
+     * and the total size of the open spill files leaves room for another.
+     *
+     * @return a new BatchSpillStore, or null
+     */
+    public static BatchSpillStore create() {
+        if (!isEnabled()) {
+            return null;
+        }
+        synchronized (BatchSpillStore.class) {
+            if (ALLOCATED.get() + fileSize > totalSize) {
+                LOG.debug("Not spilling results - " + ALLOCATED.get() + " bytes of spill files"
+                        + " are open already");
+                return null;
+            }
+            try {
+                return new BatchSpillStore(configuredDir, fileSize, configuredSegmentSize);
+            } catch (IOException e) {
+                LOG.error("Could not create results spill file - results will not be spilled",
+                        e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Creates a new spill store in a temporary file, which will be deleted when the store is
+     * closed, or failing that when the JVM exits.
+     *
+     * @param dir the directory to create the file in
+     * @param capacity the size of the file in bytes
+     * @param segmentSize the size of each segment - no batch larger than this will be stored
+     * @throws IOException if the file cannot be created
+     */
+    public BatchSpillStore(File dir, long capacity, int segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize must be greater than zero, was "
+                    + segmentSize);
+        }
+        int segmentCount = (int) Math.max(1, capacity / segmentSize);
+        this.segmentSize = segmentSize;
+        this.capacity = ((long) segmentCount) * segmentSize;
+        file = File.createTempFile("intermine-spill", ".dat", dir);
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        boolean mapped = false;
+        try {
+            raf.setLength(this.capacity);
+            FileChannel channel = raf.getChannel();
+            segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        ((long) i) * segmentSize, segmentSize);
+                segmentKeys.add(new ArrayList<String>());
+            }
+            mapped = true;
+        } finally {
+            // The mappings remain valid after the file is closed
+            raf.close();
+            if (!mapped) {
+                file.delete();
+            }
+        }
+        ALLOCATED.addAndGet(this.capacity);
+        OPEN_STORES.add(this);
+        LOG.debug("Created results spill file " + file + " with " + segmentCount
+                + " segments of " + segmentSize + " bytes");
+    }
+
+    /**
+     * Closes this store, forgetting all the batches in it and deleting its file. Batches cannot
+     * be stored or retrieved afterwards. Closing a store that is already closed does nothing.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            index.clear();
+            segmentKeys.clear();
+            // The mappings are released when the buffers are garbage collected
+            Arrays.fill(segments, null);
+        }
+        OPEN_STORES.remove(this);
+        ALLOCATED.addAndGet(-capacity);
+        TOTALS.addClosed(this);
+        if (!file.delete()) {
+            LOG.warn("Could not delete results spill file " + file);
+        }
+    }
+
+    /**
+     * Returns true if this store has been closed.
+     *
+     * @return a boolean
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the file that holds the batches of this store.
+     *
+     * @return a File
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Stores an encoded batch.
+     *
+     * @param queryKey a String identifying the query and the state of the database
+     * @param batchNo the batch number
+     * @param data the encoded batch
+     * @return true if the batch was stored, false if it is too large
+     */
+    public boolean put(String queryKey, int batchNo, byte[] data) {
+        if (data.length > segmentSize) {
+            return false;
+        }
+        String key = batchNo + "#" + queryKey;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (writePosition + data.length > segmentSize) {
+                currentSegment = (currentSegment + 1) % segments.length;
+                writePosition = 0;
+                List<String> dropped = segmentKeys.get(currentSegment);
+                for (String droppedKey : dropped) {
+                    Location location = index.get(droppedKey);
+                    if ((location != null) && (location.segment == currentSegment)) {
+                        index.remove(droppedKey);
+                        overwritten.incrementAndGet();
+                    }
+                }
+                dropped.clear();
+            }
+            ByteBuffer buffer = segments[currentSegment].duplicate();
+            buffer.position(writePosition);
+            buffer.put(data);
+            index.put(key, new Location(currentSegment, writePosition, data.length));
+            segmentKeys.get(currentSegment).add(key);
+            writePosition += data.length;
+        }
+        writes.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Retrieves an encoded batch.
+     *
+     * @param queryKey a String identifying the query and the state of the database
+     * @param batchNo the batch number
+     * @return the encoded batch, or null if it is not present
+     */
+    public byte[] get(String queryKey, int batchNo) {
+        String key = batchNo + "#" + queryKey;
+        byte[] retval = null;
+        synchronized (this) {
+            if (closed) {
+                return null;
+            }
+            Location location = index.get(key);
+            if (location != null) {
+                retval = new byte[location.length];
+                ByteBuffer buffer = segments[location.segment].duplicate();
+                buffer.position(location.offset);
+                buffer.get(retval);
+            }
+        }
+        lastQueryKey = queryKey;
+        if (retval == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getOverwrittenCount() {
+        return overwritten.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int getBatchCount() {
+        return index.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getQueryHitRates() {
+        String queryKey = lastQueryKey;
+        if (queryKey == null) {
+            return new String[0];
+        }
+        long queryHits = hits.get();
+        return new String[] {queryHits + "/" + (queryHits + misses.get()) + " spill hits for "
+            + queryKey};
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "BatchSpillStore " + file + ": hits = " + getHitCount() + ", misses = "
+            + getMissCount() + ", writes = " + getWriteCount() + ", overwritten = "
+            + getOverwrittenCount();
+    }
+
+    /**
+     * The totals over all the spill stores, published to JMX.
+     */
+    private static final class Totals implements BatchSpillStoreMBean
+    {
+        // The counts of the stores that have been closed
+        private final AtomicLong closedHits = new AtomicLong();
+        private final AtomicLong closedMisses = new AtomicLong();
+        private final AtomicLong closedWrites = new AtomicLong();
+        private final AtomicLong closedOverwritten = new AtomicLong();
+
+        void addClosed(BatchSpillStore store) {
+            closedHits.addAndGet(store.getHitCount());
+            closedMisses.addAndGet(store.getMissCount());
+            closedWrites.addAndGet(store.getWriteCount());
+            closedOverwritten.addAndGet(store.getOverwrittenCount());
+        }
+
+        public long getHitCount() {
+            long retval = closedHits.get();
+            for (BatchSpillStore store : OPEN_STORES) {
+                retval += store.getHitCount();
+            }
+            return retval;
+        }
+
+        public long getMissCount() {
+            long retval = closedMisses.get();
+            for (BatchSpillStore store : OPEN_STORES) {
+                retval += store.getMissCount();
+            }
+            return retval;
+        }
+
+        public long getWriteCount() {
+            long retval = closedWrites.get();
+            for (BatchSpillStore store : OPEN_STORES) {
+                retval += store.getWriteCount();
+            }
+            return retval;
+        }
+
+        public long getOverwrittenCount() {
+            long retval = closedOverwritten.get();
+            for (BatchSpillStore store : OPEN_STORES) {
+                retval += store.getOverwrittenCount();
+            }
+            return retval;
+        }
+
+        public int getBatchCount() {
+            int retval = 0;
+            for (BatchSpillStore store : OPEN_STORES) {
+                retval += store.getBatchCount();
+            }
+            return retval;
+        }
+
+        public long getCapacity() {
+            return ALLOCATED.get();
+        }
+
+        public String[] getQueryHitRates() {
+            List<String> retval = new ArrayList<String>();
+            for (BatchSpillStore store : OPEN_STORES) {
+                retval.addAll(Arrays.asList(store.getQueryHitRates()));
+            }
+            return retval.toArray(new String[retval.size()]);
+        }
+    }
+
+    private static class Location
+    {
+        final int segment;
+        final int offset;
+        final int length;
+
+        Location(int segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
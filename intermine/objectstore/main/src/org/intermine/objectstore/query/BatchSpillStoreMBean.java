@@ -0,0 +1,69 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * JMX management interface for the BatchSpillStore, which is also used for the totals over
+ * all the spill stores.
+ *
+ * @author intermine
+ */
+public interface BatchSpillStoreMBean
+{
+    /**
+     * Returns the number of batches read back from the spill file.
+     *
+     * @return a long
+     */
+    long getHitCount();
+
+    /**
+     * Returns the number of batch lookups that were not in the spill file.
+     *
+     * @return a long
+     */
+    long getMissCount();
+
+    /**
+     * Returns the number of batches written to the spill file.
+     *
+     * @return a long
+     */
+    long getWriteCount();
+
+    /**
+     * Returns the number of batches dropped from the spill file to make room for new ones.
+     *
+     * @return a long
+     */
+    long getOverwrittenCount();
+
+    /**
+     * Returns the number of batches currently held in the spill file.
+     *
+     * @return an int
+     */
+    int getBatchCount();
+
+    /**
+     * Returns the size of the spill file in bytes.
+     *
+     * @return a long
+     */
+    long getCapacity();
+
+    /**
+     * Returns the spill hit rates of the most recently used queries, one query per line.
+     *
+     * @return an array of Strings
+     */
+    String[] getQueryHitRates();
+}
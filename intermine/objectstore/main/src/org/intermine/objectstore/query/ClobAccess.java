@@ -16,6 +16,7 @@ import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.intermine.objectstore.ObjectStore;
@@ -24,16 +25,23 @@ import org.intermine.objectstore.proxy.Lazy;
 /**
  * Class used to read a Clob from the ObjectStore.
  *
+ * The length of the Clob, and whether its pages are stored as PackedNucleotides, can be recorded
+ * in its description, so that neither needs a query to discover. Each range of characters read is
+ * fetched with one query for the pages that cover it.
+ *
  * @author Matthew Wakeling
  */
 public class ClobAccess implements CharSequence, Lazy
 {
+    /** The number of pages read at a time by toString() and drainToPrintStream() */
+    protected static final int READ_PAGES = 100;
+
     protected ObjectStore os;
-    protected SingletonResults results;
     protected Clob clob;
     protected int offset;
-    protected int length;
+    protected int length = -1;
     protected boolean subSequence;
+    private ClobPageReader reader;
 
     /**
      * Protected constructor for use by PendingClob only.
@@ -49,46 +57,68 @@ public class ClobAccess implements CharSequence, Lazy
      * @param clob the Clob to access
      */
     public ClobAccess(ObjectStore os, Clob clob) {
+        this(os, clob, -1, false);
+    }
+
+    /**
+     * Construct a ClobAccess object from an ObjectStore and a Clob whose length is already known.
+     *
+     * @param os the ObjectStore that the Clob is stored in
+     * @param clob the Clob to access
+     * @param length the length of the Clob, or -1 if it is not known
+     * @param packed true if the pages of the Clob are stored as PackedNucleotides
+     */
+    public ClobAccess(ObjectStore os, Clob clob, int length, boolean packed) {
         this.os = os;
         this.clob = clob;
+        this.length = length;
         offset = 0;
         subSequence = false;
+        reader = new ClobPageReader(os, clob, length, packed);
     }
 
     /**
      * Construct a ClobAccess object representing a subsequence of an existing ClobAccess object.
      *
-     * @param results the SingletonResults object backing the object
+     * @param reader the ClobPageReader of the existing object
+     * @param os the ObjectStore
      * @param clob the Clob to access
      * @param offset the offset
      * @param length the length
      */
-    private ClobAccess(SingletonResults results, Clob clob, int offset, int length) {
-        this.results = results;
+    private ClobAccess(ClobPageReader reader, ObjectStore os, Clob clob, int offset,
+            int length) {
+        this.reader = reader;
+        this.os = os;
         this.clob = clob;
         this.offset = offset;
         this.length = length;
-        os = results.getObjectStore();
         subSequence = true;
     }
 
     /**
-     * Initialises the state of this object. This is done lazily, because it requires the use of a
-     * database connection to discover the length of the clob, and that cannot be done while inside
-     * the ObjectStoreWriter while it has exclusive use of the connection.
+     * Construct a ClobAccess object that reads the same characters as an existing one, for use by
+     * subclass constructors.
+     *
+     * @param ca an existing ClobAccess object
+     */
+    protected ClobAccess(ClobAccess ca) {
+        os = ca.os;
+        clob = ca.clob;
+        offset = ca.offset;
+        length = ca.length;
+        subSequence = ca.subSequence;
+        reader = ca.reader;
+    }
+
+    /**
+     * Initialises the state of this object. This is done lazily, because it may require the use
+     * of a database connection to discover the length of the clob, and that cannot be done while
+     * inside the ObjectStoreWriter while it has exclusive use of the connection.
      */
     protected void init() {
-        if (results == null) {
-            Query q = new Query();
-            q.addToSelect(clob);
-            results = os.executeSingleton(q, 20, false, false, true);
-            int pageCount = results.size();
-            if (pageCount == 0) {
-                length = 0;
-            } else {
-                String lastPage = (String) results.get(pageCount - 1);
-                length = CLOB_PAGE_SIZE * (pageCount - 1) + lastPage.length();
-            }
+        if (length < 0) {
+            length = reader.getLength();
         }
     }
 
@@ -110,6 +140,44 @@ public class ClobAccess implements CharSequence, Lazy
         return offset;
     }
 
+    /**
+     * Returns the text of a page of the underlying clob.
+     *
+     * @param page the page number
+     * @return the text of the page
+     */
+    protected String getPage(int page) {
+        return reader.getPage(page);
+    }
+
+    /**
+     * Returns the text of a range of pages of the underlying clob, read with a single query.
+     *
+     * @param firstPage the first page number
+     * @param lastPage the last page number, inclusive
+     * @return a List of the text of each page
+     */
+    protected List<String> getPages(int firstPage, int lastPage) {
+        return reader.getPages(firstPage, lastPage);
+    }
+
+    /**
+     * Returns the part of the text of a page of the underlying clob that is inside this object.
+     *
+     * @param page the page number
+     * @param pageText the text of the page
+     * @return the part of pageText that is in this object
+     */
+    protected String trimPage(int page, String pageText) {
+        int pageStart = page * CLOB_PAGE_SIZE;
+        int start = Math.max(0, offset - pageStart);
+        int end = Math.min(pageText.length(), offset + length - pageStart);
+        if ((start == 0) && (end == pageText.length())) {
+            return pageText;
+        }
+        return pageText.substring(start, end);
+    }
+
     /**
      * Return a character from the specified index.
      *
@@ -126,9 +194,9 @@ public class ClobAccess implements CharSequence, Lazy
         if (index >= length) {
             throw new IndexOutOfBoundsException("index is not less than length");
         }
-        int page = index / CLOB_PAGE_SIZE;
-        String pageText = (String) results.get(page);
-        return pageText.charAt(index - page * CLOB_PAGE_SIZE);
+        int position = offset + index;
+        int page = position / CLOB_PAGE_SIZE;
+        return getPage(page).charAt(position - page * CLOB_PAGE_SIZE);
     }
 
     /**
@@ -167,7 +235,7 @@ public class ClobAccess implements CharSequence, Lazy
         if ((start == 0) && (end == length)) {
             return this;
         }
-        return new ClobAccess(results, clob, start + offset, end - start);
+        return new ClobAccess(reader, os, clob, start + offset, end - start);
     }
 
     /**
@@ -188,21 +256,16 @@ public class ClobAccess implements CharSequence, Lazy
     @Override
     public String toString() {
         init();
-        StringBuilder retval = new StringBuilder();
-
+        StringBuilder retval = new StringBuilder(length);
         if (length > 0) {
             int lowestPage = offset / CLOB_PAGE_SIZE;
             int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
-            for (int page = lowestPage; page <= highestPage; page++) {
-                String pageText = (String) results.get(page);
-                if (page == highestPage) {
-                    pageText = pageText.substring(0, offset + length - page * CLOB_PAGE_SIZE);
+            for (int first = lowestPage; first <= highestPage; first += READ_PAGES) {
+                int last = Math.min(highestPage, first + READ_PAGES - 1);
+                List<String> pages = getPages(first, last);
+                for (int page = first; page <= last; page++) {
+                    retval.append(trimPage(page, pages.get(page - first)));
                 }
-                if (page == lowestPage) {
-                    pageText = pageText.substring(offset - page
-                            * CLOB_PAGE_SIZE, pageText.length());
-                }
-                retval.append(pageText);
             }
         }
         return retval.toString();
@@ -216,32 +279,40 @@ public class ClobAccess implements CharSequence, Lazy
      */
     public void drainToPrintStream(PrintStream out) {
         init();
-        int lowestPage = offset / CLOB_PAGE_SIZE;
-        int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
-        for (int page = lowestPage; page <= highestPage; page++) {
-            String pageText = (String) results.get(page);
-            if (page == highestPage) {
-                pageText = pageText.substring(0, offset + length - page * CLOB_PAGE_SIZE);
-            }
-            if (page == lowestPage) {
-                pageText = pageText.substring(offset - page * CLOB_PAGE_SIZE, pageText.length());
+        if (length > 0) {
+            int lowestPage = offset / CLOB_PAGE_SIZE;
+            int highestPage = (offset + length - 1) / CLOB_PAGE_SIZE;
+            for (int first = lowestPage; first <= highestPage; first += READ_PAGES) {
+                int last = Math.min(highestPage, first + READ_PAGES - 1);
+                List<String> pages = getPages(first, last);
+                for (int page = first; page <= last; page++) {
+                    out.print(trimPage(page, pages.get(page - first)));
+                }
             }
-            out.print(pageText);
         }
     }
 
     /**
      * Returns a String that describes this object sufficiently for it to be recreated given an
-     * ObjectStore. This format is stored in the database.
+     * ObjectStore. This format is stored in the database. The Clob is described by its id, then
+     * its length if known and whether it is packed, separated by colons.
      *
      * @return a String
      */
     public String getDbDescription() {
+        StringBuilder retval = new StringBuilder();
+        retval.append(clob.getClobId());
+        int clobLength = reader.getKnownLength();
+        if (clobLength >= 0) {
+            retval.append(':').append(clobLength);
+            if (reader.isPacked()) {
+                retval.append(":P");
+            }
+        }
         if (subSequence) {
-            return clob.getClobId() + "," + offset + "," + length();
-        } else {
-            return clob.getClobId() + "";
+            retval.append(',').append(offset).append(',').append(length());
         }
+        return retval.toString();
     }
 
     /**
@@ -254,8 +325,8 @@ public class ClobAccess implements CharSequence, Lazy
     }
 
     /**
-     * Returns the (possibly uninitialised) length internal parameter in this object, for use by
-     * subclass constructors.
+     * Returns the (possibly uninitialised, when it is -1) length internal parameter in this
+     * object, for use by subclass constructors.
      *
      * @return an int
      */
@@ -264,13 +335,22 @@ public class ClobAccess implements CharSequence, Lazy
     }
 
     /**
-     * Returns the (possibly uninitialised) results object used internally by this object, for use
-     * by subclass constructors.
+     * Returns a results object over the pages of the Clob as they are stored, or null if this
+     * object is uninitialised, for use by subclass constructors. The pages of a packed Clob are
+     * returned packed.
      *
      * @return a SingletonResults object
+     * @deprecated pages are read through a shared page reader now, so the results object is
+     * created afresh for each call - use the CharSequence methods to read the Clob
      */
+    @Deprecated
     public SingletonResults getResultsWithoutInit() {
-        return results;
+        if ((length < 0) || (os == null)) {
+            return null;
+        }
+        Query q = new Query();
+        q.addToSelect(clob);
+        return os.executeSingleton(q, 20, false, false, true);
     }
 
     /**
@@ -298,11 +378,16 @@ public class ClobAccess implements CharSequence, Lazy
      */
     public static ClobAccess decodeDbDescription(ObjectStore os, String description) {
         String[] parts = description.split(",");
-        ClobAccess clob = new ClobAccess(os, new Clob(Integer.parseInt(parts[0])));
+        String[] clobParts = parts[0].split(":");
+        int clobLength = (clobParts.length >= 2) ? Integer.parseInt(clobParts[1]) : -1;
+        boolean packed = (clobParts.length >= 3) && "P".equals(clobParts[2]);
+        ClobAccess clob = new ClobAccess(os, new Clob(Integer.parseInt(clobParts[0])), clobLength,
+                packed);
         if (parts.length >= 3) {
             int offset = Integer.parseInt(parts[1]);
             int length = Integer.parseInt(parts[2]);
-            clob = clob.subSequence(offset, offset + length);
+            // Not subSequence(), which would need the length of the whole Clob
+            clob = new ClobAccess(clob.reader, os, clob.clob, offset, length);
         }
         String className = null;
         if (parts.length == 2) {
@@ -0,0 +1,204 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.intermine.objectstore.query.Clob.CLOB_PAGE_SIZE;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+
+/**
+ * Reads the pages of a Clob from an ObjectStore, fetching each range of pages that is needed with
+ * a single query, and keeps the most recently read pages. One of these is shared by a ClobAccess
+ * and all the subsequences made from it.
+ *
+ * @author intermine
+ */
+class ClobPageReader
+{
+    /** The number of pages kept after they are read */
+    static final int MAX_CACHED_PAGES = 20;
+
+    private final ObjectStore os;
+    private final Clob clob;
+    private final boolean packed;
+    private int length;
+    private final Map<Integer, String> cache = new PageCache();
+
+    /**
+     * Constructs a reader for a Clob.
+     *
+     * @param os the ObjectStore that the Clob is stored in
+     * @param clob the Clob
+     * @param length the length of the Clob, or -1 if it is not known
+     * @param packed true if the pages of the Clob are stored as PackedNucleotides
+     */
+    ClobPageReader(ObjectStore os, Clob clob, int length, boolean packed) {
+        this.os = os;
+        this.clob = clob;
+        this.length = length;
+        this.packed = packed;
+    }
+
+    /**
+     * Returns true if the pages of the Clob are stored as PackedNucleotides.
+     *
+     * @return a boolean
+     */
+    boolean isPacked() {
+        return packed;
+    }
+
+    /**
+     * Returns the length of the Clob if it is known without asking the database, or -1.
+     *
+     * @return an int
+     */
+    synchronized int getKnownLength() {
+        return length;
+    }
+
+    /**
+     * Returns the length of the Clob, finding it from the number of pages and the length of the
+     * last page if it is not already known.
+     *
+     * @return the number of characters in the Clob
+     */
+    synchronized int getLength() {
+        if (length < 0) {
+            Query q = new Query();
+            q.addToSelect(clob);
+            int pageCount;
+            try {
+                pageCount = os.count(q, ObjectStore.SEQUENCE_IGNORE);
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException("ObjectStore error has occurred (in length)", e);
+            }
+            if (pageCount == 0) {
+                length = 0;
+            } else {
+                String lastPage = getPages(pageCount - 1, pageCount - 1).get(0);
+                length = CLOB_PAGE_SIZE * (pageCount - 1) + lastPage.length();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Returns the text of a page. If the page has to be read, the pages after it are read at the
+     * same time, up to MAX_CACHED_PAGES in all.
+     *
+     * @param page the page number
+     * @return the text of the page
+     */
+    synchronized String getPage(int page) {
+        String retval = cache.get(new Integer(page));
+        if (retval == null) {
+            int lastPage = Math.min(page + MAX_CACHED_PAGES - 1,
+                    Math.max(page, (getLength() - 1) / CLOB_PAGE_SIZE));
+            retval = getPages(page, lastPage).get(0);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the text of a range of pages. The pages that are not already held are read with a
+     * single query, unless there are more than the ObjectStore will return at once.
+     *
+     * @param firstPage the first page number
+     * @param lastPage the last page number, inclusive
+     * @return a List of the text of each page
+     */
+    synchronized List<String> getPages(int firstPage, int lastPage) {
+        int firstMissing = firstPage;
+        while ((firstMissing <= lastPage) && cache.containsKey(new Integer(firstMissing))) {
+            firstMissing++;
+        }
+        int lastMissing = lastPage;
+        while ((lastMissing >= firstMissing) && cache.containsKey(new Integer(lastMissing))) {
+            lastMissing--;
+        }
+        List<String> retval = new ArrayList<String>(lastPage - firstPage + 1);
+        for (int page = firstPage; page < firstMissing; page++) {
+            retval.add(cache.get(new Integer(page)));
+        }
+        if (firstMissing <= lastMissing) {
+            List<String> read = read(firstMissing, lastMissing);
+            retval.addAll(read);
+            // Only keep the end of a long read
+            for (int i = Math.max(0, read.size() - MAX_CACHED_PAGES); i < read.size(); i++) {
+                cache.put(new Integer(firstMissing + i), read.get(i));
+            }
+        }
+        for (int page = lastMissing + 1; page <= lastPage; page++) {
+            String text = cache.get(new Integer(page));
+            if (text == null) {
+                // Evicted by the read - read it again
+                text = read(page, page).get(0);
+            }
+            retval.add(text);
+        }
+        return retval;
+    }
+
+    private List<String> read(int firstPage, int lastPage) {
+        Query q = new Query();
+        q.addToSelect(clob);
+        List<String> retval = new ArrayList<String>(lastPage - firstPage + 1);
+        int maxLimit = Math.max(1, os.getMaxLimit());
+        int start = firstPage;
+        try {
+            while (start <= lastPage) {
+                int limit = Math.min(lastPage - start + 1, maxLimit);
+                List<ResultsRow<Object>> rows = os.execute(q, start, limit, false, false,
+                        ObjectStore.SEQUENCE_IGNORE);
+                for (ResultsRow<Object> row : rows) {
+                    String stored = (String) row.get(0);
+                    retval.add(packed ? PackedNucleotides.decode(stored) : stored);
+                }
+                if (rows.size() < limit) {
+                    break;
+                }
+                start += limit;
+            }
+        } catch (ObjectStoreException e) {
+            throw new RuntimeException("ObjectStore error has occurred (reading Clob "
+                    + clob.getClobId() + ")", e);
+        }
+        if (retval.size() < lastPage - firstPage + 1) {
+            throw new IndexOutOfBoundsException("Clob " + clob.getClobId() + " has no page "
+                    + (firstPage + retval.size()));
+        }
+        return retval;
+    }
+
+    /**
+     * The most recently used pages, by page number.
+     */
+    private static final class PageCache extends LinkedHashMap<Integer, String>
+    {
+        private static final long serialVersionUID = 1L;
+
+        PageCache() {
+            super(MAX_CACHED_PAGES * 2, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes the pages of a Clob of nucleotides in about a third of the space. The clob table holds
+ * text, so each stored character carries six bits, or three bases of A, C, G and T. Runs of any
+ * other character (usually N) are listed separately, as are runs of lower case bases, so soft
+ * masked sequence survives. A page with too many of these to be worth packing is stored as it
+ * is.
+ *
+ * A packed page is
+ * <pre>~length|start,length,char;...|start,length;...|bases</pre>
+ * where the first list is of the runs of other characters, the second is of the runs of lower
+ * case bases, and the bases are packed three to a character, with A in place of the other
+ * characters. A page stored as it is that starts with the marker has a second marker put in
+ * front of it. Only a Clob marked as packed in its description is decoded, so plain text clobs
+ * that happen to start with the marker are not affected.
+ *
+ * @author intermine
+ */
+public final class PackedNucleotides
+{
+    /** The first character of a packed page. Pages that don't start with it are plain text. */
+    public static final char MARKER = '~';
+
+    private static final String ALPHABET
+        = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz+/";
+    private static final String BASES = "ACGT";
+    private static final int[] CODES = new int[128];
+    private static final int[] BASE_CODES = new int[128];
+
+    static {
+        for (int i = 0; i < 128; i++) {
+            CODES[i] = -1;
+            BASE_CODES[i] = -1;
+        }
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            CODES[ALPHABET.charAt(i)] = i;
+        }
+        for (int i = 0; i < BASES.length(); i++) {
+            BASE_CODES[BASES.charAt(i)] = i;
+            BASE_CODES[Character.toLowerCase(BASES.charAt(i))] = i;
+        }
+    }
+
+    private PackedNucleotides() {
+    }
+
+    /**
+     * Returns the form of a page of text to store in a packed Clob. This is the packed form if it
+     * is shorter than the text, otherwise the text itself, escaped if it starts with MARKER.
+     *
+     * @param text the text of the page
+     * @return the packed page, or the text
+     */
+    public static String encode(CharSequence text) {
+        int length = text.length();
+        StringBuilder others = new StringBuilder();
+        StringBuilder lower = new StringBuilder();
+        char[] bases = new char[(length + 2) / 3];
+        int runStart = -1;
+        char runChar = 0;
+        int lowerStart = -1;
+        int packed = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            int code = (c < 128) ? BASE_CODES[c] : -1;
+            // runs of other characters
+            if ((runStart >= 0) && ((code >= 0) || (c != runChar))) {
+                others.append(runStart).append(',').append(i - runStart).append(',')
+                    .append(runChar).append(';');
+                runStart = -1;
+            }
+            if ((code < 0) && (runStart < 0)) {
+                runStart = i;
+                runChar = c;
+            }
+            // runs of lower case bases
+            boolean isLower = (code >= 0) && (c >= 'a');
+            if ((lowerStart >= 0) && !isLower) {
+                lower.append(lowerStart).append(',').append(i - lowerStart).append(';');
+                lowerStart = -1;
+            } else if ((lowerStart < 0) && isLower) {
+                lowerStart = i;
+            }
+            packed = (packed << 2) | Math.max(code, 0);
+            if (i % 3 == 2) {
+                bases[i / 3] = ALPHABET.charAt(packed);
+                packed = 0;
+            }
+            if (others.length() + lower.length() > length / 2) {
+                // Mostly not nucleotides - stop early
+                return plain(text);
+            }
+        }
+        if (runStart >= 0) {
+            others.append(runStart).append(',').append(length - runStart).append(',')
+                .append(runChar).append(';');
+        }
+        if (lowerStart >= 0) {
+            lower.append(lowerStart).append(',').append(length - lowerStart).append(';');
+        }
+        if (length % 3 != 0) {
+            packed <<= 2 * (3 - length % 3);
+            bases[length / 3] = ALPHABET.charAt(packed);
+        }
+        StringBuilder retval = new StringBuilder(bases.length + others.length() + lower.length()
+                + 16);
+        retval.append(MARKER).append(length).append('|').append(others).append('|').append(lower)
+            .append('|').append(bases);
+        if (retval.length() >= length) {
+            return plain(text);
+        }
+        return retval.toString();
+    }
+
+    private static String plain(CharSequence text) {
+        if ((text.length() > 0) && (text.charAt(0) == MARKER)) {
+            return MARKER + text.toString();
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the text of a page stored in a packed Clob.
+     *
+     * @param stored the page as stored
+     * @return the text of the page
+     */
+    public static String decode(String stored) {
+        if ((stored.length() == 0) || (stored.charAt(0) != MARKER)) {
+            return stored;
+        }
+        if ((stored.length() > 1) && (stored.charAt(1) == MARKER)) {
+            // plain text that starts with the marker
+            return stored.substring(1);
+        }
+        int pos = 1;
+        int bar = stored.indexOf('|', pos);
+        int length = Integer.parseInt(stored.substring(pos, bar));
+        pos = bar + 1;
+        // The runs of other characters can contain '|' as the character, so they are read first
+        List<int[]> runs = new ArrayList<int[]>();
+        while (stored.charAt(pos) != '|') {
+            int comma = stored.indexOf(',', pos);
+            int start = Integer.parseInt(stored.substring(pos, comma));
+            pos = comma + 1;
+            comma = stored.indexOf(',', pos);
+            int runLength = Integer.parseInt(stored.substring(pos, comma));
+            char c = stored.charAt(comma + 1);
+            runs.add(new int[] {start, runLength, c});
+            // skip the character and the ';'
+            pos = comma + 3;
+        }
+        pos++;
+        bar = stored.indexOf('|', pos);
+        String lower = stored.substring(pos, bar);
+        pos = bar + 1;
+
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            int code = CODES[stored.charAt(pos + i / 3)];
+            text[i] = BASES.charAt((code >> (2 * (2 - i % 3))) & 3);
+        }
+        int lowerPos = 0;
+        while (lowerPos < lower.length()) {
+            int comma = lower.indexOf(',', lowerPos);
+            int semicolon = lower.indexOf(';', comma);
+            int start = Integer.parseInt(lower.substring(lowerPos, comma));
+            int end = start + Integer.parseInt(lower.substring(comma + 1, semicolon));
+            for (int i = start; i < end; i++) {
+                text[i] = Character.toLowerCase(text[i]);
+            }
+            lowerPos = semicolon + 1;
+        }
+        for (int[] run : runs) {
+            for (int i = run[0]; i < run[0] + run[1]; i++) {
+                text[i] = (char) run[2];
+            }
+        }
+        return new String(text);
+    }
+}
@@ -21,6 +21,7 @@ import org.intermine.objectstore.ObjectStore;
 public class PendingClob extends ClobAccess
 {
     String text;
+    private boolean packed;
 
     /**
      * Construct a PendingClob from a String.
@@ -28,8 +29,29 @@ public class PendingClob extends ClobAccess
      * @param text the String
      */
     public PendingClob(String text) {
+        this(text, false);
+    }
+
+    /**
+     * Construct a PendingClob from a String of nucleotides, which may be written to the database
+     * as PackedNucleotides.
+     *
+     * @param text the String
+     * @param packed true to pack the Clob when it is written
+     */
+    public PendingClob(String text, boolean packed) {
         super();
         this.text = text;
+        this.packed = packed;
+    }
+
+    /**
+     * Returns true if this Clob should be packed when it is written.
+     *
+     * @return a boolean
+     */
+    public boolean isPacked() {
+        return packed;
     }
 
     /**
@@ -73,7 +95,7 @@ public class PendingClob extends ClobAccess
      */
     @Override
     public PendingClob subSequence(int start, int end) {
-        return new PendingClob(text.subSequence(start, end).toString());
+        return new PendingClob(text.subSequence(start, end).toString(), packed);
     }
 
     /**
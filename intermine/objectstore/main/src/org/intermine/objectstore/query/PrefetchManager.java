@@ -10,17 +10,35 @@ package org.intermine.objectstore.query;
  *
  */
 
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.util.PropertiesUtil;
 
 /**
  * A manager for the prefetch mechanism for the Results object.
  *
+ * Each batch that is being fetched, either by a thread that needs it or in the background, has a
+ * Fetch in a concurrent map, so a thread that needs a batch that is already being fetched waits
+ * for that fetch rather than running the query again, and a thread that needs a batch that is
+ * queued for the background takes it over and fetches it itself. There is no global lock - a
+ * thread only ever waits on the Fetch for the batch it needs.
+ *
+ * Background fetches are run by a shared pool with at most os.prefetch.threads threads (default
+ * 8), and at most os.prefetch.queue waiting (default 64). Prefetches that don't fit are dropped
+ * rather than starting more threads, and idle threads exit. Which batches to prefetch is decided
+ * for each Results object by its ReadAhead.
+ *
  * @author Matthew Wakeling
  */
 public final class PrefetchManager
@@ -29,104 +47,120 @@ public final class PrefetchManager
     }
 
     private static final Logger LOG = Logger.getLogger(PrefetchManager.class);
-    /** Pending set of requests - always accessed inside a synchronise on sync. */
-    protected static Set<Request> pending = new HashSet<Request>();
-    /** Set of requests currently being serviced. This Set is not accessed inside a block
-     * synchronised on any global object, so it must be able to handle concurrent access. */
-    protected static Set<Request> serviced = Collections.synchronizedSet(new HashSet<Request>());
-    protected static int serviceThreads = 0;
-    private static Object sync = new Object();
-
-    protected static final int LOADING = 3;
-
-    /*
-     * This class provides methods for cancelling requests, so here is an explanation of how this
-     * magic works.
+
+    /** Default maximum number of threads fetching batches in the background */
+    public static final int DEFAULT_THREADS = 8;
+    /** Default maximum number of prefetches waiting for a thread */
+    public static final int DEFAULT_QUEUE = 64;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /** The batches being fetched or waiting to be fetched */
+    private static final ConcurrentMap<Request, Fetch> FETCHES
+        = new ConcurrentHashMap<Request, Fetch>();
+    private static volatile ThreadPoolExecutor pool = null;
+
+    /**
+     * Returns the pool that runs background fetches, creating it if necessary.
      *
-     * The ObjectStore provides a query cancellation system, where you register your thread as
-     * having a request ID, which is any object you choose, and then you run your query as normal.
-     * Another thread can come along and pass that request ID to the objectstore, telling it to
-     * cancel the associated query. The Thread making the request may throw an exception, and
-     * all subsequent actions will throw exceptions until the request ID is deregistered from the
-     * ObjectStore.
+     * @return a ThreadPoolExecutor
+     */
+    private static synchronized ThreadPoolExecutor getPool() {
+        if (pool == null) {
+            Properties props = PropertiesUtil.stripStart("os.prefetch",
+                    PropertiesUtil.getPropertiesStartingWith("os.prefetch"));
+            int threads = DEFAULT_THREADS;
+            int queue = DEFAULT_QUEUE;
+            try {
+                if (props.getProperty("threads") != null) {
+                    threads = Math.max(1, Integer.parseInt(props.getProperty("threads").trim()));
+                }
+                if (props.getProperty("queue") != null) {
+                    queue = Math.max(1, Integer.parseInt(props.getProperty("queue").trim()));
+                }
+            } catch (NumberFormatException e) {
+                LOG.error("Invalid os.prefetch configuration - using " + threads + " threads and"
+                        + " a queue of " + queue, e);
+            }
+            pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queue), new ServiceThreadFactory());
+            pool.allowCoreThreadTimeOut(true);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the number of threads currently in the background fetch pool.
      *
-     * This PrefetchManager messes all of this up, because it uses extra threads to perform
-     * queries, so a thread can be waiting in the PrefetchManager for another thread to finish
-     * a query. The PrefetchManager maps user threads onto action threads - sometimes they will
-     * be the same, but other times they will not.
+     * @return an int
+     */
+    static synchronized int getThreadCount() {
+        return pool == null ? 0 : pool.getPoolSize();
+    }
+
+    /**
+     * Returns the number of background fetches waiting for a thread.
      *
-     * The PrefetchManager works with PrefetchManager.Request objects, which represent a unit of
-     * work to perform. These can be used as request ID objects to hand to the ObjectStore. So,
-     * Threads should register request ID objects with this PrefetchManager, in the same way as
-     * with the ObjectStore. When a cancel request comes in, the PrefetchManager will then be able
-     * to match that against a Request object. A request ID matches a PrefetchManager.Request
-     * object if a Thread with that request ID is currently inside the PrefetchManager.doRequest()
-     * method. There are several scenarios:
-     * 1. The thread is doing the work itself, and it is the only one that needs that data.
-     *       -> dead simple, just cancel the request.
-     * 2. The thread is doing the work itself, but there are other threads waiting for the same
-     *    data.
-     *       -> Policy decision to be made. Probably cancel the request, and let the other threads
-     *          start again.
-     * 3. The thread is waiting for another thread to finish the work, and there are no other
-     *    threads waiting for the data.
-     *       -> In this case, the thread that is doing the work is guaranteed to be a prefetch
-     *          thread, so it can just be cancelled.
-     * 4. The thread is waiting for another thread to finish the work, but there are other threads
-     *    waiting for the same data. Another thread waiting for the data will be any thread that
-     *    is inside the doRequest() method with that PrefetchManager.Request object, regardless of
-     *    whether that thread has registered a request ID or not.
-     *      -> The thread that is doing the work may or may not be a prefetch thread. In either
-     *         case, the waiting thread should be kicked out of the doRequest() method without
-     *         jeopardising the thread that is performing the work.
+     * @return an int
      */
+    static synchronized int getQueuedCount() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
 
     /**
-     * Adds a request to the Set of pending requests, and wakes up a Thread to handle it.
+     * Returns the counters of the prefetch mechanism.
+     *
+     * @return a PrefetchStatistics object
+     */
+    public static PrefetchStatistics getStatistics() {
+        return PrefetchStatistics.getInstance();
+    }
+
+    /**
+     * Queues a batch to be fetched in the background, unless it has already been fetched, is
+     * already being fetched, or the queue is full.
      *
      * @param result a ResultsBatches object that is making the request
      * @param batchNo the batch number to be fetched
      * @param optimise true if queries should be optimised
      * @param explain true if this method should explain each query first
+     * @return true if the batch was queued
      */
-    public static void addRequest(ResultsBatches result, int batchNo, boolean optimise,
+    public static boolean addRequest(ResultsBatches result, int batchNo, boolean optimise,
             boolean explain) {
+        if (result.batches.containsKey(new Integer(batchNo))) {
+            return false;
+        }
         Request request = new Request(result, batchNo, optimise, explain);
-        synchronized (sync) {
-            synchronized (result) {
-                // Synchronise on BOTH locks, so we can muck about with anything.
-                if (!result.batches.containsKey(new Integer(batchNo))) {
-                    // The request has not been done.
-                    if (!serviced.contains(request)) {
-                        // And it isn't currently being serviced.
-                        //if (!pending.contains(request)) {
-                        //    LOG.debug("addRequest - adding request:                          "
-                        //            + request);
-                        //}
-                        pending.add(request);
-                        if ((pending.size() + serviced.size()) > (serviceThreads * LOADING)) {
-                            // There are too many requests for the servicing threads.
-                            Thread newThread = new ServiceThread();
-                            newThread.setDaemon(true);
-                            newThread.setName("PrefetchManager ServiceThread");
-                            newThread.start();
-                            serviceThreads++;
-                            LOG.info("addRequest - creating new ServiceThread. We now have "
-                                    + serviceThreads);
-                        } else {
-                            // There may or may not be a service thread waiting. If not, a service
-                            // thread will soon finish a request.
-                            sync.notify();
-                        }
-                    //} else {
-                        //LOG.debug("addRequest - the request is currently being serviced: "
-                        //        + request);
-                    }
-                //} else {
-                    //LOG.debug("addRequest - the request has already been done:       " + request);
-                }
-            }
+        Fetch fetch = new Fetch(request, true);
+        if (FETCHES.putIfAbsent(request, fetch) != null) {
+            return false;
+        }
+        try {
+            getPool().execute(fetch);
+        } catch (RejectedExecutionException e) {
+            fetch.cancel();
+            PrefetchStatistics.getInstance().recordRejected();
+            return false;
+        }
+        PrefetchStatistics.getInstance().recordScheduled();
+        return true;
+    }
+
+    /**
+     * Cancels a background fetch of a batch if it has not yet started.
+     *
+     * @param result the ResultsBatches object that made the request
+     * @param batchNo the batch number
+     * @return true if the fetch was cancelled, false if it was not queued, or has started or
+     * finished
+     */
+    public static boolean cancelRequest(ResultsBatches result, int batchNo) {
+        Fetch fetch = FETCHES.get(new Request(result, batchNo, false, false));
+        if ((fetch != null) && fetch.background && fetch.cancel()) {
+            PrefetchStatistics.getInstance().recordCancelled();
+            return true;
         }
+        return false;
     }
 
     /**
@@ -148,7 +182,7 @@ public final class PrefetchManager
 
     /**
      * Returns the batch described by the request. If the batch is not already available, then the
-     * current thread fetches it.
+     * current thread fetches it, or waits for the thread that is fetching it.
      *
      * @param request a Request object
      * @return a List containing the contents of the batch
@@ -156,159 +190,45 @@ public final class PrefetchManager
      * @throws IndexOutOfBoundsException if the batch is off the end of the results
      */
     protected static List<Object> doRequest(Request request) throws ObjectStoreException {
-        boolean needToWait = false;
-        List<Object> retval = null;
-
-        synchronized (sync) {
-            synchronized (request.result) {
-                // Synchronise on BOTH locks, so we can muck about with anything.
-                // Note, that to avoid deadlocks, we should never lock these two in the opposite
-                // order, or call wait on either of these locks where a notify needs to obtain
-                // the other one. We shouldn't call wait in here anyway really.
-                // We need both locks, because we need to exclude the possibility that someone
-                // finishes a request between us checking to see if it is already fetched, and
-                // checking if we need to wait for someone to finish fetching it.
-                retval = request.result.batches.get(new Integer(request.batchNo));
+        Integer key = new Integer(request.batchNo);
+        while (true) {
+            List<Object> retval = request.result.batches.get(key);
+            if (retval != null) {
+                return retval;
+            }
+            Fetch fetch = new Fetch(request, false);
+            Fetch existing = FETCHES.putIfAbsent(request, fetch);
+            if (existing == null) {
+                // Another thread may have finished this batch between our look in batches and
+                // our Fetch going in
+                retval = request.result.batches.get(key);
                 if (retval != null) {
-                    // The batch has already been fetched.
-                    //LOG.debug("doRequest - the request has already been done:        " + request);
+                    fetch.finish();
                     return retval;
                 }
-                if (pending.contains(request)) {
-                    // The request is pending.
-                    // If it is pending, then we wish it to be serviced by US. Therefore, we
-                    // need to move it to serviced state and do it.
-                    // The request is not being serviced. We take over.
-                    serviced.add(request);
-                    pending.remove(request);
-                    //LOG.debug("doRequest - the request was pending:                  " + request);
-                } else if (serviced.contains(request)) {
-                    // The request is being serviced. We just need to wait.
-                    needToWait = true;
-                    //LOG.debug("doRequest - the request is currently being serviced:  " + request);
-                } else {
-                    // The request has never been seen before. Therefore, we should add it to the
-                    // serviced set, and handle it.
-                    serviced.add(request);
-                    //LOG.debug("doRequest - new request:                              " + request);
-                }
+                return fetch.execute();
             }
-        }
-
-        // At this stage, there is a limited set of states that we can be in. Either
-        // 1. We need to wait for another thread to finish servicing the request. In this case, we
-        //     know for sure that our request was in serviced when we left the synchronised block.
-        //     However, since this is a GAP between synchronising, another thread could finish the
-        //     request before we synchronise again. Therefore, we should check after we have
-        //     synchronised again.
-        // 2. We need to do the request ourselves. In this case, we set the PrefetchManager state
-        //     so that anything else to do with this request waits for us rather than changing the
-        //     state while we were in the synchronised block.
-
-        if (needToWait) {
-            synchronized (request.result) {
-                // We are synchronised. Now, no thread can report that the request is finished until
-                // we release the lock.
-                // First, check that someone didn't finish during the GAP.
-                if (serviced.contains(request)) {
-                    // Noone finished, so we can wait for that to happen.
-                    //LOG.debug("doRequest - waiting for another thread to finish:     " + request);
-                    try {
-                        request.result.wait();
-                    } catch (InterruptedException e) {
-                        // Ignore interruption.
-                    }
-                }
-                // At this point, either our wait was interrupted by notifyAll(), or someone has
-                // removed the request from serviced. Either way, we can't be absolutely sure that
-                // result.batches contains the batch we want, for several reasons. So we recurse.
-                // Reasons:
-                // 1. request.result.batches may be a WeakHashMap, in which case the batch may have
-                //     been removed from it by the garbage collector since it was added.
-                // 2. The object we are waiting for is a result. A notify that we might have
-                //     received could have been for a different request.
-                // 3. The request is a dud, so the thread that was servicing the request received
-                //     an exception. Under this circumstance, that thread should still remove the
-                //     request from the serviced set, and notify other threads waiting for the
-                //     request. This allows threads waiting to do the operation themselves, and
-                //     therefore return back the correct exception.
-            }
-            retval = doRequest(request);
-        } else {
-            try {
-                //LOG.debug("doRequest - servicing request:                        " + request);
-                // Now, we can service this request in a normal manner, outside all locks.
-                retval = request.result.fetchBatchFromObjectStore(request.batchNo, request.optimise,
-                        request.explain);
-            } finally {
-                // And then report that it is finished, inside a lock, even if we did get an
-                // exception.
-                reportDone(request);
+            if (existing.claim()) {
+                // The batch was waiting for a background thread - fetch it ourselves instead
+                pool.remove(existing);
+                return existing.execute();
             }
+            // Someone else is fetching it. When they finish, either the batch is in batches, or
+            // they got an exception, in which case we go round again and get it ourselves. The
+            // batch may also have been evicted from batches by then if it is a soft cache.
+            existing.await();
         }
-
-        return retval;
     }
 
     /**
-     * Allows a system to report that it has finished servicing a particular request.
+     * Returns true if a batch is being fetched, or waiting for a background thread.
      *
-     * @param request the request that has been done
+     * @param result a ResultsBatches object
+     * @param batchNo the batch number
+     * @return a boolean
      */
-    protected static void reportDone(Request request) {
-        synchronized (request.result) {
-            //LOG.debug("reportDone - finished request:                        " + request);
-            serviced.remove(request);
-            request.result.notifyAll();
-        }
-    }
-
-    /**
-     * Returns a request for a thread to service.
-     *
-     * @return a request to service
-     */
-    protected static Request getRequest() {
-        Request retval;
-        synchronized (sync) {
-            while (pending.isEmpty()) {
-                // There are no requests to get - wait for a notify.
-                //LOG.debug("getRequest - waiting for a request");
-                try {
-                    sync.wait();
-                } catch (InterruptedException e) {
-                    // Ignore interruption.
-                }
-            }
-            // Get a request from the pending set. We know there is something in there, because we
-            // just got false from pending.isEmpty, and we have the lock on sync, and nothing
-            // touches pending unless they have that lock.
-            retval = pending.iterator().next();
-            //LOG.debug("getRequest - got request:                             " + retval);
-            // Now we have a request, we could synchronise by its result - other things look
-            // for the request in serviced - namely:
-            // 1. addRequest doesn't add a request to pending if it already in serviced. However,
-            //     that doesn't matter, because it is already synchronised on sync. Otherwise, you
-            //     might have had the situation where a request appears in both pending and serviced
-            //     sets.
-            // 2. doRequest also moves items from pending to serviced, but that doesn't matter
-            //     because it is also synchronised on sync. Otherwise you could have two threads
-            //     servicing the same request, which could possibly leave other requests not being
-            //     serviced while a service thread sleeps.
-            // 3. doRequest decides whether to wait on whether there is a request in serviced, but
-            //     this also does not matter, as it can only be broken by a thread removing a
-            //     request from serviced outside a synchronised block.
-            // 4. reportDone removes an entry from serviced, which does not matter, because it will
-            //     only break something that is broken by things being removed from serviced outside
-            //     a sync lock.
-            // Basically, we never check to see if the batch has already been fetched before
-            // checking to see if anyone is fetching it - we only put the request in serviced.
-            // Therefore, we do not need to synchronise by request.result here.
-
-            serviced.add(retval);
-            pending.remove(retval);
-        }
-        return retval;
+    static boolean isFetching(ResultsBatches result, int batchNo) {
+        return FETCHES.containsKey(new Request(result, batchNo, false, false));
     }
 
     private static class Request
@@ -327,7 +247,7 @@ public final class PrefetchManager
 
         @Override
         public int hashCode() {
-            return 2 * result.query.hashCode() + 3 * batchNo;
+            return 2 * System.identityHashCode(result) + 3 * batchNo;
         }
 
         @Override
@@ -341,41 +261,103 @@ public final class PrefetchManager
         }
     }
 
-    private static class ServiceThread extends Thread
+    /**
+     * The fetch of one batch. A Fetch is in FETCHES from when it is created until it is finished
+     * or cancelled, and moves from WAITING to RUNNING to DONE, or from WAITING to DONE if it is
+     * cancelled.
+     */
+    private static final class Fetch implements Runnable
     {
-        @Override
-        public void run() {
-            try {
-                while (true) {
-                    Request request = PrefetchManager.getRequest();
-                    //LOG.debug("ServiceThread.run - servicing request                 " + request);
-                    try {
-                        // Now, we can service this request in a normal manner, outside all locks.
-                        @SuppressWarnings("unused")
-                        List<Object> batch = request.result.fetchBatchFromObjectStore(request
-                                .batchNo, request.optimise, request.explain);
-                    } catch (Exception e) {
-                        LOG.warn("ServiceThread.run - Received exception                " + request
-                                + " " + e);
-                        // We don't care about any exception - we NEED this thread to keep running.
-                        // Otherwise, things go pear-shaped.
-                    } finally {
-                        // And then report that it is finished, inside a lock, even if we did get an
-                        // exception.
-                        reportDone(request);
-                    }
+        private static final int WAITING = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+
+        private final Request request;
+        private final boolean background;
+        private int state;
+
+        /**
+         * Creates a Fetch, which is WAITING if it is to be run in the background, or RUNNING if
+         * the thread creating it is going to run it.
+         */
+        Fetch(Request request, boolean background) {
+            this.request = request;
+            this.background = background;
+            this.state = background ? WAITING : RUNNING;
+        }
+
+        synchronized boolean claim() {
+            if (state == WAITING) {
+                state = RUNNING;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized boolean cancel() {
+            if (state == WAITING) {
+                finish();
+                pool.remove(this);
+                return true;
+            }
+            return false;
+        }
+
+        synchronized void finish() {
+            state = DONE;
+            FETCHES.remove(request, this);
+            notifyAll();
+        }
+
+        synchronized void await() {
+            boolean interrupted = false;
+            while (state != DONE) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
                 }
-            } catch (Error e) {
-                LOG.error("Failure of PrefetchManager service thread with error", e);
-                throw e;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        List<Object> execute() throws ObjectStoreException {
+            try {
+                return request.result.fetchBatchFromObjectStore(request.batchNo, request.optimise,
+                        request.explain);
             } finally {
-                // Like I said, we REALLY NEED to know if something has gone wrong here, as it is a
-                // BIG BAD BUG.
-                LOG.error("ServiceThread died unexpectedly. PrefetchManager may stop working");
-                // And decrement the count of available ServiceThreads.
-                PrefetchManager.serviceThreads--;
+                // Report that it is finished even if we got an exception, so that waiting threads
+                // can try for themselves and get the exception too
+                finish();
+            }
+        }
+
+        public void run() {
+            if (!claim()) {
+                // Taken over by a thread that needed it, or cancelled
+                return;
+            }
+            try {
+                execute();
+            } catch (IndexOutOfBoundsException e) {
+                LOG.debug("Prefetch of " + request + " was off the end of the results");
+            } catch (Exception e) {
+                LOG.warn("Prefetch of " + request + " failed: " + e);
             }
         }
     }
-}
 
+    private static class ServiceThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "PrefetchManager ServiceThread "
+                    + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Counters for the background fetching of Results batches by the PrefetchManager, registered
+ * with the platform MBeanServer as <code>org.intermine:type=PrefetchManager</code>.
+ *
+ * @author intermine
+ */
+public final class PrefetchStatistics implements PrefetchStatisticsMBean
+{
+    private static final Logger LOG = Logger.getLogger(PrefetchStatistics.class);
+    private static final PrefetchStatistics INSTANCE = new PrefetchStatistics();
+
+    static {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("org.intermine:type=PrefetchManager");
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(INSTANCE, objectName);
+            }
+        } catch (JMException e) {
+            LOG.warn("Could not register PrefetchManager statistics with JMX", e);
+        } catch (SecurityException e) {
+            LOG.warn("Could not register PrefetchManager statistics with JMX", e);
+        }
+    }
+
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong lateHits = new AtomicLong();
+    private final AtomicLong wasted = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    private PrefetchStatistics() {
+    }
+
+    /**
+     * Returns the single instance of this class.
+     *
+     * @return a PrefetchStatistics object
+     */
+    public static PrefetchStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    void recordScheduled() {
+        scheduled.incrementAndGet();
+    }
+
+    void recordRejected() {
+        rejected.incrementAndGet();
+    }
+
+    void recordHit(boolean late) {
+        hits.incrementAndGet();
+        if (late) {
+            lateHits.incrementAndGet();
+        }
+    }
+
+    void recordWasted() {
+        wasted.incrementAndGet();
+    }
+
+    void recordCancelled() {
+        cancelled.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getScheduledCount() {
+        return scheduled.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLateHitCount() {
+        return lateHits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWastedCount() {
+        return wasted.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + wasted.get();
+        return total == 0 ? 0.0 : ((double) hitCount) / total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getThreadCount() {
+        return PrefetchManager.getThreadCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getQueuedCount() {
+        return PrefetchManager.getQueuedCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        scheduled.set(0);
+        rejected.set(0);
+        hits.set(0);
+        lateHits.set(0);
+        wasted.set(0);
+        cancelled.set(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "PrefetchManager: scheduled = " + getScheduledCount() + ", rejected = "
+            + getRejectedCount() + ", hits = " + getHitCount() + " (" + getLateHitCount()
+            + " late), wasted = " + getWastedCount() + ", cancelled = " + getCancelledCount();
+    }
+}
@@ -0,0 +1,89 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * JMX management interface for the Results read-ahead counters.
+ *
+ * @author intermine
+ */
+public interface PrefetchStatisticsMBean
+{
+    /**
+     * Returns the number of batches queued to be fetched in the background.
+     *
+     * @return a long
+     */
+    long getScheduledCount();
+
+    /**
+     * Returns the number of batches that were not prefetched because the prefetch queue was full.
+     *
+     * @return a long
+     */
+    long getRejectedCount();
+
+    /**
+     * Returns the number of prefetched batches that were then read.
+     *
+     * @return a long
+     */
+    long getHitCount();
+
+    /**
+     * Returns the number of prefetched batches that were read before the prefetch had finished,
+     * so the reader had to wait for it. These are included in the hit count.
+     *
+     * @return a long
+     */
+    long getLateHitCount();
+
+    /**
+     * Returns the number of batches that were fetched in the background but never read.
+     *
+     * @return a long
+     */
+    long getWastedCount();
+
+    /**
+     * Returns the number of queued prefetches that were cancelled before they started.
+     *
+     * @return a long
+     */
+    long getCancelledCount();
+
+    /**
+     * Returns the proportion of background fetches that were read, or zero if there have been
+     * none.
+     *
+     * @return a double between 0 and 1
+     */
+    double getHitRatio();
+
+    /**
+     * Returns the number of threads currently in the prefetch pool.
+     *
+     * @return an int
+     */
+    int getThreadCount();
+
+    /**
+     * Returns the number of prefetches waiting for a thread.
+     *
+     * @return an int
+     */
+    int getQueuedCount();
+
+    /**
+     * Resets all the counters to zero.
+     */
+    void reset();
+}
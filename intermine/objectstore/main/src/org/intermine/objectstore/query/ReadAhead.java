@@ -0,0 +1,165 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Decides which batches of a Results object to fetch in the background, from the batches it
+ * has been reading.
+ *
+ * When the batches read move by the same number of batches twice in a row (or the rows read are
+ * sequential), the next batches along in that direction are prefetched. The number prefetched
+ * ahead starts at one, doubles up to MAX_DEPTH whenever a batch is read before its prefetch has
+ * finished, and halves when a prefetched batch is not read. When the pattern breaks, or
+ * iteration stops, the prefetches that have not started are cancelled.
+ *
+ * @author intermine
+ */
+class ReadAhead
+{
+    /** The largest number of batches prefetched ahead of the reader */
+    static final int MAX_DEPTH = 4;
+
+    private final ResultsBatches resultsBatches;
+    private int lastBatch = -1;
+    private int stride = 0;
+    private int repeats = 0;
+    private int depth = 1;
+    // The prefetched batches that have not yet been read
+    private final Set<Integer> outstanding = new HashSet<Integer>();
+
+    /**
+     * Constructs a ReadAhead for the given batches.
+     *
+     * @param resultsBatches the ResultsBatches of the Results object
+     */
+    ReadAhead(ResultsBatches resultsBatches) {
+        this.resultsBatches = resultsBatches;
+    }
+
+    /**
+     * Records that a range of batches is about to be read, before they are fetched.
+     *
+     * @param startBatch the first batch
+     * @param endBatch the last batch
+     */
+    synchronized void beforeRead(int startBatch, int endBatch) {
+        if (outstanding.isEmpty()) {
+            return;
+        }
+        for (int batchNo = startBatch; batchNo <= endBatch; batchNo++) {
+            Integer key = new Integer(batchNo);
+            if (outstanding.remove(key)) {
+                boolean late = !resultsBatches.batches.containsKey(key);
+                PrefetchStatistics.getInstance().recordHit(late);
+                if (late) {
+                    depth = Math.min(MAX_DEPTH, depth * 2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that a range of batches has been read, and prefetches the batches that are
+     * expected to be read next.
+     *
+     * @param startBatch the first batch
+     * @param endBatch the last batch
+     * @param sequential true if the rows read follow on from the rows read before
+     * @param optimise true if queries should be optimised
+     * @param explain true if queries should be explained
+     */
+    synchronized void afterRead(int startBatch, int endBatch, boolean sequential,
+            boolean optimise, boolean explain) {
+        int batchNo = (stride < 0) ? startBatch : endBatch;
+        if (sequential) {
+            if (stride != 1) {
+                cancelOutstanding();
+                stride = 1;
+                batchNo = endBatch;
+            }
+            repeats = Math.max(repeats, 2);
+        } else if ((lastBatch >= 0) && (batchNo != lastBatch)) {
+            int delta = batchNo - lastBatch;
+            if (delta == stride) {
+                repeats++;
+            } else {
+                cancelOutstanding();
+                stride = delta;
+                repeats = 1;
+            }
+        }
+        lastBatch = batchNo;
+        if (repeats < 2) {
+            return;
+        }
+        long maxSize = resultsBatches.getMaxSize();
+        long batchSize = resultsBatches.getBatchSize();
+        for (int i = 1; i <= depth; i++) {
+            long target = batchNo + ((long) i) * stride;
+            if ((target < 0) || (target * batchSize >= maxSize)) {
+                break;
+            }
+            Integer key = new Integer((int) target);
+            if (!outstanding.contains(key) && PrefetchManager.addRequest(resultsBatches,
+                        key.intValue(), optimise, explain)) {
+                outstanding.add(key);
+            }
+        }
+    }
+
+    /**
+     * Forgets the access pattern, and cancels the prefetches that have not started.
+     */
+    synchronized void stop() {
+        cancelOutstanding();
+        lastBatch = -1;
+        stride = 0;
+        repeats = 0;
+    }
+
+    private void cancelOutstanding() {
+        boolean wasted = false;
+        Iterator<Integer> iter = outstanding.iterator();
+        while (iter.hasNext()) {
+            int batchNo = iter.next().intValue();
+            if (!PrefetchManager.cancelRequest(resultsBatches, batchNo)) {
+                PrefetchStatistics.getInstance().recordWasted();
+                wasted = true;
+            }
+            iter.remove();
+        }
+        if (wasted) {
+            depth = Math.max(1, depth / 2);
+        }
+    }
+
+    /**
+     * Returns the number of batches currently prefetched ahead of the reader.
+     *
+     * @return an int
+     */
+    synchronized int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the number of prefetched batches that have not been read.
+     *
+     * @return an int
+     */
+    synchronized int getOutstandingCount() {
+        return outstanding.size();
+    }
+}
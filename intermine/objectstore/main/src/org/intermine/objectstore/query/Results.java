@@ -52,8 +52,10 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
     protected int sequential = 0;
     private static final int PREFETCH_SEQUENTIAL_THRESHOLD = 6;
     // Basically, this keeps a tally of how many times in a row accesses have been sequential.
-    // If sequential gets above a PREFETCH_SEQUENTIAL_THRESHOLD, then we prefetch the batch after
-    // the one we are currently using.
+    // If sequential gets above a PREFETCH_SEQUENTIAL_THRESHOLD, then readAhead prefetches the
+    // batches after the one we are currently using. It also spots batches being read with a
+    // regular stride, in either direction.
+    protected ReadAhead readAhead;
 
     /**
      * No argument constructor for testing purposes
@@ -80,6 +82,7 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
         }
 
         resultsBatches = new ResultsBatches(query, os, sequence);
+        readAhead = new ReadAhead(resultsBatches);
     }
 
     /**
@@ -95,6 +98,7 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
         this.optimise = optimise;
         this.explain = explain;
         this.prefetch = prefetch;
+        this.readAhead = new ReadAhead(batches);
     }
 
     /**
@@ -127,6 +131,18 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
             throw new IllegalArgumentException("Cannot change settings of Results object in cache");
         }
         prefetch = false;
+        cancelPrefetch();
+    }
+
+    /**
+     * Cancels any background prefetches for this Results object that have not yet started, and
+     * forgets the pattern of access so far. This is done automatically when an iterator reaches
+     * the end of the results.
+     */
+    public void cancelPrefetch() {
+        if (readAhead != null) {
+            readAhead.stop();
+        }
     }
 
     /**
@@ -192,6 +208,13 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
         int startBatch = getBatchNoForRow(start);
         int endBatch = getBatchNoForRow(end);
 
+        boolean readingAhead = (readAhead != null) && prefetch
+            && (resultsBatches.getObjectStore() != null)
+            && resultsBatches.getObjectStore().isMultiConnection();
+        if (readingAhead) {
+            readAhead.beforeRead(startBatch, endBatch);
+        }
+
         List<Object> ret = new ArrayList<Object>();
         for (int i = startBatch; i <= endBatch; i++) {
             ret.addAll(resultsBatches.getRowsFromBatch(i, start, end, optimise, explain));
@@ -202,12 +225,9 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
         } else {
             sequential = 0;
         }
-        if ((resultsBatches.getObjectStore() != null)
-                && prefetch
-                && resultsBatches.getObjectStore().isMultiConnection()
-                && (sequential > PREFETCH_SEQUENTIAL_THRESHOLD)
-                && (getBatchNoForRow(resultsBatches.getMaxSize()) > endBatch)) {
-            resultsBatches.prefetch(endBatch + 1, optimise, explain);
+        if (readingAhead) {
+            readAhead.afterRead(startBatch, endBatch, sequential > PREFETCH_SEQUENTIAL_THRESHOLD,
+                    optimise, explain);
         }
         lastGet = end;
 
@@ -380,6 +400,8 @@ public class Results extends AbstractList<Object> implements LazyCollection<Obje
             } catch (IndexOutOfBoundsException e) {
                 // Ignore - it means that we should return false;
             }
+            // Iteration has finished, so nothing more will be read
+            cancelPrefetch();
             return false;
         }
 
@@ -10,25 +10,46 @@ package org.intermine.objectstore.query;
  *
  */
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.log4j.Logger;
 import org.intermine.objectstore.DataChangedException;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.util.BoundedCacheMap;
 import org.intermine.util.CacheMap;
+import org.intermine.util.CacheMapFactory;
+import org.intermine.util.EvictionListener;
+import org.intermine.util.MemoryEstimator;
+import org.intermine.util.Weigher;
 
 /**
  * Class holding the data batches for the Results object. Possibly multiple Results objects with
  * different settings (for prefetch, explain, optimise) will use the same ResultsBatches object.
  *
+ * By default each ResultsBatches holds its batches in its own soft-reference CacheMap. If the
+ * resultsBatches cache is configured as bounded, the batches of all ResultsBatches objects are
+ * instead held in one shared BoundedCacheMap, so the bound applies to all of them together, and
+ * each batch is weighed by an estimate of the memory its rows hold.
+ *
  * @author Matthew Wakeling
  */
 public class ResultsBatches
 {
+    private static final Logger LOG = Logger.getLogger(ResultsBatches.class);
+
     /** This is the default batch size for Results objects */
     public static final int DEFAULT_BATCH_SIZE = 1000;
 
@@ -44,9 +65,46 @@ public class ResultsBatches
 
     protected ResultsInfo info;
 
+    /**
+     * Default bound of the bounded batch cache shared by all ResultsBatches objects - an
+     * estimated number of bytes
+     */
+    public static final long DEFAULT_BATCH_CACHE_WEIGHT = 256L * 1024 * 1024;
+
+    /**
+     * Estimates the number of bytes held by a batch, from the contents of its rows.
+     */
+    protected static final Weigher<Object, List<Object>> BATCH_WEIGHER
+        = new Weigher<Object, List<Object>>() {
+            @Override
+            public int weigh(Object key, List<Object> value) {
+                return MemoryEstimator.weigh(value);
+            }
+        };
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+    private static BoundedCacheMap<BatchKey, List<Object>> sharedBatches = null;
+    private static boolean sharedBatchesConfigured = false;
+
+    // The resources of the objects using the shared batch cache, which are queued here once
+    // their object has been garbage collected, to be released by releaseDropped()
+    private static final ReferenceQueue<ResultsBatches> DROPPED
+        = new ReferenceQueue<ResultsBatches>();
+    private static final Set<Resources> LIVE = Collections.newSetFromMap(
+            new ConcurrentHashMap<Resources, Boolean>());
+
+    // Identifies the batches of this object in the shared batch cache
+    private final long id = NEXT_ID.incrementAndGet();
+    private final Resources resources = new Resources(this);
+
     // A map of batch number against a List of ResultsRows
-    protected Map<Integer, List<Object>> batches = Collections.synchronizedMap(
-            new CacheMap<Integer, List<Object>>("Results batches"));
+    protected Map<Integer, List<Object>> batches = createBatchMap();
+
+    // Second cache tier for batches evicted from batches - null if not in use
+    protected volatile BatchSpillStore spillStore = null;
+    protected volatile BatchCodec spillCodec = null;
+    private boolean closed = false;
+    private volatile String spillKey = null;
 
     /**
      * Construct a new ResultsBatches object. This is generally only called by the Results object.
@@ -56,11 +114,218 @@ public class ResultsBatches
      * @param sequence the ObjectStore-specific sequence data
      */
     public ResultsBatches(Query query, ObjectStore os, Map<Object, Integer> sequence) {
+        releaseDropped();
         this.query = query;
         this.os = os;
         this.sequence = sequence;
     }
 
+    /**
+     * Returns the batch cache shared by all ResultsBatches objects, or null if the
+     * resultsBatches cache is not configured as bounded.
+     *
+     * @return a BoundedCacheMap, or null
+     */
+    @SuppressWarnings("unchecked")
+    static synchronized BoundedCacheMap<BatchKey, List<Object>> getSharedBatches() {
+        if (!sharedBatchesConfigured) {
+            Map<BatchKey, List<Object>> map = CacheMapFactory.create("resultsBatches",
+                    "Results batches", DEFAULT_BATCH_CACHE_WEIGHT, BATCH_WEIGHER);
+            if (map instanceof BoundedCacheMap<?, ?>) {
+                setSharedBatches((BoundedCacheMap<BatchKey, List<Object>>) map);
+            }
+            sharedBatchesConfigured = true;
+        }
+        return sharedBatches;
+    }
+
+    /**
+     * Replaces the batch cache shared by ResultsBatches objects created from now on. This is for
+     * tests.
+     *
+     * @param cache a BoundedCacheMap, or null to give each new object its own soft-reference
+     * cache
+     */
+    static synchronized void setSharedBatches(BoundedCacheMap<BatchKey, List<Object>> cache) {
+        sharedBatches = cache;
+        sharedBatchesConfigured = true;
+        if (cache != null) {
+            cache.setEvictionListener(new EvictionListener<BatchKey, List<Object>>() {
+                @Override
+                public void evicted(BatchKey key, List<Object> rows) {
+                    ResultsBatches owner = key.owner.get();
+                    if (owner != null) {
+                        owner.evicted(key.batchNo, rows);
+                    }
+                }
+            });
+        }
+    }
+
+    private Map<Integer, List<Object>> createBatchMap() {
+        BoundedCacheMap<BatchKey, List<Object>> shared = getSharedBatches();
+        if (shared == null) {
+            return Collections.synchronizedMap(new CacheMap<Integer, List<Object>>(
+                        "Results batches"));
+        }
+        resources.shared = shared;
+        LIVE.add(resources);
+        return new SharedBatchView(this, shared, resources.batchNos);
+    }
+
+    /**
+     * Releases the batches in the shared batch cache, and the spill stores, of the
+     * ResultsBatches objects that have been garbage collected without being closed. This is
+     * called whenever a ResultsBatches is created or starts spilling, so there is usually no need
+     * to call it otherwise.
+     */
+    public static void releaseDropped() {
+        Reference<? extends ResultsBatches> ref;
+        while ((ref = DROPPED.poll()) != null) {
+            Resources dropped = (Resources) ref;
+            LIVE.remove(dropped);
+            dropped.release();
+        }
+    }
+
+    /**
+     * Called when one of the batches of this object is evicted from the shared batch cache.
+     *
+     * @param batchNo the batch number
+     * @param rows the rows of the batch
+     */
+    void evicted(int batchNo, List<Object> rows) {
+        if (batches instanceof SharedBatchView) {
+            ((SharedBatchView) batches).forget(batchNo);
+        }
+        spill(batchNo, rows);
+    }
+
+    /**
+     * Enables writing batches evicted from memory to a spill store, and reading them back from it
+     * instead of re-running the query. The spill store is created as configured in the global
+     * properties when the first batch is evicted, and belongs to this object. This only has an
+     * effect if the batch cache is configured as bounded, as a soft-reference cache does not see
+     * its values before they are discarded.
+     *
+     * @param codec a BatchCodec suitable for the ObjectStore of this object
+     */
+    public void enableSpill(BatchCodec codec) {
+        setSpillStore(null, codec);
+    }
+
+    /**
+     * Enables writing batches evicted from memory to the given spill store, and reading them back
+     * from it instead of re-running the query. The store then belongs to this object, and is
+     * closed when this object is closed. This only has an effect if the batch cache is
+     * configured as bounded.
+     *
+     * @param store the BatchSpillStore, or null to create one when it is first needed
+     * @param codec a BatchCodec suitable for the ObjectStore of this object
+     */
+    public synchronized void setSpillStore(BatchSpillStore store, BatchCodec codec) {
+        if (!(batches instanceof SharedBatchView)) {
+            LOG.debug("Not spilling batches for " + query + " - os.cache.resultsBatches.type is"
+                    + " not bounded");
+            return;
+        }
+        this.spillCodec = codec;
+        this.spillStore = store;
+        resources.spillStore = store;
+        LIVE.add(resources);
+    }
+
+    /**
+     * Releases the memory and disk space held by this object. Its batches are removed from the
+     * batch cache, and its spill store is closed, which deletes the spill file. The object can
+     * still be used afterwards, but will fetch batches from the ObjectStore again, and will not
+     * spill them. An object that is garbage collected without being closed is released by
+     * releaseDropped().
+     */
+    public void close() {
+        BatchSpillStore store;
+        synchronized (this) {
+            closed = true;
+            store = spillStore;
+            spillStore = null;
+            resources.spillStore = null;
+            spillCodec = null;
+        }
+        batches.clear();
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * Returns the spill store of this object.
+     *
+     * @return a BatchSpillStore, or null if no batches have been spilled
+     */
+    BatchSpillStore getSpillStore() {
+        return spillStore;
+    }
+
+    /**
+     * Returns the key used to identify the batches of this object in the spill store. This
+     * includes the batch size, the query, and the state of the database.
+     *
+     * @return a String
+     */
+    protected String getSpillKey() {
+        // Batches are only spilled once they have been fetched, after which nothing in the key
+        // can change, so it is built only once
+        String retval = spillKey;
+        if (retval == null) {
+            retval = "batchSize: " + batchSize + ", sequence: " + sequence + ", query: " + query;
+            spillKey = retval;
+        }
+        return retval;
+    }
+
+    private void spill(int batchNo, List<Object> rows) {
+        BatchSpillStore store;
+        BatchCodec codec;
+        synchronized (this) {
+            if ((rows == null) || (spillCodec == null) || closed) {
+                return;
+            }
+            if (spillStore == null) {
+                // make room for the new store in the spill budget
+                releaseDropped();
+                spillStore = BatchSpillStore.create();
+                resources.spillStore = spillStore;
+                LIVE.add(resources);
+            }
+            store = spillStore;
+            codec = spillCodec;
+        }
+        if (store != null) {
+            byte[] data = codec.encode(rows);
+            if (data != null) {
+                store.put(getSpillKey(), batchNo, data);
+            }
+        }
+    }
+
+    private List<Object> unspill(BatchSpillStore store, int batchNo)
+        throws ObjectStoreException {
+        byte[] data = store.get(getSpillKey(), batchNo);
+        if (data == null) {
+            return null;
+        }
+        BatchCodec codec = spillCodec;
+        if (codec == null) {
+            return null;
+        }
+        List<Object> rows = codec.decode(data);
+        synchronized (this) {
+            updateSizes(batchNo, rows);
+            batches.put(new Integer(batchNo), rows);
+        }
+        return rows;
+    }
+
     /**
      * Get the Query that produced this ResultsBatches object. Note that due to the ObjectStore's
      * Results cache, this may not be the exact same Query as you passed to ObjectStore.execute. The
@@ -117,9 +382,7 @@ public class ResultsBatches
      * @param explain true if this method should explain each query first
      */
     public void prefetch(int batchNo, boolean optimise, boolean explain) {
-        if (!batches.containsKey(new Integer(batchNo))) {
-            PrefetchManager.addRequest(this, batchNo, optimise, explain);
-        }
+        PrefetchManager.addRequest(this, batchNo, optimise, explain);
     }
 
     /**
@@ -160,6 +423,10 @@ public class ResultsBatches
     protected List<Object> getBatch(int batchNo, boolean optimise, boolean explain)
         throws ObjectStoreException {
         List<Object> retval = batches.get(new Integer(batchNo));
+        BatchSpillStore store = spillStore;
+        if ((retval == null) && (store != null)) {
+            retval = unspill(store, batchNo);
+        }
         if (retval == null) {
             retval = PrefetchManager.doRequest(this, batchNo, optimise, explain);
         }
@@ -194,17 +461,7 @@ public class ResultsBatches
             rows = tmpRows;
 
             synchronized (this) {
-                // Now deal with a partial batch, so we can update the maximum size
-                if (rows.size() != batchSize) {
-                    int size = start + rows.size();
-                    maxSize = (maxSize > size ? size : maxSize);
-                }
-                // Now deal with non-empty batch, so we can update the minimum size
-                if (!rows.isEmpty()) {
-                    int size = start + rows.size();
-                    minSize = (minSize > size ? minSize : size);
-                }
-
+                updateSizes(batchNo, rows);
                 Integer key = new Integer(batchNo);
                 batches.put(key, rows);
             }
@@ -220,6 +477,27 @@ public class ResultsBatches
         return rows;
     }
 
+    /**
+     * Updates the known minimum and maximum size of the results from a batch. This must be
+     * called while holding the lock on this object.
+     *
+     * @param batchNo the batch number
+     * @param rows the contents of the batch
+     */
+    private void updateSizes(int batchNo, List<Object> rows) {
+        int start = batchNo * batchSize;
+        // Now deal with a partial batch, so we can update the maximum size
+        if (rows.size() != batchSize) {
+            int size = start + rows.size();
+            maxSize = (maxSize > size ? size : maxSize);
+        }
+        // Now deal with non-empty batch, so we can update the minimum size
+        if (!rows.isEmpty()) {
+            int size = start + rows.size();
+            minSize = (minSize > size ? minSize : size);
+        }
+    }
+
     /**
      * Gets the number of results rows in this Results object.
      *
@@ -307,6 +585,7 @@ public class ResultsBatches
                     + " to " + size);
         }
         batchSize = size;
+        spillKey = null;
     }
 
     /**
@@ -379,4 +658,150 @@ public class ResultsBatches
             return null;
         }
     }
+
+    /**
+     * The key of a batch in the shared batch cache. The owner is held weakly, so that batches in
+     * the cache do not keep their ResultsBatches alive.
+     */
+    static final class BatchKey
+    {
+        private final long ownerId;
+        private final int batchNo;
+        private final WeakReference<ResultsBatches> owner;
+
+        BatchKey(ResultsBatches owner, int batchNo) {
+            this.ownerId = owner.id;
+            this.batchNo = batchNo;
+            this.owner = new WeakReference<ResultsBatches>(owner);
+        }
+
+        BatchKey(long ownerId, int batchNo) {
+            this.ownerId = ownerId;
+            this.batchNo = batchNo;
+            this.owner = new WeakReference<ResultsBatches>(null);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (ownerId ^ (ownerId >>> 32)) * 31 + batchNo;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof BatchKey) {
+                BatchKey other = (BatchKey) o;
+                return (ownerId == other.ownerId) && (batchNo == other.batchNo);
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "batch " + batchNo + " of ResultsBatches " + ownerId;
+        }
+    }
+
+    /**
+     * The batches of one ResultsBatches object in the shared batch cache, as a Map from batch
+     * number. The batch numbers put in are remembered so that the entrySet() and clear() methods
+     * do not have to scan the whole shared cache.
+     */
+    private static final class SharedBatchView extends AbstractMap<Integer, List<Object>>
+    {
+        private final ResultsBatches owner;
+        private final BoundedCacheMap<BatchKey, List<Object>> shared;
+        private final Set<Integer> batchNos;
+
+        SharedBatchView(ResultsBatches owner, BoundedCacheMap<BatchKey, List<Object>> shared,
+                Set<Integer> batchNos) {
+            this.owner = owner;
+            this.shared = shared;
+            this.batchNos = batchNos;
+        }
+
+        private BatchKey key(Object batchNo) {
+            return new BatchKey(owner, ((Integer) batchNo).intValue());
+        }
+
+        @Override
+        public List<Object> get(Object batchNo) {
+            return (batchNo instanceof Integer) ? shared.get(key(batchNo)) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object batchNo) {
+            return (batchNo instanceof Integer) && shared.containsKey(key(batchNo));
+        }
+
+        @Override
+        public List<Object> put(Integer batchNo, List<Object> rows) {
+            batchNos.add(batchNo);
+            return shared.put(key(batchNo), rows);
+        }
+
+        @Override
+        public List<Object> remove(Object batchNo) {
+            if (!(batchNo instanceof Integer)) {
+                return null;
+            }
+            batchNos.remove(batchNo);
+            return shared.remove(key(batchNo));
+        }
+
+        void forget(int batchNo) {
+            batchNos.remove(new Integer(batchNo));
+        }
+
+        @Override
+        public void clear() {
+            for (Integer batchNo : batchNos) {
+                remove(batchNo);
+            }
+        }
+
+        @Override
+        public Set<Map.Entry<Integer, List<Object>>> entrySet() {
+            Map<Integer, List<Object>> retval = new HashMap<Integer, List<Object>>();
+            for (Integer batchNo : batchNos) {
+                List<Object> rows = shared.get(key(batchNo));
+                if (rows != null) {
+                    retval.put(batchNo, rows);
+                }
+            }
+            return Collections.unmodifiableMap(retval).entrySet();
+        }
+    }
+
+    /**
+     * The things held by a ResultsBatches outside itself - its batches in the shared batch cache,
+     * and its spill store - which are released once it has been garbage collected. This refers
+     * to the ResultsBatches only weakly.
+     */
+    private static final class Resources extends WeakReference<ResultsBatches>
+    {
+        private final long ownerId;
+        private final Set<Integer> batchNos = Collections.newSetFromMap(
+                new ConcurrentHashMap<Integer, Boolean>());
+        private volatile BoundedCacheMap<BatchKey, List<Object>> shared = null;
+        private volatile BatchSpillStore spillStore = null;
+
+        Resources(ResultsBatches owner) {
+            super(owner, DROPPED);
+            ownerId = owner.id;
+        }
+
+        void release() {
+            BoundedCacheMap<BatchKey, List<Object>> cache = shared;
+            if (cache != null) {
+                for (Integer batchNo : batchNos) {
+                    cache.remove(new BatchKey(ownerId, batchNo.intValue()));
+                }
+                batchNos.clear();
+            }
+            BatchSpillStore store = spillStore;
+            if (store != null) {
+                store.close();
+            }
+        }
+    }
 }
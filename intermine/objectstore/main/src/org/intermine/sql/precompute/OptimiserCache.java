@@ -10,16 +10,21 @@ package org.intermine.sql.precompute;
  *
  */
 
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.intermine.sql.Database;
-import org.intermine.util.CacheMap;
+import org.intermine.util.BoundedCacheMap;
+import org.intermine.util.CacheStatistics;
 
 /**
  * A class that provides an implementation of a cache for String-based SQL query optimisation.
+ * The cache holds at most MAX_LINESETS original queries, evicting the least recently used ones,
+ * and can be read and written by many threads without a shared lock. Its hit, eviction and time
+ * saved counters are reported through JMX by CacheStatistics.
  *
  * @author Matthew Wakeling
  */
@@ -30,9 +35,13 @@ public class OptimiserCache
     /** Number of events to happen before an expiration run. */
     public static final int EXPIRE_INTERVAL = 100;
 
+    /** The name of the statistics shared by the per-database caches. */
+    public static final String CACHE_NAME = "optimiserCache";
+
     // Caches need to be per-database, so we will provide a static method to retrieve a cache object
-    // given a database. We need to be careful about synchronisation in this whole class.
-    private static Map<Database, OptimiserCache> caches = new HashMap<Database, OptimiserCache>();
+    // given a database.
+    private static ConcurrentMap<Database, OptimiserCache> caches =
+        new ConcurrentHashMap<Database, OptimiserCache>();
 
     /**
      * Returns an OptimiserCache object relevant to the database given.
@@ -40,11 +49,16 @@ public class OptimiserCache
      * @param db a Database object to find a cache for
      * @return an OptimiserCache object
      */
-    public static synchronized OptimiserCache getInstance(Database db) {
-        if (!caches.containsKey(db)) {
-            caches.put(db, new OptimiserCache());
+    public static OptimiserCache getInstance(Database db) {
+        OptimiserCache retval = caches.get(db);
+        if (retval == null) {
+            OptimiserCache newCache = new OptimiserCache();
+            retval = caches.putIfAbsent(db, newCache);
+            if (retval == null) {
+                retval = newCache;
+            }
         }
-        return caches.get(db);
+        return retval;
     }
 
 
@@ -54,17 +68,40 @@ public class OptimiserCache
      */
     protected Map<String, Set<OptimiserCacheLine>> cacheLines;
 
+    private final CacheStatistics stats;
+
     /**
      * Constructor for this object.
      */
     public OptimiserCache() {
-        cacheLines = new CacheMap<String, Set<OptimiserCacheLine>>();
+        this(CACHE_NAME);
+    }
+
+    /**
+     * Constructor for this object, which reports its statistics under the given name.
+     *
+     * @param name the name of the cache statistics
+     */
+    public OptimiserCache(String name) {
+        BoundedCacheMap<String, Set<OptimiserCacheLine>> map =
+            new BoundedCacheMap<String, Set<OptimiserCacheLine>>(name, MAX_LINESETS);
+        cacheLines = map;
+        stats = map.getStatistics();
+    }
+
+    /**
+     * Returns the statistics of this cache, which are shared with other caches of the same name.
+     *
+     * @return a CacheStatistics object
+     */
+    public CacheStatistics getStatistics() {
+        return stats;
     }
 
     /**
      * Removes all entries from the cache.
      */
-    public synchronized void flush() {
+    public void flush() {
         cacheLines.clear();
     }
 
@@ -75,7 +112,20 @@ public class OptimiserCache
      * @param optimised the optimised SQL string (stripped of LIMIT and OFFSET)
      * @param limit the limit that was used during the optimisation
      */
-    public synchronized void addCacheLine(String original, String optimised, int limit) {
+    public void addCacheLine(String original, String optimised, int limit) {
+        addCacheLine(original, optimised, limit, 0);
+    }
+
+    /**
+     * Adds a new OptimiserCacheLine object to the cache, recording how long the optimisation
+     * took so that the time saved by later hits can be reported.
+     *
+     * @param original the original SQL string (stripped of LIMIT and OFFSET)
+     * @param optimised the optimised SQL string (stripped of LIMIT and OFFSET)
+     * @param limit the limit that was used during the optimisation
+     * @param optimiseTime the number of milliseconds the optimisation took
+     */
+    public void addCacheLine(String original, String optimised, int limit, long optimiseTime) {
         if (original.toUpperCase().startsWith("EXPLAIN ")) {
             original = original.substring(8);
         }
@@ -84,11 +134,13 @@ public class OptimiserCache
         }
         Set<OptimiserCacheLine> lines = cacheLines.get(original);
         if (lines == null) {
-            lines = new HashSet<OptimiserCacheLine>();
+            // If two threads race to create the set, one line is lost, which only costs a
+            // later cache miss
+            lines = new CopyOnWriteArraySet<OptimiserCacheLine>();
             cacheLines.put(original, lines);
         }
 
-        OptimiserCacheLine line = new OptimiserCacheLine(optimised, limit, original);
+        OptimiserCacheLine line = new OptimiserCacheLine(optimised, limit, original, optimiseTime);
 
         lines.add(line);
     }
@@ -100,7 +152,7 @@ public class OptimiserCache
      * @param limit the limit required
      * @return a possible optimised SQL string (minus LIMIT and OFFSET)
      */
-    public synchronized String lookup(String original, int limit) {
+    public String lookup(String original, int limit) {
         //LOG.debug("Looking up query \"" + original + "\" with limit " + limit
         //        + " and offset " + offset + " - ");
         boolean originalWasExplain = false;
@@ -128,6 +180,7 @@ public class OptimiserCache
             return null;
         }
         //LOG.debug("Cache hit");
+        stats.recordTimeSaved(bestLine.getOptimiseTime());
         return (originalWasExplain ? "EXPLAIN " : "") + bestLine.getOptimised();
     }
 }
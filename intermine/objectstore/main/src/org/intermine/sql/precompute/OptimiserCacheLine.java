@@ -22,6 +22,7 @@ public class OptimiserCacheLine
     private String optimised;
     private int limit;
     private String original;
+    private long optimiseTime;
 
 
     /**
@@ -32,9 +33,22 @@ public class OptimiserCacheLine
      * @param original the original sql query
      */
     public OptimiserCacheLine(String optimised, int limit, String original) {
+        this(optimised, limit, original, 0);
+    }
+
+    /**
+     * Constructor for this object.
+     *
+     * @param optimised the optimised SQL String, minus the LIMIT and OFFSET
+     * @param limit the limit that was used to generate optimised
+     * @param original the original sql query
+     * @param optimiseTime the number of milliseconds it took to produce optimised
+     */
+    public OptimiserCacheLine(String optimised, int limit, String original, long optimiseTime) {
         this.optimised = optimised;
         this.limit = limit;
         this.original = original;
+        this.optimiseTime = optimiseTime;
     }
 
     /**
@@ -68,5 +82,15 @@ public class OptimiserCacheLine
     public String getOriginal() {
         return original;
     }
+
+    /**
+     * Returns the time it took to optimise the original query, which is saved every time this
+     * line is used.
+     *
+     * @return a number of milliseconds
+     */
+    public long getOptimiseTime() {
+        return optimiseTime;
+    }
 }
 
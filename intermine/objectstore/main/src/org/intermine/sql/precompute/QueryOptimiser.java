@@ -67,7 +67,7 @@ public final class QueryOptimiser
     private static final int REPORT_INTERVAL = 10000;
 
     private static final String ALIAS_PREFIX = "P";
-    private static int callCount = 0;
+    private static final QueryOptimiserStatistics STATS = QueryOptimiserStatistics.getInstance();
 
     /**
      * Runs the optimiser through the query represented in the String, given the database. If
@@ -182,9 +182,9 @@ public final class QueryOptimiser
             Set<PrecomputedTable> precomputedTables, OptimiserCache cache) throws SQLException {
         Connection explainConnection = connection;
         Query optimiseQuery = originalQuery;
-        callCount++;
+        long callCount = STATS.recordCall();
         if (callCount % REPORT_INTERVAL == 0) {
-            LOG.info("Optimiser called " + callCount + " times");
+            LOG.info("Optimiser called " + callCount + " times - " + STATS);
         }
         long start = new Date().getTime();
         long parseTime = 0;
@@ -198,6 +198,7 @@ public final class QueryOptimiser
         }
         // TODO: fix so that the OptimiserCache is updated when precomputed tables are deleted
         if (cachedQuery != null) {
+            STATS.recordCacheHit();
             LOG.debug("Optimising query took " + ((new Date()).getTime() - start)
                     + " ms - cache hit: " + query);
             return new BestQueryFallback(null, limitOffsetQuery.reconstruct(cachedQuery));
@@ -264,11 +265,13 @@ public final class QueryOptimiser
             optimisedQuery = bestQuery.getBestQueryString();
             // Add optimised query to the cache here.
             LimitOffsetQuery limitOffsetOptimisedQuery = new LimitOffsetQuery(optimisedQuery);
+            long optimiseTime = (new Date()).getTime() - start;
             LOG.debug("New cache line produced - limit = " + limitOffsetQuery.getLimit());
             cache.addCacheLine(limitOffsetQuery.getQuery(), limitOffsetOptimisedQuery.getQuery(),
-                    limitOffsetQuery.getLimit());
+                    limitOffsetQuery.getLimit(), optimiseTime);
+            STATS.recordOptimisation(optimiseTime, parseTime == 0 ? 0 : parseTime - start);
             LOG.debug("Optimising " + (expectedTime == 0 ? "" : expectedTime + " ms ")
-                    + "query took " + ((new Date()).getTime() - start)
+                    + "query took " + optimiseTime
                     + (parseTime == 0 ? " ms without parsing " : " ms including "
                         + (parseTime - start) + " ms for parse ") + "- cache miss: " + query);
             return bestQuery;
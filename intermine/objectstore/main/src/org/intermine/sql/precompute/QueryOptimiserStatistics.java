@@ -0,0 +1,180 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Call, cache hit and timing counters for the QueryOptimiser, registered with the platform
+ * MBeanServer as <code>org.intermine:type=QueryOptimiser</code>. The eviction and time saved
+ * counters of the optimiser caches themselves are reported by CacheStatistics, under the name
+ * OptimiserCache.CACHE_NAME.
+ *
+ * @author intermine
+ */
+public final class QueryOptimiserStatistics implements QueryOptimiserStatisticsMBean
+{
+    private static final Logger LOG = Logger.getLogger(QueryOptimiserStatistics.class);
+    private static final QueryOptimiserStatistics INSTANCE = new QueryOptimiserStatistics();
+
+    static {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("org.intermine:type=QueryOptimiser");
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(INSTANCE, objectName);
+            }
+        } catch (JMException e) {
+            LOG.warn("Could not register QueryOptimiser statistics with JMX", e);
+        } catch (SecurityException e) {
+            LOG.warn("Could not register QueryOptimiser statistics with JMX", e);
+        }
+    }
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong optimisations = new AtomicLong();
+    private final AtomicLong optimiseMillis = new AtomicLong();
+    private final AtomicLong maxOptimiseMillis = new AtomicLong();
+    private final AtomicLong parseMillis = new AtomicLong();
+
+    private QueryOptimiserStatistics() {
+    }
+
+    /**
+     * Returns the single instance of this class.
+     *
+     * @return a QueryOptimiserStatistics object
+     */
+    public static QueryOptimiserStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a call to the optimiser.
+     *
+     * @return the number of calls so far, including this one
+     */
+    public long recordCall() {
+        return calls.incrementAndGet();
+    }
+
+    /**
+     * Records a query that was answered from a cache.
+     */
+    public void recordCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    /**
+     * Records a query that was optimised.
+     *
+     * @param millis the time the optimisation took, including parsing
+     * @param parse the time spent parsing the query
+     */
+    public void recordOptimisation(long millis, long parse) {
+        optimisations.incrementAndGet();
+        optimiseMillis.addAndGet(millis);
+        parseMillis.addAndGet(parse);
+        long max = maxOptimiseMillis.get();
+        while (millis > max && !maxOptimiseMillis.compareAndSet(max, millis)) {
+            max = maxOptimiseMillis.get();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getCacheHitRatio() {
+        long callCount = calls.get();
+        return callCount == 0 ? 0.0 : ((double) cacheHits.get()) / callCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getOptimiseCount() {
+        return optimisations.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTotalOptimiseMillis() {
+        return optimiseMillis.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getMeanOptimiseMillis() {
+        long count = optimisations.get();
+        return count == 0 ? 0.0 : ((double) optimiseMillis.get()) / count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxOptimiseMillis() {
+        return maxOptimiseMillis.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTotalParseMillis() {
+        return parseMillis.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        calls.set(0);
+        cacheHits.set(0);
+        optimisations.set(0);
+        optimiseMillis.set(0);
+        maxOptimiseMillis.set(0);
+        parseMillis.set(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "QueryOptimiser: calls = " + getCallCount() + ", cache hits = " + getCacheHitCount()
+            + ", optimisations = " + getOptimiseCount() + " taking " + getTotalOptimiseMillis()
+            + " ms (" + getTotalParseMillis() + " ms parsing, max " + getMaxOptimiseMillis()
+            + " ms)";
+    }
+}
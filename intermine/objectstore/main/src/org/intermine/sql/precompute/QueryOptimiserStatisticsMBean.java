@@ -0,0 +1,81 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * JMX management interface for the QueryOptimiser timings.
+ *
+ * @author intermine
+ */
+public interface QueryOptimiserStatisticsMBean
+{
+    /**
+     * Returns the number of queries passed to the optimiser.
+     *
+     * @return a long
+     */
+    long getCallCount();
+
+    /**
+     * Returns the number of queries answered from an OptimiserCache.
+     *
+     * @return a long
+     */
+    long getCacheHitCount();
+
+    /**
+     * Returns the proportion of queries answered from an OptimiserCache, or zero if there have
+     * been no queries.
+     *
+     * @return a double between 0 and 1
+     */
+    double getCacheHitRatio();
+
+    /**
+     * Returns the number of queries that were optimised rather than found in a cache.
+     *
+     * @return a long
+     */
+    long getOptimiseCount();
+
+    /**
+     * Returns the total time spent optimising queries that were not found in a cache.
+     *
+     * @return a number of milliseconds
+     */
+    long getTotalOptimiseMillis();
+
+    /**
+     * Returns the mean time spent optimising a query that was not found in a cache.
+     *
+     * @return a number of milliseconds
+     */
+    double getMeanOptimiseMillis();
+
+    /**
+     * Returns the longest time spent optimising a single query.
+     *
+     * @return a number of milliseconds
+     */
+    long getMaxOptimiseMillis();
+
+    /**
+     * Returns the total time spent parsing queries before optimising them.
+     *
+     * @return a number of milliseconds
+     */
+    long getTotalParseMillis();
+
+    /**
+     * Resets all the counters to zero.
+     */
+    void reset();
+}
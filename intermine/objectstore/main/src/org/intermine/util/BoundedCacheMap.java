@@ -0,0 +1,443 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A thread-safe Map implementation designed for caches, which holds its values strongly but
+ * keeps the total weight of its entries within a fixed bound. Unlike CacheMap, entries are not
+ * all thrown away together when the garbage collector runs short of memory - instead, the least
+ * valuable entries are evicted as soon as the bound is reached.
+ * <p>
+ * Eviction uses a segmented LRU policy. A new entry goes into a probationary segment, and is
+ * promoted into a protected segment if it is read again. Entries are evicted from the least
+ * recently used end of the probationary segment first, so a scan over many entries that are
+ * only used once does not flush out the entries that are used repeatedly. The protected segment
+ * is limited to 80% of the bound, and entries pushed out of it are demoted back to probation.
+ * <p>
+ * The map is split into a number of independently locked stripes by key hash, each of which
+ * has an equal share of the bound, so that concurrent readers do not contend on a single
+ * monitor. Null values are permitted. The keySet(), values() and entrySet() methods return
+ * unmodifiable snapshots.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @author intermine
+ */
+public class BoundedCacheMap<K, V> extends AbstractMap<K, V>
+{
+    /** The default number of stripes */
+    public static final int DEFAULT_STRIPES = 16;
+
+    private static final Weigher<Object, Object> UNIT_WEIGHER = new Weigher<Object, Object>() {
+        @Override
+        public int weigh(Object key, Object value) {
+            return 1;
+        }
+    };
+
+    private final Stripe<K, V>[] stripes;
+    private final Weigher<? super K, ? super V> weigher;
+    private final CacheStatistics stats;
+    private final long maxWeight;
+    private volatile EvictionListener<? super K, ? super V> listener = null;
+
+    /**
+     * Constructs a new, empty BoundedCacheMap.
+     *
+     * @param name the name of the cache, used to group its statistics
+     * @param maxWeight the maximum total weight of the entries in the map
+     * @param stripeCount the number of independently locked stripes
+     * @param weigher a Weigher to calculate the weight of each entry
+     */
+    public BoundedCacheMap(String name, long maxWeight, int stripeCount,
+            Weigher<? super K, ? super V> weigher) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight must be greater than zero, was "
+                    + maxWeight);
+        }
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("stripeCount must be greater than zero, was "
+                    + stripeCount);
+        }
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.stats = CacheStatistics.getInstance(name);
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Stripe<K, V>[] newStripes = new Stripe[stripeCount];
+        stripes = newStripes;
+        long stripeWeight = Math.max(1, maxWeight / stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe<K, V>(stripeWeight);
+        }
+    }
+
+    /**
+     * Constructs a new, empty BoundedCacheMap in which every entry has a weight of one, so the
+     * bound is a maximum number of entries.
+     *
+     * @param name the name of the cache, used to group its statistics
+     * @param maxSize the maximum number of entries in the map
+     */
+    public BoundedCacheMap(String name, int maxSize) {
+        this(name, maxSize, DEFAULT_STRIPES, unitWeigher());
+    }
+
+    /**
+     * Sets a listener to be told about every entry evicted from this map from now on.
+     *
+     * @param listener an EvictionListener, or null for none
+     */
+    public void setEvictionListener(EvictionListener<? super K, ? super V> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns a Weigher that gives every entry a weight of one.
+     *
+     * @return a Weigher
+     */
+    public static Weigher<Object, Object> unitWeigher() {
+        return UNIT_WEIGHER;
+    }
+
+    private Stripe<K, V> stripeFor(Object key) {
+        int h = (key == null ? 0 : key.hashCode());
+        // Spread the bits, as some keys (Integers) have very poor low-order distribution
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return stripes[(h & 0x7fffffff) % stripes.length];
+    }
+
+    /**
+     * Returns the statistics object shared by all caches with the same name as this one.
+     *
+     * @return a CacheStatistics object
+     */
+    public CacheStatistics getStatistics() {
+        return stats;
+    }
+
+    /**
+     * Returns the maximum total weight of entries in this map.
+     *
+     * @return a long
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Returns the current total weight of the entries in this map.
+     *
+     * @return a long
+     */
+    public long getWeight() {
+        long retval = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                retval += stripe.probationWeight + stripe.protectedWeight;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get(Object key) {
+        Stripe<K, V> stripe = stripeFor(key);
+        Entry<V> entry;
+        synchronized (stripe) {
+            entry = stripe.get(key);
+        }
+        if (entry == null) {
+            stats.recordMiss();
+            return null;
+        }
+        stats.recordHit();
+        return entry.value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        Stripe<K, V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.probation.containsKey(key) || stripe.protectedEntries.containsKey(key);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V put(K key, V value) {
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight + " for key " + key);
+        }
+        stats.recordPut();
+        Stripe<K, V> stripe = stripeFor(key);
+        EvictionListener<? super K, ? super V> currentListener = listener;
+        List<Map.Entry<K, Entry<V>>> evicted = (currentListener == null ? null
+                : new ArrayList<Map.Entry<K, Entry<V>>>());
+        Entry<V> old;
+        synchronized (stripe) {
+            old = stripe.put(key, new Entry<V>(value, weight), stats, evicted);
+        }
+        if (evicted != null) {
+            for (Map.Entry<K, Entry<V>> entry : evicted) {
+                currentListener.evicted(entry.getKey(), entry.getValue().value);
+            }
+        }
+        return old == null ? null : old.value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V remove(Object key) {
+        Stripe<K, V> stripe = stripeFor(key);
+        Entry<V> old;
+        synchronized (stripe) {
+            old = stripe.remove(key);
+        }
+        return old == null ? null : old.value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        int retval = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                retval += stripe.probation.size() + stripe.protectedEntries.size();
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the keys in this map. The returned Set does not reflect later changes
+     * to the map, and cannot be modified.
+     *
+     * @return a Set of keys
+     */
+    @Override
+    public Set<K> keySet() {
+        Set<K> retval = new HashSet<K>();
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                retval.addAll(stripe.probation.keySet());
+                retval.addAll(stripe.protectedEntries.keySet());
+            }
+        }
+        return Collections.unmodifiableSet(retval);
+    }
+
+    /**
+     * Returns a snapshot of the entries in this map. The returned Set does not reflect later
+     * changes to the map, and cannot be modified. Taking the snapshot does not count as an access
+     * for the purposes of eviction.
+     *
+     * @return a Set of entries
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Map<K, V> retval = new HashMap<K, V>();
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                for (Map.Entry<K, Entry<V>> entry : stripe.probation.entrySet()) {
+                    retval.put(entry.getKey(), entry.getValue().value);
+                }
+                for (Map.Entry<K, Entry<V>> entry : stripe.protectedEntries.entrySet()) {
+                    retval.put(entry.getKey(), entry.getValue().value);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(retval).entrySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "BoundedCacheMap(" + stats.getName() + ", " + size() + " entries, weight "
+            + getWeight() + " of " + maxWeight + ")";
+    }
+
+    /**
+     * A cached value with its weight.
+     *
+     * @param <V> the type of the value
+     */
+    private static class Entry<V>
+    {
+        final V value;
+        final int weight;
+
+        Entry(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * One independently locked part of the map. All methods must be called while holding the
+     * monitor of the Stripe.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     */
+    private static class Stripe<K, V>
+    {
+        final long maxWeight;
+        final long maxProtectedWeight;
+        // Both LinkedHashMaps are in access order, so iteration starts at the least recently used
+        final LinkedHashMap<K, Entry<V>> probation = new LinkedHashMap<K, Entry<V>>(16, 0.75F,
+                true);
+        final LinkedHashMap<K, Entry<V>> protectedEntries = new LinkedHashMap<K, Entry<V>>(16,
+                0.75F, true);
+        long probationWeight = 0;
+        long protectedWeight = 0;
+
+        Stripe(long maxWeight) {
+            this.maxWeight = maxWeight;
+            this.maxProtectedWeight = (maxWeight * 4) / 5;
+        }
+
+        Entry<V> get(Object key) {
+            Entry<V> entry = protectedEntries.get(key);
+            if (entry == null) {
+                entry = probation.remove(key);
+                if (entry != null) {
+                    probationWeight -= entry.weight;
+                    promote(key, entry);
+                }
+            }
+            return entry;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void promote(Object key, Entry<V> entry) {
+            protectedEntries.put((K) key, entry);
+            protectedWeight += entry.weight;
+            Iterator<Map.Entry<K, Entry<V>>> iter = protectedEntries.entrySet().iterator();
+            while ((protectedWeight > maxProtectedWeight) && (protectedEntries.size() > 1)) {
+                Map.Entry<K, Entry<V>> demoted = iter.next();
+                iter.remove();
+                protectedWeight -= demoted.getValue().weight;
+                probation.put(demoted.getKey(), demoted.getValue());
+                probationWeight += demoted.getValue().weight;
+            }
+        }
+
+        Entry<V> put(K key, Entry<V> entry, CacheStatistics stats,
+                List<Map.Entry<K, Entry<V>>> evicted) {
+            Entry<V> old = remove(key);
+            if (entry.weight > maxWeight) {
+                // Storing this would flush the whole stripe, so don't.
+                stats.recordEviction(entry.weight);
+                if (evicted != null) {
+                    evicted.add(new SimpleImmutableEntry<K, Entry<V>>(key, entry));
+                }
+                return old;
+            }
+            probation.put(key, entry);
+            probationWeight += entry.weight;
+            evict(stats, evicted);
+            return old;
+        }
+
+        private void evict(CacheStatistics stats, List<Map.Entry<K, Entry<V>>> evicted) {
+            Iterator<Map.Entry<K, Entry<V>>> iter = probation.entrySet().iterator();
+            while ((probationWeight + protectedWeight > maxWeight) && iter.hasNext()) {
+                Map.Entry<K, Entry<V>> victim = iter.next();
+                iter.remove();
+                probationWeight -= victim.getValue().weight;
+                evicted(victim, stats, evicted);
+            }
+            iter = protectedEntries.entrySet().iterator();
+            while ((probationWeight + protectedWeight > maxWeight) && iter.hasNext()) {
+                Map.Entry<K, Entry<V>> victim = iter.next();
+                iter.remove();
+                protectedWeight -= victim.getValue().weight;
+                evicted(victim, stats, evicted);
+            }
+        }
+
+        private void evicted(Map.Entry<K, Entry<V>> victim, CacheStatistics stats,
+                List<Map.Entry<K, Entry<V>>> evicted) {
+            stats.recordEviction(victim.getValue().weight);
+            if (evicted != null) {
+                evicted.add(new SimpleImmutableEntry<K, Entry<V>>(victim));
+            }
+        }
+
+        Entry<V> remove(Object key) {
+            Entry<V> old = probation.remove(key);
+            if (old != null) {
+                probationWeight -= old.weight;
+            } else {
+                old = protectedEntries.remove(key);
+                if (old != null) {
+                    protectedWeight -= old.weight;
+                }
+            }
+            return old;
+        }
+
+        void clear() {
+            probation.clear();
+            protectedEntries.clear();
+            probationWeight = 0;
+            protectedWeight = 0;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Creates the Maps used as caches by the ObjectStore, choosing the implementation for each named
+ * cache from the InterMine properties. For a cache called "results", the following properties
+ * are read, falling back to the global property given, and then to the defaults given by the
+ * caller:
+ * <ul>
+ * <li><code>os.cache.results.type</code> (or <code>os.cache.type</code>) - "soft" for a CacheMap,
+ * which holds its values by soft reference and is cleared by the garbage collector, or "bounded"
+ * for a BoundedCacheMap, which evicts entries to stay within a fixed weight</li>
+ * <li><code>os.cache.results.max-weight</code> - the bound of a "bounded" cache. For caches that
+ * count entries (those using {@link BoundedCacheMap#unitWeigher()}) this is a number of entries,
+ * defaulting to <code>os.cache.max-entries</code>, and for the others it is an estimate of the
+ * number of bytes held, defaulting to <code>os.cache.max-bytes</code></li>
+ * <li><code>os.cache.results.stripes</code> (or <code>os.cache.stripes</code>) - the number of
+ * independently locked stripes in a "bounded" cache</li>
+ * </ul>
+ * All Maps returned are safe for use by multiple threads.
+ *
+ * @author intermine
+ */
+public final class CacheMapFactory
+{
+    private static final Logger LOG = Logger.getLogger(CacheMapFactory.class);
+
+    /** Property prefix for cache configuration */
+    public static final String PREFIX = "os.cache";
+    /** Cache type holding values by soft reference */
+    public static final String TYPE_SOFT = "soft";
+    /** Cache type with a weight bound and segmented LRU eviction */
+    public static final String TYPE_BOUNDED = "bounded";
+    /** Global bound for caches that count entries */
+    public static final String MAX_ENTRIES = "max-entries";
+    /** Global bound for caches that estimate the bytes held */
+    public static final String MAX_BYTES = "max-bytes";
+
+    private CacheMapFactory() {
+        // nothing to do
+    }
+
+    /**
+     * Creates a new cache Map, configured from the global InterMine properties.
+     *
+     * @param name the name of the cache, which selects its configuration and groups its statistics
+     * @param description a description of this particular cache for log messages
+     * @param defaultMaxWeight the bound to use if the properties do not give one
+     * @param weigher a Weigher to calculate the weight of entries in a bounded cache
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return a thread-safe Map
+     */
+    public static <K, V> Map<K, V> create(String name, String description, long defaultMaxWeight,
+            Weigher<? super K, ? super V> weigher) {
+        return create(name, description, defaultMaxWeight, weigher,
+                PropertiesUtil.getProperties());
+    }
+
+    /**
+     * Creates a new cache Map, configured from the given properties.
+     *
+     * @param name the name of the cache, which selects its configuration and groups its statistics
+     * @param description a description of this particular cache for log messages
+     * @param defaultMaxWeight the bound to use if the properties do not give one
+     * @param weigher a Weigher to calculate the weight of entries in a bounded cache
+     * @param props the Properties to read the configuration from
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return a thread-safe Map
+     */
+    public static <K, V> Map<K, V> create(String name, String description, long defaultMaxWeight,
+            Weigher<? super K, ? super V> weigher, Properties props) {
+        String type = getProperty(props, name, "type", "type", TYPE_SOFT);
+        if (TYPE_SOFT.equals(type)) {
+            return Collections.synchronizedMap(new CacheMap<K, V>(description));
+        } else if (TYPE_BOUNDED.equals(type)) {
+            return createBounded(name, description, defaultMaxWeight,
+                    BoundedCacheMap.DEFAULT_STRIPES, weigher, props);
+        }
+        throw new IllegalArgumentException("Unknown cache type \"" + type + "\" for cache " + name
+                + " - must be " + TYPE_SOFT + " or " + TYPE_BOUNDED);
+    }
+
+    /**
+     * Creates a new BoundedCacheMap, whatever the configured type of the cache, with the bound
+     * and number of stripes configured in the global InterMine properties. This is for caches
+     * that must stay within a bound, rather than be left to the garbage collector.
+     *
+     * @param name the name of the cache, which selects its configuration and groups its statistics
+     * @param description a description of this particular cache for log messages
+     * @param defaultMaxWeight the bound to use if the properties do not give one
+     * @param defaultStripes the number of stripes to use if the properties do not give one
+     * @param weigher a Weigher to calculate the weight of entries
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return a BoundedCacheMap
+     */
+    public static <K, V> BoundedCacheMap<K, V> createBounded(String name, String description,
+            long defaultMaxWeight, int defaultStripes, Weigher<? super K, ? super V> weigher) {
+        return createBounded(name, description, defaultMaxWeight, defaultStripes, weigher,
+                PropertiesUtil.getProperties());
+    }
+
+    /**
+     * Creates a new BoundedCacheMap, whatever the configured type of the cache, with the bound
+     * and number of stripes configured in the given properties.
+     *
+     * @param name the name of the cache, which selects its configuration and groups its statistics
+     * @param description a description of this particular cache for log messages
+     * @param defaultMaxWeight the bound to use if the properties do not give one
+     * @param defaultStripes the number of stripes to use if the properties do not give one
+     * @param weigher a Weigher to calculate the weight of entries
+     * @param props the Properties to read the configuration from
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @return a BoundedCacheMap
+     */
+    public static <K, V> BoundedCacheMap<K, V> createBounded(String name, String description,
+            long defaultMaxWeight, int defaultStripes, Weigher<? super K, ? super V> weigher,
+            Properties props) {
+        long maxWeight = defaultMaxWeight;
+        int stripes = defaultStripes;
+        String maxWeightString = getProperty(props, name, "max-weight",
+                weigher == BoundedCacheMap.unitWeigher() ? MAX_ENTRIES : MAX_BYTES, null);
+        String stripesString = getProperty(props, name, "stripes", "stripes", null);
+        try {
+            if (maxWeightString != null) {
+                maxWeight = Long.parseLong(maxWeightString);
+            }
+            if (stripesString != null) {
+                stripes = Integer.parseInt(stripesString);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid configuration for cache " + name
+                    + " in properties " + PREFIX + "." + name + ".*", e);
+        }
+        LOG.debug("Creating bounded cache " + description + " with max-weight " + maxWeight
+                + " and " + stripes + " stripes");
+        return new BoundedCacheMap<K, V>(name, maxWeight, stripes, weigher);
+    }
+
+    private static String getProperty(Properties props, String name, String key,
+            String globalKey, String defaultValue) {
+        String retval = props.getProperty(PREFIX + "." + name + "." + key);
+        if (retval == null) {
+            retval = props.getProperty(PREFIX + "." + globalKey);
+        }
+        return retval == null ? defaultValue : retval.trim();
+    }
+}
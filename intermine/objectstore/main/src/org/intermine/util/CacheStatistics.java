@@ -0,0 +1,205 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Hit, miss and eviction counters for a named cache. There is one instance per name, shared by
+ * every cache created with that name, so that caches that exist once per object (such as the
+ * batches of each Results object) are reported together. Each instance is registered with the
+ * platform MBeanServer as <code>org.intermine:type=Cache,name=&lt;name&gt;</code>.
+ *
+ * @author intermine
+ */
+public final class CacheStatistics implements CacheStatisticsMBean
+{
+    private static final Logger LOG = Logger.getLogger(CacheStatistics.class);
+    private static final ConcurrentMap<String, CacheStatistics> INSTANCES
+        = new ConcurrentHashMap<String, CacheStatistics>();
+
+    private final String name;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong evictedWeight = new AtomicLong();
+    private final AtomicLong timeSaved = new AtomicLong();
+
+    private CacheStatistics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the statistics object for the given cache name, creating and registering it with JMX
+     * if necessary.
+     *
+     * @param name the name of the cache
+     * @return a CacheStatistics object
+     */
+    public static CacheStatistics getInstance(String name) {
+        CacheStatistics retval = INSTANCES.get(name);
+        if (retval == null) {
+            CacheStatistics newStats = new CacheStatistics(name);
+            retval = INSTANCES.putIfAbsent(name, newStats);
+            if (retval == null) {
+                retval = newStats;
+                register(retval);
+            }
+        }
+        return retval;
+    }
+
+    private static void register(CacheStatistics stats) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("org.intermine:type=Cache,name="
+                    + ObjectName.quote(stats.name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(stats, objectName);
+            }
+        } catch (JMException e) {
+            LOG.warn("Could not register statistics for cache " + stats.name + " with JMX", e);
+        } catch (SecurityException e) {
+            LOG.warn("Could not register statistics for cache " + stats.name + " with JMX", e);
+        }
+    }
+
+    /**
+     * Records a lookup that found an entry.
+     */
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Records a lookup that did not find an entry.
+     */
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Records an insertion.
+     */
+    public void recordPut() {
+        puts.incrementAndGet();
+    }
+
+    /**
+     * Records the eviction of an entry.
+     *
+     * @param weight the weight of the evicted entry
+     */
+    public void recordEviction(int weight) {
+        evictions.incrementAndGet();
+        evictedWeight.addAndGet(weight);
+    }
+
+    /**
+     * Records the time that a hit saved, for caches of values that are expensive to compute.
+     *
+     * @param millis the time it took to compute the value that was found, in milliseconds
+     */
+    public void recordTimeSaved(long millis) {
+        timeSaved.addAndGet(millis);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0.0 : ((double) hitCount) / total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getPutCount() {
+        return puts.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getEvictedWeight() {
+        return evictedWeight.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getTimeSavedMillis() {
+        return timeSaved.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset() {
+        hits.set(0);
+        misses.set(0);
+        puts.set(0);
+        evictions.set(0);
+        evictedWeight.set(0);
+        timeSaved.set(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return name + ": hits = " + getHitCount() + ", misses = " + getMissCount()
+            + ", puts = " + getPutCount() + ", evictions = " + getEvictionCount()
+            + " (weight " + getEvictedWeight() + "), time saved = " + getTimeSavedMillis()
+            + " ms";
+    }
+}
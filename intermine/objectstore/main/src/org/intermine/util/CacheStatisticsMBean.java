@@ -0,0 +1,81 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * JMX management interface for the counters of a named cache.
+ *
+ * @author intermine
+ */
+public interface CacheStatisticsMBean
+{
+    /**
+     * Returns the name of the cache.
+     *
+     * @return a String
+     */
+    String getName();
+
+    /**
+     * Returns the number of lookups that found an entry.
+     *
+     * @return a long
+     */
+    long getHitCount();
+
+    /**
+     * Returns the number of lookups that did not find an entry.
+     *
+     * @return a long
+     */
+    long getMissCount();
+
+    /**
+     * Returns the proportion of lookups that found an entry, or zero if there have been no
+     * lookups.
+     *
+     * @return a double between 0 and 1
+     */
+    double getHitRatio();
+
+    /**
+     * Returns the number of entries inserted into the cache.
+     *
+     * @return a long
+     */
+    long getPutCount();
+
+    /**
+     * Returns the number of entries removed from the cache in order to keep it within its bound.
+     *
+     * @return a long
+     */
+    long getEvictionCount();
+
+    /**
+     * Returns the total weight of the entries evicted from the cache.
+     *
+     * @return a long
+     */
+    long getEvictedWeight();
+
+    /**
+     * Returns the total time saved by hits, for caches that record it.
+     *
+     * @return a number of milliseconds
+     */
+    long getTimeSavedMillis();
+
+    /**
+     * Resets all the counters to zero.
+     */
+    void reset();
+}
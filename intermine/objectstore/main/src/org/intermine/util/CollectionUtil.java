@@ -24,6 +24,8 @@ import java.util.Stack;
 
 import net.sf.cglib.proxy.Factory;
 
+import org.intermine.model.CompositeClass;
+
 /**
  * Utilities for Collections.
  *
@@ -177,7 +179,8 @@ public final class CollectionUtil
             stack.push(c);
             while (!stack.empty()) {
                 Class<?> d = stack.pop();
-                if ((!Factory.class.equals(d)) && (!all.contains(d))) {
+                if ((!Factory.class.equals(d)) && (!CompositeClass.class.equals(d))
+                        && (!all.contains(d))) {
                     all.add(d);
                     Class<?> superClass = d.getSuperclass();
                     if (superClass != null) {
@@ -0,0 +1,444 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+import net.sf.cglib.proxy.Factory;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.StringUtil;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.Util;
+import org.intermine.model.CompositeClass;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.StringConstructor;
+import org.intermine.objectstore.proxy.ProxyReference;
+
+/**
+ * Generates concrete classes for combinations of model classes that would otherwise be
+ * represented by a DynamicBean proxy. A generated class holds each field in a real Java field and
+ * implements the getters, setters and FastPathObject methods directly, in the same way as the
+ * classes generated from the model, so accessing a field does not go through a Map. It is
+ * described by Util.decomposeClass() in the same way as the proxy class, so objects of both are
+ * stored and rendered identically.
+ * <p>
+ * If a class cannot be generated for a combination, the DynamicBean proxy class is used.
+ *
+ * @author intermine
+ */
+public final class CompositeClassGenerator
+{
+    private static final Logger LOG = Logger.getLogger(CompositeClassGenerator.class);
+    private static final String PROXY_REFERENCE = ProxyReference.class.getName();
+    private static final String INTERMINE_OBJECT = InterMineObject.class.getName();
+
+    private static final Map<Set<Class<?>>, Class<? extends FastPathObject>> CLASSES
+        = new ConcurrentHashMap<Set<Class<?>>, Class<? extends FastPathObject>>();
+    private static int classCount = 0;
+
+    private CompositeClassGenerator() {
+        // don't instantiate
+    }
+
+    /**
+     * Returns the class to instantiate for an object made of the given classes. This is the same
+     * as DynamicUtil.composeClass(), except that a generated class is returned instead of a
+     * DynamicBean proxy class.
+     *
+     * @param classes the classes and interfaces to extend/implement
+     * @return a Class with a no-argument constructor
+     * @throws IllegalArgumentException if the classes cannot be combined
+     */
+    public static Class<? extends FastPathObject> composeClass(Set<Class<?>> classes) {
+        Class<? extends FastPathObject> retval = CLASSES.get(classes);
+        if (retval == null) {
+            synchronized (CompositeClassGenerator.class) {
+                retval = CLASSES.get(classes);
+                if (retval == null) {
+                    retval = DynamicUtil.composeClass(classes);
+                    if (Factory.class.isAssignableFrom(retval)) {
+                        try {
+                            retval = generate(retval);
+                            LOG.info("Generated class " + retval.getName() + " for " + classes);
+                        } catch (Exception e) {
+                            LOG.warn("Could not generate a class for " + classes
+                                    + " - using a DynamicBean instead", e);
+                        }
+                    }
+                    CLASSES.put(new HashSet<Class<?>>(classes), retval);
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns a String description of an object of a generated class, in the same format as a
+     * DynamicBean.
+     *
+     * @param obj the object
+     * @return a String
+     */
+    public static String describe(FastPathObject obj) {
+        StringBuilder retval = new StringBuilder(Util.getFriendlyName(obj.getClass()))
+            .append(" [");
+        boolean needComma = false;
+        for (String fieldName : TypeUtil.getFieldInfos(obj.getClass()).keySet()) {
+            Object value;
+            try {
+                value = obj.getFieldProxy(fieldName);
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+            if ((value != null) && (!(value instanceof Collection<?>))) {
+                if (needComma) {
+                    retval.append(", ");
+                }
+                needComma = true;
+                if (value instanceof InterMineObject) {
+                    retval.append(fieldName + "=" + ((InterMineObject) value).getId());
+                } else {
+                    retval.append(fieldName + "=\"" + value + "\"");
+                }
+            }
+        }
+        return retval.append("]").toString();
+    }
+
+    /**
+     * Generates a class implementing the same classes as the given DynamicBean proxy class.
+     */
+    private static Class<? extends FastPathObject> generate(Class<?> dynamic)
+        throws NotFoundException, CannotCompileException {
+        Class<?> superclass = dynamic.getSuperclass();
+        boolean hasSuperclass = !Object.class.equals(superclass);
+        List<Class<?>> interfaces = new ArrayList<Class<?>>();
+        for (Class<?> inter : dynamic.getInterfaces()) {
+            if (!Factory.class.equals(inter)) {
+                interfaces.add(inter);
+            }
+        }
+        Class<?> namingClass = hasSuperclass ? superclass : interfaces.get(0);
+        ClassLoader loader = namingClass.getClassLoader();
+
+        // Collect the abstract methods to implement, by property
+        Map<String, Property> properties = new LinkedHashMap<String, Property>();
+        Set<String> specials = new HashSet<String>();
+        for (Class<?> inter : interfaces) {
+            for (Method method : inter.getMethods()) {
+                if (isImplemented(superclass, method)) {
+                    continue;
+                }
+                String name = method.getName();
+                int params = method.getParameterTypes().length;
+                if (isSpecial(name)) {
+                    specials.add(name);
+                } else if (name.startsWith("get") && (params == 0) && (name.length() > 3)) {
+                    getProperty(properties, name.substring(3)).getter = method;
+                } else if (name.startsWith("set") && (params == 1) && (name.length() > 3)) {
+                    getProperty(properties, name.substring(3)).setter = method;
+                } else if (name.startsWith("proxGet") && (params == 0)) {
+                    getProperty(properties, name.substring(7)).proxyGetter = method;
+                } else if (name.startsWith("proxy") && (params == 1)) {
+                    getProperty(properties, name.substring(5)).proxySetter = method;
+                } else if (name.startsWith("add") && (params == 1)) {
+                    getProperty(properties, name.substring(3)).adder = method;
+                } else {
+                    throw new IllegalArgumentException("Cannot implement method " + method);
+                }
+            }
+        }
+
+        ClassPool pool = new ClassPool(true);
+        pool.appendClassPath(new LoaderClassPath(loader));
+        pool.appendClassPath(new LoaderClassPath(CompositeClassGenerator.class.getClassLoader()));
+        String className;
+        synchronized (CompositeClassGenerator.class) {
+            className = namingClass.getName() + "$$Composite$$" + (classCount++);
+        }
+        CtClass cc = pool.makeClass(className, pool.get(superclass.getName()));
+        for (Class<?> inter : interfaces) {
+            cc.addInterface(pool.get(inter.getName()));
+        }
+        cc.addInterface(pool.get(CompositeClass.class.getName()));
+        cc.addConstructor(CtNewConstructor.defaultConstructor(cc));
+
+        for (Property property : properties.values()) {
+            property.generate(cc);
+        }
+
+        String fallback = hasSuperclass ? "return super.%s;" : "throw new "
+            + "IllegalArgumentException(\"Unknown field \" + $1);";
+        StringBuilder getFieldValue = new StringBuilder();
+        StringBuilder getFieldProxy = new StringBuilder();
+        StringBuilder setFieldValue = new StringBuilder();
+        StringBuilder getFieldType = new StringBuilder();
+        StringBuilder getElementType = new StringBuilder();
+        for (Property property : properties.values()) {
+            String test = "if (\"" + property.fieldName + "\".equals($1)) ";
+            getFieldValue.append(test).append("{ ").append(property.getValueCode(true))
+                .append(" }\n");
+            getFieldProxy.append(test).append("{ ").append(property.getValueCode(false))
+                .append(" }\n");
+            setFieldValue.append(test).append("{ ").append(property.setValueCode())
+                .append(" return; }\n");
+            getFieldType.append(test).append("{ return ").append(typeCode(property.getType()))
+                .append("; }\n");
+            if (property.adder != null) {
+                getElementType.append(test).append("{ return ")
+                    .append(typeCode(property.adder.getParameterTypes()[0])).append("; }\n");
+            }
+        }
+        addFastPathMethod(cc, dynamic, superclass, "public Object getFieldValue(String fieldName)"
+                + " throws IllegalAccessException", getFieldValue, fallback,
+                "getFieldValue($1)", String.class);
+        addFastPathMethod(cc, dynamic, superclass, "public Object getFieldProxy(String fieldName)"
+                + " throws IllegalAccessException", getFieldProxy, fallback,
+                "getFieldProxy($1)", String.class);
+        addFastPathMethod(cc, dynamic, superclass, "public void setFieldValue(String fieldName,"
+                + " Object value)", setFieldValue, hasSuperclass ? "super.%s;" : fallback,
+                "setFieldValue($1, $2)", String.class, Object.class);
+        addFastPathMethod(cc, dynamic, superclass, "public Class getFieldType(String fieldName)",
+                getFieldType, fallback, "getFieldType($1)", String.class);
+        addFastPathMethod(cc, dynamic, superclass, "public Class getElementType(String fieldName)",
+                getElementType, fallback, "getElementType($1)", String.class);
+
+        if (specials.contains("getoBJECT")) {
+            cc.addMethod(CtNewMethod.make("public " + StringConstructor.class.getName()
+                        + " getoBJECT() { return "
+                        + "org.intermine.objectstore.intermine.NotXmlRenderer.render(this); }",
+                        cc));
+        }
+        if (specials.contains("setoBJECT")) {
+            // As in the model classes, an IllegalStateException makes parsers fall back to
+            // setFieldValue()
+            String body = " { throw new IllegalStateException(\"Class \" + getClass().getName()"
+                + " + \" cannot be set from NotXml\"); }";
+            cc.addMethod(CtNewMethod.make("public void setoBJECT(String notXml, "
+                        + "org.intermine.objectstore.ObjectStore os)" + body, cc));
+            cc.addMethod(CtNewMethod.make("public void setoBJECT(String[] notXml, "
+                        + "org.intermine.objectstore.ObjectStore os)" + body, cc));
+        }
+        if ((!hasSuperclass) && properties.containsKey("id")) {
+            cc.addMethod(CtNewMethod.make("public boolean equals(Object o) { "
+                        + "if ((o instanceof " + INTERMINE_OBJECT + ") && (id != null)) { "
+                        + "return id.equals(((" + INTERMINE_OBJECT + ") o).getId()); } "
+                        + "return this == o; }", cc));
+            cc.addMethod(CtNewMethod.make("public int hashCode() { if (id != null) { "
+                        + "return id.hashCode(); } return System.identityHashCode(this); }", cc));
+        }
+        cc.addMethod(CtNewMethod.make("public String toString() { return "
+                    + CompositeClassGenerator.class.getName() + ".describe(this); }", cc));
+
+        @SuppressWarnings("unchecked")
+        Class<? extends FastPathObject> retval = cc.toClass(loader,
+                namingClass.getProtectionDomain());
+        cc.detach();
+        if (Modifier.isAbstract(retval.getModifiers())) {
+            throw new IllegalArgumentException("Generated class " + retval.getName()
+                    + " is abstract");
+        }
+        return retval;
+    }
+
+    private static boolean isSpecial(String name) {
+        return "getFieldValue".equals(name) || "getFieldProxy".equals(name)
+            || "setFieldValue".equals(name) || "getFieldType".equals(name)
+            || "getElementType".equals(name) || "getoBJECT".equals(name)
+            || "setoBJECT".equals(name) || "addCollectionElement".equals(name);
+    }
+
+    private static boolean isImplemented(Class<?> superclass, Method method) {
+        try {
+            Method existing = superclass.getMethod(method.getName(), method.getParameterTypes());
+            return !Modifier.isAbstract(existing.getModifiers());
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static Property getProperty(Map<String, Property> properties, String suffix) {
+        String fieldName = StringUtil.reverseCapitalisation(suffix);
+        Property retval = properties.get(fieldName);
+        if (retval == null) {
+            retval = new Property(fieldName);
+            properties.put(fieldName, retval);
+        }
+        return retval;
+    }
+
+    /**
+     * Adds one of the FastPathObject methods, if the class has it, handling the generated fields
+     * and delegating the rest to the superclass, or throwing an exception if there is none.
+     */
+    private static void addFastPathMethod(CtClass cc, Class<?> dynamic, Class<?> superclass,
+            String signature, StringBuilder body, String fallback, String call,
+            Class<?>... params) throws CannotCompileException {
+        try {
+            dynamic.getMethod(call.substring(0, call.indexOf('(')), params);
+        } catch (NoSuchMethodException e) {
+            return;
+        }
+        boolean superHasIt = true;
+        try {
+            superclass.getMethod(call.substring(0, call.indexOf('(')), params);
+        } catch (NoSuchMethodException e) {
+            superHasIt = false;
+        }
+        if (superHasIt && (body.length() == 0)) {
+            return;
+        }
+        String end = String.format(fallback, call);
+        if (!superHasIt && end.contains("super.")) {
+            end = "throw new IllegalArgumentException(\"Unknown field \" + $1);";
+        }
+        cc.addMethod(CtNewMethod.make(signature + " {\n" + body + end + "\n}", cc));
+    }
+
+    private static String typeName(Class<?> type) {
+        return type.isArray() ? type.getCanonicalName() : type.getName();
+    }
+
+    private static String typeCode(Class<?> type) {
+        if (type.isPrimitive()) {
+            return wrapper(type) + ".TYPE";
+        }
+        return typeName(type) + ".class";
+    }
+
+    private static String wrapper(Class<?> type) {
+        if (Integer.TYPE.equals(type)) {
+            return "java.lang.Integer";
+        } else if (Character.TYPE.equals(type)) {
+            return "java.lang.Character";
+        }
+        String name = type.getName();
+        return "java.lang." + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * The methods required of one field.
+     */
+    private static class Property
+    {
+        final String fieldName;
+        Method getter;
+        Method setter;
+        Method proxyGetter;
+        Method proxySetter;
+        Method adder;
+
+        Property(String fieldName) {
+            this.fieldName = fieldName;
+        }
+
+        boolean isReference() {
+            return (proxyGetter != null) || (proxySetter != null);
+        }
+
+        Class<?> getType() {
+            if (getter != null) {
+                return getter.getReturnType();
+            } else if (setter != null) {
+                return setter.getParameterTypes()[0];
+            } else if (adder != null) {
+                return Set.class;
+            }
+            return InterMineObject.class;
+        }
+
+        String getFieldTypeName() {
+            return isReference() ? INTERMINE_OBJECT : typeName(getType());
+        }
+
+        void generate(CtClass cc) throws CannotCompileException {
+            Class<?> type = getType();
+            String init = "";
+            if (Collection.class.isAssignableFrom(type) && type.isAssignableFrom(HashSet.class)) {
+                init = " = new java.util.HashSet()";
+            }
+            cc.addField(CtField.make("protected " + getFieldTypeName() + " " + fieldName + init
+                        + ";", cc));
+            if (getter != null) {
+                String returnType = typeName(getter.getReturnType());
+                String body;
+                if (isReference()) {
+                    body = "if (" + fieldName + " instanceof " + PROXY_REFERENCE + ") { return ("
+                        + returnType + ") ((" + PROXY_REFERENCE + ") " + fieldName
+                        + ").getObject(); } return (" + returnType + ") " + fieldName + ";";
+                } else {
+                    body = "return " + fieldName + ";";
+                }
+                cc.addMethod(CtNewMethod.make("public " + returnType + " " + getter.getName()
+                            + "() { " + body + " }", cc));
+            }
+            if (setter != null) {
+                cc.addMethod(CtNewMethod.make("public void " + setter.getName() + "("
+                            + typeName(setter.getParameterTypes()[0]) + " value) { " + fieldName
+                            + " = " + (isReference() ? "(" + INTERMINE_OBJECT + ") " : "")
+                            + "$1; }", cc));
+            }
+            if (proxySetter != null) {
+                cc.addMethod(CtNewMethod.make("public void " + proxySetter.getName() + "("
+                            + PROXY_REFERENCE + " value) { " + fieldName + " = $1; }", cc));
+            }
+            if (proxyGetter != null) {
+                cc.addMethod(CtNewMethod.make("public " + INTERMINE_OBJECT + " "
+                            + proxyGetter.getName() + "() { return " + fieldName + "; }", cc));
+            }
+            if (adder != null) {
+                cc.addMethod(CtNewMethod.make("public void " + adder.getName() + "("
+                            + typeName(adder.getParameterTypes()[0]) + " arg) { " + fieldName
+                            + ".add($1); }", cc));
+            }
+        }
+
+        String getValueCode(boolean dereference) {
+            Class<?> type = getType();
+            if (type.isPrimitive()) {
+                return "return " + wrapper(type) + ".valueOf(" + fieldName + ");";
+            } else if (isReference() && dereference) {
+                return "if (" + fieldName + " instanceof " + PROXY_REFERENCE + ") { return (("
+                    + PROXY_REFERENCE + ") " + fieldName + ").getObject(); } return " + fieldName
+                    + ";";
+            }
+            return "return " + fieldName + ";";
+        }
+
+        String setValueCode() {
+            Class<?> type = getType();
+            if (type.isPrimitive()) {
+                return fieldName + " = ((" + wrapper(type) + ") $2)." + type.getName()
+                    + "Value();";
+            }
+            return fieldName + " = (" + getFieldTypeName() + ") $2;";
+        }
+    }
+}
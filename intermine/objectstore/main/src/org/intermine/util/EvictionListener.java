@@ -0,0 +1,31 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Receives entries that a BoundedCacheMap has evicted to stay within its bound. Entries removed
+ * by remove() or clear() are not passed to the listener.
+ *
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of mapped values
+ * @author intermine
+ */
+public interface EvictionListener<K, V>
+{
+    /**
+     * Called after an entry has been evicted. This is called by the thread that caused the
+     * eviction, but not while it holds any lock of the cache.
+     *
+     * @param key the key of the evicted entry
+     * @param value the value of the evicted entry
+     */
+    void evicted(K key, V value);
+}
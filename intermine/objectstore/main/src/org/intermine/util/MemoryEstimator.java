@@ -0,0 +1,167 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.TypeUtil.FieldInfo;
+import org.intermine.model.FastPathObject;
+import org.intermine.objectstore.proxy.Lazy;
+
+/**
+ * Estimates the number of bytes of heap held by the values found in ObjectStore results, for use
+ * by the Weighers of bounded caches. Strings are weighed by their length, collections and rows by
+ * their contents, and InterMineObjects by the values of their fields. Lazy collections and
+ * references are not followed, as they hold nothing until they are read. The fields of each class
+ * are looked up once, and primitive fields are weighed without being read.
+ *
+ * @author intermine
+ */
+public final class MemoryEstimator
+{
+    // Sizes assume a 64-bit JVM with compressed oops
+    private static final int OBJECT_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int STRING = 40;
+    private static final int BOXED = 16;
+    private static final int BIG_NUMBER = 40;
+    private static final int LIST = 24;
+    private static final int LAZY = 48;
+    private static final int UNKNOWN = 64;
+    private static final int MAX_DEPTH = 4;
+
+    private static final Map<Class<?>, Layout> LAYOUTS = new ConcurrentHashMap<Class<?>, Layout>();
+
+    private MemoryEstimator() {
+        // nothing to do
+    }
+
+    /**
+     * Returns an estimate of the number of bytes of heap held by a value, including what it
+     * refers to.
+     *
+     * @param value any object, or null
+     * @return an estimated number of bytes
+     */
+    public static long estimate(Object value) {
+        return estimate(value, 0);
+    }
+
+    private static long estimate(Object value, int depth) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return STRING + 2L * ((String) value).length();
+        }
+        if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Boolean)
+                || (value instanceof Double) || (value instanceof Float)
+                || (value instanceof Short) || (value instanceof Byte)
+                || (value instanceof Character)) {
+            return BOXED + 8;
+        }
+        if ((value instanceof BigDecimal) || (value instanceof Date)) {
+            return BIG_NUMBER;
+        }
+        if (value instanceof Lazy) {
+            return LAZY;
+        }
+        if (depth >= MAX_DEPTH) {
+            return UNKNOWN;
+        }
+        if (value instanceof Collection<?>) {
+            Collection<?> collection = (Collection<?>) value;
+            long retval = LIST + ((long) REFERENCE) * collection.size();
+            for (Object element : collection) {
+                retval += estimate(element, depth + 1);
+            }
+            return retval;
+        }
+        if (value instanceof FastPathObject) {
+            FastPathObject o = (FastPathObject) value;
+            Layout layout = getLayout(o.getClass());
+            long retval = layout.fixed;
+            for (String fieldName : layout.objectFields) {
+                try {
+                    Object fieldValue = o.getFieldProxy(fieldName);
+                    // Referenced objects are counted where they are cached themselves
+                    if (!(fieldValue instanceof FastPathObject)) {
+                        retval += estimate(fieldValue, depth + 1);
+                    }
+                } catch (IllegalAccessException e) {
+                    retval += UNKNOWN;
+                }
+            }
+            return retval;
+        }
+        if (value instanceof byte[]) {
+            return OBJECT_HEADER + ((byte[]) value).length;
+        }
+        if (value instanceof char[]) {
+            return OBJECT_HEADER + 2L * ((char[]) value).length;
+        }
+        return UNKNOWN;
+    }
+
+    private static Layout getLayout(Class<?> c) {
+        Layout layout = LAYOUTS.get(c);
+        if (layout == null) {
+            layout = new Layout(TypeUtil.getFieldInfos(c).values());
+            LAYOUTS.put(c, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Returns an estimate of the weight of a value for a Weigher, which is the estimated number
+     * of bytes plus an allowance for the cache entry, clamped to an int.
+     *
+     * @param value any object, or null
+     * @return an int
+     */
+    public static int weigh(Object value) {
+        return (int) Math.min(Integer.MAX_VALUE, 64L + estimate(value));
+    }
+
+    /**
+     * The fixed part of the estimate for a class of FastPathObject, which covers the header, a
+     * reference for each field and the primitive fields, and the names of the other fields, whose
+     * values must be read to weigh them.
+     */
+    private static final class Layout
+    {
+        private final long fixed;
+        private final String[] objectFields;
+
+        Layout(Collection<FieldInfo> fields) {
+            long size = OBJECT_HEADER;
+            int objectCount = 0;
+            String[] names = new String[fields.size()];
+            for (FieldInfo field : fields) {
+                size += REFERENCE;
+                if (field.getType().isPrimitive()) {
+                    // weighed as if boxed, as they are read through getFieldProxy()
+                    size += BOXED + 8;
+                } else {
+                    names[objectCount++] = field.getName();
+                }
+            }
+            fixed = size;
+            objectFields = new String[objectCount];
+            System.arraycopy(names, 0, objectFields, 0, objectCount);
+        }
+    }
+}
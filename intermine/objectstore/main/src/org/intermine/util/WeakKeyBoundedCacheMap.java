@@ -0,0 +1,186 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A BoundedCacheMap that holds its keys weakly, and compares them by identity. An entry is
+ * removed either when it is evicted to keep the map within its bound, or as soon as its key is
+ * no longer referenced from anywhere else, so that the cache never keeps a large key (such as a
+ * Query with a BagConstraint) alive by itself.
+ * <p>
+ * Null keys are not permitted. The keySet(), values() and entrySet() methods return unmodifiable
+ * snapshots of the entries whose keys are still alive.
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ * @author intermine
+ */
+public class WeakKeyBoundedCacheMap<K, V> extends AbstractMap<K, V>
+{
+    private final BoundedCacheMap<WeakKey<K>, V> map;
+    private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+
+    /**
+     * Constructs a new, empty WeakKeyBoundedCacheMap.
+     *
+     * @param name the name of the cache, used to group its statistics
+     * @param maxSize the maximum number of entries in the map
+     */
+    public WeakKeyBoundedCacheMap(String name, int maxSize) {
+        map = new BoundedCacheMap<WeakKey<K>, V>(name, maxSize);
+    }
+
+    /**
+     * Returns the statistics object shared by all caches with the same name as this one.
+     *
+     * @return a CacheStatistics object
+     */
+    public CacheStatistics getStatistics() {
+        return map.getStatistics();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get(Object key) {
+        expunge();
+        return map.get(new WeakKey<Object>(key, null));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        expunge();
+        return map.containsKey(new WeakKey<Object>(key, null));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V put(K key, V value) {
+        if (key == null) {
+            throw new NullPointerException("Null keys are not permitted");
+        }
+        expunge();
+        return map.put(new WeakKey<K>(key, queue), value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V remove(Object key) {
+        expunge();
+        return map.remove(new WeakKey<Object>(key, null));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        expunge();
+        return map.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        map.clear();
+        expunge();
+    }
+
+    /**
+     * Returns a snapshot of the entries in this map whose keys are still alive. The returned Set
+     * does not reflect later changes to the map, and cannot be modified.
+     *
+     * @return a Set of entries
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        expunge();
+        Map<K, V> retval = new HashMap<K, V>();
+        for (Map.Entry<WeakKey<K>, V> entry : map.entrySet()) {
+            K key = entry.getKey().get();
+            if (key != null) {
+                retval.put(key, entry.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(retval).entrySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "WeakKeyBoundedCacheMap(" + map.getStatistics().getName() + ", " + size()
+            + " entries of " + map.getMaxWeight() + ")";
+    }
+
+    /**
+     * Removes the entries whose keys have been garbage collected.
+     */
+    private void expunge() {
+        Reference<? extends K> ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+
+    /**
+     * A weak reference to a key, which is equal to another only if they refer to the same live
+     * object, or are the same reference.
+     *
+     * @param <K> the type of the key
+     */
+    private static final class WeakKey<K> extends WeakReference<K>
+    {
+        private final int hash;
+
+        WeakKey(K key, ReferenceQueue<? super K> queue) {
+            super(key, queue);
+            hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof WeakKey<?>)) {
+                return false;
+            }
+            Object key = get();
+            return (key != null) && (key == ((WeakKey<?>) o).get());
+        }
+    }
+}
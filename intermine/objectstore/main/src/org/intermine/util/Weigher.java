@@ -0,0 +1,33 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Calculates the weight of a cache entry, for use by a BoundedCacheMap. The weight is usually a
+ * rough estimate of the number of bytes retained by the entry, but may be any measure that is
+ * consistent across a single cache, for example 1 for every entry to bound the number of entries.
+ *
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of mapped values
+ * @author intermine
+ */
+public interface Weigher<K, V>
+{
+    /**
+     * Returns the weight of an entry. This method is called once when the entry is inserted, and
+     * the result must not be negative.
+     *
+     * @param key the key of the entry
+     * @param value the value of the entry, which may be null
+     * @return the weight of the entry
+     */
+    int weigh(K key, V value);
+}
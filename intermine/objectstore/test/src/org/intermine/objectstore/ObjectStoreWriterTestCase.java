@@ -757,4 +757,21 @@ public class ObjectStoreWriterTestCase extends ObjectStoreAbstractImplTestCase
         assertEquals("Lots of monkeys.", sub.toString());
         assertEquals(16, sub.length());
     }
+
+    public void testClobPages() throws Exception {
+        Clob clob = writer.createClob();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < Clob.CLOB_PAGE_SIZE * 2 + 100; i++) {
+            text.append((char) ('a' + (i % 26)));
+        }
+        writer.writeClobPage(clob, 0, text.substring(0, Clob.CLOB_PAGE_SIZE));
+        writer.writeClobPage(clob, 1, text.substring(Clob.CLOB_PAGE_SIZE,
+                    Clob.CLOB_PAGE_SIZE * 2));
+        writer.writeClobPage(clob, 2, text.substring(Clob.CLOB_PAGE_SIZE * 2));
+        ClobAccess ca = new ClobAccess(writer, clob);
+        assertEquals(text.length(), ca.length());
+        assertEquals(text.toString(), ca.toString());
+        assertEquals("xyzab", ca.subSequence(Clob.CLOB_PAGE_SIZE - 2,
+                    Clob.CLOB_PAGE_SIZE + 3).toString());
+    }
 }
@@ -298,4 +298,8 @@ public class ObjectStoreWriterDummyImpl implements ObjectStoreWriter
     public void replaceClob(Clob clob, String text) {
         throw new RuntimeException("Not implemented");
     }
+
+    public void writeClobPage(Clob clob, int page, String text) {
+        throw new RuntimeException("Not implemented");
+    }
 }
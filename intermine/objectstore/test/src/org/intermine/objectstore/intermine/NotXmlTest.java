@@ -19,6 +19,7 @@ import org.intermine.model.testmodel.Department;
 import org.intermine.model.testmodel.Employee;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.proxy.ProxyCollection;
 import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.util.DynamicBean;
 
@@ -99,6 +100,153 @@ public class NotXmlTest extends TestCase
         assertEquals(e.getId(), reparsed.getId());
     }
 
+    public void testDecode1() throws Exception {
+        String s = NotXmlParser.DELIM + "org.intermine.model.testmodel.Employee"
+            + NotXmlParser.DELIM + "aid" + NotXmlParser.DELIM + "1234"
+            + NotXmlParser.DELIM + "aage" + NotXmlParser.DELIM + "-42"
+            + NotXmlParser.DELIM + "afullTime" + NotXmlParser.DELIM + "true"
+            + NotXmlParser.DELIM + "aname" + NotXmlParser.DELIM + "Employee1"
+            + NotXmlParser.DELIM + "rdepartment" + NotXmlParser.DELIM + "5678";
+
+        Employee obj1 = (Employee) os.getNotXmlDecoder().parse(s);
+
+        assertEquals("Employee1", obj1.getName());
+        assertEquals(new Integer(1234), obj1.getId());
+        assertEquals(-42, obj1.getAge());
+        assertTrue(obj1.getFullTime());
+        Class c = Employee.class;
+        java.lang.reflect.Field f = c.getDeclaredField("department");
+        f.setAccessible(true);
+        ProxyReference o = (ProxyReference) f.get(obj1);
+        assertNotNull(o);
+        assertEquals(new Integer(5678), o.getId());
+    }
+
+    public void testDecodeDynamic() throws Exception {
+        String s = NotXmlParser.DELIM + "org.intermine.model.testmodel.Company net.sf.cglib.proxy.Factory"
+            + NotXmlParser.DELIM + "raddress" + NotXmlParser.DELIM + "74328"
+            + NotXmlParser.DELIM + "avatNumber" + NotXmlParser.DELIM + "100"
+            + NotXmlParser.DELIM + "aname" + NotXmlParser.DELIM + "CompanyC"
+            + NotXmlParser.DELIM + "aid" + NotXmlParser.DELIM + "74350";
+
+        Company obj1 = (Company) os.getNotXmlDecoder().parse(s);
+
+        assertEquals("CompanyC", obj1.getName());
+        assertEquals(100, obj1.getVatNumber());
+        assertEquals(new Integer(74350), obj1.getId());
+        Map fieldMap = ((DynamicBean) ((net.sf.cglib.proxy.Factory) obj1).getCallback(0)).getMap();
+        ProxyReference addressRef = (ProxyReference) fieldMap.get("address");
+        assertNotNull(addressRef);
+        assertEquals(new Integer(74328), addressRef.getId());
+        assertTrue(fieldMap.get("departments") instanceof ProxyCollection);
+    }
+
+    public void testDecodeHandleDelims() throws Exception {
+        Employee e = new Employee();
+        e.setId(new Integer(2874));
+        e.setName("Flibble $_^ Wotsit $_^$_^d");
+
+        String notXml = NotXmlRenderer.render(e).toString();
+
+        Employee reparsed = (Employee) os.getNotXmlDecoder().parse(notXml);
+        assertEquals(e.getName(), reparsed.getName());
+        assertEquals(e.getId(), reparsed.getId());
+
+        reparsed = (Employee) os.getNotXmlDecoder().parse(new StringBuilder(notXml));
+        assertEquals(e.getName(), reparsed.getName());
+        assertEquals(e.getId(), reparsed.getId());
+    }
+
+    public void testDecodeUnknownField() throws Exception {
+        String s = NotXmlParser.DELIM + "org.intermine.model.testmodel.Employee"
+            + NotXmlParser.DELIM + "aflibble" + NotXmlParser.DELIM + "1234";
+        try {
+            os.getNotXmlDecoder().parse(s);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testDecodeOutOfRange() throws Exception {
+        String[] values = new String[] {"2147483648", "-2147483649", "99999999999999999999",
+            "9223372036854775808"};
+        for (String value : values) {
+            String s = NotXmlParser.DELIM + "org.intermine.model.testmodel.Employee"
+                + NotXmlParser.DELIM + "aage" + NotXmlParser.DELIM + value;
+            try {
+                os.getNotXmlDecoder().parse(s);
+                fail("Expected NumberFormatException for " + value);
+            } catch (NumberFormatException e) {
+                // expected
+            }
+        }
+        String s = NotXmlParser.DELIM + "org.intermine.model.testmodel.Employee"
+            + NotXmlParser.DELIM + "aage" + NotXmlParser.DELIM + "-2147483648";
+        assertEquals(Integer.MIN_VALUE, ((Employee) os.getNotXmlDecoder().parse(s)).getAge());
+    }
+
+    public void testDecodeSameAsParser() throws Exception {
+        NotXmlDecoder decoder = os.getNotXmlDecoder();
+        java.lang.reflect.Field departmentField = Employee.class.getDeclaredField("department");
+        departmentField.setAccessible(true);
+        for (int i = 0; i < 1000; i++) {
+            Employee e = new Employee();
+            e.setId(new Integer(i));
+            e.setName("Employee" + i);
+            e.setAge(i % 60);
+            e.setFullTime(i % 2 == 0);
+            Department d = new Department();
+            d.setId(new Integer(i + 100000));
+            e.setDepartment(d);
+            String notXml = NotXmlRenderer.render(e).toString();
+            Employee parsed = (Employee) NotXmlParser.parse(notXml, os);
+            Employee decoded = (Employee) decoder.parse(notXml);
+            assertEquals(parsed.getId(), decoded.getId());
+            assertEquals(parsed.getName(), decoded.getName());
+            assertEquals(parsed.getAge(), decoded.getAge());
+            assertEquals(parsed.getFullTime(), decoded.getFullTime());
+            assertEquals(((ProxyReference) departmentField.get(parsed)).getId(),
+                    ((ProxyReference) departmentField.get(decoded)).getId());
+        }
+    }
+
+    public void testDecodePerformance() throws Exception {
+        String[] notXml = new String[1000];
+        for (int i = 0; i < notXml.length; i++) {
+            Employee e = new Employee();
+            e.setId(new Integer(i));
+            e.setName("Employee" + i);
+            e.setAge(i % 60);
+            e.setFullTime(i % 2 == 0);
+            Department d = new Department();
+            d.setId(new Integer(i + 100000));
+            e.setDepartment(d);
+            notXml[i] = NotXmlRenderer.render(e).toString();
+        }
+        NotXmlDecoder decoder = os.getNotXmlDecoder();
+        for (int o = 0; o < 20; o++) {
+            for (int i = 0; i < notXml.length; i++) {
+                NotXmlParser.parse(notXml[i], os);
+                decoder.parse(notXml[i]);
+            }
+        }
+        long time = System.currentTimeMillis();
+        for (int o = 0; o < 200; o++) {
+            for (int i = 0; i < notXml.length; i++) {
+                NotXmlParser.parse(notXml[i], os);
+            }
+        }
+        System.out.println("NotXmlParser took " + (System.currentTimeMillis() - time) + " ms");
+        time = System.currentTimeMillis();
+        for (int o = 0; o < 200; o++) {
+            for (int i = 0; i < notXml.length; i++) {
+                decoder.parse(notXml[i]);
+            }
+        }
+        System.out.println("NotXmlDecoder took " + (System.currentTimeMillis() - time) + " ms");
+    }
+
     public void testSplitPerformance() throws Exception {
         StringBuilder sb = new StringBuilder(49999997);
         for (int i = 0; i < 1000000; i++) {
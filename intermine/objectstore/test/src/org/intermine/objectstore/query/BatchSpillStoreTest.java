@@ -0,0 +1,91 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class BatchSpillStoreTest extends TestCase
+{
+    private BatchSpillStore store;
+
+    public BatchSpillStoreTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        // Three segments of 100 bytes
+        store = new BatchSpillStore(new File(System.getProperty("java.io.tmpdir")), 300, 100);
+    }
+
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    public void testPutGet() throws Exception {
+        byte[] data = new byte[] {1, 2, 3, 4, 5};
+        assertTrue(store.put("query1", 0, data));
+        assertTrue(store.put("query1", 1, new byte[] {6, 7}));
+        assertTrue(Arrays.equals(data, store.get("query1", 0)));
+        assertTrue(Arrays.equals(new byte[] {6, 7}, store.get("query1", 1)));
+        assertNull(store.get("query1", 2));
+        assertNull(store.get("query2", 0));
+        assertEquals(2, store.getHitCount());
+        assertEquals(2, store.getMissCount());
+        assertEquals(2, store.getBatchCount());
+    }
+
+    public void testTooLarge() throws Exception {
+        assertFalse(store.put("query1", 0, new byte[101]));
+        assertNull(store.get("query1", 0));
+    }
+
+    public void testWrapAround() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            byte[] data = new byte[60];
+            Arrays.fill(data, (byte) i);
+            assertTrue(store.put("query1", i, data));
+        }
+        // Each batch takes a whole segment, so the fourth overwrites the first
+        assertNull(store.get("query1", 0));
+        for (int i = 1; i < 4; i++) {
+            byte[] data = store.get("query1", i);
+            assertEquals(60, data.length);
+            assertEquals((byte) i, data[59]);
+        }
+        assertEquals(1, store.getOverwrittenCount());
+        assertEquals(3, store.getBatchCount());
+    }
+
+    public void testQueryHitRates() throws Exception {
+        store.put("query1", 0, new byte[] {1});
+        store.get("query1", 0);
+        store.get("query1", 1);
+        String[] rates = store.getQueryHitRates();
+        assertEquals(1, rates.length);
+        assertEquals("1/2 spill hits for query1", rates[0]);
+    }
+
+    public void testClose() throws Exception {
+        assertTrue(store.put("query1", 0, new byte[] {1}));
+        File file = store.getFile();
+        assertTrue(file.exists());
+        store.close();
+        assertFalse(file.exists());
+        assertNull(store.get("query1", 0));
+        assertFalse(store.put("query1", 1, new byte[] {2}));
+        assertEquals(0, store.getBatchCount());
+        // Closing twice does nothing
+        store.close();
+    }
+}
@@ -0,0 +1,93 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.intermine.objectstore.query.Clob.CLOB_PAGE_SIZE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+
+public class ClobAccessTest extends TestCase
+{
+    private static final int PAGES = 30;
+    private static final int LENGTH = CLOB_PAGE_SIZE * (PAGES - 1) + 100;
+
+    private ObjectStoreDummyImpl os;
+    private String text;
+
+    public ClobAccessTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        os = new ObjectStoreDummyImpl();
+        StringBuilder sb = new StringBuilder(LENGTH);
+        for (int i = 0; i < LENGTH; i++) {
+            sb.append("ACGTTGCAAN".charAt((i * 7 + i / 13) % 10));
+        }
+        text = sb.toString();
+        os.setResultsSize(PAGES);
+        for (int page = 0; page < PAGES; page++) {
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            row.add(PackedNucleotides.encode(text.substring(page * CLOB_PAGE_SIZE,
+                            Math.min(LENGTH, (page + 1) * CLOB_PAGE_SIZE))));
+            os.addRow(row);
+        }
+    }
+
+    public void testToStringOneQuery() throws Exception {
+        ClobAccess ca = ClobAccess.decodeDbDescription(os, "1:" + LENGTH + ":P");
+        assertEquals(LENGTH, ca.length());
+        assertEquals(0, os.getExecuteCalls());
+        assertEquals(text, ca.toString());
+        assertEquals(1, os.getExecuteCalls());
+    }
+
+    public void testSubSequence() throws Exception {
+        ClobAccess ca = ClobAccess.decodeDbDescription(os, "1:" + LENGTH + ":P");
+        int start = CLOB_PAGE_SIZE * 3 - 10;
+        int end = CLOB_PAGE_SIZE * 7 + 20;
+        ClobAccess sub = ca.subSequence(start, end);
+        assertEquals(text.substring(start, end), sub.toString());
+        assertEquals(1, os.getExecuteCalls());
+        assertEquals(text.charAt(start + 15), sub.charAt(15));
+        assertEquals(1, os.getExecuteCalls());
+
+        ClobAccess decoded = ClobAccess.decodeDbDescription(os, sub.getDbDescription());
+        assertEquals("1:" + LENGTH + ":P," + start + "," + (end - start),
+                sub.getDbDescription());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(baos);
+        decoded.drainToPrintStream(out);
+        out.flush();
+        assertEquals(text.substring(start, end), baos.toString());
+    }
+
+    public void testUnknownLength() throws Exception {
+        os = new ObjectStoreDummyImpl();
+        os.setResultsSize(2);
+        ResultsRow<Object> row = new ResultsRow<Object>();
+        row.add(text.substring(0, CLOB_PAGE_SIZE));
+        os.addRow(row);
+        row = new ResultsRow<Object>();
+        row.add("ACGT");
+        os.addRow(row);
+        ClobAccess ca = ClobAccess.decodeDbDescription(os, "1");
+        assertEquals(CLOB_PAGE_SIZE + 4, ca.length());
+        assertEquals('G', ca.charAt(CLOB_PAGE_SIZE + 2));
+        // Once found, the length is recorded in the description
+        assertEquals("1:" + (CLOB_PAGE_SIZE + 4), ca.getDbDescription());
+    }
+}
@@ -0,0 +1,84 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class PackedNucleotidesTest extends TestCase
+{
+    public PackedNucleotidesTest(String arg) {
+        super(arg);
+    }
+
+    private static String randomBases(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder retval = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            retval.append("ACGT".charAt(random.nextInt(4)));
+        }
+        return retval.toString();
+    }
+
+    private static void assertRoundTrip(String text) {
+        String packed = PackedNucleotides.encode(text);
+        assertEquals(text, PackedNucleotides.decode(packed));
+    }
+
+    public void testBases() throws Exception {
+        String text = randomBases(Clob.CLOB_PAGE_SIZE, 1);
+        String packed = PackedNucleotides.encode(text);
+        assertEquals(PackedNucleotides.MARKER, packed.charAt(0));
+        assertTrue(packed.length() < text.length() / 2);
+        assertEquals(text, PackedNucleotides.decode(packed));
+    }
+
+    public void testPartialLastCharacter() throws Exception {
+        for (int length = 30; length < 33; length++) {
+            assertRoundTrip(randomBases(length, length));
+        }
+    }
+
+    public void testOtherCharacters() throws Exception {
+        String bases = randomBases(300, 2);
+        assertRoundTrip("NNNNNNNNNN" + bases + "NNNNN");
+        assertRoundTrip(bases.substring(0, 100) + "NNNRY|NN" + bases.substring(100));
+        assertTrue(PackedNucleotides.encode(bases + "NNNN").charAt(0)
+                == PackedNucleotides.MARKER);
+    }
+
+    public void testLowerCase() throws Exception {
+        String bases = randomBases(300, 3);
+        assertRoundTrip(bases.substring(0, 100) + bases.substring(100, 200).toLowerCase()
+                + bases.substring(200));
+        assertRoundTrip(bases.toLowerCase());
+        assertRoundTrip(bases.substring(0, 150) + "nnnnn" + bases.substring(150).toLowerCase());
+    }
+
+    public void testNotPacked() throws Exception {
+        String protein = "MSRSLLLRFLLFLLLLPPLPVLLADPGAPTPVNPCCYYPCQHQGICVRFGLDRYQCDCTRTGYSG";
+        assertEquals(protein, PackedNucleotides.encode(protein));
+        assertEquals(protein, PackedNucleotides.decode(protein));
+        assertEquals("ACG", PackedNucleotides.encode("ACG"));
+        assertEquals("", PackedNucleotides.encode(""));
+    }
+
+    public void testMarker() throws Exception {
+        String[] pages = new String[] {"~MSRSLLLRFLLFLLLL", "~", "~~", "~ACGTACGTACGTACGTACGT",
+            "~12|||ACGT"};
+        for (String page : pages) {
+            String stored = PackedNucleotides.encode(page);
+            assertEquals(PackedNucleotides.MARKER, stored.charAt(0));
+            assertEquals(page, PackedNucleotides.decode(stored));
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Department;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+
+public class PrefetchManagerTest extends TestCase
+{
+    private ObjectStoreDummyImpl os;
+    private Query q;
+
+    public PrefetchManagerTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        os = new ObjectStoreDummyImpl();
+        os.setResultsSize(95);
+        for (int i = 0; i < 95; i++) {
+            ResultsRow row = new ResultsRow();
+            row.add("" + i);
+            os.addRow(row);
+        }
+        q = new Query();
+        q.addFrom(new QueryClass(Department.class));
+    }
+
+    private void waitForBatch(Results res, int batchNo) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (res.resultsBatches.batches.containsKey(new Integer(batchNo))) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        fail("Batch " + batchNo + " was not prefetched");
+    }
+
+    public void testSequentialRows() throws Exception {
+        Results res = os.execute(q, 10, true, true, true);
+        for (int i = 0; i < 5; i++) {
+            res.get(i);
+        }
+        assertEquals(0, res.readAhead.getOutstandingCount());
+        for (int i = 5; i < 8; i++) {
+            res.get(i);
+        }
+        assertEquals(1, res.readAhead.getOutstandingCount());
+        waitForBatch(res, 1);
+    }
+
+    public void testBackwardsStride() throws Exception {
+        Results res = os.execute(q, 10, true, true, true);
+        res.get(85);
+        res.get(65);
+        assertEquals(0, res.readAhead.getOutstandingCount());
+        res.get(45);
+        assertEquals(1, res.readAhead.getOutstandingCount());
+        waitForBatch(res, 2);
+        assertFalse(res.resultsBatches.batches.containsKey(new Integer(3)));
+
+        long hits = PrefetchManager.getStatistics().getHitCount();
+        assertEquals("25", ((ResultsRow) res.get(25)).get(0));
+        assertEquals(hits + 1, PrefetchManager.getStatistics().getHitCount());
+    }
+
+    public void testRandomAccess() throws Exception {
+        Results res = os.execute(q, 10, true, true, true);
+        res.get(5);
+        res.get(55);
+        res.get(25);
+        res.get(35);
+        res.get(5);
+        assertEquals(0, res.readAhead.getOutstandingCount());
+    }
+
+    public void testNoPrefetch() throws Exception {
+        Results res = os.execute(q, 10, true, true, false);
+        for (int i = 0; i < 30; i++) {
+            res.get(i);
+        }
+        assertEquals(0, res.readAhead.getOutstandingCount());
+    }
+
+    public void testPatternBreakCancels() throws Exception {
+        Results res = os.execute(q, 10, true, true, true);
+        for (int i = 0; i < 8; i++) {
+            res.get(i);
+        }
+        assertEquals(1, res.readAhead.getOutstandingCount());
+        res.get(90);
+        assertEquals(0, res.readAhead.getOutstandingCount());
+    }
+
+    public void testIterationEndCancels() throws Exception {
+        Results res = os.execute(q, 10, true, true, true);
+        Iterator<Object> iter = res.iterator();
+        int o = 0;
+        while (iter.hasNext()) {
+            assertEquals("" + o++, ((ResultsRow) iter.next()).get(0));
+        }
+        assertEquals(95, o);
+        assertEquals(0, res.readAhead.getOutstandingCount());
+    }
+
+    public void testConcurrentRequestsFetchOnce() throws Exception {
+        final AtomicInteger fetches = new AtomicInteger();
+        final ResultsBatches batches = new ResultsBatches(q, os, ObjectStore.SEQUENCE_IGNORE) {
+            @Override
+            protected List<Object> fetchBatchFromObjectStore(int batchNo, boolean optimise,
+                    boolean explain) throws ObjectStoreException {
+                fetches.incrementAndGet();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                return super.fetchBatchFromObjectStore(batchNo, optimise, explain);
+            }
+        };
+        batches.setBatchSize(10);
+        final List<Object> returned = new ArrayList<Object>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        List<Object> batch = PrefetchManager.doRequest(batches, 3, true, true);
+                        synchronized (returned) {
+                            returned.add(batch);
+                        }
+                    } catch (ObjectStoreException e) {
+                        // Leaves returned short
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, fetches.get());
+        assertEquals(8, returned.size());
+        for (Object batch : returned) {
+            assertSame(returned.get(0), batch);
+        }
+        assertFalse(PrefetchManager.isFetching(batches, 3));
+    }
+
+    public void testCancelRequest() throws Exception {
+        ResultsBatches batches = new ResultsBatches(q, os, ObjectStore.SEQUENCE_IGNORE);
+        batches.setBatchSize(10);
+        assertFalse(PrefetchManager.cancelRequest(batches, 0));
+        List<Object> batch = PrefetchManager.doRequest(batches, 0, true, true);
+        assertEquals(10, batch.size());
+        assertFalse(PrefetchManager.addRequest(batches, 0, true, true));
+    }
+}
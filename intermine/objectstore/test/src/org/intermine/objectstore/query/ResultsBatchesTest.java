@@ -0,0 +1,170 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Department;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.util.BoundedCacheMap;
+
+public class ResultsBatchesTest extends TestCase
+{
+    private ObjectStoreDummyImpl os;
+    private Query q;
+    private BoundedCacheMap<ResultsBatches.BatchKey, List<Object>> shared;
+
+    public ResultsBatchesTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        os = new ObjectStoreDummyImpl();
+        os.setResultsSize(100);
+        for (int i = 0; i < 100; i++) {
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            row.add("row " + i);
+            os.addRow(row);
+        }
+        q = new Query();
+        q.addFrom(new QueryClass(Department.class));
+        shared = new BoundedCacheMap<ResultsBatches.BatchKey, List<Object>>("testBatches",
+                10000, 1, ResultsBatches.BATCH_WEIGHER);
+        ResultsBatches.setSharedBatches(shared);
+    }
+
+    public void tearDown() throws Exception {
+        ResultsBatches.setSharedBatches(null);
+    }
+
+    private ResultsBatches makeBatches() {
+        ResultsBatches batches = new ResultsBatches(q, os, ObjectStore.SEQUENCE_IGNORE);
+        batches.setBatchSize(10);
+        return batches;
+    }
+
+    // Counted with containsKey(), which doesn't count as a use of the batch
+    private static int held(ResultsBatches batches) {
+        int retval = 0;
+        for (int i = 0; i < 10; i++) {
+            if (batches.batches.containsKey(new Integer(i))) {
+                retval++;
+            }
+        }
+        return retval;
+    }
+
+    public void testSharedBudget() throws Exception {
+        ResultsBatches first = makeBatches();
+        ResultsBatches second = makeBatches();
+        for (int i = 0; i < 10; i++) {
+            first.getBatch(i, false, false);
+            second.getBatch(i, false, false);
+        }
+        assertTrue(shared.getWeight() <= shared.getMaxWeight());
+        // Twenty batches don't fit in the budget between them
+        assertTrue(shared.size() < 20);
+        // The batches that are left are shared between the two objects
+        assertEquals(shared.size(), held(first) + held(second));
+        assertTrue(held(first) > 0);
+        assertTrue(held(second) > 0);
+        assertEquals("row 95", ((List<?>) first.getBatch(9, false, false).get(5)).get(0));
+    }
+
+    public void testSeparateOwners() throws Exception {
+        ResultsBatches first = makeBatches();
+        ResultsBatches second = makeBatches();
+        first.getBatch(0, false, false);
+        assertTrue(first.batches.containsKey(new Integer(0)));
+        assertFalse(second.batches.containsKey(new Integer(0)));
+        first.batches.clear();
+        assertEquals(0, shared.size());
+    }
+
+    public void testWeighedByContents() throws Exception {
+        List<Object> small = makeBatches().getBatch(0, false, false);
+        ResultsRow<Object> row = new ResultsRow<Object>();
+        row.add(new String(new char[1000]));
+        List<Object> large = Collections.<Object>singletonList(row);
+        assertTrue(ResultsBatches.BATCH_WEIGHER.weigh(null, large)
+                > ResultsBatches.BATCH_WEIGHER.weigh(null, small));
+    }
+
+    public void testSpillFileDeletedWhenDropped() throws Exception {
+        ResultsBatches batches = makeSpillingBatches();
+        File file = batches.getSpillStore().getFile();
+        assertTrue(file.exists());
+        batches = null;
+        for (int i = 0; (i < 100) && file.exists(); i++) {
+            System.gc();
+            ResultsBatches.releaseDropped();
+            Thread.sleep(10);
+        }
+        assertFalse(file.exists());
+        assertEquals(0, shared.size());
+    }
+
+    public void testClose() throws Exception {
+        ResultsBatches batches = makeSpillingBatches();
+        BatchSpillStore store = batches.getSpillStore();
+        assertEquals("row 5", ((List<?>) batches.getBatch(0, false, false).get(5)).get(0));
+        assertTrue(store.getHitCount() > 0);
+        batches.close();
+        assertTrue(store.isClosed());
+        assertFalse(store.getFile().exists());
+        assertEquals(0, shared.size());
+        // Still usable, from the ObjectStore
+        assertEquals("row 15", ((List<?>) batches.getBatch(1, false, false).get(5)).get(0));
+        assertNull(batches.getSpillStore());
+    }
+
+    // Fetches every batch, so the ones that don't fit in the shared cache are spilled
+    private ResultsBatches makeSpillingBatches() throws Exception {
+        shared = new BoundedCacheMap<ResultsBatches.BatchKey, List<Object>>("testBatches",
+                3000, 1, ResultsBatches.BATCH_WEIGHER);
+        ResultsBatches.setSharedBatches(shared);
+        ResultsBatches batches = makeBatches();
+        batches.setSpillStore(new BatchSpillStore(new File(System.getProperty("java.io.tmpdir")),
+                    10000, 1000), new StringCodec());
+        for (int i = 0; i < 10; i++) {
+            batches.getBatch(i, false, false);
+        }
+        assertTrue(batches.getSpillStore().getWriteCount() > 0);
+        return batches;
+    }
+
+    private static class StringCodec implements BatchCodec
+    {
+        public byte[] encode(List<Object> batch) {
+            StringBuilder sb = new StringBuilder();
+            for (Object row : batch) {
+                sb.append(((List<?>) row).get(0)).append('\n');
+            }
+            return sb.toString().getBytes();
+        }
+
+        public List<Object> decode(byte[] data) {
+            List<Object> retval = new ArrayList<Object>();
+            for (String value : new String(data).split("\n")) {
+                ResultsRow<Object> row = new ResultsRow<Object>();
+                row.add(value);
+                retval.add(row);
+            }
+            return retval;
+        }
+    }
+}
@@ -28,4 +28,26 @@ public class OptimiserCacheTest extends TestCase
         assertNull(cache.lookup("original1", 10));
         assertNull(cache.lookup("somethingelse", 1000));
     }
+
+    public void testTimeSaved() throws Exception {
+        OptimiserCache cache = new OptimiserCache("optimiserCacheTest.timeSaved");
+        cache.getStatistics().reset();
+        cache.addCacheLine("original1", "optimised1", 1000, 25);
+        assertEquals("optimised1", cache.lookup("original1", 1000));
+        assertEquals("optimised1", cache.lookup("original1", 2000));
+        assertNull(cache.lookup("original1", 10));
+        assertEquals(50, cache.getStatistics().getTimeSavedMillis());
+    }
+
+    public void testBounded() throws Exception {
+        OptimiserCache cache = new OptimiserCache("optimiserCacheTest.bounded");
+        cache.getStatistics().reset();
+        for (int i = 0; i < OptimiserCache.MAX_LINESETS * 2; i++) {
+            cache.addCacheLine("original" + i, "optimised" + i, 1000);
+        }
+        assertTrue(cache.cacheLines.size() <= OptimiserCache.MAX_LINESETS);
+        assertTrue(cache.getStatistics().getEvictionCount() >= OptimiserCache.MAX_LINESETS);
+        assertEquals("optimised" + (OptimiserCache.MAX_LINESETS * 2 - 1),
+                cache.lookup("original" + (OptimiserCache.MAX_LINESETS * 2 - 1), 1000));
+    }
 }
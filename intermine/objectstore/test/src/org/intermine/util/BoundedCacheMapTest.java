@@ -0,0 +1,169 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+public class BoundedCacheMapTest extends TestCase
+{
+    public BoundedCacheMapTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testBasics() throws Exception {
+        BoundedCacheMap<Integer, Integer> cm = new BoundedCacheMap<Integer, Integer>("testBasics",
+                100);
+
+        cm.put(new Integer(5), new Integer(40));
+        cm.put(new Integer(763), new Integer(67));
+        cm.put(new Integer(2), null);
+
+        assertEquals(new Integer(40), cm.get(new Integer(5)));
+        assertEquals(new Integer(67), cm.get(new Integer(763)));
+        assertNull(cm.get(new Integer(2)));
+        assertTrue(cm.containsKey(new Integer(2)));
+        assertFalse(cm.containsKey(new Integer(3)));
+        assertEquals(3, cm.size());
+
+        assertEquals(new Integer(40), cm.remove(new Integer(5)));
+        assertFalse(cm.containsKey(new Integer(5)));
+        assertNull(cm.remove(new Integer(2)));
+        assertFalse(cm.containsKey(new Integer(2)));
+        assertEquals(1, cm.size());
+        assertEquals(1, cm.keySet().size());
+
+        cm.clear();
+        assertTrue(cm.isEmpty());
+        assertEquals(0L, cm.getWeight());
+    }
+
+    public void testBound() throws Exception {
+        BoundedCacheMap<Integer, Integer> cm = new BoundedCacheMap<Integer, Integer>("testBound",
+                100, 1, BoundedCacheMap.unitWeigher());
+        for (int i = 0; i < 1000; i++) {
+            cm.put(new Integer(i), new Integer(i));
+        }
+        assertEquals(100, cm.size());
+        assertTrue(cm.containsKey(new Integer(999)));
+        assertFalse(cm.containsKey(new Integer(0)));
+        assertTrue(cm.getStatistics().getEvictionCount() >= 900);
+    }
+
+    public void testWeight() throws Exception {
+        Weigher<String, String> weigher = new Weigher<String, String>() {
+            public int weigh(String key, String value) {
+                return value.length();
+            }
+        };
+        BoundedCacheMap<String, String> cm = new BoundedCacheMap<String, String>("testWeight",
+                10, 1, weigher);
+        cm.put("a", "12345");
+        cm.put("b", "1234");
+        assertEquals(9L, cm.getWeight());
+        cm.put("c", "12");
+        assertFalse(cm.containsKey("a"));
+        assertEquals(6L, cm.getWeight());
+        // An entry larger than the whole cache is not stored
+        cm.put("d", "12345678901");
+        assertFalse(cm.containsKey("d"));
+        assertEquals(6L, cm.getWeight());
+    }
+
+    public void testScanResistance() throws Exception {
+        BoundedCacheMap<Integer, Integer> cm = new BoundedCacheMap<Integer, Integer>(
+                "testScanResistance", 10, 1, BoundedCacheMap.unitWeigher());
+        cm.put(new Integer(-1), new Integer(-1));
+        cm.get(new Integer(-1));
+        for (int i = 0; i < 100; i++) {
+            cm.put(new Integer(i), new Integer(i));
+        }
+        assertEquals(new Integer(-1), cm.get(new Integer(-1)));
+    }
+
+    public void testEvictionListener() throws Exception {
+        BoundedCacheMap<Integer, Integer> cm = new BoundedCacheMap<Integer, Integer>(
+                "testEvictionListener", 2, 1, BoundedCacheMap.unitWeigher());
+        final List<Integer> evicted = new ArrayList<Integer>();
+        cm.setEvictionListener(new EvictionListener<Integer, Integer>() {
+            public void evicted(Integer key, Integer value) {
+                evicted.add(value);
+            }
+        });
+        cm.put(new Integer(1), new Integer(10));
+        cm.put(new Integer(2), new Integer(20));
+        cm.remove(new Integer(2));
+        assertTrue(evicted.isEmpty());
+        cm.put(new Integer(3), new Integer(30));
+        cm.put(new Integer(4), new Integer(40));
+        assertEquals(1, evicted.size());
+        assertEquals(new Integer(10), evicted.get(0));
+    }
+
+    public void testStatistics() throws Exception {
+        BoundedCacheMap<Integer, Integer> cm = new BoundedCacheMap<Integer, Integer>(
+                "testStatistics", 100);
+        cm.getStatistics().reset();
+        cm.put(new Integer(1), new Integer(1));
+        cm.get(new Integer(1));
+        cm.get(new Integer(2));
+        assertEquals(1L, cm.getStatistics().getHitCount());
+        assertEquals(1L, cm.getStatistics().getMissCount());
+        assertEquals(1L, cm.getStatistics().getPutCount());
+        assertEquals(0.5, cm.getStatistics().getHitRatio(), 0.0001);
+        assertSame(cm.getStatistics(), CacheStatistics.getInstance("testStatistics"));
+    }
+
+    public void testFactory() throws Exception {
+        Properties props = new Properties();
+        Map<Integer, Integer> soft = CacheMapFactory.create("testFactory", "test", 10,
+                BoundedCacheMap.unitWeigher(), props);
+        assertFalse(soft instanceof BoundedCacheMap<?, ?>);
+        // a cache that must be bounded is, whatever the type configured
+        BoundedCacheMap<Integer, Integer> alwaysBounded = CacheMapFactory.createBounded(
+                "testFactory", "test", 10, 4, BoundedCacheMap.unitWeigher(), props);
+        assertEquals(10L, alwaysBounded.getMaxWeight());
+
+        props.setProperty("os.cache.type", "bounded");
+        props.setProperty("os.cache.testFactory.max-weight", "50");
+        Map<Integer, Integer> bounded = CacheMapFactory.create("testFactory", "test", 10,
+                BoundedCacheMap.unitWeigher(), props);
+        assertTrue(bounded instanceof BoundedCacheMap<?, ?>);
+        assertEquals(50L, ((BoundedCacheMap<?, ?>) bounded).getMaxWeight());
+
+        // the global bounds are separate for caches counting entries and caches counting bytes
+        props.setProperty("os.cache.max-entries", "60");
+        props.setProperty("os.cache.max-bytes", "7000");
+        Map<Integer, Integer> entries = CacheMapFactory.create("testFactoryEntries", "test", 10,
+                BoundedCacheMap.unitWeigher(), props);
+        assertEquals(60L, ((BoundedCacheMap<?, ?>) entries).getMaxWeight());
+        Map<Integer, Integer> bytes = CacheMapFactory.create("testFactoryBytes", "test", 10,
+                new Weigher<Integer, Integer>() {
+                    public int weigh(Integer key, Integer value) {
+                        return 16;
+                    }
+                }, props);
+        assertEquals(7000L, ((BoundedCacheMap<?, ?>) bytes).getMaxWeight());
+
+        props.setProperty("os.cache.testFactory.type", "flibble");
+        try {
+            CacheMapFactory.create("testFactory", "test", 10, BoundedCacheMap.unitWeigher(),
+                    props);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
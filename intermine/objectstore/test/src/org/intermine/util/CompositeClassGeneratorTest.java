@@ -0,0 +1,123 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Util;
+import org.intermine.model.CompositeClass;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Bank;
+import org.intermine.model.testmodel.Broke;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.model.testmodel.Manager;
+import org.intermine.objectstore.intermine.NotXmlRenderer;
+import org.intermine.objectstore.proxy.ProxyReference;
+
+public class CompositeClassGeneratorTest extends TestCase
+{
+    public CompositeClassGeneratorTest(String arg) {
+        super(arg);
+    }
+
+    private static Set<Class<?>> classes(Class<?>... classes) {
+        Set<Class<?>> retval = new HashSet<Class<?>>();
+        Collections.addAll(retval, classes);
+        return retval;
+    }
+
+    public void testClassOnly() throws Exception {
+        assertEquals(Employee.class, CompositeClassGenerator.composeClass(classes(Employee.class)));
+    }
+
+    public void testNoClassTwoInterfaces() throws Exception {
+        Class<? extends FastPathObject> c = CompositeClassGenerator.composeClass(
+                classes(Company.class, Broke.class));
+        assertTrue(CompositeClass.class.isAssignableFrom(c));
+        assertFalse(net.sf.cglib.proxy.Factory.class.isAssignableFrom(c));
+        assertSame(c, CompositeClassGenerator.composeClass(classes(Company.class, Broke.class)));
+        assertEquals(Util.decomposeClass(DynamicUtil.composeClass(Company.class, Broke.class)),
+                Util.decomposeClass(c));
+
+        Company obj = (Company) DynamicUtil.createObject(c);
+        obj.setId(new Integer(42));
+        obj.setName("Wotsit");
+        ((Broke) obj).setDebt(40);
+        ((Broke) obj).setInterestRate(0.5);
+        assertEquals("Wotsit", obj.getName());
+        assertEquals(40, ((Broke) obj).getDebt());
+        assertEquals(0.5, ((Broke) obj).getInterestRate(), 0.0);
+
+        obj.setFieldValue("vatNumber", new Integer(15));
+        assertEquals(15, obj.getVatNumber());
+        assertEquals(new Integer(15), obj.getFieldValue("vatNumber"));
+        assertEquals(Integer.TYPE, obj.getFieldType("vatNumber"));
+        assertEquals(Bank.class, obj.getFieldType("bank"));
+        assertEquals(Department.class, ((InterMineObject) obj).getElementType("departments"));
+        assertNotNull(obj.getDepartments());
+        assertTrue(obj.getDepartments().isEmpty());
+        try {
+            obj.getFieldValue("flibble");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        ProxyReference bank = new ProxyReference(null, new Integer(7), Bank.class);
+        obj.setFieldValue("bank", bank);
+        assertSame(bank, obj.getFieldProxy("bank"));
+        assertSame(bank, obj.proxGetBank());
+
+        FastPathObject equivalent = DynamicUtil.createObject(classes(Company.class, Broke.class));
+        equivalent.setFieldValue("id", new Integer(42));
+        equivalent.setFieldValue("name", "Wotsit");
+        equivalent.setFieldValue("debt", new Integer(40));
+        equivalent.setFieldValue("interestRate", new Double(0.5));
+        equivalent.setFieldValue("vatNumber", new Integer(15));
+        equivalent.setFieldValue("bank", bank);
+        assertEquals(NotXmlRenderer.render(equivalent).toString(),
+                NotXmlRenderer.render(obj).toString());
+        assertEquals(equivalent, obj);
+        assertEquals(obj, equivalent);
+        assertEquals(new Integer(42).hashCode(), obj.hashCode());
+        assertEquals(equivalent.toString(), obj.toString());
+    }
+
+    public void testClassInterfaces() throws Exception {
+        Class<? extends FastPathObject> c = CompositeClassGenerator.composeClass(
+                classes(Manager.class, Broke.class));
+        assertTrue(CompositeClass.class.isAssignableFrom(c));
+        assertEquals(Manager.class, c.getSuperclass());
+        assertEquals(Util.decomposeClass(DynamicUtil.composeClass(Manager.class, Broke.class)),
+                Util.decomposeClass(c));
+
+        Manager m = (Manager) DynamicUtil.createObject(c);
+        m.setName("Frank");
+        m.setTitle("Mr.");
+        ((Broke) m).setDebt(30);
+        assertEquals("Frank", m.getName());
+        assertEquals("Frank", m.getFieldValue("name"));
+        assertEquals(new Integer(30), m.getFieldValue("debt"));
+        m.setFieldValue("title", "Dr.");
+        m.setFieldValue("debt", new Integer(20));
+        assertEquals("Dr.", m.getTitle());
+        assertEquals(20, ((Broke) m).getDebt());
+        assertEquals(String.class, m.getFieldType("title"));
+        assertEquals(Double.TYPE, m.getFieldType("interestRate"));
+    }
+}
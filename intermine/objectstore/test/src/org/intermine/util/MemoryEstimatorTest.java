@@ -0,0 +1,55 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Employee;
+
+public class MemoryEstimatorTest extends TestCase
+{
+    public MemoryEstimatorTest(String arg) {
+        super(arg);
+    }
+
+    public void testStrings() throws Exception {
+        assertEquals(0, MemoryEstimator.estimate(null));
+        long empty = MemoryEstimator.estimate("");
+        assertEquals(empty + 2000, MemoryEstimator.estimate(new String(new char[1000])));
+    }
+
+    public void testRows() throws Exception {
+        long one = MemoryEstimator.estimate(Collections.singletonList("abc"));
+        long two = MemoryEstimator.estimate(Arrays.asList("abc", "abc"));
+        assertTrue(two > one);
+        assertTrue(MemoryEstimator.estimate(Arrays.asList(Arrays.asList("abc", "abc")))
+                > two);
+    }
+
+    public void testObjects() throws Exception {
+        Employee small = (Employee) DynamicUtil.createObject(Collections.singleton(
+                    Employee.class));
+        small.setName("a");
+        Employee large = (Employee) DynamicUtil.createObject(Collections.singleton(
+                    Employee.class));
+        large.setName(new String(new char[10000]));
+        long smallEstimate = MemoryEstimator.estimate(small);
+        assertTrue(smallEstimate > 16);
+        assertTrue(MemoryEstimator.estimate(large) >= smallEstimate + 19998);
+    }
+
+    public void testWeighClamped() throws Exception {
+        assertEquals(64, MemoryEstimator.weigh(null));
+    }
+}
@@ -10,12 +10,15 @@ package org.intermine.util;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import junit.framework.TestCase;
 
@@ -133,6 +136,47 @@ public class TypeUtilTest extends TestCase
 
     }
 
+    public void testGetFieldInfosConcurrently() throws Exception {
+        final Class<?> c = DynamicUtil.createObject(Collections.singleton(Manager.class))
+            .getClass();
+        final List<Map<String, TypeUtil.FieldInfo>> got
+            = Collections.synchronizedList(new ArrayList<Map<String, TypeUtil.FieldInfo>>());
+        final List<TypeUtil.FieldInfo> titles
+            = Collections.synchronizedList(new ArrayList<TypeUtil.FieldInfo>());
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    // checked on the test thread, as failures here would not fail the test
+                    got.add(TypeUtil.getFieldInfos(c));
+                    titles.add(TypeUtil.getFieldInfo(c, "title"));
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length, got.size());
+        for (Map<String, TypeUtil.FieldInfo> infos : got) {
+            assertSame(got.get(0), infos);
+        }
+        assertEquals(threads.length, titles.size());
+        assertNotNull(got.get(0).get("title"));
+        for (TypeUtil.FieldInfo title : titles) {
+            assertSame(got.get(0).get("title"), title);
+        }
+        assertNull(TypeUtil.getFieldInfo(c, "noSuchField"));
+    }
+
     public void testGetFieldInfosNoGetters() throws Exception {
         Map expected = new HashMap();
         Class c = NoGetSet.class;  // random class with no getters
@@ -0,0 +1,83 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class WeakKeyBoundedCacheMapTest extends TestCase
+{
+    public WeakKeyBoundedCacheMapTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testBasics() throws Exception {
+        WeakKeyBoundedCacheMap<Object, String> cm =
+            new WeakKeyBoundedCacheMap<Object, String>("testWeakBasics", 100);
+        Object a = new Object();
+        Object b = new Object();
+        cm.put(a, "a");
+        cm.put(b, null);
+
+        assertEquals("a", cm.get(a));
+        assertNull(cm.get(b));
+        assertTrue(cm.containsKey(b));
+        assertFalse(cm.containsKey(new Object()));
+        assertEquals(2, cm.size());
+        assertEquals(2, cm.keySet().size());
+        assertTrue(cm.keySet().contains(a));
+
+        assertEquals("a", cm.remove(a));
+        assertFalse(cm.containsKey(a));
+        assertEquals(1, cm.size());
+        cm.clear();
+        assertTrue(cm.isEmpty());
+    }
+
+    public void testIdentity() throws Exception {
+        WeakKeyBoundedCacheMap<String, String> cm =
+            new WeakKeyBoundedCacheMap<String, String>("testWeakIdentity", 100);
+        String key = new String("key");
+        cm.put(key, "value");
+        assertEquals("value", cm.get(key));
+        assertNull(cm.get(new String("key")));
+    }
+
+    public void testBound() throws Exception {
+        WeakKeyBoundedCacheMap<Object, Integer> cm =
+            new WeakKeyBoundedCacheMap<Object, Integer>("testWeakBound", 100);
+        List<Object> keys = new ArrayList<Object>();
+        for (int i = 0; i < 1000; i++) {
+            Object key = new Object();
+            keys.add(key);
+            cm.put(key, new Integer(i));
+        }
+        assertTrue(cm.size() <= 100);
+    }
+
+    public void testKeysNotRetained() throws Exception {
+        WeakKeyBoundedCacheMap<Object, Integer> cm =
+            new WeakKeyBoundedCacheMap<Object, Integer>("testWeakKeys", 100);
+        Object kept = new Object();
+        cm.put(kept, new Integer(0));
+        for (int i = 1; i < 10; i++) {
+            cm.put(new Object(), new Integer(i));
+        }
+        for (int i = 0; (i < 50) && (cm.size() > 1); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, cm.size());
+        assertEquals(new Integer(0), cm.get(kept));
+    }
+}
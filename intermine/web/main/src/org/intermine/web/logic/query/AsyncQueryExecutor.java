@@ -0,0 +1,614 @@
+package org.intermine.web.logic.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.util.ShutdownHook;
+import org.intermine.util.Shutdownable;
+
+/**
+ * Runs the queries started from the web UI on a fixed pool of named daemon threads.
+ *
+ * Each user has their own queue of waiting jobs, and the workers take jobs from the users' queues
+ * in turn, so one user starting many queries cannot hold up everyone else. A job is a handle on
+ * its query: waiters are woken as soon as it finishes, and cancelling a job that is running
+ * cancels its SQL through ObjectStoreInterMineImpl.cancelRequest. Jobs with a QueryMonitor are
+ * checked every second and cancelled when the monitor asks for it.
+ *
+ * Queue depth, wait times and run times are registered with JMX as
+ * <code>org.intermine:type=AsyncQueryExecutor</code>. The shared instance is registered with the
+ * ShutdownHook, so it is stopped when the webapp is undeployed as well as when the JVM exits.
+ *
+ * @author intermine
+ */
+public final class AsyncQueryExecutor implements AsyncQueryExecutorMBean, Shutdownable
+{
+    private static final Logger LOG = Logger.getLogger(AsyncQueryExecutor.class);
+
+    /** The web property holding the number of worker threads */
+    public static final String THREADS_PROPERTY = "webapp.queryThreads";
+    /** The number of worker threads if the property is not set */
+    public static final int DEFAULT_THREADS = 16;
+    /** How often monitors are asked whether their queries should be cancelled, in milliseconds */
+    public static final long MONITOR_INTERVAL = 1000;
+
+    private static final String OBJECT_NAME = "org.intermine:type=AsyncQueryExecutor";
+
+    private static AsyncQueryExecutor instance = null;
+
+    /** The ways a job can finish. */
+    public enum Outcome {
+        /** The job ran to completion */
+        COMPLETED,
+        /** The job threw an exception */
+        FAILED,
+        /** The job was cancelled before or while it ran */
+        CANCELLED
+    }
+
+    private final String name;
+    private final int threadCount;
+    private final Map<String, ArrayDeque<Job>> userQueues = new HashMap<String, ArrayDeque<Job>>();
+    private final ArrayDeque<String> readyUsers = new ArrayDeque<String>();
+    private final Set<Job> monitored =
+        Collections.newSetFromMap(new ConcurrentHashMap<Job, Boolean>());
+    private final ScheduledExecutorService scheduler;
+    private int queueDepth = 0;
+    private volatile boolean shutdown = false;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+    private final AtomicLong totalRunMillis = new AtomicLong();
+    private final AtomicLong maxRunMillis = new AtomicLong();
+
+    /**
+     * A query to run on the executor. Subclasses supply the work in execute(), and may override
+     * finished() to react to the outcome.
+     */
+    public abstract static class Job
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile AsyncQueryExecutor executor;
+        private String user;
+        private ObjectStore os;
+        private QueryMonitor monitor;
+        private long queuedAt;
+        private boolean started = false;
+        private boolean cancelRequested = false;
+        private volatile Outcome outcome = null;
+        private volatile Throwable error = null;
+
+        /**
+         * Performs the query. This runs on a worker thread that has been registered with the
+         * ObjectStore under this job as its request id.
+         *
+         * @throws Exception if the query fails
+         */
+        protected abstract void execute() throws Exception;
+
+        /**
+         * Called on the worker thread once the outcome of this job is known, before any waiters
+         * are woken. The default does nothing.
+         *
+         * @param jobOutcome how the job finished
+         * @param jobError the exception thrown by execute(), if the job failed
+         */
+        protected void finished(Outcome jobOutcome, Throwable jobError) {
+            // empty
+        }
+
+        /**
+         * Waits for this job to finish.
+         *
+         * @param timeout the longest time to wait, in milliseconds
+         * @return true if the job has finished
+         * @throws InterruptedException if the waiting thread is interrupted
+         */
+        public boolean await(long timeout) throws InterruptedException {
+            return done.await(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Returns whether this job has finished.
+         *
+         * @return true if the outcome of this job is known
+         */
+        public boolean isDone() {
+            return outcome != null;
+        }
+
+        /**
+         * Returns how this job finished.
+         *
+         * @return the outcome, or null if the job has not finished yet
+         */
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * Returns the exception thrown by the job.
+         *
+         * @return the exception, or null if the job did not fail
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * Cancels this job. A job that is still queued is removed from the queue, and a job that
+         * is running has its SQL statement cancelled.
+         */
+        public void cancel() {
+            AsyncQueryExecutor ex = executor;
+            if (ex != null) {
+                ex.cancel(this);
+            }
+        }
+    }
+
+    private AsyncQueryExecutor(String name, int threadCount) {
+        this.name = name;
+        this.threadCount = threadCount;
+        for (int i = 0; i < threadCount; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, name + "-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, AsyncQueryExecutor.this.name + "-monitor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkMonitors();
+            }
+        }, MONITOR_INTERVAL, MONITOR_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the executor for the web application, creating it on first use with the number of
+     * threads given by the webapp.queryThreads property.
+     *
+     * @param webProperties the web properties, which may be null
+     * @return the AsyncQueryExecutor
+     */
+    public static synchronized AsyncQueryExecutor getInstance(Properties webProperties) {
+        if (instance == null) {
+            int threads = DEFAULT_THREADS;
+            String threadsString = (webProperties == null ? null
+                    : webProperties.getProperty(THREADS_PROPERTY));
+            if (threadsString != null && threadsString.trim().length() > 0) {
+                try {
+                    threads = Math.max(1, Integer.parseInt(threadsString.trim()));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Invalid " + THREADS_PROPERTY + ": " + threadsString + ", using "
+                            + DEFAULT_THREADS);
+                }
+            }
+            instance = new AsyncQueryExecutor("query-executor", threads);
+            register(instance);
+            ShutdownHook.registerObject(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Creates a stand-alone executor, which is not registered with JMX. This is for tests.
+     *
+     * @param name the prefix of the thread names
+     * @param threads the number of worker threads
+     * @return a new AsyncQueryExecutor
+     */
+    static AsyncQueryExecutor create(String name, int threads) {
+        return new AsyncQueryExecutor(name, threads);
+    }
+
+    private static void register(AsyncQueryExecutor executor) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(executor, objectName);
+            }
+        } catch (JMException e) {
+            LOG.warn("Could not register AsyncQueryExecutor with JMX", e);
+        } catch (SecurityException e) {
+            LOG.warn("Could not register AsyncQueryExecutor with JMX", e);
+        }
+    }
+
+    private static void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            LOG.warn("Could not unregister AsyncQueryExecutor from JMX", e);
+        } catch (SecurityException e) {
+            LOG.warn("Could not unregister AsyncQueryExecutor from JMX", e);
+        }
+    }
+
+    /**
+     * Queues a job to run on behalf of a user.
+     *
+     * @param user identifies whose queue the job joins, for example the session id
+     * @param os the ObjectStore the job queries, through which it can be cancelled
+     * @param monitor a QueryMonitor to poll for cancellation while the job is queued or running,
+     * or null
+     * @param job the job
+     * @return the job
+     * @throws IllegalStateException if the executor has been shut down
+     */
+    public Job submit(String user, ObjectStore os, QueryMonitor monitor, Job job) {
+        if (shutdown) {
+            throw new IllegalStateException("AsyncQueryExecutor has been shut down");
+        }
+        synchronized (job) {
+            if (job.executor != null) {
+                throw new IllegalArgumentException("Job has already been submitted");
+            }
+            job.executor = this;
+            job.user = user;
+            job.os = os;
+            job.monitor = monitor;
+            job.queuedAt = System.currentTimeMillis();
+        }
+        if (monitor != null) {
+            monitored.add(job);
+        }
+        synchronized (userQueues) {
+            // checked again under the lock, as shutdown() only cancels the jobs queued before it
+            if (shutdown) {
+                monitored.remove(job);
+                synchronized (job) {
+                    job.executor = null;
+                }
+                throw new IllegalStateException("AsyncQueryExecutor has been shut down");
+            }
+            submitted.incrementAndGet();
+            ArrayDeque<Job> queue = userQueues.get(user);
+            if (queue == null) {
+                queue = new ArrayDeque<Job>();
+                userQueues.put(user, queue);
+                readyUsers.addLast(user);
+            }
+            queue.addLast(job);
+            queueDepth++;
+            userQueues.notify();
+        }
+        return job;
+    }
+
+    /**
+     * Runs a task once after a delay, on the executor's monitor thread. The task must be short.
+     *
+     * @param task the task
+     * @param delay the delay in milliseconds
+     */
+    public void schedule(Runnable task, long delay) {
+        scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes the next job, from the queue of the user who has waited longest for a turn.
+     */
+    private Job take() throws InterruptedException {
+        synchronized (userQueues) {
+            while (readyUsers.isEmpty() || shutdown) {
+                if (shutdown) {
+                    // anything still queued is cancelled by shutdown()
+                    return null;
+                }
+                userQueues.wait();
+            }
+            String user = readyUsers.removeFirst();
+            ArrayDeque<Job> queue = userQueues.get(user);
+            Job job = queue.removeFirst();
+            queueDepth--;
+            if (queue.isEmpty()) {
+                userQueues.remove(user);
+            } else {
+                readyUsers.addLast(user);
+            }
+            return job;
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Job job;
+            try {
+                job = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job == null) {
+                return;
+            }
+            runJob(job);
+        }
+    }
+
+    private void runJob(Job job) {
+        synchronized (job) {
+            if (job.cancelRequested) {
+                // cancelled while queued, and already finished by cancel()
+                return;
+            }
+            job.started = true;
+        }
+        long start = System.currentTimeMillis();
+        started.incrementAndGet();
+        recordMax(maxWaitMillis, start - job.queuedAt);
+        totalWaitMillis.addAndGet(start - job.queuedAt);
+        running.incrementAndGet();
+        ObjectStoreInterMineImpl ios = (job.os instanceof ObjectStoreInterMineImpl)
+            ? (ObjectStoreInterMineImpl) job.os : null;
+        Outcome outcome;
+        Throwable error = null;
+        try {
+            if (ios != null) {
+                ios.registerRequestId(job);
+            }
+            try {
+                job.execute();
+            } finally {
+                if (ios != null) {
+                    ios.deregisterRequestId(job);
+                }
+            }
+            outcome = Outcome.COMPLETED;
+        } catch (Throwable t) {
+            error = t;
+            outcome = Outcome.FAILED;
+        } finally {
+            running.decrementAndGet();
+            long runTime = System.currentTimeMillis() - start;
+            totalRunMillis.addAndGet(runTime);
+            recordMax(maxRunMillis, runTime);
+        }
+        synchronized (job) {
+            if (job.cancelRequested) {
+                outcome = Outcome.CANCELLED;
+            }
+        }
+        finish(job, outcome, error);
+    }
+
+    private void finish(Job job, Outcome outcome, Throwable error) {
+        monitored.remove(job);
+        if (outcome == Outcome.COMPLETED) {
+            completed.incrementAndGet();
+        } else if (outcome == Outcome.FAILED) {
+            failed.incrementAndGet();
+        } else {
+            cancelled.incrementAndGet();
+        }
+        job.error = error;
+        try {
+            job.finished(outcome, error);
+        } catch (RuntimeException e) {
+            LOG.error("Exception while finishing query job", e);
+        } finally {
+            job.outcome = outcome;
+            job.done.countDown();
+        }
+    }
+
+    private void cancel(Job job) {
+        boolean wasQueued = false;
+        synchronized (job) {
+            if (job.cancelRequested || job.outcome != null) {
+                return;
+            }
+            job.cancelRequested = true;
+            if (!job.started) {
+                synchronized (userQueues) {
+                    ArrayDeque<Job> queue = userQueues.get(job.user);
+                    if (queue != null && queue.remove(job)) {
+                        queueDepth--;
+                        if (queue.isEmpty()) {
+                            userQueues.remove(job.user);
+                            readyUsers.remove(job.user);
+                        }
+                    }
+                }
+                wasQueued = true;
+            }
+        }
+        if (wasQueued) {
+            finish(job, Outcome.CANCELLED, null);
+        } else if (job.os instanceof ObjectStoreInterMineImpl) {
+            try {
+                LOG.debug("Cancelling request " + job);
+                ((ObjectStoreInterMineImpl) job.os).cancelRequest(job);
+            } catch (ObjectStoreException e) {
+                LOG.error("Failed to cancel query", e);
+            }
+        }
+    }
+
+    private void checkMonitors() {
+        for (Job job : monitored) {
+            try {
+                if (!job.isDone() && job.monitor.shouldCancelQuery()) {
+                    job.cancel();
+                }
+            } catch (RuntimeException e) {
+                LOG.error("Exception while checking query monitor", e);
+            }
+        }
+    }
+
+    private static void recordMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Stops the executor. Jobs that are still queued are cancelled, jobs that are running are
+     * left to finish, and then the worker and monitor threads stop. If this is the shared
+     * instance, it is removed from JMX and the next call to getInstance() creates a new one.
+     */
+    @Override
+    public void shutdown() {
+        synchronized (AsyncQueryExecutor.class) {
+            if (instance == this) {
+                instance = null;
+                unregister();
+            }
+        }
+        scheduler.shutdownNow();
+        List<Job> queued = new ArrayList<Job>();
+        synchronized (userQueues) {
+            // set under the lock, so that no job can be queued after the queues are emptied
+            shutdown = true;
+            for (ArrayDeque<Job> queue : userQueues.values()) {
+                queued.addAll(queue);
+            }
+            userQueues.notifyAll();
+        }
+        for (Job job : queued) {
+            cancel(job);
+        }
+        if (!queued.isEmpty()) {
+            LOG.info("Cancelled " + queued.size() + " queued queries on shutdown of " + name);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getQueueDepth() {
+        synchronized (userQueues) {
+            return queueDepth;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getMeanWaitMillis() {
+        long count = started.get();
+        return count == 0 ? 0.0 : ((double) totalWaitMillis.get()) / count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxWaitMillis() {
+        return maxWaitMillis.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getMeanRunMillis() {
+        long count = started.get() - running.get();
+        return count <= 0 ? 0.0 : ((double) totalRunMillis.get()) / count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxRunMillis() {
+        return maxRunMillis.get();
+    }
+}
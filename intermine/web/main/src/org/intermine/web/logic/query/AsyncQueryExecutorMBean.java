@@ -0,0 +1,96 @@
+package org.intermine.web.logic.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * JMX management interface for the AsyncQueryExecutor.
+ *
+ * @author intermine
+ */
+public interface AsyncQueryExecutorMBean
+{
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return an int
+     */
+    int getThreadCount();
+
+    /**
+     * Returns the number of jobs waiting for a worker.
+     *
+     * @return an int
+     */
+    int getQueueDepth();
+
+    /**
+     * Returns the number of jobs being run.
+     *
+     * @return an int
+     */
+    int getRunningCount();
+
+    /**
+     * Returns the number of jobs submitted.
+     *
+     * @return a long
+     */
+    long getSubmittedCount();
+
+    /**
+     * Returns the number of jobs that ran to completion.
+     *
+     * @return a long
+     */
+    long getCompletedCount();
+
+    /**
+     * Returns the number of jobs that failed with an exception.
+     *
+     * @return a long
+     */
+    long getFailedCount();
+
+    /**
+     * Returns the number of jobs cancelled while waiting or running.
+     *
+     * @return a long
+     */
+    long getCancelledCount();
+
+    /**
+     * Returns the mean time that jobs waited for a worker.
+     *
+     * @return a number of milliseconds
+     */
+    double getMeanWaitMillis();
+
+    /**
+     * Returns the longest time that a job waited for a worker.
+     *
+     * @return a number of milliseconds
+     */
+    long getMaxWaitMillis();
+
+    /**
+     * Returns the mean time that jobs ran for.
+     *
+     * @return a number of milliseconds
+     */
+    double getMeanRunMillis();
+
+    /**
+     * Returns the longest time that a job ran for.
+     *
+     * @return a number of milliseconds
+     */
+    long getMaxRunMillis();
+}
@@ -35,7 +35,6 @@ import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.profile.ProfileManager;
 import org.intermine.api.profile.SavedQuery;
-import org.intermine.api.query.PathQueryExecutor;
 import org.intermine.api.query.WebResultsExecutor;
 import org.intermine.api.results.WebResults;
 import org.intermine.api.search.SearchRepository;
@@ -45,7 +44,6 @@ import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreQueryDurationException;
-import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.ResultsInfo;
 import org.intermine.pathquery.PathException;
@@ -57,6 +55,7 @@ import org.intermine.web.logic.Constants;
 import org.intermine.web.logic.aspects.Aspect;
 import org.intermine.web.logic.config.WebConfig;
 import org.intermine.web.logic.pathqueryresult.PathQueryResultHelper;
+import org.intermine.web.logic.query.AsyncQueryExecutor;
 import org.intermine.web.logic.query.PageTableQueryMonitor;
 import org.intermine.web.logic.query.QueryMonitor;
 import org.intermine.web.logic.query.QueryMonitorTimeout;
@@ -94,32 +93,150 @@ public final class SessionMethods
     private static int topQueryId = 0;
     private static int index = 0;
 
+    /** How long a finished query's monitor stays in the session for the client to poll, in ms */
+    private static final long MONITOR_RETENTION = 20000;
+
     /**
-     * Base class for query thread runnable.
+     * A query started from the web UI, run on the AsyncQueryExecutor. When it finishes, its
+     * outcome is passed to the completion callback and the QueryMonitor, and any errors are
+     * recorded on the session.
      */
-    private abstract static class RunQueryThread implements Runnable
+    private static class SessionQueryJob extends AsyncQueryExecutor.Job
     {
-        protected boolean done = false;
-        protected boolean error = false;
+        private final HttpSession session;
+        private final MessageResources resources;
+        private final QueryMonitor monitor;
+        private final Action action;
+        private final CompletionCallBack completionCallBack;
+        private final Runnable afterFinish;
+
+        SessionQueryJob(HttpSession session, MessageResources resources, QueryMonitor monitor,
+                Action action, CompletionCallBack completionCallBack, Runnable afterFinish) {
+            this.session = session;
+            this.resources = resources;
+            this.monitor = monitor;
+            this.action = action;
+            this.completionCallBack = completionCallBack;
+            this.afterFinish = afterFinish;
+        }
 
-        @SuppressWarnings("unused")
-        protected boolean isDone() {
-            return done;
+        @Override
+        protected void execute() throws Exception {
+            // call this so that if an exception occurs we notice now rather than in the
+            // JSP code
+            try {
+                action.process();
+            } catch (IndexOutOfBoundsException err) {
+                // no results - ignore
+                // we don't call size() first to avoid this exception because that could be
+                // very slow on a large results set
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof ObjectStoreException) {
+                    throw (ObjectStoreException) e.getCause();
+                }
+                throw e;
+            }
         }
-        protected boolean isError() {
-            return error;
+
+        @Override
+        protected void finished(AsyncQueryExecutor.Outcome outcome, Throwable error) {
+            try {
+                if (outcome == AsyncQueryExecutor.Outcome.COMPLETED) {
+                    if (completionCallBack != null) {
+                        completionCallBack.complete();
+                    }
+                    if (monitor != null) {
+                        monitor.queryCompleted();
+                    }
+                } else if (outcome == AsyncQueryExecutor.Outcome.CANCELLED) {
+                    if (monitor != null) {
+                        monitor.queryCancelled();
+                    }
+                } else {
+                    if (error instanceof ObjectStoreException) {
+                        // put stack trace in the log
+                        LOG.error("Exception", error);
+                        String key = (error instanceof ObjectStoreQueryDurationException)
+                            ? "errors.query.estimatetimetoolong"
+                            : "errors.query.objectstoreerror";
+                        recordError(resources.getMessage(key), session);
+                    } else {
+                        StringWriter sw = new StringWriter();
+                        error.printStackTrace(new PrintWriter(sw));
+                        recordError(sw.toString(), session);
+                        LOG.error("Exception", error);
+                    }
+                    if (monitor != null) {
+                        monitor.queryCancelledWithError();
+                    }
+                }
+            } finally {
+                if (afterFinish != null) {
+                    afterFinish.run();
+                }
+            }
         }
     }
 
     /**
-     * Executes an action and call a callback when it completes successfully. If the
-     * query fails for some reason, this method returns false and ActionErrors are set on the
-     * request.
+     * Returns the executor that runs queries for the web UI.
+     *
+     * @param session the http session
+     * @return the AsyncQueryExecutor
+     */
+    public static AsyncQueryExecutor getQueryExecutor(HttpSession session) {
+        return AsyncQueryExecutor.getInstance(getWebProperties(session.getServletContext()));
+    }
+
+    /**
+     * Queue a query on the AsyncQueryExecutor, in the queue of the given session.  The monitor
+     * registered for the query id, if any, is polled for cancellation and told the outcome.
+     */
+    private static SessionQueryJob submitQuery(HttpSession session, MessageResources resources,
+            String qid, Action action, CompletionCallBack completionCallBack,
+            Runnable afterFinish) {
+        InterMineAPI im = getInterMineAPI(session);
+        QueryMonitor monitor = getRunningQueries(session).get(qid);
+        SessionQueryJob job = new SessionQueryJob(session, resources, monitor, action,
+                completionCallBack, afterFinish);
+        getQueryExecutor(session).submit(session.getId(), im.getObjectStore(), monitor, job);
+        return job;
+    }
+
+    private static Runnable expiry(final HttpSession session, final String qid) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                expireQuery(session, qid);
+            }
+        };
+    }
+
+    /**
+     * Arrange for a query id to be removed from the running queries of a session once the client
+     * has had time to retrieve its monitor in order to work out where to go next.
+     */
+    private static void expireQuery(final HttpSession session, final String qid) {
+        getQueryExecutor(session).schedule(new Runnable() {
+            @Override
+            public void run() {
+                LOG.debug("unregisterRunningQuery qid " + qid);
+                synchronized (session) {
+                    getRunningQueries(session).remove(qid);
+                }
+            }
+        }, MONITOR_RETENTION);
+    }
+
+    /**
+     * Executes an action and call a callback when it completes successfully, waiting for it to
+     * finish. If the query fails for some reason, this method returns false and ActionErrors are
+     * set on the request.  This must not be called from a query executor thread.
      *
      * @param session   the http session
      * @param resources message resources
      * @param qid       the query id
-     * @param action    the action/query to perform in a new thread
+     * @param action    the action/query to perform on the query executor
      * @param completionCallBack sets the method to call when the action successfully completes
      * @return  true if query ran successfully, false if an error occured
      * @throws  Exception if getting results info from paged results fails
@@ -130,106 +247,17 @@ public final class SessionMethods
                                    final Action action,
                                    final CompletionCallBack completionCallBack)
         throws Exception {
-        final InterMineAPI im = getInterMineAPI(session);
-        final ObjectStore os = im.getObjectStore();
-
-        final ObjectStoreInterMineImpl ios;
-        if (os instanceof ObjectStoreInterMineImpl) {
-            ios = (ObjectStoreInterMineImpl) os;
-        } else {
-            ios = null;
-        }
-        Map<String, QueryMonitor> queries = getRunningQueries(session);
-        QueryMonitor monitor = queries.get(qid);
-        // A reference to this runnable is used as a token for registering
-        // a cancelling the running query
-
-        RunQueryThread runnable = new RunQueryThread() {
-            @Override
-            public void run () {
-                try {
-
-                    // Register request id for query on this thread
-                    // We do this before setting r
-                    if (ios != null) {
-                        LOG.debug("Registering request id " + this);
-                        ios.registerRequestId(this);
-                    }
-
-                    // call this so that if an exception occurs we notice now rather than in the
-                    // JSP code
-                    try {
-                        action.process();
-                    } catch (IndexOutOfBoundsException err) {
-                        // no results - ignore
-                        // we don't call size() first to avoid this exception because that could be
-                        // very slow on a large results set
-                    } catch (RuntimeException e) {
-                        if (e.getCause() instanceof ObjectStoreException) {
-                            throw (ObjectStoreException) e.getCause();
-                        }
-                        throw e;
-                    }
-                } catch (ObjectStoreException e) {
-                    // put stack trace in the log
-                    LOG.error("Exception", e);
-
-                    String key = (e instanceof ObjectStoreQueryDurationException)
-                        ? "errors.query.estimatetimetoolong"
-                        : "errors.query.objectstoreerror";
-                    recordError(resources.getMessage(key), session);
-
-                    error = true;
-                } catch (Throwable err) {
-                    StringWriter sw = new StringWriter();
-                    err.printStackTrace(new PrintWriter(sw));
-                    recordError(sw.toString(), session);
-                    LOG.error("Exception", err);
-                    error = true;
-                } finally {
-                    try {
-                        LOG.debug("Deregistering request id " + this);
-                        ((ObjectStoreInterMineImpl) os).deregisterRequestId(this);
-                    } catch (ObjectStoreException e1) {
-                        LOG.error("Exception", e1);
-                        error = true;
-                    }
-                }
-            }
-        };
-        Thread thread = null;
-        thread = new Thread(runnable);
-        thread.start();
-
-        while (thread.isAlive()) {
-            Thread.sleep(1000);
-            if (monitor != null) {
-                boolean cancelled = monitor.shouldCancelQuery();
-                if (cancelled && ios != null) {
-                    LOG.debug("Cancelling request " + runnable);
-                    ios.cancelRequest(runnable);
-                    monitor.queryCancelled();
-                    return false;
-                }
-            }
-        }
-
-        if (runnable.isError()) {
-            if (monitor != null) {
-                monitor.queryCancelledWithError();
+        SessionQueryJob job = submitQuery(session, resources, qid, action, completionCallBack,
+                null);
+        try {
+            while (!job.await(AsyncQueryExecutor.MONITOR_INTERVAL)) {
+                // the monitor is polled by the executor
             }
-            return false;
-        }
-
-        if (completionCallBack != null) {
-            completionCallBack.complete();
+        } catch (InterruptedException e) {
+            job.cancel();
+            throw e;
         }
-
-        if (monitor != null) {
-            monitor.queryCompleted();
-        }
-
-        return true;
+        return job.getOutcome() == AsyncQueryExecutor.Outcome.COMPLETED;
     }
 
     /**
@@ -483,7 +511,8 @@ public final class SessionMethods
     /**
      * Start the current query running in the background, then return.  A new query id will be
      * created and added to the RUNNING_QUERIES session attribute.  That attribute is a Map from
-     * query id to QueryMonitor.  A Thread will be created to update the QueryMonitor.
+     * query id to QueryMonitor.  The query is run on the AsyncQueryExecutor, which updates the
+     * QueryMonitor.
      * @param monitor the monitor for this query - controls cancelling and receives feedback
      *                about how the query concluded
      * @param session the current http session
@@ -503,46 +532,28 @@ public final class SessionMethods
             final String qid = "" + topQueryId++;
             queries.put(qid, monitor);
 
-            new Thread(new Runnable() {
+            final Profile profile = (Profile) session.getAttribute(Constants.PROFILE);
+            final InterMineAPI im = getInterMineAPI(session);
+            Action action = new Action() {
                 @Override
-                public void run () {
-                    final Profile profile = (Profile) session.getAttribute(Constants.PROFILE);
-                    final InterMineAPI im = getInterMineAPI(session);
+                public void process() {
+                    try {
+                        im.getPathQueryExecutor(profile).execute(pathQuery);
+                    } catch (ObjectStoreException e) {
+                        throw new RuntimeException("Error running query.", e);
+                    }
+                }
+            };
+            Runnable afterFinish = new Runnable() {
+                @Override
+                public void run() {
                     try {
-
-                        final PathQueryExecutor pqe = im.getPathQueryExecutor(profile);
-
-                        Action action = new Action() {
-                            @Override
-                            public void process() {
-                                try {
-                                    pqe.execute(pathQuery);
-                                } catch (ObjectStoreException e) {
-                                    throw new RuntimeException("Error running query.", e);
-                                }
-                            }
-                        };
-                        CompletionCallBack completionCallBack = new CompletionCallBack() {
-                            @Override
-                            public void complete() {
-                                // Do nothing...
-                            }
-                        };
-                        SessionMethods.runQuery(session, messages, qid, action, completionCallBack);
-
                         if (saveQuery) {
                             String queryName = NameUtil.findNewQueryName(
                                     profile.getHistory().keySet());
                             saveQueryToHistory(session, queryName, pathQuery);
                         }
-
-                        // pause because we don't want to remove the monitor from the
-                        // session until client has retrieved it in order to work out
-                        // where to go next
-                        Thread.sleep(20000);
                     } catch (Exception err) {
-                        StringWriter sw = new StringWriter();
-                        err.printStackTrace(new PrintWriter(sw));
                         StringBuffer errorMessage = new StringBuffer("Error while running query");
                         if (SessionMethods.isSuperUser(session)) {
                             errorMessage.append(": " + err.getMessage());
@@ -552,11 +563,11 @@ public final class SessionMethods
                                 + PathQueryBinding.marshal(pathQuery, "",
                                     im.getModel().getName(), 1), err);
                     } finally {
-                        LOG.debug("unregisterRunningQuery qid " + qid);
-                        getRunningQueries(session).remove(qid);
+                        expireQuery(session, qid);
                     }
                 }
-            }).start();
+            };
+            submitQuery(session, messages, qid, action, null, afterFinish);
 
             return qid;
         }
@@ -581,8 +592,8 @@ public final class SessionMethods
     /**
      * Start a query running in the background that will return the row count of the collection.
      * A new query id will be created and added to the RUNNING_QUERIES session attribute.
-     * That attribute is a Map from query id to QueryMonitor.  A Thread will be created to
-     * update the QueryMonitor.
+     * That attribute is a Map from query id to QueryMonitor.  The query is run on the
+     * AsyncQueryExecutor, which updates the QueryMonitor.
      * @param monitor the monitor for this query - controls cancelling and receives feedback
      *                about how the query concluded
      * @param session the current http session
@@ -597,39 +608,13 @@ public final class SessionMethods
             final String qid = "" + topQueryId++;
             queries.put(qid, monitor);
 
-            new Thread(new Runnable() {
+            Action action = new Action() {
                 @Override
-                public void run () {
-                    try {
-                        LOG.debug("startQuery qid " + qid + " thread started");
-
-                        class CountAction implements Action
-                        {
-                            @Override
-                            public void process() {
-                                monitor.getPagedTable().getExactSize();
-                            }
-                        }
-
-                        Action action = new CountAction();
-
-                        SessionMethods.runQuery(session, messages, qid, action, null);
-
-                        // pause because we don't want to remove the monitor from the
-                        // session until client has retrieved it in order to work out
-                        // where to go next
-                        Thread.sleep(20000);
-                    } catch (Exception err) {
-                        StringWriter sw = new StringWriter();
-                        err.printStackTrace(new PrintWriter(sw));
-                        recordError(sw.toString(), session);
-                        LOG.error(sw.toString());
-                    } finally {
-                        LOG.debug("unregisterRunningQuery qid " + qid);
-                        getRunningQueries(session).remove(qid);
-                    }
+                public void process() {
+                    monitor.getPagedTable().getExactSize();
                 }
-            }).start();
+            };
+            submitQuery(session, messages, qid, action, null, expiry(session, qid));
 
             return qid;
         }
@@ -653,8 +638,8 @@ public final class SessionMethods
     /**
      * Start a query running in the background that will return the row count of the query argument.
      * A new query id will be created and added to the RUNNING_QUERIES session attribute.
-     * That attribute is a Map from query id to QueryMonitor.  A Thread will be created to
-     * update the QueryMonitor.
+     * That attribute is a Map from query id to QueryMonitor.  The query is run on the
+     * AsyncQueryExecutor, which updates the QueryMonitor.
      * @param monitor the monitor for this query - controls cancelling and receives feedback
      *                about how the query concluded
      * @param session the current http session
@@ -673,39 +658,17 @@ public final class SessionMethods
             final InterMineAPI im = getInterMineAPI(session);
             final ObjectStore os = im.getObjectStore();
 
-            new Thread(new Runnable() {
+            Action action = new Action() {
                 @Override
-                public void run () {
+                public void process() {
                     try {
-                        LOG.debug("startQuery qid " + qid + " thread started");
-                        Action action = new Action() {
-                            @Override
-                            public void process() {
-                                try {
-                                    monitor.setCount(os.count(query, ObjectStore.SEQUENCE_IGNORE));
-                                } catch (ObjectStoreException e) {
-                                    throw new RuntimeException("failed to get count of: " + query,
-                                                               e);
-                                }
-                            }
-                        };
-                        SessionMethods.runQuery(session, messages, qid, action, null);
-
-                        // pause because we don't want to remove the monitor from the
-                        // session until client has retrieved it in order to work out
-                        // where to go next
-                        Thread.sleep(20000);
-                    } catch (Exception err) {
-                        StringWriter sw = new StringWriter();
-                        err.printStackTrace(new PrintWriter(sw));
-                        recordError(sw.toString(), session);
-                        LOG.error(sw.toString());
-                    } finally {
-                        LOG.debug("unregisterRunningQuery qid " + qid);
-                        getRunningQueries(session).remove(qid);
+                        monitor.setCount(os.count(query, ObjectStore.SEQUENCE_IGNORE));
+                    } catch (ObjectStoreException e) {
+                        throw new RuntimeException("failed to get count of: " + query, e);
                     }
                 }
-            }).start();
+            };
+            submitQuery(session, messages, qid, action, null, expiry(session, qid));
 
             return qid;
         }
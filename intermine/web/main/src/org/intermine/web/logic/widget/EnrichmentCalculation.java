@@ -15,7 +15,6 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.math3.distribution.HypergeometricDistribution;
 
 /**
  * Calculate enrichment of an attribute applied to members of a sample that is a subset of a larger
@@ -24,7 +23,8 @@ import org.apache.commons.math3.distribution.HypergeometricDistribution;
  * occurrences in the population as a whole.  Thus a low p-value indicates that the attribute may
  * be characteristic of the items in the sample.
  *
- * Enrichment is implemented using a Hypergeometric test.
+ * Enrichment is implemented using a Hypergeometric test, calculated for all the attributes at
+ * once by HypergeometricCalculator.
  *
  * @author Julie Sullivan
  * @author Richard Smith
@@ -85,18 +85,24 @@ public final class EnrichmentCalculation
     private static Map<String, BigDecimal> getRawResults(int sampleSize,
             int populationSize, Map<String, Integer> sampleCounts,
             Map<String, PopulationInfo> annotatedPopulationInfo) {
-        Map<String, BigDecimal> rawResults = new HashMap<String, BigDecimal>();
+        int termCount = sampleCounts.size();
+        String[] attributes = new String[termCount];
+        int[] sampleCountArray = new int[termCount];
+        int[] populationCountArray = new int[termCount];
+        int t = 0;
         for (Map.Entry<String, Integer> entry : sampleCounts.entrySet()) {
             String attribute = entry.getKey();
-
-            Integer sampleCount = entry.getValue();
             PopulationInfo pi = annotatedPopulationInfo.get(attribute);
-            Integer populationCount = (pi != null) ? pi.getSize() : 0;
-
-            HypergeometricDistribution h =
-                new HypergeometricDistribution(populationSize, populationCount, sampleSize);
-            Double pValue = h.upperCumulativeProbability(sampleCount);
-            rawResults.put(attribute, new BigDecimal(pValue));
+            attributes[t] = attribute;
+            sampleCountArray[t] = entry.getValue().intValue();
+            populationCountArray[t] = (pi != null) ? pi.getSize() : 0;
+            t++;
+        }
+        double[] pValues = HypergeometricCalculator.upperCumulativeProbabilities(populationSize,
+                sampleSize, populationCountArray, sampleCountArray);
+        Map<String, BigDecimal> rawResults = new HashMap<String, BigDecimal>(termCount * 2);
+        for (t = 0; t < termCount; t++) {
+            rawResults.put(attributes[t], new BigDecimal(pValues[t]));
         }
         return rawResults;
     }
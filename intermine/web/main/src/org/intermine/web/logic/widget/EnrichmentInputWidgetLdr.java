@@ -11,6 +11,7 @@ package org.intermine.web.logic.widget;
  */
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -20,7 +21,7 @@ import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
-import org.intermine.util.CacheMap;
+import org.intermine.util.BoundedCacheMap;
 
 /**
  * Executes queries and summarises data for a specific EnrichmentWidgetLdr ready for calculation.
@@ -37,18 +38,18 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
     private Map<String, String> labels = null;
     private static final int BATCH_SIZE = 20000;
 
-    // population queries that don't involve bags can be cached between widget executions
-    private static CacheMap<String, PopulationInfo> populationCache = new CacheMap<String,
-        PopulationInfo>();
-    private static CacheMap<String, Map<String, PopulationInfo>> populationCountsCache =
-        new CacheMap<String, Map<String, PopulationInfo>>();
+    private static final int POPULATION_CACHE_SIZE = 1000;
 
-    // TODO population counts and sizes are no longer cached
-
-    // TODO make a static cache from populate query to size and populationCounts maps,
-    // this should only have a few entries per widget depending on the organism composition
-    // of bags and other parameters, e.g. GO namespace.  But log cache size for a bit to make
-    // sure.  This should be a CacheMap, old cache was just a standard Map.
+    // population queries that don't involve bags can be cached between widget executions, as
+    // the production database doesn't change until the next release. There are only a few
+    // entries per widget, depending on the organism composition of lists and other parameters,
+    // e.g. GO namespace.
+    private static Map<String, PopulationInfo> populationCache =
+        new BoundedCacheMap<String, PopulationInfo>("enrichmentPopulation",
+                POPULATION_CACHE_SIZE);
+    private static Map<String, Map<String, PopulationInfo>> populationCountsCache =
+        new BoundedCacheMap<String, Map<String, PopulationInfo>>("enrichmentPopulationCounts",
+                POPULATION_CACHE_SIZE);
 
     /**
      * Construct with an EnrichmentWidgetLdr that contains queries needed for specific widget tests.
@@ -66,7 +67,8 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
         if (populationCounts == null) {
             Query query = ldr.getPopulationQuery(false);
 
-            populationCounts = populationCountsCache.get(query.toString());
+            boolean cacheable = ldr.isPopulationCacheable();
+            populationCounts = cacheable ? populationCountsCache.get(query.toString()) : null;
             if (populationCounts == null) {
                 populationCounts = new HashMap<String, PopulationInfo>();
 
@@ -92,7 +94,10 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
                     }
                     populationCounts.put(identifier, new PopulationInfo(count, geneLengthAverage));
                 }
-                populationCountsCache.put(query.toString(), populationCounts);
+                if (cacheable) {
+                    populationCountsCache.put(query.toString(),
+                            Collections.unmodifiableMap(populationCounts));
+                }
             }
         }
         return populationCounts;
@@ -138,7 +143,8 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
     @Override
     public PopulationInfo getPopulationInfo() {
         Query q = ldr.getPopulationQuery(true);
-        PopulationInfo populationInfo = populationCache.get(q.toString());
+        boolean cacheable = ldr.isPopulationCacheable();
+        PopulationInfo populationInfo = cacheable ? populationCache.get(q.toString()) : null;
         if (populationInfo == null) {
             int size = 0;
             float extraAttribute = 0;
@@ -152,7 +158,9 @@ public class EnrichmentInputWidgetLdr implements EnrichmentInput
                 }
             }
             populationInfo = new PopulationInfo(size, extraAttribute);
-            populationCache.put(q.toString(), populationInfo);
+            if (cacheable) {
+                populationCache.put(q.toString(), populationInfo);
+            }
         }
         return populationInfo;
     }
@@ -334,6 +334,15 @@ public class EnrichmentWidgetImplLdr extends WidgetLdr
         }
     }
 
+    /**
+     * Whether the results of the population queries can be cached between widget executions.
+     * They can't if the population is a list, as the contents of the list can change.
+     * @return true if the population queries only depend on the production database
+     */
+    public boolean isPopulationCacheable() {
+        return populationBag == null;
+    }
+
     /**
      * @param calcTotal whether or not to calculate the total number of annotated objects in the
      * sample
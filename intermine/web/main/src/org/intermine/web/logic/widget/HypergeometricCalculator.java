@@ -0,0 +1,132 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Calculates hypergeometric upper-tail probabilities for many annotation terms at once.
+ *
+ * All the terms in an enrichment test share the same population size and sample size, so the
+ * table of log-factorials up to the population size is built once and cached, and each term's
+ * probability is summed outwards from the most likely count using the ratio between successive
+ * terms of the distribution, without creating any objects per term.
+ *
+ * @author intermine
+ */
+public final class HypergeometricCalculator
+{
+    private static final int MAX_CACHED_TABLES = 8;
+
+    private static final Map<Integer, double[]> LOG_FACTORIALS =
+        new LinkedHashMap<Integer, double[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, double[]> eldest) {
+                return size() > MAX_CACHED_TABLES;
+            }
+        };
+
+    private HypergeometricCalculator() {
+    }
+
+    /**
+     * Calculates P(X &gt;= k) for each term, where X is the number of items annotated with the
+     * term in a sample drawn without replacement from the population. This is the same as
+     * HypergeometricDistribution.upperCumulativeProbability in commons-math.
+     *
+     * @param populationSize the number of items in the population
+     * @param sampleSize the number of items in the sample
+     * @param populationCounts for each term, the number of items in the population annotated with
+     * it
+     * @param sampleCounts for each term, the number of items in the sample annotated with it
+     * @return for each term, the probability of seeing at least that many annotated items in the
+     * sample
+     */
+    public static double[] upperCumulativeProbabilities(int populationSize, int sampleSize,
+            int[] populationCounts, int[] sampleCounts) {
+        if (populationCounts.length != sampleCounts.length) {
+            throw new IllegalArgumentException("Got " + populationCounts.length
+                    + " population counts but " + sampleCounts.length + " sample counts");
+        }
+        if (sampleSize < 0 || sampleSize > populationSize) {
+            throw new IllegalArgumentException("Sample size " + sampleSize
+                    + " is not within population size " + populationSize);
+        }
+        double[] lf = getLogFactorials(populationSize);
+        // log of the number of possible samples, the denominator of every term
+        double logSamples = lf[populationSize] - lf[sampleSize] - lf[populationSize - sampleSize];
+        double[] retval = new double[sampleCounts.length];
+        for (int t = 0; t < sampleCounts.length; t++) {
+            int annotated = populationCounts[t];
+            if (annotated < 0 || annotated > populationSize) {
+                throw new IllegalArgumentException("Population count " + annotated
+                        + " is not within population size " + populationSize);
+            }
+            int unannotated = populationSize - annotated;
+            int lowest = Math.max(0, sampleSize - unannotated);
+            int highest = Math.min(annotated, sampleSize);
+            int k = sampleCounts[t];
+            if (k <= lowest) {
+                retval[t] = 1.0;
+                continue;
+            } else if (k > highest) {
+                retval[t] = 0.0;
+                continue;
+            }
+            int mode = (int) (((long) (sampleSize + 1) * (annotated + 1)) / (populationSize + 2));
+            mode = Math.min(highest, Math.max(lowest, mode));
+            // sum the terms relative to the largest one in the tail, which is the term at the mode
+            // if k is below it and the term at k otherwise, so that nothing overflows
+            int start = Math.max(k, mode);
+            double logScale = lf[annotated] - lf[start] - lf[annotated - start]
+                + lf[unannotated] - lf[sampleSize - start] - lf[unannotated - sampleSize + start]
+                - logSamples;
+            double sum = 1.0;
+            double term = 1.0;
+            // terms below the starting point, down to k
+            for (int i = start; i > k && term != 0.0; i--) {
+                // P(i - 1) / P(i)
+                term *= ((double) i * (unannotated - sampleSize + i))
+                    / ((double) (annotated - i + 1) * (sampleSize - i + 1));
+                sum += term;
+            }
+            // terms above the starting point, up to the highest possible count
+            term = 1.0;
+            for (int i = start; i < highest && term != 0.0; i++) {
+                // P(i + 1) / P(i)
+                term *= ((double) (annotated - i) * (sampleSize - i))
+                    / ((double) (i + 1) * (unannotated - sampleSize + i + 1));
+                sum += term;
+            }
+            retval[t] = Math.min(1.0, Math.exp(logScale) * sum);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns a table of ln(n!) for n from 0 to the given size.
+     */
+    private static double[] getLogFactorials(int size) {
+        Integer key = new Integer(size);
+        synchronized (LOG_FACTORIALS) {
+            double[] table = LOG_FACTORIALS.get(key);
+            if (table == null) {
+                table = new double[size + 1];
+                for (int i = 2; i <= size; i++) {
+                    table[i] = table[i - 1] + Math.log(i);
+                }
+                LOG_FACTORIALS.put(key, table);
+            }
+            return table;
+        }
+    }
+}
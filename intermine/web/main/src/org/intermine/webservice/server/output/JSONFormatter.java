@@ -48,6 +48,7 @@ public class JSONFormatter extends Formatter
     private boolean hasPrintedSomething = false;
     private boolean isExpectingPrimitive = false;
     private String header = null;
+    private Boolean formatsResultsAsGiven = null;
 
     /**
      * The key for the callback
@@ -206,6 +207,26 @@ public class JSONFormatter extends Formatter
         return buffer.toString();
     }
 
+    /**
+     * Whether formatResult() returns a single-item result unchanged, so that the result can be
+     * written to the output without being turned into a String and passed through it.
+     * @return true if results need no formatting
+     */
+    protected boolean formatsResultsAsGiven() {
+        if (shouldQuote) {
+            return false;
+        }
+        if (formatsResultsAsGiven == null) {
+            try {
+                formatsResultsAsGiven = Boolean.valueOf(JSONFormatter.class.equals(
+                        getClass().getMethod("formatResult", List.class).getDeclaringClass()));
+            } catch (NoSuchMethodException e) {
+                formatsResultsAsGiven = Boolean.FALSE;
+            }
+        }
+        return formatsResultsAsGiven.booleanValue();
+    }
+
     /** Signal that we have started printing results and that it isn't safe to print headers. **/
     protected void declarePrinted() {
         hasPrintedSomething = true;
@@ -12,6 +12,7 @@ package org.intermine.webservice.server.output;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.intermine.api.results.ResultElement;
 import org.intermine.api.results.ExportResultsIterator;
@@ -32,8 +33,24 @@ public class JSONObjResultProcessor extends JSONResultProcessor
 
     @Override
     protected Iterator<? extends Object> getResultsIterator(Iterator<List<ResultElement>> it) {
-        JSONResultsIterator jsonIter = new JSONResultsIterator((ExportResultsIterator) it);
-        return jsonIter;
+        final JSONResultsIterator jsonIter = new JSONResultsIterator((ExportResultsIterator) it);
+        // the objects are written straight from their maps
+        return new Iterator<Map<String, Object>>() {
+            @Override
+            public boolean hasNext() {
+                return jsonIter.hasNext();
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                return jsonIter.nextMap();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Remove is not supported");
+            }
+        };
     }
 
 }
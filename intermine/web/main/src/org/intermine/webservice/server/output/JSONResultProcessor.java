@@ -10,8 +10,6 @@ package org.intermine.webservice.server.output;
  *
  */
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -38,7 +36,9 @@ public abstract class JSONResultProcessor extends ResultProcessor
     }
 
     /**
-     * The method a processor must implement to produce a results iterator.
+     * The method a processor must implement to produce a results iterator. Each object is
+     * written as JSON, and may be a JSONObject or JSONArray, or a tree of maps, collections and
+     * values, which is cheaper to write.
      * @param it The ExportResultsIterator this iterator will use to process its data.
      * @return An iterator of objects.
      */
@@ -53,17 +53,11 @@ public abstract class JSONResultProcessor extends ResultProcessor
             output.addResultItem(Collections.EMPTY_LIST);
         }
         boolean lastHasComma = false;
+        StreamingJSONWriter json = new StreamingJSONWriter();
         while (objIter.hasNext()) {
-            Object next = objIter.next();
-            List<String> outputLine = new ArrayList<String>(
-                    Arrays.asList(next.toString()));
-            if (objIter.hasNext()) {
-                outputLine.add("");
-                lastHasComma = true;
-            } else {
-                lastHasComma = false;
-            }
-            output.addResultItem(outputLine);
+            CharSequence next = json.format(objIter.next());
+            lastHasComma = objIter.hasNext();
+            output.addResultItem(next, lastHasComma);
         }
         if (lastHasComma) {
             LOG.error("Last row has a comma!");
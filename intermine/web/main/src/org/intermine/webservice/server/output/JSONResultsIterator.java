@@ -77,6 +77,15 @@ public class JSONResultsIterator implements Iterator<JSONObject>
      * {@inheritDoc}
      */
     public JSONObject next() {
+        return new JSONObject(nextMap());
+    }
+
+    /**
+     * Returns the next object as a tree of maps and lists, which is what next() wraps up as a
+     * JSONObject.
+     * @return the next object
+     */
+    public Map<String, Object> nextMap() {
         Map<String, Object> nextJsonMap = new HashMap<String, Object>();
         Integer lastId = null;
 
@@ -98,8 +107,7 @@ public class JSONResultsIterator implements Iterator<JSONObject>
                 lastId = currentId;
             }
         }
-        JSONObject nextObj = new JSONObject(nextJsonMap);
-        return nextObj;
+        return nextJsonMap;
     }
 
     private void addRowToJsonMap(List<ResultElement> results,
@@ -13,12 +13,14 @@ package org.intermine.webservice.server.output;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.results.ExportResultsIterator;
 import org.intermine.api.results.ResultElement;
 import org.intermine.pathquery.Path;
 import org.json.JSONArray;
+import org.json.JSONObject;
 
 /**
  * @author Alexis Kalderimis
@@ -30,6 +32,7 @@ public class JSONRowIterator implements Iterator<JSONArray>
     private final ExportResultsIterator subIter;
     private final List<Path> viewPaths = new ArrayList<Path>();
     private final TableCellFormatter tableCellFormatter;
+    private final List<Map<String, Object>> currentRow = new ArrayList<Map<String, Object>>();
 
     /**
      * Constructor
@@ -53,14 +56,25 @@ public class JSONRowIterator implements Iterator<JSONArray>
 
     @Override
     public JSONArray next() {
-        List<ResultElement> row = subIter.next();
         List<Object> jsonRow = new ArrayList<Object>();
+        for (Map<String, Object> cell : nextRow()) {
+            jsonRow.add(new JSONObject(cell));
+        }
+        return new JSONArray(jsonRow);
+    }
+
+    /**
+     * Returns the cells of the next row as maps, which is what next() wraps up as a JSONArray of
+     * JSONObjects. The list is reused by the following call.
+     * @return the cells of the next row
+     */
+    public List<Map<String, Object>> nextRow() {
+        List<ResultElement> row = subIter.next();
+        currentRow.clear();
         for (int i = 0; i < row.size(); i++) {
-            ResultElement re = row.get(i);
-            jsonRow.add(tableCellFormatter.toJSON(re));
+            currentRow.add(tableCellFormatter.toMap(row.get(i)));
         }
-        JSONArray next = new JSONArray(jsonRow);
-        return next;
+        return currentRow;
     }
 
     @Override
@@ -24,6 +24,7 @@ import org.json.JSONArray;
 public class MinimalJsonIterator implements Iterator<JSONArray>
 {
     private final Iterator<List<ResultElement>> subIter;
+    private final List<Object> currentRow = new ArrayList<Object>();
 
     /**
      * Constructor
@@ -35,8 +36,18 @@ public class MinimalJsonIterator implements Iterator<JSONArray>
 
     @Override
     public JSONArray next() {
+        return new JSONArray(nextRow());
+    }
+
+    /**
+     * Returns the values of the next row, which is what next() wraps up as a JSONArray. The list
+     * is reused by the following call.
+     * @return the values of the next row
+     */
+    public List<Object> nextRow() {
         List<ResultElement> row = subIter.next();
-        List<Object> jsonRow = new ArrayList<Object>();
+        List<Object> jsonRow = currentRow;
+        jsonRow.clear();
         for (int i = 0; i < row.size(); i++) {
             ResultElement re = row.get(i);
             if (re == null) {
@@ -51,8 +62,7 @@ public class MinimalJsonIterator implements Iterator<JSONArray>
                 jsonRow.add(field);
             }
         }
-        JSONArray next = new JSONArray(jsonRow);
-        return next;
+        return jsonRow;
     }
 
     @Override
@@ -10,6 +10,7 @@ package org.intermine.webservice.server.output;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -103,6 +104,22 @@ public abstract class Output
      */
     public abstract void addResultItem(List<String> item);
 
+    /**
+     * Add a result item made of a single formatted value, followed by an empty item if more
+     * results are to come, as the JSON result processors write their results.  The default
+     * implementation turns the value into a String and calls addResultItem(List).
+     * @param item the formatted value, which may be a buffer that is reused once this returns
+     * @param hasMore whether this is followed by more results
+     */
+    public void addResultItem(CharSequence item, boolean hasMore) {
+        List<String> line = new ArrayList<String>(2);
+        line.add(item.toString());
+        if (hasMore) {
+            line.add("");
+        }
+        addResultItem(line);
+    }
+
     /**
      * Flushes output. What it actually does depends at implementation.
      */
@@ -23,6 +23,7 @@ import java.util.Map;
  **/
 public class StreamedOutput extends Output
 {
+    private static final int CHUNK_SIZE = 8192;
 
     private int resultsCount = 0;
 
@@ -34,6 +35,8 @@ public class StreamedOutput extends Output
 
     private final String separator;
 
+    private char[] chunk = null;
+
     /** Constructor.
      * @param writer writer where the data will be printed
      * @param formatter associated formatter that formats data
@@ -87,6 +90,43 @@ public class StreamedOutput extends Output
         resultsCount++;
     }
 
+    /**
+     * Writes the item straight to the writer when the formatter would pass it through unchanged,
+     * rather than turning it into a String first.
+     * @param item the formatted value
+     * @param hasMore whether this is followed by more results
+     */
+    @Override
+    public void addResultItem(CharSequence item, boolean hasMore) {
+        if (!(formatter instanceof JSONFormatter)
+                || !((JSONFormatter) formatter).formatsResultsAsGiven()) {
+            super.addResultItem(item, hasMore);
+            return;
+        }
+        ensureHeaderIsPrinted();
+        write(item);
+        writeLn(hasMore ? "," : "");
+        ((JSONFormatter) formatter).declarePrinted();
+        resultsCount++;
+    }
+
+    private void write(CharSequence item) {
+        if (item instanceof StringBuilder) {
+            StringBuilder sb = (StringBuilder) item;
+            if (chunk == null) {
+                chunk = new char[CHUNK_SIZE];
+            }
+            int length = sb.length();
+            for (int start = 0; start < length; start += CHUNK_SIZE) {
+                int end = Math.min(length, start + CHUNK_SIZE);
+                sb.getChars(start, end, chunk, 0);
+                writer.write(chunk, 0, end - start);
+            }
+        } else {
+            writer.append(item);
+        }
+    }
+
     /** Returns associated writer
      * @return writer
      * **/
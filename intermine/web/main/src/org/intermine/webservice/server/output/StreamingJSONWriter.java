@@ -0,0 +1,279 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+/**
+ * Writes plain Java values (maps, collections, arrays, strings, numbers and so on) as JSON text
+ * into a buffer that is reused from one value to the next, without building org.json objects.
+ *
+ * The text is exactly what <code>new JSONObject(map).toString()</code> or
+ * <code>new JSONArray(collection).toString()</code> would produce: the same escaping and number
+ * formatting, maps written in the order of a default HashMap holding their entries, and a
+ * container that can't be written (for example because it holds a non-finite number) written as
+ * null. A HashMap is written in its own order, so it must have been created with the default
+ * capacity, as the maps built for results are.
+ *
+ * @author intermine
+ */
+public class StreamingJSONWriter
+{
+    private static final String HEX = "0123456789abcdef";
+
+    private final StringBuilder buffer = new StringBuilder(1024);
+
+    /**
+     * Thrown while writing a value that org.json would refuse, to abandon the enclosing container.
+     */
+    private static final class UnwritableValueException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private static final UnwritableValueException UNWRITABLE = new UnwritableValueException();
+
+    /**
+     * Formats a value as JSON, replacing whatever the buffer held before.
+     *
+     * @param value a Map, Collection, array, JSONObject or JSONArray
+     * @return the buffer holding the JSON text, valid until the next call
+     */
+    public CharSequence format(Object value) {
+        buffer.setLength(0);
+        try {
+            writeValue(value);
+        } catch (UnwritableValueException e) {
+            buffer.setLength(0);
+            buffer.append("null");
+        }
+        return buffer;
+    }
+
+    /**
+     * Writes a value as org.json writes a value it has wrapped.
+     */
+    private void writeValue(Object value) {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            buffer.append("null");
+        } else if (value instanceof String) {
+            quote((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            buffer.append(value.toString());
+        } else if (value instanceof Double || value instanceof Float) {
+            writeNumber((Number) value);
+        } else if (value instanceof Boolean) {
+            buffer.append(value.toString());
+        } else if (value instanceof Map<?, ?>) {
+            writeMap((Map<?, ?>) value);
+        } else if (value instanceof Collection<?>) {
+            writeCollection((Collection<?>) value);
+        } else if (value instanceof JSONObject || value instanceof JSONArray) {
+            // these return null rather than throwing if they can't be written
+            buffer.append(value.toString());
+        } else if (value instanceof JSONString) {
+            writeJSONString((JSONString) value);
+        } else if (value instanceof Character) {
+            quote(value.toString());
+        } else if (value.getClass().isArray()) {
+            writeArray(value);
+        } else {
+            writeOther(value);
+        }
+    }
+
+    private void writeMap(Map<?, ?> map) {
+        int start = buffer.length();
+        try {
+            // org.json copies the entries into a new HashMap, and writes them in its order
+            Map<?, ?> ordered = map;
+            if (map.getClass() != HashMap.class) {
+                Map<Object, Object> copy = new HashMap<Object, Object>();
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    copy.put(entry.getKey(), entry.getValue());
+                }
+                ordered = copy;
+            }
+            buffer.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ordered.entrySet()) {
+                if (!first) {
+                    buffer.append(',');
+                }
+                first = false;
+                quote(entry.getKey().toString());
+                buffer.append(':');
+                writeValue(entry.getValue());
+            }
+            buffer.append('}');
+        } catch (RuntimeException e) {
+            buffer.setLength(start);
+            buffer.append("null");
+        }
+    }
+
+    private void writeCollection(Collection<?> collection) {
+        int start = buffer.length();
+        try {
+            buffer.append('[');
+            boolean first = true;
+            for (Object element : collection) {
+                if (!first) {
+                    buffer.append(',');
+                }
+                first = false;
+                writeValue(element);
+            }
+            buffer.append(']');
+        } catch (RuntimeException e) {
+            buffer.setLength(start);
+            buffer.append("null");
+        }
+    }
+
+    private void writeArray(Object array) {
+        int start = buffer.length();
+        try {
+            buffer.append('[');
+            int length = Array.getLength(array);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    buffer.append(',');
+                }
+                writeValue(Array.get(array, i));
+            }
+            buffer.append(']');
+        } catch (RuntimeException e) {
+            buffer.setLength(start);
+            buffer.append("null");
+        }
+    }
+
+    private void writeNumber(Number n) {
+        if ((n instanceof Double && (((Double) n).isInfinite() || ((Double) n).isNaN()))
+                || (n instanceof Float && (((Float) n).isInfinite() || ((Float) n).isNaN()))) {
+            throw UNWRITABLE;
+        }
+        // shave off trailing zeros and decimal point, as org.json does
+        String s = n.toString();
+        if (s.indexOf('.') > 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+            int end = s.length();
+            while (s.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (s.charAt(end - 1) == '.') {
+                end--;
+            }
+            buffer.append(s, 0, end);
+        } else {
+            buffer.append(s);
+        }
+    }
+
+    private void writeJSONString(JSONString value) {
+        Object text;
+        try {
+            text = value.toJSONString();
+        } catch (Exception e) {
+            throw UNWRITABLE;
+        }
+        if (!(text instanceof String)) {
+            throw UNWRITABLE;
+        }
+        buffer.append((String) text);
+    }
+
+    /**
+     * Writes any other object: org.json writes JDK objects as strings, and anything else as a
+     * bean.
+     */
+    private void writeOther(Object value) {
+        Package objectPackage = value.getClass().getPackage();
+        String packageName = (objectPackage != null ? objectPackage.getName() : "");
+        if (packageName.startsWith("java.") || packageName.startsWith("javax.")
+                || value.getClass().getClassLoader() == null) {
+            quote(value.toString());
+        } else {
+            String text;
+            try {
+                text = new JSONObject(value).toString();
+            } catch (Exception e) {
+                text = null;
+            }
+            buffer.append(text == null ? "null" : text);
+        }
+    }
+
+    /**
+     * Writes a string in quotes, escaped exactly as JSONObject.quote() does.
+     */
+    private void quote(String string) {
+        int length = string.length();
+        buffer.append('"');
+        char c = 0;
+        for (int i = 0; i < length; i++) {
+            char b = c;
+            c = string.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                    buffer.append('\\').append(c);
+                    break;
+                case '/':
+                    if (b == '<') {
+                        buffer.append('\\');
+                    }
+                    buffer.append(c);
+                    break;
+                case '\b':
+                    buffer.append("\\b");
+                    break;
+                case '\t':
+                    buffer.append("\\t");
+                    break;
+                case '\n':
+                    buffer.append("\\n");
+                    break;
+                case '\f':
+                    buffer.append("\\f");
+                    break;
+                case '\r':
+                    buffer.append("\\r");
+                    break;
+                default:
+                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0')
+                            || (c >= '\u2000' && c < '\u2100')) {
+                        buffer.append("\\u")
+                            .append(HEX.charAt((c >> 12) & 0xF))
+                            .append(HEX.charAt((c >> 8) & 0xF))
+                            .append(HEX.charAt((c >> 4) & 0xF))
+                            .append(HEX.charAt(c & 0xF));
+                    } else {
+                        buffer.append(c);
+                    }
+            }
+        }
+        buffer.append('"');
+    }
+}
@@ -0,0 +1,254 @@
+package org.intermine.web.logic.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for AsyncQueryExecutor.
+ *
+ * @author intermine
+ */
+public class AsyncQueryExecutorTest extends TestCase
+{
+    private AsyncQueryExecutor executor;
+
+    public AsyncQueryExecutorTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    public void testCompletion() throws Exception {
+        executor = AsyncQueryExecutor.create("test", 2);
+        RecordingJob job = new RecordingJob("a", null, null);
+        executor.submit("user", null, null, job);
+        assertTrue(job.await(10000));
+        assertTrue(job.isDone());
+        assertEquals(AsyncQueryExecutor.Outcome.COMPLETED, job.getOutcome());
+        assertEquals(AsyncQueryExecutor.Outcome.COMPLETED, job.finishedWith);
+        assertNull(job.getError());
+    }
+
+    public void testFailure() throws Exception {
+        executor = AsyncQueryExecutor.create("test", 1);
+        final IllegalStateException failure = new IllegalStateException("broken");
+        AsyncQueryExecutor.Job job = new AsyncQueryExecutor.Job() {
+            @Override
+            protected void execute() {
+                throw failure;
+            }
+        };
+        executor.submit("user", null, null, job);
+        assertTrue(job.await(10000));
+        assertEquals(AsyncQueryExecutor.Outcome.FAILED, job.getOutcome());
+        assertSame(failure, job.getError());
+        assertEquals(1, executor.getFailedCount());
+    }
+
+    public void testCancelQueued() throws Exception {
+        executor = AsyncQueryExecutor.create("test", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        RecordingJob blocker = new RecordingJob("blocker", null, release, started);
+        RecordingJob queued = new RecordingJob("queued", null, null);
+        executor.submit("user", null, null, blocker);
+        executor.submit("user", null, null, queued);
+        started.await();
+        assertEquals(1, executor.getQueueDepth());
+        queued.cancel();
+        assertTrue(queued.await(10000));
+        assertEquals(AsyncQueryExecutor.Outcome.CANCELLED, queued.getOutcome());
+        assertEquals(0, executor.getQueueDepth());
+        release.countDown();
+        assertTrue(blocker.await(10000));
+        assertFalse(queued.ran);
+        assertEquals(1, executor.getCancelledCount());
+        assertEquals(1, executor.getCompletedCount());
+    }
+
+    public void testRoundRobinBetweenUsers() throws Exception {
+        executor = AsyncQueryExecutor.create("test", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        RecordingJob blocker = new RecordingJob("blocker", order, release, started);
+        executor.submit("busy", null, null, blocker);
+        started.await();
+        // one user queues several queries before another user queues one
+        List<RecordingJob> jobs = new ArrayList<RecordingJob>();
+        for (String[] spec : new String[][] {{"busy", "b1"}, {"busy", "b2"}, {"busy", "b3"},
+                {"quiet", "q1"}}) {
+            RecordingJob job = new RecordingJob(spec[1], order, null);
+            jobs.add(job);
+            executor.submit(spec[0], null, null, job);
+        }
+        release.countDown();
+        for (RecordingJob job : jobs) {
+            assertTrue(job.await(10000));
+        }
+        assertEquals("[blocker, b1, q1, b2, b3]", order.toString());
+    }
+
+    public void testMetrics() throws Exception {
+        executor = AsyncQueryExecutor.create("test", 3);
+        assertEquals(3, executor.getThreadCount());
+        for (int i = 0; i < 5; i++) {
+            RecordingJob job = new RecordingJob("" + i, null, null);
+            executor.submit("user" + i, null, null, job);
+            assertTrue(job.await(10000));
+        }
+        assertEquals(5, executor.getSubmittedCount());
+        assertEquals(5, executor.getCompletedCount());
+        assertEquals(0, executor.getFailedCount());
+        assertEquals(0, executor.getRunningCount());
+        assertEquals(0, executor.getQueueDepth());
+        assertTrue(executor.getMeanWaitMillis() >= 0.0);
+        assertTrue(executor.getMaxRunMillis() >= 0);
+    }
+
+    public void testShutdown() throws Exception {
+        executor = AsyncQueryExecutor.create("test-shutdown", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        RecordingJob blocker = new RecordingJob("blocker", null, release, started);
+        RecordingJob queued = new RecordingJob("queued", null, null);
+        executor.submit("user", null, null, blocker);
+        executor.submit("user", null, null, queued);
+        started.await();
+        executor.shutdown();
+        // queued jobs are cancelled, and the running job is left to finish
+        assertTrue(queued.isDone());
+        assertEquals(AsyncQueryExecutor.Outcome.CANCELLED, queued.getOutcome());
+        release.countDown();
+        assertTrue(blocker.await(10000));
+        assertEquals(AsyncQueryExecutor.Outcome.COMPLETED, blocker.getOutcome());
+        assertFalse(queued.ran);
+        try {
+            executor.submit("user", null, null, new RecordingJob("late", null, null));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        for (int i = 0; i < 100 && workersAlive("test-shutdown"); i++) {
+            Thread.sleep(50);
+        }
+        assertFalse(workersAlive("test-shutdown"));
+    }
+
+    public void testSubmitDuringShutdown() throws Exception {
+        executor = AsyncQueryExecutor.create("test-race", 2);
+        final List<RecordingJob> accepted =
+            Collections.synchronizedList(new ArrayList<RecordingJob>());
+        Thread[] submitters = new Thread[4];
+        for (int t = 0; t < submitters.length; t++) {
+            final String user = "user" + t;
+            submitters[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        RecordingJob job = new RecordingJob(user + i, null, null);
+                        try {
+                            executor.submit(user, null, null, job);
+                        } catch (IllegalStateException e) {
+                            return;
+                        }
+                        accepted.add(job);
+                    }
+                }
+            };
+            submitters[t].start();
+        }
+        Thread.sleep(5);
+        executor.shutdown();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+        // every job that was accepted either ran or was cancelled by the shutdown
+        synchronized (accepted) {
+            for (RecordingJob job : accepted) {
+                assertTrue(job.await(10000));
+            }
+        }
+    }
+
+    public void testSharedInstanceShutdown() throws Exception {
+        AsyncQueryExecutor shared = AsyncQueryExecutor.getInstance(null);
+        assertSame(shared, AsyncQueryExecutor.getInstance(null));
+        shared.shutdown();
+        executor = AsyncQueryExecutor.getInstance(null);
+        assertNotSame(shared, executor);
+        RecordingJob job = new RecordingJob("a", null, null);
+        executor.submit("user", null, null, job);
+        assertTrue(job.await(10000));
+    }
+
+    private static boolean workersAlive(String name) {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith(name + "-") && t.isAlive()) {
+                assertTrue(t.isDaemon());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class RecordingJob extends AsyncQueryExecutor.Job
+    {
+        private final String name;
+        private final List<String> order;
+        private final CountDownLatch release;
+        private final CountDownLatch started;
+        private volatile boolean ran = false;
+        private volatile AsyncQueryExecutor.Outcome finishedWith = null;
+
+        RecordingJob(String name, List<String> order, CountDownLatch release) {
+            this(name, order, release, null);
+        }
+
+        RecordingJob(String name, List<String> order, CountDownLatch release,
+                CountDownLatch started) {
+            this.name = name;
+            this.order = order;
+            this.release = release;
+            this.started = started;
+        }
+
+        @Override
+        protected void execute() throws Exception {
+            ran = true;
+            if (order != null) {
+                order.add(name);
+            }
+            if (started != null) {
+                started.countDown();
+            }
+            if (release != null) {
+                release.await();
+            }
+        }
+
+        @Override
+        protected void finished(AsyncQueryExecutor.Outcome outcome, Throwable error) {
+            finishedWith = outcome;
+        }
+    }
+}
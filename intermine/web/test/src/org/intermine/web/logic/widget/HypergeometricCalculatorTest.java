@@ -0,0 +1,72 @@
+package org.intermine.web.logic.widget;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.math3.distribution.HypergeometricDistribution;
+
+public class HypergeometricCalculatorTest extends TestCase
+{
+    public HypergeometricCalculatorTest(String arg) {
+        super(arg);
+    }
+
+    private void assertMatchesCommonsMath(int populationSize, int sampleSize,
+            int[] populationCounts, int[] sampleCounts) {
+        double[] pValues = HypergeometricCalculator.upperCumulativeProbabilities(populationSize,
+                sampleSize, populationCounts, sampleCounts);
+        for (int i = 0; i < pValues.length; i++) {
+            double expected = new HypergeometricDistribution(populationSize, populationCounts[i],
+                    sampleSize).upperCumulativeProbability(sampleCounts[i]);
+            String message = "N=" + populationSize + " n=" + sampleSize + " K="
+                + populationCounts[i] + " k=" + sampleCounts[i];
+            assertEquals(message, expected, pValues[i], Math.max(1e-300, expected * 1e-8));
+        }
+    }
+
+    public void testSmall() {
+        assertMatchesCommonsMath(10, 4, new int[] {3, 3, 3, 3, 3, 0, 10, 7},
+                new int[] {0, 1, 2, 3, 4, 0, 4, 1});
+    }
+
+    public void testBounds() {
+        double[] pValues = HypergeometricCalculator.upperCumulativeProbabilities(100, 10,
+                new int[] {95, 5, 20}, new int[] {5, 6, 0});
+        assertEquals(1.0, pValues[0], 0.0);
+        assertEquals(0.0, pValues[1], 0.0);
+        assertEquals(1.0, pValues[2], 0.0);
+    }
+
+    public void testRandom() {
+        Random random = new Random(42);
+        for (int run = 0; run < 20; run++) {
+            int populationSize = 1 + random.nextInt(30000);
+            int sampleSize = random.nextInt(Math.min(populationSize, 10000) + 1);
+            int[] populationCounts = new int[200];
+            int[] sampleCounts = new int[200];
+            for (int i = 0; i < populationCounts.length; i++) {
+                populationCounts[i] = random.nextInt(Math.min(populationSize, 2000) + 1);
+                int max = Math.min(populationCounts[i], sampleSize);
+                sampleCounts[i] = random.nextInt(max + 1);
+            }
+            assertMatchesCommonsMath(populationSize, sampleSize, populationCounts, sampleCounts);
+        }
+    }
+
+    public void testInvalid() {
+        try {
+            HypergeometricCalculator.upperCumulativeProbabilities(10, 11, new int[0], new int[0]);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            HypergeometricCalculator.upperCumulativeProbabilities(10, 5, new int[] {11},
+                    new int[] {1});
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Tests that StreamingJSONWriter writes exactly what org.json writes.
+ *
+ * Run the main method for a comparison of throughput.
+ *
+ * @author intermine
+ */
+public class StreamingJSONWriterTest extends TestCase
+{
+    private StreamingJSONWriter writer;
+
+    public StreamingJSONWriterTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() {
+        writer = new StreamingJSONWriter();
+    }
+
+    // org.json returns null for a value it can't write, which the output then prints as "null"
+    private void assertSameAsArray(List<?> list) {
+        assertEquals(String.valueOf(new JSONArray(list).toString()),
+                writer.format(list).toString());
+    }
+
+    private void assertSameAsObject(Map<?, ?> map) {
+        assertEquals(String.valueOf(new JSONObject(map).toString()),
+                writer.format(map).toString());
+    }
+
+    public void testScalars() {
+        assertSameAsArray(Arrays.asList(null, "", "a string", Integer.valueOf(42),
+                Long.valueOf(-7L), Short.valueOf((short) 3), Byte.valueOf((byte) 1),
+                Boolean.TRUE, Boolean.FALSE, Character.valueOf('c'), JSONObject.NULL));
+    }
+
+    public void testNumbers() {
+        assertSameAsArray(Arrays.asList(Double.valueOf(1.0), Double.valueOf(1.5),
+                Double.valueOf(100.25), Double.valueOf(1.0E20), Double.valueOf(1.0E-5),
+                Float.valueOf(2.50f), Double.valueOf(-0.0), new BigDecimal("1.500")));
+    }
+
+    public void testEscaping() {
+        assertSameAsArray(Arrays.asList("quote \" backslash \\ slash / tag </script>",
+                "\b\t\n\f\r", "\u0001\u001f", "\u0080\u009f ", "  ℀",
+                "café 中文"));
+    }
+
+    public void testNonFiniteNumbers() {
+        Map<String, Object> bad = new HashMap<String, Object>();
+        bad.put("value", Double.valueOf(Double.NaN));
+        bad.put("name", "x");
+        Map<String, Object> outer = new HashMap<String, Object>();
+        outer.put("bad", bad);
+        outer.put("good", "y");
+        assertSameAsObject(outer);
+        assertSameAsArray(Arrays.asList("a", Float.valueOf(Float.POSITIVE_INFINITY)));
+        List<Object> nested = new ArrayList<Object>();
+        nested.add(Arrays.asList(Double.valueOf(Double.NEGATIVE_INFINITY)));
+        nested.add("b");
+        assertSameAsArray(nested);
+    }
+
+    public void testMapOrder() {
+        for (int size : new int[] {0, 1, 5, 12, 13, 25, 100}) {
+            Map<String, Object> hashMap = new HashMap<String, Object>();
+            Map<String, Object> linkedMap = new LinkedHashMap<String, Object>();
+            Map<String, Object> treeMap = new TreeMap<String, Object>();
+            for (int i = size; i > 0; i--) {
+                hashMap.put("key" + i, Integer.valueOf(i));
+                linkedMap.put("k" + (i * 7), "v" + i);
+                treeMap.put("t" + i, null);
+            }
+            assertSameAsObject(hashMap);
+            assertSameAsObject(linkedMap);
+            assertSameAsObject(treeMap);
+        }
+    }
+
+    public void testNested() {
+        Map<String, Object> company = new HashMap<String, Object>();
+        company.put("class", "Company");
+        company.put("objectId", Integer.valueOf(3));
+        company.put("name", "Acme");
+        Map<String, Object> employee = new HashMap<String, Object>();
+        employee.put("class", "Employee");
+        employee.put("objectId", Integer.valueOf(1));
+        employee.put("age", Integer.valueOf(30));
+        employee.put("end", null);
+        employee.put("company", company);
+        employee.put("tags", new String[] {"a", "b"});
+        employee.put("empty", Collections.emptyList());
+        employee.put("json", new JSONArray(Arrays.asList(Integer.valueOf(1))));
+        assertSameAsObject(employee);
+        assertSameAsArray(Arrays.asList(employee, company));
+    }
+
+    public void testStreamedOutput() {
+        StringWriter expected = new StringWriter();
+        StringWriter actual = new StringWriter();
+        Output before = new StreamedOutput(new PrintWriter(expected), new JSONRowFormatter());
+        Output after = new StreamedOutput(new PrintWriter(actual), new JSONRowFormatter());
+        for (int i = 0; i < 3; i++) {
+            List<Object> row = Arrays.asList((Object) ("row " + i), Integer.valueOf(i));
+            List<String> line = new ArrayList<String>();
+            line.add(new JSONArray(row).toString());
+            if (i < 2) {
+                line.add("");
+            }
+            before.addResultItem(line);
+            after.addResultItem(writer.format(row), i < 2);
+        }
+        before.flush();
+        after.flush();
+        // the footer contains the time, to the second
+        String expectedText = expected.toString();
+        String actualText = actual.toString();
+        int footer = expectedText.indexOf("\"executionTime\"");
+        assertEquals(expectedText.substring(0, footer), actualText.substring(0, footer));
+    }
+
+    /**
+     * Compares the time taken to format rows through org.json and through StreamingJSONWriter.
+     *
+     * @param args the number of rows, default 1000000
+     */
+    public static void main(String[] args) {
+        int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        List<Map<String, Object>> cells = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < 5; i++) {
+            Map<String, Object> cell = new HashMap<String, Object>();
+            cell.put("value", "identifier-" + i);
+            cell.put("id", Integer.valueOf(1000 + i));
+            cell.put("class", "Gene");
+            cell.put("column", "Gene.primaryIdentifier");
+            cell.put("url", "/report.do?id=" + (1000 + i));
+            cells.add(cell);
+        }
+        StreamingJSONWriter json = new StreamingJSONWriter();
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long chars = 0;
+            for (int i = 0; i < rows; i++) {
+                List<Object> row = new ArrayList<Object>();
+                for (Map<String, Object> cell : cells) {
+                    row.add(new JSONObject(cell));
+                }
+                chars += new JSONArray(row).toString().length();
+            }
+            long orgJson = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < rows; i++) {
+                chars -= json.format(cells).length();
+            }
+            long streaming = System.nanoTime() - start;
+            System.out.println(rows + " rows: org.json " + (orgJson / 1000000) + " ms, streaming "
+                    + (streaming / 1000000) + " ms" + (chars == 0 ? "" : " (OUTPUT DIFFERS)"));
+        }
+    }
+}
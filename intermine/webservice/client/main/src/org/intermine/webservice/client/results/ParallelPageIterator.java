@@ -0,0 +1,264 @@
+package org.intermine.webservice.client.results;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.intermine.webservice.client.exceptions.ServiceException;
+
+/**
+ * An iterator over a large result set that fetches it as a series of pages, several at a time,
+ * and returns the rows in their original order.
+ *
+ * Each page is fetched by its own request, and its rows are passed to the reader through a
+ * bounded buffer as they arrive, so no page is ever held in memory whole. At most
+ * <code>threads</code> pages are fetched at once: while the reader works through one page, the
+ * server is already running the queries for the next ones. A fetch that gets ahead of the
+ * reader waits once its buffer is full.
+ *
+ * Call close() when abandoning the iterator before the end, so that the fetching threads stop.
+ *
+ * @author intermine
+ *
+ * @param <E> The type of the rows.
+ */
+public class ParallelPageIterator<E> implements Iterator<E>
+{
+    /** The default number of rows buffered for each page being fetched. **/
+    public static final int DEFAULT_BUFFER_SIZE = 2000;
+
+    private static final Object END_OF_PAGE = new Object();
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    /**
+     * Fetches one page of the result set.
+     *
+     * @param <E> The type of the rows.
+     */
+    public interface PageSource<E>
+    {
+        /**
+         * Requests a page of results.
+         *
+         * @param page The page to fetch.
+         * @return An iterator over the rows of that page, read as they arrive. If it is also
+         * Closeable, it is closed once the page has been read, abandoned or has failed.
+         */
+        Iterator<E> getPage(Page page);
+    }
+
+    private final PageSource<E> source;
+    private final int pageSize;
+    private final int end;
+    private final int bufferSize;
+    private final ExecutorService executor;
+    private final List<PageFetch> fetches = new ArrayList<PageFetch>();
+    private int nextStart;
+    private Object next = null;
+    private boolean finished = false;
+
+    /**
+     * Constructor.
+     *
+     * @param source The source of pages.
+     * @param start The index of the first row to return.
+     * @param total The number of rows to return, usually the count of the query. Fewer rows are
+     * returned if a page comes back short.
+     * @param pageSize The number of rows to request at once.
+     * @param threads The number of pages to fetch at once.
+     * @param bufferSize The number of rows to buffer for each page being fetched.
+     */
+    public ParallelPageIterator(PageSource<E> source, int start, int total, int pageSize,
+            int threads, int bufferSize) {
+        if (pageSize < 1 || threads < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException("pageSize, threads and bufferSize must be >= 1");
+        }
+        this.source = source;
+        this.pageSize = pageSize;
+        this.end = start + Math.max(total, 0);
+        this.bufferSize = bufferSize;
+        this.nextStart = start;
+        final String poolName = "ParallelPageIterator-" + POOL_COUNT.incrementAndGet() + "-";
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, poolName + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (int i = 0; i < threads; i++) {
+            submitNextPage();
+        }
+    }
+
+    /**
+     * Constructor, buffering DEFAULT_BUFFER_SIZE rows for each page.
+     *
+     * @param source The source of pages.
+     * @param start The index of the first row to return.
+     * @param total The number of rows to return.
+     * @param pageSize The number of rows to request at once.
+     * @param threads The number of pages to fetch at once.
+     */
+    public ParallelPageIterator(PageSource<E> source, int start, int total, int pageSize,
+            int threads) {
+        this(source, start, total, pageSize, threads, DEFAULT_BUFFER_SIZE);
+    }
+
+    private void submitNextPage() {
+        if (nextStart < end) {
+            Page page = new Page(nextStart, Math.min(pageSize, end - nextStart));
+            nextStart += pageSize;
+            PageFetch fetch = new PageFetch(page);
+            executor.execute(fetch);
+            fetches.add(fetch);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            next = readNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object row = next;
+        next = null;
+        return (E) row;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops fetching pages. The iterator returns no more rows.
+     */
+    public void close() {
+        finished = true;
+        next = null;
+        fetches.clear();
+        executor.shutdownNow();
+    }
+
+    private Object readNext() {
+        while (!fetches.isEmpty()) {
+            PageFetch fetch = fetches.get(0);
+            Object item;
+            try {
+                item = fetch.buffer.take();
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new ServiceException("Interrupted while waiting for results", e);
+            }
+            if (item instanceof Failure) {
+                close();
+                throw ((Failure) item).exception;
+            } else if (item != END_OF_PAGE) {
+                return item;
+            }
+            fetches.remove(0);
+            if (fetch.rows < fetch.page.getSize().intValue()) {
+                // a short page means there are no more rows
+                break;
+            }
+            submitNextPage();
+        }
+        close();
+        return null;
+    }
+
+    /**
+     * A fetch of a page, which passes its rows to the reader through a buffer, followed by
+     * END_OF_PAGE or a Failure.
+     */
+    private class PageFetch implements Runnable
+    {
+        private final Page page;
+        private final BlockingQueue<Object> buffer;
+        private volatile int rows = 0;
+
+        PageFetch(Page page) {
+            this.page = page;
+            this.buffer = new ArrayBlockingQueue<Object>(bufferSize);
+        }
+
+        @Override
+        public void run() {
+            Iterator<E> it = null;
+            try {
+                try {
+                    it = source.getPage(page);
+                    while (it.hasNext()) {
+                        E row = it.next();
+                        if (row == null) {
+                            throw new ServiceException("Got a null row in the page starting at "
+                                    + page.getStart());
+                        }
+                        buffer.put(row);
+                        rows++;
+                    }
+                    buffer.put(END_OF_PAGE);
+                } catch (RuntimeException e) {
+                    buffer.put(new Failure(e));
+                }
+            } catch (InterruptedException e) {
+                // closed by the reader
+                Thread.currentThread().interrupt();
+            } finally {
+                // release the page's connection if the page was abandoned or failed
+                if (it instanceof Closeable) {
+                    try {
+                        ((Closeable) it).close();
+                    } catch (IOException e) {
+                        // nothing more can be done
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Carries an exception from a fetch to the reader.
+     */
+    private static final class Failure
+    {
+        private final RuntimeException exception;
+
+        Failure(RuntimeException exception) {
+            this.exception = exception;
+        }
+    }
+}
@@ -32,6 +32,7 @@ public abstract class ResultSet
     private String stringResults = null;
     private InputStream streamResults = null;
     private BufferedReader reader = null;
+    private boolean closed = false;
 
     /**
      * Constructor.
@@ -105,22 +106,48 @@ public abstract class ResultSet
      * @return A string containing the next line of data.
      */
     public String getNextLine() {
+        if (closed) {
+            return null;
+        }
         String nextLine = null;
         try {
             nextLine = reader.readLine();
         } catch (IOException e) {
-            closeConnection();
+            close();
             throw new ServiceException("Reading from response stream failed", e);
         }
         if (nextLine == null) {
-            closeConnection();
+            closed = true;
+            if (connection != null) {
+                connection.close();
+            }
         }
         return nextLine;
     }
 
-    private void closeConnection() {
-        if (connection != null) {
-            connection.close();
+    /**
+     * Stops reading the results, and releases the connection they come from without reading the
+     * rest of the response. Results read to the end release their connection by themselves, but
+     * results abandoned part way through, or that could not be read, must be closed.
+     */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            if (connection != null) {
+                connection.abort();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            close();
+        } finally {
+            super.finalize();
         }
     }
 }
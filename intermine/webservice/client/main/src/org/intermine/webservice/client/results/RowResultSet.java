@@ -13,6 +13,7 @@ package org.intermine.webservice.client.results;
 import org.intermine.webservice.client.util.HttpConnection;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.InputStream;
 import java.util.List;
 import java.util.ArrayList;
@@ -99,13 +100,18 @@ public class RowResultSet extends ResultSet
     public List<List<String>> getData() {
         List<List<String>> ret = new ArrayList<List<String>>();
         String rowData = null;
-        while ((rowData = getNextRow()) != null) {
-            List<Object> r = new ResultRowList(rowData);
-            List<String> row = new ArrayList<String>();
-            for (Object o: r) {
-                row.add(o.toString());
+        try {
+            while ((rowData = getNextRow()) != null) {
+                List<Object> r = new ResultRowList(rowData);
+                List<String> row = new ArrayList<String>();
+                for (Object o: r) {
+                    row.add(o.toString());
+                }
+                ret.add(row);
             }
-            ret.add(row);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
         }
         return ret;
     }
@@ -123,11 +129,7 @@ public class RowResultSet extends ResultSet
         List<List<Object>> ret = new ArrayList<List<Object>>();
         String rowData = null;
         while ((rowData = getNextRow()) != null) {
-            if (useNewAPI) {
-                ret.add(new JsonRow(rowData));
-            } else {
-                ret.add(new ResultRowList(rowData));
-            }
+            ret.add(parseRowList(rowData));
         }
         return ret;
     }
@@ -145,11 +147,7 @@ public class RowResultSet extends ResultSet
         List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
         String rowData = null;
         while ((rowData = getNextRow()) != null) {
-            if (useNewAPI) {
-                ret.add(new JsonRowMap(rowData, views));
-            } else {
-                ret.add(new ResultRowMap(rowData, views));
-            }
+            ret.add(parseRowMap(rowData));
         }
         return ret;
     }
@@ -183,7 +181,31 @@ public class RowResultSet extends ResultSet
         return nextLine;
     }
 
-    private class RowMapIterator implements Iterator<Map<String, Object>>
+    /**
+     * Parses a row as a list, closing the result set if it cannot be parsed.
+     */
+    private List<Object> parseRowList(String line) {
+        try {
+            return useNewAPI ? new JsonRow(line) : new ResultRowList(line);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Parses a row as a map, closing the result set if it cannot be parsed.
+     */
+    private Map<String, Object> parseRowMap(String line) {
+        try {
+            return useNewAPI ? new JsonRowMap(line, views) : new ResultRowMap(line, views);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private class RowMapIterator implements Iterator<Map<String, Object>>, Closeable
     {
         private Map<String, Object> next;
 
@@ -195,7 +217,7 @@ public class RowResultSet extends ResultSet
             String line = getNextRow();
 
             if (line != null) {
-                return useNewAPI ? new JsonRowMap(line, views) : new ResultRowMap(line, views);
+                return parseRowMap(line);
             } else {
                 return null;
             }
@@ -220,9 +242,15 @@ public class RowResultSet extends ResultSet
         public void remove() {
             throw new UnsupportedOperationException();
         }
+
+        @Override
+        public void close() {
+            next = null;
+            RowResultSet.this.close();
+        }
     }
 
-    private class RowListIterator implements Iterator<List<Object>>
+    private class RowListIterator implements Iterator<List<Object>>, Closeable
     {
         private List<Object> next;
 
@@ -234,7 +262,7 @@ public class RowResultSet extends ResultSet
             String line = getNextRow();
 
             if (line != null) {
-                return useNewAPI ? new JsonRow(line) : new ResultRowList(line);
+                return parseRowList(line);
             } else {
                 return null;
             }
@@ -259,10 +287,17 @@ public class RowResultSet extends ResultSet
         public void remove() {
             throw new UnsupportedOperationException();
         }
+
+        @Override
+        public void close() {
+            next = null;
+            RowResultSet.this.close();
+        }
     }
 
     /**
-     * Get a memory efficient iterator over the result rows as lists
+     * Get a memory efficient iterator over the result rows as lists. The iterator is also
+     * Closeable: close it to release the connection if you stop reading before the end.
      * @return an iterator over the rows in this result set as lists of values
      */
     public Iterator<List<Object>> getListIterator() {
@@ -270,7 +305,8 @@ public class RowResultSet extends ResultSet
     }
 
     /**
-     * Get a memory efficient iterator over the result rows as lists
+     * Get a memory efficient iterator over the result rows as maps. The iterator is also
+     * Closeable: close it to release the connection if you stop reading before the end.
      * @return an iterator over the rows in this result set as maps of column names to values
      */
     public Iterator<Map<String, Object>> getMapIterator() {
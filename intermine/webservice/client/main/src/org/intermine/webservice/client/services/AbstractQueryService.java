@@ -18,6 +18,7 @@ import org.intermine.webservice.client.core.Request;
 import org.intermine.webservice.client.core.Service;
 import org.intermine.webservice.client.results.JSONResult;
 import org.intermine.webservice.client.results.Page;
+import org.intermine.webservice.client.results.ParallelPageIterator;
 import org.intermine.webservice.client.results.RowResultSet;
 import org.intermine.webservice.client.results.XMLTableResult;
 import org.intermine.webservice.client.util.HttpConnection;
@@ -193,6 +194,55 @@ public abstract class AbstractQueryService<T> extends Service
         return getRows(query, page).getListIterator();
     }
 
+    /**
+     * Get an iterator over all the results of a large query, fetched as pages of the given size,
+     * several pages at a time, and returned in order. The rows of each page are read as they
+     * arrive, so only a bounded number of rows is held in memory whatever the page size.
+     *
+     * Call close() on the iterator if you stop reading before the end.
+     *
+     * @param query the query to run.
+     * @param pageSize The number of rows to request at once.
+     * @param threads The number of pages to fetch at once.
+     * @return an iterator over the rows, where each row is a list of objects.
+     */
+    public ParallelPageIterator<List<Object>> getParallelRowListIterator(final T query,
+            int pageSize, int threads) {
+        // look up the version first, rather than from several threads at once
+        getAPIVersion();
+        return new ParallelPageIterator<List<Object>>(
+                new ParallelPageIterator.PageSource<List<Object>>() {
+                    @Override
+                    public Iterator<List<Object>> getPage(Page page) {
+                        return getRows(query, page).getListIterator();
+                    }
+                }, 0, getCount(query), pageSize, threads);
+    }
+
+    /**
+     * Get an iterator over all the results of a large query, fetched as pages of the given size,
+     * several pages at a time, and returned in order. The rows of each page are read as they
+     * arrive, so only a bounded number of rows is held in memory whatever the page size.
+     *
+     * Call close() on the iterator if you stop reading before the end.
+     *
+     * @param query the query to run.
+     * @param pageSize The number of rows to request at once.
+     * @param threads The number of pages to fetch at once.
+     * @return an iterator over the rows, where each row is a mapping from output column to value.
+     */
+    public ParallelPageIterator<Map<String, Object>> getParallelRowMapIterator(final T query,
+            int pageSize, int threads) {
+        getAPIVersion();
+        return new ParallelPageIterator<Map<String, Object>>(
+                new ParallelPageIterator.PageSource<Map<String, Object>>() {
+                    @Override
+                    public Iterator<Map<String, Object>> getPage(Page page) {
+                        return getRows(query, page).getMapIterator();
+                    }
+                }, 0, getCount(query), pageSize, threads);
+    }
+
     /**
      * Get results for a query as rows of objects. Get up to the
      * maximum result size of 10,000,000 rows from the beginning.
@@ -10,24 +10,30 @@ package org.intermine.webservice.client.util;
  *
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.util.zip.GZIPInputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethodBase;
-import org.apache.commons.httpclient.ProxyHost;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.intermine.webservice.client.core.ContentType;
 import org.intermine.webservice.client.core.MultiPartRequest;
@@ -48,10 +54,34 @@ import org.json.JSONObject;
  * The HttpConnection is class wrapping implementation details of http connection and the
  * implementation can change easily.
  *
+ * All connections share one pool of persistent (keep-alive) connections, so that a client making
+ * many requests to the same server, possibly from several threads, does not open a new socket for
+ * each one. A connection goes back to the pool when its response has been read to the end or it
+ * is closed, and every error path releases it, so callers must close a connection whose body
+ * they stop reading part way through. Responses are requested gzip-compressed, and are
+ * decompressed transparently.
+ *
  * @author Jakub Kulaviak
  **/
 public class HttpConnection
 {
+    /** The default maximum number of pooled connections to any one server. **/
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+
+    /** The default maximum number of pooled connections in all. **/
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 100;
+
+    private static final String GZIP = "gzip";
+
+    private static final MultiThreadedHttpConnectionManager CONNECTION_MANAGER
+        = new MultiThreadedHttpConnectionManager();
+
+    static {
+        HttpConnectionManagerParams params = CONNECTION_MANAGER.getParams();
+        params.setDefaultMaxConnectionsPerHost(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        params.setMaxTotalConnections(DEFAULT_MAX_TOTAL_CONNECTIONS);
+        params.setStaleCheckingEnabled(true);
+    }
 
     private Request request;
 
@@ -70,14 +100,43 @@ public class HttpConnection
         this.request = request;
     }
 
+    /**
+     * Sets the maximum number of connections that may be open at once to any one server. Requests
+     * for a connection beyond that wait until one is released.
+     *
+     * @param max the maximum number of connections per server
+     */
+    public static void setMaxConnectionsPerHost(int max) {
+        CONNECTION_MANAGER.getParams().setDefaultMaxConnectionsPerHost(max);
+    }
+
+    /**
+     * Sets the maximum number of connections that may be open at once to all servers.
+     *
+     * @param max the maximum number of connections
+     */
+    public static void setMaxTotalConnections(int max) {
+        CONNECTION_MANAGER.getParams().setMaxTotalConnections(max);
+    }
+
+    /**
+     * Closes pooled connections that have not been used for the given time.
+     *
+     * @param idleMillis the idle time in milliseconds
+     */
+    public static void closeIdleConnections(long idleMillis) {
+        CONNECTION_MANAGER.closeIdleConnections(idleMillis);
+    }
+
     /**
      * @return response stream
      */
     public InputStream getResponseStream() {
         connect();
         try {
-            return executedMethod.getResponseBodyAsStream();
+            return openResponseBody();
         } catch (IOException e) {
+            abort();
             throw new RuntimeException("Fatal transport error.", e);
         }
     }
@@ -106,7 +165,8 @@ public class HttpConnection
     }
 
     /**
-     * Closes connection.
+     * Closes connection, returning it to the pool. Any part of the response body not yet read is
+     * read and discarded first, so that the connection can be reused.
      */
     public void close() {
         if (executedMethod != null) {
@@ -115,10 +175,22 @@ public class HttpConnection
         }
     }
 
+    /**
+     * Closes connection without reading the rest of the response body, for when a response is
+     * abandoned part way through or could not be read. The socket is closed rather than reused.
+     */
+    public void abort() {
+        if (executedMethod != null) {
+            executedMethod.abort();
+            executedMethod.releaseConnection();
+            opened = false;
+        }
+    }
+
     private void executeMethod() {
-        HttpClient client = new HttpClient();
+        // The pool is shared, but the time to wait for a free connection is per request
+        HttpClient client = new HttpClient(CONNECTION_MANAGER);
         client.getParams().setConnectionManagerTimeout(timeout);
-        setProxy(client);
         String url = request.getEncodedUrl();
         if (request.getType() == RequestType.GET) {
             executedMethod = new GetMethod(url);
@@ -139,28 +211,71 @@ public class HttpConnection
         // Provide custom retry handler is necessary
         executedMethod.getParams().setParameter(HttpMethodParams.RETRY_HANDLER,
                 new DefaultHttpMethodRetryHandler(retryCount, false));
+        if (timeout > 0) {
+            executedMethod.getParams().setSoTimeout(timeout);
+        }
+        executedMethod.setRequestHeader("Accept-Encoding", GZIP);
         for (String name : request.getHeaders().keySet()) {
             executedMethod.setRequestHeader(name, request.getHeader(name));
         }
+        boolean success = false;
         try {
-            // Execute the method.
-            client.executeMethod(executedMethod);
+            // Execute the method, with its own cookies, as if on its own client.
+            client.executeMethod(getHostConfiguration(), executedMethod, new HttpState());
             checkResponse();
+            success = true;
         } catch (HttpException e) {
             throw new RuntimeException("Fatal protocol violation.", e);
         } catch (IOException e) {
             throw new RuntimeException("Fatal transport error connecting to " + url, e);
+        } finally {
+            if (!success) {
+                executedMethod.releaseConnection();
+            }
         }
     }
 
-    private static void setProxy(HttpClient client) {
+    private static HostConfiguration getHostConfiguration() {
+        HostConfiguration hostConfig = new HostConfiguration();
         Properties systemProps = System.getProperties();
         if (systemProps.containsKey("http.proxyHost")) {
             String server = systemProps.getProperty("http.proxyHost");
             Integer port = Integer.valueOf(systemProps.getProperty("http.proxyPort", "-1"));
-            ProxyHost ph = new ProxyHost(server, port);
-            client.getHostConfiguration().setProxyHost(ph);
+            hostConfig.setProxy(server, port.intValue());
+        }
+        return hostConfig;
+    }
+
+    /**
+     * Returns the response body, decompressing it if the server compressed it.
+     */
+    private InputStream openResponseBody() throws IOException {
+        InputStream body = executedMethod.getResponseBodyAsStream();
+        if (body == null) {
+            return null;
+        }
+        Header encoding = executedMethod.getResponseHeader("Content-Encoding");
+        if (encoding != null && GZIP.equalsIgnoreCase(encoding.getValue().trim())) {
+            return new GZIPInputStream(body);
+        }
+        return body;
+    }
+
+    /**
+     * Reads the whole response body as a string, in the response's character set.
+     */
+    private String readResponseBody() throws IOException {
+        InputStream body = openResponseBody();
+        if (body == null) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
         }
+        return new String(bytes.toByteArray(), executedMethod.getResponseCharSet());
     }
 
     private static void setMultiPartPostEntity(PostMethod postMethod, MultiPartRequest req) {
@@ -182,8 +297,9 @@ public class HttpConnection
     }
 
     /**
-     * Sets timeout.
-     * @param timeout timeout in milliseconds
+     * Sets the timeout: how long to wait for a free connection from the pool, and for data from
+     * the server, before giving up.
+     * @param timeout timeout in milliseconds, or 0 to wait for ever
      */
     public void setTimeout(int timeout) {
         this.timeout = timeout;
@@ -241,7 +357,12 @@ public class HttpConnection
      */
     protected void handleErrorResponse() throws IOException {
 
-        String message = executedMethod.getResponseBodyAsString();
+        String message;
+        try {
+            message = readResponseBody();
+        } finally {
+            executedMethod.releaseConnection();
+        }
         try {
             JSONObject jo = new JSONObject(message);
             message = jo.getString("error");
@@ -298,7 +419,7 @@ public class HttpConnection
         }
         String res = null;
         try {
-            res = executedMethod.getResponseBodyAsString();
+            res = readResponseBody();
         } catch (IOException e) {
             throw new ServiceException(e);
         } finally {
@@ -315,8 +436,9 @@ public class HttpConnection
             throwNotConnectedException();
         }
         try {
-            return executedMethod.getResponseBodyAsStream();
+            return openResponseBody();
         } catch (IOException e) {
+            abort();
             throw new ServiceException(e);
         }
     }
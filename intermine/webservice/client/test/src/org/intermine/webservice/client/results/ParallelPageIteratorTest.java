@@ -0,0 +1,247 @@
+package org.intermine.webservice.client.results;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.intermine.webservice.client.exceptions.ServiceException;
+
+/**
+ * Tests for ParallelPageIterator.
+ *
+ * @author intermine
+ */
+public class ParallelPageIteratorTest extends TestCase
+{
+    public ParallelPageIteratorTest(String name) {
+        super(name);
+    }
+
+    /**
+     * A source of the integers 0 to size - 1, which takes a random time over each page.
+     */
+    private static class NumberSource implements ParallelPageIterator.PageSource<Integer>
+    {
+        private final int size;
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private final List<Integer> requested = Collections.synchronizedList(
+                new ArrayList<Integer>());
+        private final Random random = new Random(42);
+
+        NumberSource(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Iterator<Integer> getPage(Page page) {
+            requested.add(page.getStart());
+            int now = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+            try {
+                Thread.sleep(random.nextInt(20));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+            List<Integer> rows = new ArrayList<Integer>();
+            for (int i = page.getStart(); i < Math.min(size, page.getStart() + page.getSize());
+                    i++) {
+                rows.add(i);
+            }
+            return rows.iterator();
+        }
+    }
+
+    private static List<Integer> readAll(Iterator<Integer> it) {
+        List<Integer> rows = new ArrayList<Integer>();
+        while (it.hasNext()) {
+            rows.add(it.next());
+        }
+        return rows;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            expected.add(i);
+        }
+        return expected;
+    }
+
+    public void testOrder() {
+        NumberSource source = new NumberSource(1005);
+        ParallelPageIterator<Integer> it = new ParallelPageIterator<Integer>(source, 0, 1005, 50,
+                4, 7);
+        assertEquals(range(0, 1005), readAll(it));
+        assertEquals(21, source.requested.size());
+        assertTrue(source.maxRunning.get() <= 4);
+        try {
+            it.next();
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    public void testStartAndTotal() {
+        NumberSource source = new NumberSource(1000);
+        assertEquals(range(100, 350), readAll(new ParallelPageIterator<Integer>(source, 100, 250,
+                100, 3)));
+        assertEquals(3, source.requested.size());
+    }
+
+    public void testShortPageEnds() {
+        // the count was too high, so the results end early
+        NumberSource source = new NumberSource(120);
+        assertEquals(range(0, 120), readAll(new ParallelPageIterator<Integer>(source, 0, 1000, 50,
+                2, 10)));
+    }
+
+    public void testEmpty() {
+        NumberSource source = new NumberSource(0);
+        assertFalse(new ParallelPageIterator<Integer>(source, 0, 0, 50, 2).hasNext());
+        assertTrue(source.requested.isEmpty());
+    }
+
+    public void testFailure() {
+        ParallelPageIterator<Integer> it = new ParallelPageIterator<Integer>(
+                new ParallelPageIterator.PageSource<Integer>() {
+                    @Override
+                    public Iterator<Integer> getPage(Page page) {
+                        if (page.getStart() == 20) {
+                            throw new ServiceException("broken");
+                        }
+                        return range(page.getStart(), page.getStart() + page.getSize())
+                            .iterator();
+                    }
+                }, 0, 100, 10, 3, 5);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Integer.valueOf(i), it.next());
+        }
+        try {
+            it.hasNext();
+            fail("Expected ServiceException");
+        } catch (ServiceException e) {
+            assertEquals("broken", e.getMessage());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    public void testClose() {
+        NumberSource source = new NumberSource(100000);
+        ParallelPageIterator<Integer> it = new ParallelPageIterator<Integer>(source, 0, 100000,
+                1000, 4, 10);
+        assertEquals(Integer.valueOf(0), it.next());
+        it.close();
+        assertFalse(it.hasNext());
+        assertTrue(source.requested.size() <= 4);
+    }
+
+    public void testPagesClosed() throws Exception {
+        final AtomicInteger opened = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        ParallelPageIterator<Integer> it = new ParallelPageIterator<Integer>(
+                new ParallelPageIterator.PageSource<Integer>() {
+                    @Override
+                    public Iterator<Integer> getPage(Page page) {
+                        opened.incrementAndGet();
+                        return new ClosingIterator(range(page.getStart(),
+                                    page.getStart() + page.getSize()).iterator(), closed);
+                    }
+                }, 0, 100000, 1000, 3, 10);
+        assertEquals(range(0, 10), readAll(new LimitedIterator(it, 10)));
+        // the fetches waiting for space in their buffers are abandoned
+        it.close();
+        for (int i = 0; i < 100 && closed.get() < opened.get(); i++) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertEquals(opened.get(), closed.get());
+        assertTrue(opened.get() > 0);
+    }
+
+    /**
+     * A page iterator that counts when it is closed.
+     */
+    private static class ClosingIterator implements Iterator<Integer>, Closeable
+    {
+        private final Iterator<Integer> rows;
+        private final AtomicInteger closed;
+
+        ClosingIterator(Iterator<Integer> rows, AtomicInteger closed) {
+            this.rows = rows;
+            this.closed = closed;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return rows.hasNext();
+        }
+
+        @Override
+        public Integer next() {
+            return rows.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+
+    /**
+     * An iterator over the first few rows of another.
+     */
+    private static class LimitedIterator implements Iterator<Integer>
+    {
+        private final Iterator<Integer> rows;
+        private int left;
+
+        LimitedIterator(Iterator<Integer> rows, int limit) {
+            this.rows = rows;
+            this.left = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return left > 0 && rows.hasNext();
+        }
+
+        @Override
+        public Integer next() {
+            left--;
+            return rows.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
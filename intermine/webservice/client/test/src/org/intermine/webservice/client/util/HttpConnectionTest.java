@@ -0,0 +1,150 @@
+package org.intermine.webservice.client.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.intermine.webservice.client.core.ContentType;
+import org.intermine.webservice.client.core.Request.RequestType;
+import org.intermine.webservice.client.core.RequestImpl;
+import org.intermine.webservice.client.exceptions.BadRequestException;
+import org.intermine.webservice.client.exceptions.ServiceException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for HttpConnection, against a server on the local machine.
+ *
+ * @author intermine
+ */
+public class HttpConnectionTest extends TestCase
+{
+    private HttpServer server;
+    private String root;
+    private final Set<Object> remotePorts = Collections.synchronizedSet(new HashSet<Object>());
+
+    public HttpConnectionTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                remotePorts.add(Integer.valueOf(exchange.getRemoteAddress().getPort()));
+                String path = exchange.getRequestURI().getPath();
+                String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                boolean gzip = accept != null && accept.contains("gzip");
+                int status = path.endsWith("/bad") ? 400 : 200;
+                String body = path.endsWith("/bad") ? "{\"error\":\"no such thing\"}"
+                    : "line one\nline two\n";
+                if (gzip) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(status, 0);
+                OutputStream out = exchange.getResponseBody();
+                if (gzip) {
+                    out = new GZIPOutputStream(out);
+                }
+                out.write(body.getBytes("UTF-8"));
+                out.close();
+            }
+        });
+        server.start();
+        root = "http://127.0.0.1:" + server.getAddress().getPort() + "/service";
+    }
+
+    @Override
+    public void tearDown() {
+        HttpConnection.setMaxConnectionsPerHost(HttpConnection.DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        server.stop(0);
+    }
+
+    private HttpConnection open(String path) {
+        HttpConnection connection = new HttpConnection(
+                new RequestImpl(RequestType.GET, root + path, ContentType.TEXT_PLAIN));
+        // a leaked connection makes the next request time out waiting for the pool
+        connection.setTimeout(5000);
+        connection.connect();
+        return connection;
+    }
+
+    public void testCompressedBody() throws IOException {
+        HttpConnection connection = open("/lines");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("gzip", connection.getResponseHeader("Content-Encoding"));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                connection.getResponseBodyAsStream(), "UTF-8"));
+        assertEquals("line one", reader.readLine());
+        assertEquals("line two", reader.readLine());
+        assertNull(reader.readLine());
+        connection.close();
+        assertEquals("line one\nline two\n", open("/lines").getResponseBodyAsString());
+    }
+
+    public void testConnectionsAreReused() {
+        for (int i = 0; i < 5; i++) {
+            HttpConnection connection = open("/lines");
+            connection.getResponseBodyAsString();
+            connection.close();
+        }
+        assertEquals(1, remotePorts.size());
+    }
+
+    public void testCompressedError() {
+        try {
+            open("/bad");
+            fail("Expected ServiceException");
+        } catch (ServiceException e) {
+            assertTrue(e.getCause() instanceof BadRequestException);
+            assertEquals("no such thing", e.getCause().getMessage());
+        }
+    }
+
+    public void testErrorsReleaseConnections() {
+        HttpConnection.setMaxConnectionsPerHost(1);
+        for (int i = 0; i < 3; i++) {
+            try {
+                open("/bad");
+                fail("Expected ServiceException");
+            } catch (ServiceException e) {
+                // expected
+            }
+        }
+        assertEquals("line one\nline two\n", open("/lines").getResponseBodyAsString());
+    }
+
+    public void testAbortReleasesConnection() throws IOException {
+        HttpConnection.setMaxConnectionsPerHost(1);
+        for (int i = 0; i < 3; i++) {
+            HttpConnection connection = open("/lines");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    connection.getResponseBodyAsStream(), "UTF-8"));
+            assertEquals("line one", reader.readLine());
+            connection.abort();
+        }
+        assertEquals("line one\nline two\n", open("/lines").getResponseBodyAsString());
+    }
+}
@@ -0,0 +1,337 @@
+package org.intermine.web.commandline;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.intermine.api.InterMineAPI;
+import org.intermine.api.bag.BagQueryResult;
+import org.intermine.api.data.Objects;
+import org.intermine.api.lucene.KeywordSearch;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.api.profile.Profile;
+import org.intermine.api.results.ExportResultsIterator;
+import org.intermine.api.template.ApiTemplate;
+import org.intermine.pathquery.PathQuery;
+import org.intermine.pathquery.PathQueryBinding;
+import org.intermine.web.commandline.BenchmarkWorkload.Operation;
+import org.intermine.web.commandline.BenchmarkWorkload.OperationType;
+import org.intermine.web.logic.export.ExporterImpl;
+import org.intermine.web.logic.export.RowFormatterImpl;
+
+import com.browseengine.bobo.api.BrowseResult;
+
+/**
+ * Replays a BenchmarkWorkload against a mine in a number of threads, and records the latency of
+ * every operation and the throughput of each type of operation.
+ *
+ * The threads share out the operations of each pass in order. Warm-up passes are run first and
+ * are not recorded. Operations that fail are counted as errors and logged, and their latency is
+ * not recorded.
+ *
+ * @author intermine
+ */
+public class BenchmarkRunner
+{
+    private static final Logger LOG = Logger.getLogger(BenchmarkRunner.class);
+
+    /** The number of rows read from each template, query and region search. **/
+    public static final int MAX_ROWS = 1000;
+
+    private static final OutputStream NOWHERE = new OutputStream() {
+        @Override
+        public void write(int b) {
+            // discard
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // discard
+        }
+    };
+
+    private final InterMineAPI im;
+    private final int threads;
+    private int passes = 1;
+    private int warmupPasses = 0;
+    private final Map<OperationType, LatencyHistogram> latencies
+        = new EnumMap<OperationType, LatencyHistogram>(OperationType.class);
+    private final Map<OperationType, AtomicLong> errors
+        = new EnumMap<OperationType, AtomicLong>(OperationType.class);
+    private final Map<Operation, PathQuery> queries = new IdentityHashMap<Operation, PathQuery>();
+    private final AtomicInteger listCount = new AtomicInteger();
+    private final String listPrefix = "benchmark_" + System.currentTimeMillis() + "_";
+    private long wallTimeNanos = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param im the API of the mine to run the workload against
+     * @param threads the number of operations to run at once
+     */
+    public BenchmarkRunner(InterMineAPI im, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be >= 1");
+        }
+        this.im = im;
+        this.threads = threads;
+        for (OperationType type : OperationType.values()) {
+            latencies.put(type, new LatencyHistogram());
+            errors.put(type, new AtomicLong());
+        }
+    }
+
+    /**
+     * @param passes the number of times to run the workload while recording, default 1
+     */
+    public void setPasses(int passes) {
+        this.passes = passes;
+    }
+
+    /**
+     * @param warmupPasses the number of times to run the workload before recording, default 0
+     */
+    public void setWarmupPasses(int warmupPasses) {
+        this.warmupPasses = warmupPasses;
+    }
+
+    /**
+     * Runs a workload. The results of successive runs are added together.
+     *
+     * @param workload the workload
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public void run(BenchmarkWorkload workload) throws InterruptedException {
+        List<Operation> operations = workload.getOperations();
+        if (operations.isEmpty()) {
+            return;
+        }
+        prepare(operations);
+        runPasses(operations, warmupPasses, false);
+        long start = System.nanoTime();
+        runPasses(operations, passes, true);
+        wallTimeNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Parses the queries of a workload before it is run, so that the time to parse them is not
+     * recorded.
+     */
+    private void prepare(List<Operation> operations) {
+        for (Operation operation : operations) {
+            OperationType type = operation.getType();
+            if (type == OperationType.QUERY || type == OperationType.REGION
+                    || type == OperationType.EXPORT) {
+                queries.put(operation, PathQueryBinding.unmarshalPathQuery(
+                        new StringReader(operation.getArgument()), PathQuery.USERPROFILE_VERSION));
+            }
+        }
+    }
+
+    private void runPasses(final List<Operation> operations, int passCount,
+            final boolean record) throws InterruptedException {
+        final int total = operations.size() * passCount;
+        final AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int index;
+                    while ((index = next.getAndIncrement()) < total) {
+                        runOperation(operations.get(index % operations.size()), record);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    private void runOperation(Operation operation, boolean record) {
+        long start = System.nanoTime();
+        try {
+            perform(operation);
+            if (record) {
+                latencies.get(operation.getType()).record((System.nanoTime() - start) / 1000);
+            }
+        } catch (Exception e) {
+            if (record) {
+                errors.get(operation.getType()).incrementAndGet();
+            }
+            LOG.warn("Failed to run " + operation, e);
+        }
+    }
+
+    /**
+     * Runs one operation, reading all of its results.
+     *
+     * @param operation the operation
+     * @throws Exception if the operation fails
+     */
+    protected void perform(Operation operation) throws Exception {
+        switch (operation.getType()) {
+            case TEMPLATE:
+                ApiTemplate template = im.getTemplateManager()
+                    .getGlobalTemplate(operation.getArgument());
+                if (template == null) {
+                    throw new IllegalArgumentException("There is no global template called "
+                            + operation.getArgument());
+                }
+                consume(im.getPathQueryExecutor().execute(template, 0, MAX_ROWS));
+                break;
+            case QUERY:
+            case REGION:
+                consume(im.getPathQueryExecutor().execute(queries.get(operation), 0, MAX_ROWS));
+                break;
+            case LIST:
+                uploadList(operation.getArgument(), operation.getArguments().get(1));
+                break;
+            case SEARCH:
+                search(operation.getArgument());
+                break;
+            case EXPORT:
+                ExportResultsIterator results = im.getPathQueryExecutor()
+                    .execute(queries.get(operation));
+                new ExporterImpl(NOWHERE, new RowFormatterImpl("\t", false)).export(results);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private static void consume(Iterator<?> results) {
+        while (results.hasNext()) {
+            results.next();
+        }
+    }
+
+    /**
+     * Does what uploading a list in the webapp does: resolves the identifiers, saves the objects
+     * found as a list of the superuser, then deletes it again.
+     */
+    private void uploadList(String type, String identifiers) throws Exception {
+        List<String> input = new ArrayList<String>();
+        for (String identifier : StringUtils.split(identifiers, ',')) {
+            input.add(identifier.trim());
+        }
+        BagQueryResult result = im.getBagQueryRunner().searchForBag(type, input, null, true);
+        Profile profile = im.getProfileManager().getSuperuserProfile();
+        String name = listPrefix + listCount.incrementAndGet();
+        InterMineBag bag;
+        synchronized (profile) {
+            bag = profile.createBag(name, type, "", im.getClassKeys());
+        }
+        try {
+            bag.addIdsToBag(result.getMatches().keySet(), type);
+        } finally {
+            synchronized (profile) {
+                profile.deleteBag(name);
+            }
+        }
+    }
+
+    /**
+     * Does what the keyword search page does: runs the search and fetches the objects of the first
+     * page of hits.
+     */
+    private void search(String terms) throws Exception {
+        BrowseResult result = KeywordSearch.runBrowseSearch(terms, 0, null, null, 0);
+        if (result == null) {
+            throw new IllegalStateException("Keyword search failed - is the search index loaded?");
+        }
+        try {
+            Objects.getObjects(im, KeywordSearch.getObjectIds(result.getHits()));
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * @param type a type of operation
+     * @return the latencies recorded for operations of that type, in microseconds
+     */
+    public LatencyHistogram getLatencies(OperationType type) {
+        return latencies.get(type);
+    }
+
+    /**
+     * @param type a type of operation
+     * @return the number of operations of that type that failed
+     */
+    public long getErrors(OperationType type) {
+        return errors.get(type).get();
+    }
+
+    /**
+     * @return the total time taken by the recorded passes, in milliseconds
+     */
+    public double getWallTimeMillis() {
+        return wallTimeNanos / 1000000.0;
+    }
+
+    /**
+     * Returns the results, in a form that can be written as JSON. For each type of operation in
+     * the workload, and for all of them together, there is the count of successful operations,
+     * the count of errors, the throughput in operations per second and a summary of the latencies
+     * in milliseconds.
+     *
+     * @return the results
+     */
+    public Map<String, Object> getResults() {
+        Map<String, Object> results = new LinkedHashMap<String, Object>();
+        results.put("threads", Integer.valueOf(threads));
+        results.put("passes", Integer.valueOf(passes));
+        results.put("warmupPasses", Integer.valueOf(warmupPasses));
+        results.put("wallTimeMs", Double.valueOf(getWallTimeMillis()));
+        LatencyHistogram all = new LatencyHistogram();
+        long allErrors = 0;
+        Map<String, Object> byType = new LinkedHashMap<String, Object>();
+        for (OperationType type : OperationType.values()) {
+            LatencyHistogram histogram = latencies.get(type);
+            long typeErrors = getErrors(type);
+            if (histogram.getCount() + typeErrors > 0) {
+                byType.put(type.getName(), summarise(histogram, typeErrors));
+                all.add(histogram);
+                allErrors += typeErrors;
+            }
+        }
+        results.put("all", summarise(all, allErrors));
+        results.put("operations", byType);
+        return results;
+    }
+
+    private Map<String, Object> summarise(LatencyHistogram histogram, long errorCount) {
+        Map<String, Object> summary = new LinkedHashMap<String, Object>();
+        summary.put("count", Long.valueOf(histogram.getCount()));
+        summary.put("errors", Long.valueOf(errorCount));
+        double seconds = wallTimeNanos / 1000000000.0;
+        summary.put("throughput", Double.valueOf(
+                (seconds > 0) ? histogram.getCount() / seconds : 0.0));
+        summary.put("latencyMs", histogram.getSummaryMillis());
+        return summary;
+    }
+}
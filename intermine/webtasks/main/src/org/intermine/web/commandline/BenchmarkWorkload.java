@@ -0,0 +1,216 @@
+package org.intermine.web.commandline;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A recorded sequence of operations for the PerformanceTester to replay against a mine.
+ *
+ * A workload file has one operation per line, made up of the operation type and its arguments,
+ * separated by tabs. Blank lines and lines starting with # are ignored:
+ * <pre>
+ * template   &lt;template name&gt;
+ * query      &lt;path query XML&gt;
+ * region     &lt;path query XML with a range constraint&gt;
+ * list       &lt;class name&gt;  &lt;identifiers, separated by commas&gt;
+ * search     &lt;keyword search terms&gt;
+ * export     &lt;path query XML&gt;
+ * </pre>
+ *
+ * @author intermine
+ */
+public class BenchmarkWorkload
+{
+    /**
+     * The kinds of operation a workload can contain.
+     */
+    public enum OperationType
+    {
+        /** Run a global template with its default constraint values. **/
+        TEMPLATE(1),
+        /** Run a path query. **/
+        QUERY(1),
+        /** Run a path query with a range constraint, as a region search does. **/
+        REGION(1),
+        /** Resolve a list of identifiers and save the matches as a list. **/
+        LIST(2),
+        /** Run a keyword search. **/
+        SEARCH(1),
+        /** Run a path query and export all its rows as tab separated values. **/
+        EXPORT(1);
+
+        private final int argumentCount;
+
+        private OperationType(int argumentCount) {
+            this.argumentCount = argumentCount;
+        }
+
+        /**
+         * @return the name used for this type in workload files
+         */
+        public String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * One operation in a workload.
+     */
+    public static final class Operation
+    {
+        private final OperationType type;
+        private final List<String> arguments;
+
+        /**
+         * Constructor.
+         *
+         * @param type the type of operation
+         * @param arguments the arguments, as many as the type takes
+         */
+        public Operation(OperationType type, String... arguments) {
+            if (arguments.length != type.argumentCount) {
+                throw new IllegalArgumentException("A " + type.getName() + " operation takes "
+                        + type.argumentCount + " argument(s), got " + arguments.length);
+            }
+            for (String argument : arguments) {
+                if (StringUtils.isBlank(argument) || argument.contains("\t")
+                        || argument.contains("\n")) {
+                    throw new IllegalArgumentException("Arguments must be non-empty and on one"
+                            + " line without tabs: '" + argument + "'");
+                }
+            }
+            this.type = type;
+            this.arguments = Collections.unmodifiableList(Arrays.asList(arguments));
+        }
+
+        /**
+         * @return the type of operation
+         */
+        public OperationType getType() {
+            return type;
+        }
+
+        /**
+         * @return the arguments of the operation
+         */
+        public List<String> getArguments() {
+            return arguments;
+        }
+
+        /**
+         * @return the first argument: the template name, query, class name or search terms
+         */
+        public String getArgument() {
+            return arguments.get(0);
+        }
+
+        @Override
+        public String toString() {
+            return type.getName() + "\t" + StringUtils.join(arguments, "\t");
+        }
+    }
+
+    private final List<Operation> operations;
+
+    /**
+     * Constructor.
+     *
+     * @param operations the operations, in the order they are to be run
+     */
+    public BenchmarkWorkload(List<Operation> operations) {
+        this.operations = Collections.unmodifiableList(new ArrayList<Operation>(operations));
+    }
+
+    /**
+     * @return the operations, in the order they are to be run
+     */
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Reads a workload file.
+     *
+     * @param in the workload, in the format described above
+     * @return the workload
+     * @throws IOException if the workload can't be read
+     * @throws IllegalArgumentException if a line is not a valid operation
+     */
+    public static BenchmarkWorkload read(Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        List<Operation> operations = new ArrayList<Operation>();
+        int lineNo = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNo++;
+            if (StringUtils.isBlank(line) || line.trim().startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\t");
+            OperationType type;
+            try {
+                type = OperationType.valueOf(parts[0].trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNo + ": unknown operation '"
+                        + parts[0] + "'");
+            }
+            String[] arguments = new String[parts.length - 1];
+            for (int i = 1; i < parts.length; i++) {
+                arguments[i - 1] = parts[i].trim();
+            }
+            try {
+                operations.add(new Operation(type, arguments));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNo + ": " + e.getMessage());
+            }
+        }
+        return new BenchmarkWorkload(operations);
+    }
+
+    /**
+     * Writes this workload in the format read by read(), so that it can be replayed later.
+     *
+     * @param out where to write the workload
+     */
+    public void write(Writer out) {
+        PrintWriter writer = new PrintWriter(out);
+        for (Operation operation : operations) {
+            writer.println(operation);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Creates a workload that runs each of the given templates once.
+     *
+     * @param templateNames the names of the templates
+     * @return the workload
+     */
+    public static BenchmarkWorkload fromTemplates(Collection<String> templateNames) {
+        List<Operation> operations = new ArrayList<Operation>();
+        for (String name : templateNames) {
+            operations.add(new Operation(OperationType.TEMPLATE, name));
+        }
+        return new BenchmarkWorkload(operations);
+    }
+}
@@ -0,0 +1,187 @@
+package org.intermine.web.commandline;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in microseconds, which many threads can record into at once, and which
+ * reports percentiles to within about 1.5% of the true value.
+ *
+ * Values are counted in log-linear buckets, in the manner of HdrHistogram: every value below 128
+ * has its own bucket, and above that each power of two is split into 64 buckets. The whole range
+ * of a long fits in under 4000 buckets, so the memory used doesn't depend on how many values are
+ * recorded.
+ *
+ * @author intermine
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT
+        + (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong(0);
+    private final AtomicLong minMicros = new AtomicLong(Long.MAX_VALUE);
+
+    /**
+     * Records a latency.
+     *
+     * @param micros the latency in microseconds. Negative values are recorded as zero
+     */
+    public void record(long micros) {
+        long value = Math.max(micros, 0);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalMicros.addAndGet(value);
+        updateMax(value);
+        updateMin(value);
+    }
+
+    /**
+     * Adds all the values recorded in another histogram to this one.
+     *
+     * @param other the other histogram
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.addAndGet(other.getCount());
+        totalMicros.addAndGet(other.totalMicros.get());
+        if (other.getCount() > 0) {
+            updateMax(other.getMax());
+            updateMin(other.getMin());
+        }
+    }
+
+    private void updateMax(long value) {
+        long max = maxMicros.get();
+        while (value > max && !maxMicros.compareAndSet(max, value)) {
+            max = maxMicros.get();
+        }
+    }
+
+    private void updateMin(long value) {
+        long min = minMicros.get();
+        while (value < min && !minMicros.compareAndSet(min, value)) {
+            min = minMicros.get();
+        }
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return the mean of the values recorded, or 0 if there are none
+     */
+    public double getMean() {
+        long count = getCount();
+        return (count == 0) ? 0.0 : ((double) totalMicros.get()) / count;
+    }
+
+    /**
+     * @return the largest value recorded, or 0 if there are none
+     */
+    public long getMax() {
+        return maxMicros.get();
+    }
+
+    /**
+     * @return the smallest value recorded, or 0 if there are none
+     */
+    public long getMin() {
+        return (getCount() == 0) ? 0 : minMicros.get();
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall. The value
+     * returned is the top of the bucket holding that value, but never more than the maximum.
+     *
+     * @param percentile the percentage, from 0 to 100
+     * @return the value at that percentile, or 0 if no values have been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        double fraction = Math.min(Math.max(percentile, 0.0), 100.0) / 100.0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(Math.max(bucketTop(i), getMin()), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the usual summary of this histogram, in milliseconds, in a fixed order.
+     *
+     * @return a map from name (count, mean, min, p50, p90, p99, p99.9, max) to value
+     */
+    public Map<String, Number> getSummaryMillis() {
+        Map<String, Number> summary = new LinkedHashMap<String, Number>();
+        summary.put("count", Long.valueOf(getCount()));
+        summary.put("mean", Double.valueOf(getMean() / 1000.0));
+        summary.put("min", Double.valueOf(getMin() / 1000.0));
+        summary.put("p50", Double.valueOf(getValueAtPercentile(50.0) / 1000.0));
+        summary.put("p90", Double.valueOf(getValueAtPercentile(90.0) / 1000.0));
+        summary.put("p99", Double.valueOf(getValueAtPercentile(99.0) / 1000.0));
+        summary.put("p99.9", Double.valueOf(getValueAtPercentile(99.9) / 1000.0));
+        summary.put("max", Double.valueOf(getMax() / 1000.0));
+        return summary;
+    }
+
+    /**
+     * Returns the index of the bucket counting a value.
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // shift the value down until it is between SUB_BUCKET_HALF and SUB_BUCKET_COUNT - 1
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF
+            + (int) ((value >> shift) - SUB_BUCKET_HALF);
+    }
+
+    /**
+     * Returns the largest value counted by a bucket.
+     */
+    static long bucketTop(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        long top = ((subBucket + 1) << shift) - 1;
+        return (top < 0) ? Long.MAX_VALUE : top;
+    }
+}
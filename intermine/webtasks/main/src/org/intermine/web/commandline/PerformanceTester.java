@@ -10,46 +10,61 @@ package org.intermine.web.commandline;
  *
  */
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 
+import org.apache.commons.lang.StringUtils;
+import org.intermine.api.InterMineAPI;
 import org.intermine.api.bag.BagQueryConfig;
 import org.intermine.api.bag.BagQueryHelper;
-import org.intermine.api.bag.BagQueryRunner;
 import org.intermine.api.config.ClassKeyHelper;
-import org.intermine.api.profile.InterMineBag;
-import org.intermine.api.profile.Profile;
-import org.intermine.api.profile.ProfileManager;
-import org.intermine.api.profile.TagManagerFactory;
-import org.intermine.api.query.MainHelper;
-import org.intermine.api.search.SearchFilterEngine;
-import org.intermine.api.tag.TagNames;
-import org.intermine.api.tag.TagTypes;
-import org.intermine.metadata.FieldDescriptor;
+import org.intermine.api.lucene.KeywordSearch;
+import org.intermine.api.tracker.TrackerDelegate;
+import org.intermine.api.types.ClassKeys;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.ObjectStoreSummary;
 import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.ObjectStoreWriterFactory;
-import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
-import org.intermine.objectstore.intermine.SqlGenerator;
-import org.intermine.objectstore.query.Query;
-import org.intermine.objectstore.query.QuerySelectable;
-import org.intermine.api.template.ApiTemplate;
-import org.intermine.api.template.TemplateManager;
-import org.intermine.template.TemplateQuery;
 import org.intermine.util.PropertiesUtil;
-import org.intermine.util.SynchronisedIterator;
+import org.intermine.web.commandline.BenchmarkWorkload.Operation;
+import org.intermine.web.commandline.BenchmarkWorkload.OperationType;
+import org.intermine.webservice.server.output.StreamingJSONWriter;
 
 /**
- * Class to run a performance test on a production database by loading a set of template queries
- * from a userprofile database and running them in varying numbers of threads.
+ * Class to run a load benchmark on a mine, by replaying a workload of templates, queries, region
+ * searches, list uploads, keyword searches and exports in a number of threads, and to report the
+ * latency percentiles and throughput of each type of operation.
+ *
+ * Usage: PerformanceTester &lt;threads&gt; [workload file] [results file]
+ *
+ * The workload file is described in BenchmarkWorkload. If it is not given, the public templates
+ * are run; if it is given but doesn't exist, it is created from the public templates, so later
+ * runs replay the same workload. The results are written to the results file as JSON, so that
+ * runs against different releases can be compared, and a summary is printed.
+ *
+ * These properties are read:
+ * <dl>
+ * <dt>performance.objectstore</dt><dd>the objectstore to test, default os.production</dd>
+ * <dt>performance.userprofile</dt><dd>the userprofile writer, default
+ * osw.userprofile-production</dd>
+ * <dt>performance.passes</dt><dd>the number of recorded passes over the workload, default 1</dd>
+ * <dt>performance.warmupPasses</dt><dd>the number of passes before recording, default 0</dd>
+ * <dt>performance.excludedTemplates</dt><dd>public templates not to run, separated by
+ * commas</dd>
+ * <dt>performance.keywordIndexDirectory</dt><dd>where to unpack the keyword search index,
+ * default the temporary directory</dd>
+ * <dt>performance.label</dt><dd>a label for the results, such as the release</dd>
+ * </dl>
  *
  * @author Matthew Wakeling
  */
@@ -59,182 +74,112 @@ public final class PerformanceTester
         // Hidden constructor.
     }
 
-    private static String superuser;
-    private static ProfileManager pm = null;
-
-    /**.
-     * @param args number of threads you want to run
+    /**
+     * @param args number of threads you want to run, then optionally the workload file and the
+     * results file
      * @throws Exception if something goes horribly wrong
      */
     public static void main(String[] args) throws Exception {
-        superuser = PropertiesUtil.getProperties().getProperty("superuser.account");
-        ObjectStore productionOs = ObjectStoreFactory.getObjectStore("os.production");
-        ObjectStoreFactory.getObjectStore("os.userprofile-production");
-        ObjectStoreWriter userProfileOs = ObjectStoreWriterFactory
-            .getObjectStoreWriter("osw.userprofile-production");
-        Properties classKeyProps = new Properties();
-        classKeyProps.load(PerformanceTester.class.getClassLoader()
-                .getResourceAsStream("class_keys.properties"));
-        BagQueryConfig bagQueryConfig = BagQueryHelper.readBagQueryConfig(productionOs.getModel(),
-                PerformanceTester.class.getClassLoader()
-                .getResourceAsStream("webapp/WEB-INF/bag-queries.xml"));
-        Map<String, List<FieldDescriptor>> classKeys = ClassKeyHelper.readKeys(productionOs
-                .getModel(), classKeyProps);
-
-        pm = new ProfileManager(productionOs, userProfileOs);
-        Profile p = pm.getProfile(superuser);
-
-        Map<String, ApiTemplate> templates = p.getSavedTemplates();
-
-
-        templates = new SearchFilterEngine().filterByTags(templates,
-                Collections.singletonList(TagNames.IM_PUBLIC),
-                TagTypes.TEMPLATE, superuser, new TagManagerFactory(userProfileOs).getTagManager());
-        templates.remove("ESTclone_LocationDMorthologuePathway_new");
-        templates.remove("ESTclone_LocationOverlappingGeneOrthologue_new");
-        templates.remove("ESTclone_LocationOverlappingGeneStructure");
-        templates.remove("Organism_interologues");
-
-        int i = Integer.parseInt(args[0]);
-        System .out.println("Running with " + i + " threads:");
-        doRun(productionOs, classKeys, bagQueryConfig, templates, i);
-    }
-
-    private static void doRun(ObjectStore productionOs,
-            Map<String, List<FieldDescriptor>> classKeys, BagQueryConfig bagQueryConfig,
-            Map<String, ApiTemplate> templates, int threadCount) {
-        long startTime = System.currentTimeMillis();
-        Iterator<Map.Entry<String, ApiTemplate>> iter
-            = new SynchronisedIterator<Map.Entry<String, ApiTemplate>>(templates.entrySet()
-                    .iterator());
-        Set<Integer> threads = new HashSet<Integer>();
-
-        synchronized (threads) {
-            for (int i = 1; i < threadCount; i++) {
-                Thread worker = new Thread(new Worker(productionOs, classKeys, bagQueryConfig,
-                            threads, iter, i));
-                threads.add(new Integer(i));
-                worker.start();
-            }
+        if (args.length < 1 || args.length > 3) {
+            System .err.println("Usage: PerformanceTester <threads> [workload file]"
+                    + " [results file]");
+            System.exit(1);
         }
+        Properties props = PropertiesUtil.getProperties();
+        InterMineAPI im = createAPI(props);
 
-        try {
-            while (iter.hasNext()) {
-                Map.Entry<String, ApiTemplate> entry = iter.next();
-                doQuery(productionOs, classKeys, bagQueryConfig, entry.getKey(), entry.getValue(),
-                        0);
+        BenchmarkWorkload workload;
+        File workloadFile = (args.length > 1) ? new File(args[1]) : null;
+        if (workloadFile != null && workloadFile.exists()) {
+            Reader reader = new FileReader(workloadFile);
+            try {
+                workload = BenchmarkWorkload.read(reader);
+            } finally {
+                reader.close();
             }
-        } catch (NoSuchElementException e) {
-            // This is fine - just a consequence of concurrent access to the iterator. It means the
-            // end of the iterator has been reached, so there is no more work to do.
-        }
-        //System .out.println("Thread 0 finished");
-        synchronized (threads) {
-            while (threads.size() != 0) {
-                //System .out.println(threads.size() + " threads left");
+        } else {
+            Set<String> names = new TreeSet<String>(
+                    im.getTemplateManager().getGlobalTemplates().keySet());
+            String excluded = props.getProperty("performance.excludedTemplates", "");
+            names.removeAll(Arrays.asList(StringUtils.stripAll(StringUtils.split(excluded, ','))));
+            workload = BenchmarkWorkload.fromTemplates(names);
+            if (workloadFile != null) {
+                Writer writer = new FileWriter(workloadFile);
                 try {
-                    threads.wait();
-                } catch (InterruptedException e) {
-                    // Do nothing
+                    workload.write(writer);
+                } finally {
+                    writer.close();
                 }
             }
         }
-        System .out.println("Whole run took " + (System.currentTimeMillis() - startTime) + " ms");
-    }
-
-
-    private static void doQuery(ObjectStore productionOs,
-            Map<String, List<FieldDescriptor>> classKeys, BagQueryConfig bagQueryConfig,
-            String templateName, TemplateQuery templateQuery, int threadNo) {
-        try {
-            //Query q = TemplateHelper.getPrecomputeQuery(entry.getValue(), new ArrayList(), null);
-            long queryStartTime = System.currentTimeMillis();
-            TemplateManager templateManager = new TemplateManager(pm.getSuperuserProfile());
-
-            BagQueryRunner bqr = new BagQueryRunner(productionOs, classKeys, bagQueryConfig,
-                    templateManager);
-            Query q = MainHelper.makeQuery(templateQuery, new HashMap<String, InterMineBag>(),
-                    new HashMap<String, QuerySelectable>(), bqr, null);
-            String sqlString = SqlGenerator.generate(q, 0, Integer.MAX_VALUE,
-                    ((ObjectStoreInterMineImpl) productionOs).getSchema(),
-                    ((ObjectStoreInterMineImpl) productionOs).getDatabase(),
-                    (Map<Object, String>) null);
-            System .out.println("Thread " + threadNo + ": executing template " + templateName
-                    + " with query " + q + ", SQL: " + sqlString);
-            List<?> results = productionOs.execute(q, 0, 1000, false, false,
-                    ObjectStore.SEQUENCE_IGNORE);
-            long queryEndTime = System.currentTimeMillis();
-            System .out.println("Thread " + threadNo + ": template " + templateName + " took "
-                    + (queryEndTime - queryStartTime) + " ms");
-            if (results.isEmpty()) {
-                System .out.println("Thread " + threadNo + ": template " + templateName
-                        + " returned 0 rows");
-            } else if (results.size() < 1000) {
-                System .out.println("Thread " + threadNo + ": template " + templateName
-                        + " returned " + results.size()
-                        + " rows");
-            } else {
-                int count = productionOs.count(q, ObjectStore.SEQUENCE_IGNORE);
-                System .out.println("Thread " + threadNo + ": template " + templateName
-                        + " returned " + count + " rows (took "
-                        + (System.currentTimeMillis() - queryEndTime) + " ms for count)");
+        for (Operation operation : workload.getOperations()) {
+            if (operation.getType() == OperationType.SEARCH) {
+                KeywordSearch.initKeywordSearch(im, props.getProperty(
+                        "performance.keywordIndexDirectory", System.getProperty("java.io.tmpdir")));
+                break;
             }
-        } catch (Exception e) {
-            System .err.println("Thread " + threadNo + ": template " + templateName
-                    + " could not be run.");
-//            // need a number to compare between releases
-//            System .out.println("Thread " + threadNo + ": template " + templateName
-//                                + " returned 0 rows");
-            e.printStackTrace(System.err);
+        }
 
+        int threads = Integer.parseInt(args[0]);
+        BenchmarkRunner runner = new BenchmarkRunner(im, threads);
+        runner.setPasses(Integer.parseInt(props.getProperty("performance.passes", "1")));
+        runner.setWarmupPasses(Integer.parseInt(props.getProperty("performance.warmupPasses",
+                "0")));
+        System .out.println("Running " + workload.getOperations().size() + " operations with "
+                + threads + " threads:");
+        runner.run(workload);
+
+        printSummary(runner);
+        if (args.length > 2) {
+            Map<String, Object> results = new LinkedHashMap<String, Object>();
+            results.put("label", props.getProperty("performance.label", ""));
+            results.put("date", Long.valueOf(System.currentTimeMillis()));
+            results.putAll(runner.getResults());
+            Writer writer = new FileWriter(args[2]);
+            try {
+                writer.append(new StreamingJSONWriter().format(results)).append('\n');
+            } finally {
+                writer.close();
+            }
         }
+        System.exit(0);
     }
 
-    private static class Worker implements Runnable
-    {
-        private ObjectStore productionOs;
-        private Map<String, List<FieldDescriptor>> classKeys;
-        private BagQueryConfig bagQueryConfig;
-        private Set<Integer> threads;
-        private Iterator<Map.Entry<String, ApiTemplate>> iter;
-        private int threadNo;
-
-        /**
-         *
-         * @param productionOs
-         * @param classKeys
-         * @param bagQueryConfig
-         * @param threads
-         * @param iter
-         * @param threadNo
-         */
-        public Worker(ObjectStore productionOs, Map<String, List<FieldDescriptor>> classKeys,
-                BagQueryConfig bagQueryConfig, Set<Integer> threads,
-                Iterator<Map.Entry<String, ApiTemplate>> iter, int threadNo) {
-            this.productionOs = productionOs;
-            this.classKeys = classKeys;
-            this.bagQueryConfig = bagQueryConfig;
-            this.threads = threads;
-            this.iter = iter;
-            this.threadNo = threadNo;
-        }
+    private static InterMineAPI createAPI(Properties props) throws Exception {
+        ObjectStore os = ObjectStoreFactory.getObjectStore(
+                props.getProperty("performance.objectstore", "os.production"));
+        ObjectStoreWriter userProfileOs = ObjectStoreWriterFactory.getObjectStoreWriter(
+                props.getProperty("performance.userprofile", "osw.userprofile-production"));
+        Properties classKeyProps = new Properties();
+        classKeyProps.load(PerformanceTester.class.getClassLoader()
+                .getResourceAsStream("class_keys.properties"));
+        ClassKeys classKeys = ClassKeyHelper.readKeys(os.getModel(), classKeyProps);
+        BagQueryConfig bagQueryConfig = BagQueryHelper.readBagQueryConfig(os.getModel(),
+                PerformanceTester.class.getClassLoader()
+                .getResourceAsStream("webapp/WEB-INF/bag-queries.xml"));
+        return new InterMineAPI(os, userProfileOs, classKeys, bagQueryConfig,
+                new ObjectStoreSummary(new Properties()),
+                new TrackerDelegate(new String[0], userProfileOs), null);
+    }
 
-        public void run() {
-            try {
-                while (iter.hasNext()) {
-                    Map.Entry<String, ApiTemplate> entry = iter.next();
-                    doQuery(productionOs, classKeys, bagQueryConfig, entry.getKey(),
-                            entry.getValue(), threadNo);
-                }
-            } catch (NoSuchElementException e) {
-                // Empty
-            } finally {
-                //System .out.println("Thread " + threadNo + " finished");
-                synchronized (threads) {
-                    threads.remove(new Integer(threadNo));
-                    threads.notify();
-                }
+    private static void printSummary(BenchmarkRunner runner) {
+        System .out.println(String.format("Whole run took %.0f ms", runner.getWallTimeMillis()));
+        double seconds = runner.getWallTimeMillis() / 1000.0;
+        for (OperationType type : OperationType.values()) {
+            LatencyHistogram latencies = runner.getLatencies(type);
+            long errors = runner.getErrors(type);
+            if (latencies.getCount() + errors == 0) {
+                continue;
             }
+            System .out.println(String.format("%-8s %6d ok %4d failed %8.1f/s   ms: mean %.1f"
+                    + " p50 %.1f p90 %.1f p99 %.1f max %.1f", type.getName(),
+                    latencies.getCount(), errors,
+                    (seconds > 0) ? latencies.getCount() / seconds : 0.0,
+                    latencies.getMean() / 1000.0,
+                    latencies.getValueAtPercentile(50.0) / 1000.0,
+                    latencies.getValueAtPercentile(90.0) / 1000.0,
+                    latencies.getValueAtPercentile(99.0) / 1000.0,
+                    latencies.getMax() / 1000.0));
         }
     }
 }
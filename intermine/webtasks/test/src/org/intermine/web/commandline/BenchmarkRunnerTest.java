@@ -0,0 +1,148 @@
+package org.intermine.web.commandline;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import junit.framework.TestCase;
+
+import org.intermine.web.commandline.BenchmarkWorkload.Operation;
+import org.intermine.web.commandline.BenchmarkWorkload.OperationType;
+
+/**
+ * Tests for BenchmarkWorkload and BenchmarkRunner, with operations that don't need a mine.
+ *
+ * @author intermine
+ */
+public class BenchmarkRunnerTest extends TestCase
+{
+    private static final String WORKLOAD = "# a comment\n"
+        + "template\temployeeByName\n"
+        + "\n"
+        + "query\t<query model=\"testmodel\" view=\"Employee.name\"></query>\n"
+        + "list\tEmployee\tEmployeeA1, EmployeeA2\n"
+        + "search\tfail\n"
+        + "export\t<query model=\"testmodel\" view=\"Company.name\"></query>\n";
+
+    public BenchmarkRunnerTest(String arg) {
+        super(arg);
+    }
+
+    /**
+     * A runner that records the operations it is asked to run, and fails searches for "fail".
+     */
+    private static class RecordingRunner extends BenchmarkRunner
+    {
+        private final List<Operation> performed = new CopyOnWriteArrayList<Operation>();
+
+        RecordingRunner(int threads) {
+            super(null, threads);
+        }
+
+        @Override
+        protected void perform(Operation operation) throws Exception {
+            performed.add(operation);
+            if ("fail".equals(operation.getArgument())) {
+                throw new IllegalStateException("failed");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    public void testRead() throws IOException {
+        List<Operation> operations = BenchmarkWorkload.read(new StringReader(WORKLOAD))
+            .getOperations();
+        assertEquals(5, operations.size());
+        assertEquals(OperationType.TEMPLATE, operations.get(0).getType());
+        assertEquals("employeeByName", operations.get(0).getArgument());
+        assertEquals(OperationType.LIST, operations.get(2).getType());
+        assertEquals(Arrays.asList("Employee", "EmployeeA1, EmployeeA2"),
+                operations.get(2).getArguments());
+        assertEquals(OperationType.EXPORT, operations.get(4).getType());
+    }
+
+    public void testWriteAndReadBack() throws IOException {
+        BenchmarkWorkload workload = BenchmarkWorkload.read(new StringReader(WORKLOAD));
+        StringWriter out = new StringWriter();
+        workload.write(out);
+        assertEquals(workload.getOperations().toString(),
+                BenchmarkWorkload.read(new StringReader(out.toString())).getOperations()
+                .toString());
+    }
+
+    public void testBadLines() throws IOException {
+        for (String line : new String[] {"frobnicate\tx", "template", "list\tEmployee",
+                "search\ta\tb", "query\t "}) {
+            try {
+                BenchmarkWorkload.read(new StringReader("\n" + line + "\n"));
+                fail("Expected IllegalArgumentException for " + line);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Line 2: "));
+            }
+        }
+    }
+
+    public void testFromTemplates() {
+        List<Operation> operations = BenchmarkWorkload.fromTemplates(
+                Arrays.asList("a", "b")).getOperations();
+        assertEquals("[template\ta, template\tb]", operations.toString());
+    }
+
+    public void testRun() throws Exception {
+        BenchmarkWorkload workload = BenchmarkWorkload.read(new StringReader(WORKLOAD));
+        RecordingRunner runner = new RecordingRunner(3);
+        runner.setPasses(4);
+        runner.setWarmupPasses(2);
+        runner.run(workload);
+        // every operation is run in every pass, warm-up included
+        assertEquals(30, runner.performed.size());
+        for (Operation operation : workload.getOperations()) {
+            assertEquals(6, Collections.frequency(runner.performed, operation));
+        }
+        // only the recorded passes count
+        assertEquals(4, runner.getLatencies(OperationType.TEMPLATE).getCount());
+        assertEquals(4, runner.getLatencies(OperationType.LIST).getCount());
+        assertEquals(0, runner.getLatencies(OperationType.SEARCH).getCount());
+        assertEquals(4, runner.getErrors(OperationType.SEARCH));
+        assertEquals(0, runner.getErrors(OperationType.TEMPLATE));
+        assertTrue(runner.getLatencies(OperationType.EXPORT).getMin() >= 1000);
+        assertTrue(runner.getWallTimeMillis() > 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testResults() throws Exception {
+        RecordingRunner runner = new RecordingRunner(2);
+        runner.setPasses(3);
+        runner.run(BenchmarkWorkload.read(new StringReader(WORKLOAD)));
+        Map<String, Object> results = runner.getResults();
+        assertEquals(Arrays.asList("threads", "passes", "warmupPasses", "wallTimeMs", "all",
+                "operations"), Arrays.asList(results.keySet().toArray()));
+        Map<String, Object> operations = (Map<String, Object>) results.get("operations");
+        // types not in the workload are left out
+        assertEquals(Arrays.asList("template", "query", "list", "search", "export"),
+                Arrays.asList(operations.keySet().toArray()));
+        Map<String, Object> all = (Map<String, Object>) results.get("all");
+        assertEquals(Long.valueOf(12), all.get("count"));
+        assertEquals(Long.valueOf(3), all.get("errors"));
+        assertTrue(((Double) all.get("throughput")).doubleValue() > 0);
+        Map<String, Object> search = (Map<String, Object>) operations.get("search");
+        assertEquals(Long.valueOf(0), search.get("count"));
+        assertEquals(Long.valueOf(3), search.get("errors"));
+        assertTrue(search.get("latencyMs") instanceof Map<?, ?>);
+    }
+}
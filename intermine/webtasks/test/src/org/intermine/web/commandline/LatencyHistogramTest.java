@@ -0,0 +1,135 @@
+package org.intermine.web.commandline;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for LatencyHistogram.
+ *
+ * @author intermine
+ */
+public class LatencyHistogramTest extends TestCase
+{
+    public LatencyHistogramTest(String arg) {
+        super(arg);
+    }
+
+    public void testBuckets() {
+        int last = -1;
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index == last || index == last + 1);
+            assertTrue(value <= LatencyHistogram.bucketTop(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.bucketTop(index - 1));
+            }
+            last = index;
+        }
+        int top = LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketTop(top));
+        assertTrue(LatencyHistogram.bucketTop(top - 1) < Long.MAX_VALUE);
+    }
+
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0.0, histogram.getMean());
+        assertEquals(0, histogram.getValueAtPercentile(99.0));
+    }
+
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean());
+        assertEquals(50, histogram.getValueAtPercentile(50.0));
+        assertEquals(90, histogram.getValueAtPercentile(90.0));
+        assertEquals(100, histogram.getValueAtPercentile(100.0));
+        assertEquals(1, histogram.getValueAtPercentile(0.0));
+    }
+
+    public void testPercentilesAreAccurate() {
+        Random random = new Random(7);
+        long[] values = new long[100000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // roughly log-normal, like most latencies
+            values[i] = (long) Math.exp(8 + 1.5 * random.nextGaussian());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[] {10.0, 50.0, 90.0, 99.0, 99.9}) {
+            long expected = values[(int) Math.ceil(percentile / 100.0 * values.length) - 1];
+            long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(percentile + ": " + actual + " < " + expected, actual >= expected);
+            assertTrue(percentile + ": " + actual + " >> " + expected,
+                    actual <= expected * 1.016 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100.0));
+    }
+
+    public void testAdd() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        LatencyHistogram both = new LatencyHistogram();
+        for (int i = 0; i < 1000; i++) {
+            a.record(i * 10);
+            b.record(i * 1000 + 5);
+            both.record(i * 10);
+            both.record(i * 1000 + 5);
+        }
+        LatencyHistogram sum = new LatencyHistogram();
+        sum.add(a);
+        sum.add(new LatencyHistogram());
+        sum.add(b);
+        assertEquals(both.getSummaryMillis(), sum.getSummaryMillis());
+        assertEquals(0, sum.getMin());
+        assertEquals(999005, sum.getMax());
+    }
+
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50000; i++) {
+                        histogram.record(i % 1000 + offset);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(200000, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(1002, histogram.getMax());
+        Map<String, Number> summary = histogram.getSummaryMillis();
+        assertEquals(Long.valueOf(200000), summary.get("count"));
+        assertEquals(Arrays.asList("count", "mean", "min", "p50", "p90", "p99", "p99.9", "max"),
+                Arrays.asList(summary.keySet().toArray()));
+    }
+}